@@ -0,0 +1,106 @@
+package com.amigoscode.testing;
+
+import com.amigoscode.testing.customer.Customer;
+import com.amigoscode.testing.customer.CustomerJsonComponent;
+import com.amigoscode.testing.customer.RegistrationRequest;
+import com.amigoscode.testing.payment.Currency;
+import com.amigoscode.testing.payment.Payment;
+import com.amigoscode.testing.payment.PaymentJsonComponent;
+import com.amigoscode.testing.payment.PaymentRequest;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Jackson (de)serialization of the request bodies, with an {@link ObjectMapper}
+ * built the way Spring builds the one behind the controllers, in JSON and CBOR and with
+ * the bean serializers or the hand-written {@code @JsonComponent} ones. The body sizes
+ * are printed at setup; add {@code -prof gc} for the bytes allocated per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonBenchmark {
+
+    @Param({"json", "cbor"})
+    private String format;
+
+    @Param({"bean", "hand-written"})
+    private String serializers;
+
+    private PaymentRequest paymentRequest;
+    private RegistrationRequest registrationRequest;
+    private byte[] paymentRequestBody;
+    private byte[] registrationRequestBody;
+
+    private ObjectWriter paymentRequestWriter;
+    private ObjectReader paymentRequestReader;
+    private ObjectWriter registrationRequestWriter;
+    private ObjectReader registrationRequestReader;
+
+    @Setup
+    public void setUp() throws IOException {
+        Jackson2ObjectMapperBuilder builder = "cbor".equals(format)
+                ? Jackson2ObjectMapperBuilder.cbor()
+                : Jackson2ObjectMapperBuilder.json();
+        if ("hand-written".equals(serializers)) {
+            builder.serializers(new PaymentJsonComponent.Serializer(), new CustomerJsonComponent.Serializer())
+                    .deserializerByType(Payment.class, new PaymentJsonComponent.Deserializer())
+                    .deserializerByType(Customer.class, new CustomerJsonComponent.Deserializer());
+        }
+        ObjectMapper objectMapper = builder.build();
+        paymentRequestWriter = objectMapper.writerFor(PaymentRequest.class);
+        paymentRequestReader = objectMapper.readerFor(PaymentRequest.class);
+        registrationRequestWriter = objectMapper.writerFor(RegistrationRequest.class);
+        registrationRequestReader = objectMapper.readerFor(RegistrationRequest.class);
+
+        UUID customerId = UUID.randomUUID();
+        paymentRequest = new PaymentRequest(
+                new Payment(1L, customerId, new BigDecimal("100.00"), Currency.GBP, "x0x0x0x0x0", "Food"));
+        registrationRequest = new RegistrationRequest(new Customer(customerId, "Jaime", "+447000000000"));
+        paymentRequestBody = paymentRequestWriter.writeValueAsBytes(paymentRequest);
+        registrationRequestBody = registrationRequestWriter.writeValueAsBytes(registrationRequest);
+        System.out.printf("%n%s bytes: payment request %d, registration request %d%n",
+                format, paymentRequestBody.length, registrationRequestBody.length);
+    }
+
+    @Benchmark
+    public byte[] serializePaymentRequest() throws IOException {
+        return paymentRequestWriter.writeValueAsBytes(paymentRequest);
+    }
+
+    @Benchmark
+    public PaymentRequest deserializePaymentRequest() throws IOException {
+        return paymentRequestReader.readValue(paymentRequestBody);
+    }
+
+    @Benchmark
+    public byte[] serializeRegistrationRequest() throws IOException {
+        return registrationRequestWriter.writeValueAsBytes(registrationRequest);
+    }
+
+    @Benchmark
+    public RegistrationRequest deserializeRegistrationRequest() throws IOException {
+        return registrationRequestReader.readValue(registrationRequestBody);
+    }
+}
@@ -0,0 +1,92 @@
+package com.amigoscode.testing.customer;
+
+import com.amigoscode.testing.utils.TimeOrderedUuidGenerator;
+import com.amigoscode.testing.utils.UuidBytes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Customer insert throughput into a table that already holds {@code preloadedRows}
+ * customers, with random version 4 ids against time-ordered version 7 ids from
+ * {@link TimeOrderedUuidGenerator}. The table is on disk with a small page cache, so
+ * inserts that land on random pages of the primary key index have to read them back in.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class CustomerInsertBenchmark {
+
+    private static final int BATCH_SIZE = 100;
+    private static final String INSERT_CUSTOMER = "insert into customer " +
+            "(id, name, phone_number, phone_number_key) values (?, ?, ?, ?)";
+
+    @Param({"random", "time-ordered"})
+    private String ids;
+
+    @Param({"2000000"})
+    private int preloadedRows;
+
+    private SingleConnectionDataSource dataSource;
+    private JdbcTemplate jdbcTemplate;
+    private Supplier<UUID> idGenerator;
+    private long nextPhoneNumberKey;
+
+    @Setup
+    public void setUp() {
+        // CACHE_SIZE is in KB, far less than the index, as it would be with tens of millions of customers
+        dataSource = new SingleConnectionDataSource(
+                "jdbc:h2:./target/customer-insert-benchmark-" + ids + ";CACHE_SIZE=8192", "sa", "", true);
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("drop all objects");
+        jdbcTemplate.execute("create table customer (" +
+                "id binary(16) not null primary key, " +
+                "name varchar(255) not null, " +
+                "phone_number varchar(255) not null, " +
+                "phone_number_key bigint not null unique)");
+        idGenerator = "random".equals(ids) ? UUID::randomUUID : new TimeOrderedUuidGenerator();
+        nextPhoneNumberKey = 447000000000L;
+        for (int row = 0; row < preloadedRows; row += BATCH_SIZE) {
+            insertBatch();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        jdbcTemplate.execute("drop all objects delete files");
+        dataSource.destroy();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void insertBatch() {
+        List<Object[]> rows = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            long phoneNumberKey = nextPhoneNumberKey++;
+            rows.add(new Object[]{
+                    UuidBytes.toBytes(idGenerator.get()), "Tara", "+" + phoneNumberKey, phoneNumberKey});
+        }
+        jdbcTemplate.batchUpdate(INSERT_CUSTOMER, rows);
+    }
+}
@@ -0,0 +1,92 @@
+package com.amigoscode.testing.customer;
+
+import com.amigoscode.testing.metrics.StageMetrics;
+import com.amigoscode.testing.payment.shard.ShardedCustomerRepository;
+import com.amigoscode.testing.utils.PhoneNumberValidator;
+import com.amigoscode.testing.utils.TimeOrderedUuidGenerator;
+import com.zaxxer.hikari.HikariDataSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link RegistrationService#registerNewCustomer} against {@link CustomerJdbcRepository}
+ * on an in-memory H2 database, for a new customer and for a client retrying the same
+ * registration.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RegistrationServiceBenchmark {
+
+    private HikariDataSource dataSource;
+    private JdbcTemplate jdbcTemplate;
+    private RegistrationService registrationService;
+    private long nextPhoneNumber;
+
+    @Setup
+    public void setUp() {
+        dataSource = new HikariDataSource();
+        dataSource.setJdbcUrl("jdbc:h2:mem:registration_service_benchmark;DB_CLOSE_DELAY=-1");
+        dataSource.setMaximumPoolSize(2);
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("create table customer (" +
+                "id binary(16) not null primary key, " +
+                "name varchar(255) not null, " +
+                "phone_number varchar(255) not null, " +
+                "phone_number_key bigint not null unique)");
+
+        registrationService = new RegistrationService(
+                new CustomerJdbcRepository(new NamedParameterJdbcTemplate(jdbcTemplate), (ShardedCustomerRepository) null),
+                new PhoneNumberValidator(),
+                new CustomerIdRegistry(jdbcTemplate, 1024),
+                new PhoneNumberIndex(100_000),
+                new TimeOrderedUuidGenerator(),
+                1024,
+                new StageMetrics());
+        registrationService.registerNewCustomer(
+                new RegistrationRequest(new Customer(null, "Tara", "+446000000000")));
+        nextPhoneNumber = 7_000_000_000L;
+    }
+
+    @TearDown(Level.Iteration)
+    public void clearCustomers() {
+        jdbcTemplate.update("delete from customer where phone_number <> ?", "+446000000000");
+    }
+
+    @TearDown
+    public void tearDown() {
+        jdbcTemplate.execute("drop all objects");
+        dataSource.close();
+    }
+
+    @Benchmark
+    public Customer registerNewCustomer() {
+        Customer customer = new Customer(null, "Tara", "+44" + nextPhoneNumber++);
+        registrationService.registerNewCustomer(new RegistrationRequest(customer));
+        return customer;
+    }
+
+    @Benchmark
+    public Customer registerSameCustomerAgain() {
+        Customer customer = new Customer(null, "Tara", "+446000000000");
+        registrationService.registerNewCustomer(new RegistrationRequest(customer));
+        return customer;
+    }
+}
@@ -0,0 +1,55 @@
+package com.amigoscode.testing.payment;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PaymentEqualsBenchmark {
+
+    private Payment payment;
+    private Payment samePayment;
+    private Payment otherPayment;
+
+    @Setup
+    public void setUp() {
+        UUID customerId = UUID.randomUUID();
+        payment = new Payment(1L, customerId, new BigDecimal("10.00"), Currency.GBP, "card123", "Food");
+        samePayment = new Payment(1L, customerId, new BigDecimal("10.00"), Currency.GBP, "card123", "Food");
+        otherPayment = new Payment(1L, customerId, new BigDecimal("10.00"), Currency.GBP, "card123", "Rent");
+        payment.setStatus(PaymentStatus.SUCCEEDED);
+        samePayment.setStatus(PaymentStatus.SUCCEEDED);
+        otherPayment.setStatus(PaymentStatus.SUCCEEDED);
+    }
+
+    @Benchmark
+    public boolean equalsSame() {
+        return payment.equals(samePayment);
+    }
+
+    @Benchmark
+    public boolean equalsOther() {
+        return payment.equals(otherPayment);
+    }
+
+    @Benchmark
+    public int hashCodeOf() {
+        return payment.hashCode();
+    }
+}
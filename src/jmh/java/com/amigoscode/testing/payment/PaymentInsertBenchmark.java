@@ -0,0 +1,115 @@
+package com.amigoscode.testing.payment;
+
+import com.amigoscode.testing.payment.shard.ShardedPaymentRepository;
+import com.amigoscode.testing.utils.UuidBytes;
+import com.zaxxer.hikari.HikariDataSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Payment insert throughput with a sequence round trip per row (the old bare
+ * {@code @GeneratedValue}) against ids handed out by {@link PaymentIdAllocator},
+ * one row at a time and as a JDBC batch.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PaymentInsertBenchmark {
+
+    private static final int BATCH_SIZE = 100;
+    private static final String INSERT_PAYMENT = "insert into payment " +
+            "(payment_id, customer_id, amount, currency, source, description, status) " +
+            "values (?, ?, ?, ?, ?, ?, ?)";
+
+    private HikariDataSource dataSource;
+    private JdbcTemplate jdbcTemplate;
+    private PaymentIdAllocator paymentIdAllocator;
+    private PaymentJdbcRepository paymentJdbcRepository;
+    private byte[] customerId;
+
+    @Setup
+    public void setUp() {
+        // PaymentIdAllocator prefetches the next block on a thread of its own, so it needs a connection of its own
+        dataSource = new HikariDataSource();
+        dataSource.setJdbcUrl("jdbc:h2:mem:payment_insert_benchmark;DB_CLOSE_DELAY=-1");
+        dataSource.setMaximumPoolSize(2);
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("create table payment (" +
+                "payment_id bigint not null primary key, " +
+                "amount decimal(19,2), " +
+                "currency integer, " +
+                "customer_id binary(255), " +
+                "description varchar(255), " +
+                "source varchar(255), " +
+                "status integer, " +
+                "created_at timestamp)");
+        jdbcTemplate.execute("create sequence hibernate_sequence start with 1 increment by 1");
+        jdbcTemplate.execute("create sequence " + PaymentIdAllocator.SEQUENCE_NAME +
+                " start with 1 increment by " + PaymentIdAllocator.BLOCK_SIZE);
+
+        paymentIdAllocator = new PaymentIdAllocator(jdbcTemplate);
+        paymentJdbcRepository = new PaymentJdbcRepository(jdbcTemplate, paymentIdAllocator, (ShardedPaymentRepository) null, BATCH_SIZE, 1000);
+        customerId = UuidBytes.toBytes(UUID.randomUUID());
+    }
+
+    @TearDown
+    public void tearDown() {
+        paymentIdAllocator.shutdown();
+        jdbcTemplate.execute("drop all objects");
+        dataSource.close();
+    }
+
+    @Benchmark
+    public void sequenceRoundTripPerInsert() {
+        Long id = jdbcTemplate.queryForObject("select next value for hibernate_sequence", Long.class);
+        insert(id);
+    }
+
+    @Benchmark
+    public void pooledAllocatorPerInsert() {
+        insert(paymentIdAllocator.next());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void pooledAllocatorBatchInsert() {
+        List<Payment> payments = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            Payment payment = new Payment(null, UUID.randomUUID(), new BigDecimal("10.00"), Currency.GBP, "card123", "Food");
+            payment.setStatus(PaymentStatus.SUCCEEDED);
+            payments.add(payment);
+        }
+        paymentJdbcRepository.insertAll(payments);
+    }
+
+    private void insert(long id) {
+        jdbcTemplate.update(INSERT_PAYMENT,
+                id,
+                customerId,
+                new BigDecimal("10.00"),
+                Currency.GBP.ordinal(),
+                "card123",
+                "Food",
+                PaymentStatus.SUCCEEDED.ordinal());
+    }
+}
@@ -0,0 +1,159 @@
+package com.amigoscode.testing.payment;
+
+import com.amigoscode.testing.customer.Customer;
+import com.amigoscode.testing.customer.CustomerIdRegistry;
+import com.amigoscode.testing.customer.CustomerJdbcRepository;
+import com.amigoscode.testing.datasource.ReplicaRouter;
+import com.amigoscode.testing.metrics.StageMetrics;
+import com.amigoscode.testing.notification.SmsOutboxRepository;
+import com.amigoscode.testing.payment.shard.ShardedCustomerRepository;
+import com.amigoscode.testing.payment.shard.ShardedPaymentRepository;
+import com.amigoscode.testing.payment.stripe.GatewaySimulator;
+import com.amigoscode.testing.payment.stripe.MockAsyncStripeService;
+import com.amigoscode.testing.payment.stripe.MockStripeService;
+import com.zaxxer.hikari.HikariDataSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link PaymentService#chargeCard} against {@link MockStripeService} and the JDBC
+ * repositories on an in-memory H2 database: the cost of the service and its writes,
+ * without a network round trip to the database.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PaymentServiceBenchmark {
+
+    private static final BigDecimal AMOUNT = new BigDecimal("100.00");
+
+    private HikariDataSource dataSource;
+    private JdbcTemplate jdbcTemplate;
+    private PaymentIdAllocator paymentIdAllocator;
+    private PaymentProcessor paymentProcessor;
+    private PaymentService paymentService;
+    private UUID customerId;
+
+    @Setup
+    public void setUp() {
+        // a few connections, as PaymentIdAllocator and PaymentProcessor work on threads of their own
+        dataSource = new HikariDataSource();
+        dataSource.setJdbcUrl("jdbc:h2:mem:payment_service_benchmark;DB_CLOSE_DELAY=-1");
+        dataSource.setMaximumPoolSize(4);
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        createTables();
+
+        customerId = UUID.randomUUID();
+        CustomerJdbcRepository customerJdbcRepository = new CustomerJdbcRepository(
+                new NamedParameterJdbcTemplate(jdbcTemplate),
+                new DefaultListableBeanFactory().getBeanProvider(ShardedCustomerRepository.class));
+        customerJdbcRepository.insertAll(List.of(new Customer(customerId, "Tara", "+447000000000")));
+
+        StageMetrics stageMetrics = new StageMetrics();
+        paymentIdAllocator = new PaymentIdAllocator(jdbcTemplate);
+        PaymentJdbcRepository paymentJdbcRepository = new PaymentJdbcRepository(
+                jdbcTemplate, paymentIdAllocator, (ShardedPaymentRepository) null, 500, 1000);
+        GatewaySimulator gatewaySimulator = new GatewaySimulator("none", 0, 0, 1.5, 30000, 0, 0, 0);
+        CardPaymentCharger cardPaymentCharger = new MockStripeService(gatewaySimulator);
+        PaymentWriter paymentWriter = new PaymentWriter(
+                paymentJdbcRepository,
+                new CustomerSpendRepository(jdbcTemplate, (ShardedPaymentRepository) null, 8),
+                new SmsOutboxRepository(jdbcTemplate),
+                new TransactionTemplate(new DataSourceTransactionManager(dataSource)),
+                false, 0, 1, 1, 0,
+                stageMetrics);
+        paymentProcessor = new PaymentProcessor(paymentWriter, new MockAsyncStripeService(gatewaySimulator), 1, 1, stageMetrics);
+        paymentService = new PaymentService(
+                customerJdbcRepository,
+                new CustomerIdRegistry(jdbcTemplate, 1024),
+                paymentJdbcRepository,
+                cardPaymentCharger,
+                paymentProcessor,
+                paymentWriter,
+                new ReplicaRouter(false, 0, 0, stageMetrics),
+                stageMetrics);
+    }
+
+    @TearDown(Level.Iteration)
+    public void clearPayments() {
+        jdbcTemplate.execute("truncate table sms_outbox");
+        jdbcTemplate.execute("truncate table customer_spend");
+        jdbcTemplate.execute("truncate table payment");
+    }
+
+    @TearDown
+    public void tearDown() {
+        paymentProcessor.shutdown();
+        paymentIdAllocator.shutdown();
+        jdbcTemplate.execute("drop all objects");
+        dataSource.close();
+    }
+
+    @Benchmark
+    public Payment chargeCard() {
+        Payment payment = new Payment(null, null, AMOUNT, Currency.GBP, "card123xx", "Donation");
+        paymentService.chargeCard(customerId, new PaymentRequest(payment));
+        return payment;
+    }
+
+    private void createTables() {
+        jdbcTemplate.execute("create table customer (" +
+                "id binary(16) not null primary key, " +
+                "name varchar(255) not null, " +
+                "phone_number varchar(255) not null, " +
+                "phone_number_key bigint not null unique)");
+        jdbcTemplate.execute("create table payment (" +
+                "payment_id bigint not null primary key, " +
+                "amount decimal(19,2), " +
+                "currency integer, " +
+                "customer_id binary(255), " +
+                "description varchar(255), " +
+                "source varchar(255), " +
+                "status integer, " +
+                "created_at timestamp)");
+        jdbcTemplate.execute("create index payment_customer_id_payment_id_idx on payment (customer_id, payment_id desc)");
+        jdbcTemplate.execute("create sequence " + PaymentIdAllocator.SEQUENCE_NAME +
+                " start with 1 increment by " + PaymentIdAllocator.BLOCK_SIZE);
+        jdbcTemplate.execute("create table customer_spend (" +
+                "customer_id binary(255) not null, " +
+                "currency integer not null, " +
+                "slot integer not null, " +
+                "total decimal(19,2) not null, " +
+                "payment_count bigint not null, " +
+                "primary key (customer_id, currency, slot))");
+        jdbcTemplate.execute("create table sms_outbox (" +
+                "id bigint generated by default as identity primary key, " +
+                "payment_id bigint not null, " +
+                "customer_id binary(255) not null, " +
+                "message varchar(255) not null, " +
+                "status integer not null, " +
+                "attempts integer not null, " +
+                "next_attempt_at timestamp not null, " +
+                "created_at timestamp not null, " +
+                "sent_at timestamp, " +
+                "last_error varchar(255))");
+    }
+}
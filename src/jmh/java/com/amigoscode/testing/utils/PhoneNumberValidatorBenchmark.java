@@ -0,0 +1,33 @@
+package com.amigoscode.testing.utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PhoneNumberValidatorBenchmark {
+
+    @Param({"+447000000000", "+437000000000", "4470000000000"})
+    private String phoneNumber;
+
+    private final PhoneNumberValidator phoneNumberValidator = new PhoneNumberValidator();
+
+    @Benchmark
+    public boolean test() {
+        return phoneNumberValidator.test(phoneNumber);
+    }
+}
@@ -1,5 +1,7 @@
 package com.amigoscode.testing.customer;
 
+import com.amigoscode.testing.utils.PhoneNumberValidator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 
 import javax.persistence.Column;
@@ -19,14 +21,21 @@ public class Customer {
     @Column(nullable = false)
     private String name;
 
+    // as the customer wrote it, only for display
     @NotBlank
-    @Column(nullable = false, unique = true)
+    @Column(nullable = false)
     private String phoneNumber;
 
+    // PhoneNumberValidator.normalize of phoneNumber, null when it is not a valid number,
+    // which the not null constraint then refuses to store
+    @JsonIgnore
+    @Column(name = "phone_number_key", nullable = false, unique = true)
+    private Long phoneNumberKey;
+
     public Customer(UUID id, String name, String phoneNumber) {
         this.id = id;
         this.name = name;
-        this.phoneNumber = phoneNumber;
+        setPhoneNumber(phoneNumber);
     }
 
     public Customer() {
@@ -54,6 +63,12 @@ public class Customer {
 
     public void setPhoneNumber(String phoneNumber) {
         this.phoneNumber = phoneNumber;
+        long key = PhoneNumberValidator.normalize(phoneNumber);
+        this.phoneNumberKey = key == PhoneNumberValidator.INVALID ? null : key;
+    }
+
+    public Long getPhoneNumberKey() {
+        return phoneNumberKey;
     }
 
     @Override
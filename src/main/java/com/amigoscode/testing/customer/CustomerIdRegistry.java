@@ -0,0 +1,61 @@
+package com.amigoscode.testing.customer;
+
+import com.amigoscode.testing.utils.OffHeapUuidSet;
+import com.amigoscode.testing.utils.UuidBytes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.UUID;
+
+/**
+ * In-process record of known customer ids, used to answer "does this customer
+ * exist" without a database round trip. A miss is not authoritative: callers fall
+ * back to {@link CustomerRepository} and register what they find. Once the set is full
+ * new ids are no longer kept, so those customers are always looked up in the database.
+ */
+@Component
+public class CustomerIdRegistry {
+
+    private static final Logger log = LoggerFactory.getLogger(CustomerIdRegistry.class);
+
+    private final JdbcTemplate jdbcTemplate;
+    private final OffHeapUuidSet customerIds;
+    private volatile boolean warnedFull;
+
+    @Autowired
+    public CustomerIdRegistry(JdbcTemplate jdbcTemplate,
+                              @Value("${customer.id-registry.expected-size:1000000}") int expectedSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.customerIds = new OffHeapUuidSet(expectedSize);
+    }
+
+    public boolean contains(UUID customerId) {
+        return customerIds.contains(customerId);
+    }
+
+    public void register(UUID customerId) {
+        if (!customerIds.add(customerId) && customerIds.isFull() && !warnedFull) {
+            warnedFull = true;
+            log.warn("Customer id registry is full at {} ids, new customers will be looked up in the database",
+                    customerIds.size());
+        }
+    }
+
+    /**
+     * Loads every stored customer id. The set is not cleared first: customers are never
+     * deleted, so what is already there stays true, and ids registered while the load runs
+     * are kept instead of being wiped with the rest.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuild() {
+        jdbcTemplate.query("select id from customer",
+                rs -> { register(UuidBytes.fromBytes(rs.getBytes(1))); });
+        log.info("Loaded {} customer ids into the registry", customerIds.size());
+    }
+}
@@ -0,0 +1,54 @@
+package com.amigoscode.testing.customer;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.UUID;
+
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class CustomerImportResult {
+
+    public enum Status {
+        CREATED,
+        EXISTS,
+        TAKEN,
+        INVALID
+    }
+
+    private final long line;
+    private final Status status;
+    private final UUID customerId;
+    private final String message;
+
+    public CustomerImportResult(long line, Status status, UUID customerId, String message) {
+        this.line = line;
+        this.status = status;
+        this.customerId = customerId;
+        this.message = message;
+    }
+
+    public long getLine() {
+        return line;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public UUID getCustomerId() {
+        return customerId;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    @Override
+    public String toString() {
+        return "CustomerImportResult{" +
+                "line=" + line +
+                ", status=" + status +
+                ", customerId=" + customerId +
+                ", message='" + message + '\'' +
+                '}';
+    }
+}
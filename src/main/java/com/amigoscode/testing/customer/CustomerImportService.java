@@ -0,0 +1,193 @@
+package com.amigoscode.testing.customer;
+
+import com.amigoscode.testing.customer.CustomerImportResult.Status;
+import com.amigoscode.testing.utils.PhoneNumberValidator;
+import com.amigoscode.testing.utils.TimeOrderedUuidGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Imports customers from newline delimited JSON, one {@link Customer} per line.
+ * Lines are handled in chunks of {@code customer.import.chunk-size}: each chunk
+ * costs one phone number lookup and one batch insert, and its outcomes are
+ * written and flushed before the next chunk is read.
+ */
+@Service
+public class CustomerImportService {
+
+    private final ObjectReader customerReader;
+    private final ObjectWriter resultWriter;
+    private final PhoneNumberValidator phoneNumberValidator;
+    private final CustomerJdbcRepository customerJdbcRepository;
+    private final CustomerIdRegistry customerIdRegistry;
+    private final PhoneNumberIndex phoneNumberIndex;
+    private final TimeOrderedUuidGenerator customerIdGenerator;
+    private final int chunkSize;
+
+    @Autowired
+    public CustomerImportService(ObjectMapper objectMapper,
+                                 PhoneNumberValidator phoneNumberValidator,
+                                 CustomerJdbcRepository customerJdbcRepository,
+                                 CustomerIdRegistry customerIdRegistry,
+                                 PhoneNumberIndex phoneNumberIndex,
+                                 TimeOrderedUuidGenerator customerIdGenerator,
+                                 @Value("${customer.import.chunk-size:1000}") int chunkSize) {
+        this.customerReader = objectMapper.readerFor(Customer.class);
+        this.resultWriter = objectMapper.writerFor(CustomerImportResult.class);
+        this.phoneNumberValidator = phoneNumberValidator;
+        this.customerJdbcRepository = customerJdbcRepository;
+        this.customerIdRegistry = customerIdRegistry;
+        this.phoneNumberIndex = phoneNumberIndex;
+        this.customerIdGenerator = customerIdGenerator;
+        this.chunkSize = chunkSize;
+    }
+
+    public void importCustomers(InputStream in, OutputStream out) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        List<Row> chunk = new ArrayList<>(chunkSize);
+        long lineNumber = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (line.isBlank()) {
+                continue;
+            }
+            chunk.add(parse(lineNumber, line));
+            if (chunk.size() == chunkSize) {
+                importChunk(chunk, out);
+                chunk.clear();
+            }
+        }
+        importChunk(chunk, out);
+    }
+
+    private Row parse(long lineNumber, String line) {
+        try {
+            Customer customer = customerReader.readValue(line);
+            if (customer.getName() == null || customer.getName().isBlank()) {
+                return Row.invalid(lineNumber, "Name is required");
+            }
+            if (customer.getPhoneNumber() == null || !phoneNumberValidator.test(customer.getPhoneNumber())) {
+                return Row.invalid(lineNumber, String.format("Phone number %s is not valid", customer.getPhoneNumber()));
+            }
+            return new Row(lineNumber, customer);
+        } catch (IOException e) {
+            return Row.invalid(lineNumber, "Line is not a valid customer");
+        }
+    }
+
+    private void importChunk(List<Row> chunk, OutputStream out) throws IOException {
+        if (chunk.isEmpty()) {
+            return;
+        }
+        // 1. The first row of each phone number in the chunk is the candidate, however it is written
+        Map<Long, Row> candidates = new LinkedHashMap<>();
+        for (Row row : chunk) {
+            if (row.customer != null) {
+                candidates.putIfAbsent(row.customer.getPhoneNumberKey(), row);
+            }
+        }
+
+        // 2. One lookup for every phone number of the chunk
+        Map<Long, Customer> owners = new HashMap<>(
+                customerJdbcRepository.selectCustomersByPhoneNumberKeys(candidates.keySet()));
+
+        // 3. Insert the candidates nobody owns yet
+        List<Customer> newCustomers = new ArrayList<>();
+        for (Row candidate : candidates.values()) {
+            if (!owners.containsKey(candidate.customer.getPhoneNumberKey())) {
+                if (candidate.customer.getId() == null) {
+                    candidate.customer.setId(customerIdGenerator.get());
+                }
+                newCustomers.add(candidate.customer);
+            }
+        }
+        insert(newCustomers, owners);
+
+        // 4. Every row is now decided against the owner of its phone number
+        for (Row row : chunk) {
+            write(outcome(row, owners), out);
+        }
+        out.flush();
+    }
+
+    private void insert(List<Customer> newCustomers, Map<Long, Customer> owners) {
+        try {
+            customerJdbcRepository.insertAll(newCustomers);
+            newCustomers.forEach(c -> created(c, owners));
+        } catch (DataIntegrityViolationException e) {
+            // someone registered one of these phone numbers meanwhile, go row by row
+            for (Customer customer : newCustomers) {
+                try {
+                    customerJdbcRepository.insertAll(List.of(customer));
+                    created(customer, owners);
+                } catch (DataIntegrityViolationException conflict) {
+                    owners.putAll(customerJdbcRepository.selectCustomersByPhoneNumberKeys(List.of(customer.getPhoneNumberKey())));
+                }
+            }
+        }
+    }
+
+    private void created(Customer customer, Map<Long, Customer> owners) {
+        owners.put(customer.getPhoneNumberKey(), customer);
+        customerIdRegistry.register(customer.getId());
+        phoneNumberIndex.put(customer);
+    }
+
+    private static CustomerImportResult outcome(Row row, Map<Long, Customer> owners) {
+        if (row.customer == null) {
+            return new CustomerImportResult(row.lineNumber, Status.INVALID, null, row.message);
+        }
+        Customer owner = owners.get(row.customer.getPhoneNumberKey());
+        if (owner == row.customer) {
+            return new CustomerImportResult(row.lineNumber, Status.CREATED, owner.getId(), null);
+        }
+        if (owner != null && owner.getName().equals(row.customer.getName())) {
+            return new CustomerImportResult(row.lineNumber, Status.EXISTS, owner.getId(), null);
+        }
+        return new CustomerImportResult(row.lineNumber, Status.TAKEN, null,
+                String.format("Phone number [%s] is taken", row.customer.getPhoneNumber()));
+    }
+
+    private void write(CustomerImportResult result, OutputStream out) throws IOException {
+        out.write(resultWriter.writeValueAsBytes(result));
+        out.write('\n');
+    }
+
+    private static final class Row {
+        private final long lineNumber;
+        private final Customer customer;
+        private final String message;
+
+        private Row(long lineNumber, Customer customer) {
+            this(lineNumber, customer, null);
+        }
+
+        private Row(long lineNumber, Customer customer, String message) {
+            this.lineNumber = lineNumber;
+            this.customer = customer;
+            this.message = message;
+        }
+
+        static Row invalid(long lineNumber, String message) {
+            return new Row(lineNumber, null, message);
+        }
+    }
+}
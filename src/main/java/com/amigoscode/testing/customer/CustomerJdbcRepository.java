@@ -0,0 +1,177 @@
+package com.amigoscode.testing.customer;
+
+import com.amigoscode.testing.payment.shard.PaymentShards;
+import com.amigoscode.testing.payment.shard.ShardedCustomerRepository;
+import com.amigoscode.testing.utils.UuidBytes;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+/**
+ * Plain JDBC access to the {@code customer} table for bulk paths that work a chunk
+ * of rows at a time, and for registration, which needs a conditional insert.
+ * <p>
+ * With {@code payment.sharding.enabled} every customer is also written to the shard that
+ * holds their payments, and lookups by id read it there. The table on the main database
+ * still has them all, as the directory of phone numbers.
+ */
+@Repository
+public class CustomerJdbcRepository {
+
+    // the not exists check and the insert are one statement, so a new customer costs one round trip
+    private static final String INSERT_UNLESS_PHONE_NUMBER_TAKEN = "insert into customer " +
+            "(id, name, phone_number, phone_number_key) " +
+            "select ?, ?, ?, ? " +
+            "where not exists (select 1 from customer where phone_number_key = ?)";
+
+    private static final RowMapper<Customer> CUSTOMER_ROW_MAPPER = (rs, rowNum) -> new Customer(
+            UuidBytes.fromBytes(rs.getBytes("id")),
+            rs.getString("name"),
+            rs.getString("phone_number"));
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    // null unless sharding is enabled
+    private final ShardedCustomerRepository shardedCustomerRepository;
+
+    @Autowired
+    public CustomerJdbcRepository(NamedParameterJdbcTemplate jdbcTemplate,
+                                  ObjectProvider<ShardedCustomerRepository> shardedCustomerRepository) {
+        this(jdbcTemplate, shardedCustomerRepository.getIfAvailable());
+    }
+
+    CustomerJdbcRepository(NamedParameterJdbcTemplate jdbcTemplate, ShardedCustomerRepository shardedCustomerRepository) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.shardedCustomerRepository = shardedCustomerRepository;
+    }
+
+    public Optional<Customer> findById(UUID customerId) {
+        if (shardedCustomerRepository != null) {
+            return shardedCustomerRepository.findById(customerId);
+        }
+        return jdbcTemplate.getJdbcTemplate().query(
+                "select id, name, phone_number from customer where id = ?",
+                CUSTOMER_ROW_MAPPER,
+                (Object) UuidBytes.toBytes(customerId))
+                .stream()
+                .findFirst();
+    }
+
+    public List<Customer> findAllById(Collection<UUID> customerIds) {
+        if (customerIds.isEmpty()) {
+            return List.of();
+        }
+        if (shardedCustomerRepository != null) {
+            return shardedCustomerRepository.findAllById(customerIds);
+        }
+        return jdbcTemplate.query(
+                "select id, name, phone_number from customer where id in (:ids)",
+                Map.of("ids", customerIds.stream().map(UuidBytes::toBytes).collect(Collectors.toList())),
+                CUSTOMER_ROW_MAPPER);
+    }
+
+    public Map<Long, Customer> selectCustomersByPhoneNumberKeys(Collection<Long> phoneNumberKeys) {
+        Map<Long, Customer> customers = new HashMap<>();
+        if (phoneNumberKeys.isEmpty()) {
+            return customers;
+        }
+        jdbcTemplate.query(
+                "select id, name, phone_number from customer where phone_number_key in (:phone_number_keys)",
+                Map.of("phone_number_keys", phoneNumberKeys),
+                rs -> {
+                    Customer customer = CUSTOMER_ROW_MAPPER.mapRow(rs, 0);
+                    customers.put(customer.getPhoneNumberKey(), customer);
+                });
+        return customers;
+    }
+
+    public Optional<Customer> selectCustomerByPhoneNumberKey(long phoneNumberKey) {
+        return jdbcTemplate.getJdbcTemplate().query(
+                "select id, name, phone_number from customer where phone_number_key = ?",
+                CUSTOMER_ROW_MAPPER,
+                phoneNumberKey)
+                .stream()
+                .findFirst();
+    }
+
+    /**
+     * Inserts the customer unless someone already has its phone number.
+     *
+     * @return nothing if the customer was inserted, otherwise whoever has the number
+     */
+    public Optional<Customer> insertUnlessPhoneNumberTaken(Customer customer) {
+        long phoneNumberKey = customer.getPhoneNumberKey();
+        DuplicateKeyException duplicate = null;
+        try {
+            int inserted = jdbcTemplate.getJdbcTemplate().update(INSERT_UNLESS_PHONE_NUMBER_TAKEN, ps -> {
+                ps.setBytes(1, UuidBytes.toBytes(customer.getId()));
+                ps.setString(2, customer.getName());
+                ps.setString(3, customer.getPhoneNumber());
+                ps.setLong(4, phoneNumberKey);
+                ps.setLong(5, phoneNumberKey);
+            });
+            if (inserted == 1) {
+                insertOnShard(customer);
+                return Optional.empty();
+            }
+        } catch (DuplicateKeyException e) {
+            // a concurrent insert of the number passed the same check, or the id is taken
+            duplicate = e;
+        }
+        Optional<Customer> owner = selectCustomerByPhoneNumberKey(phoneNumberKey);
+        if (owner.isEmpty()) {
+            if (duplicate != null) {
+                throw duplicate;
+            }
+            throw new IllegalStateException(String.format(
+                    "Phone number [%s] was released while registering it", customer.getPhoneNumber()));
+        }
+        return owner;
+    }
+
+    private void insertOnShard(Customer customer) {
+        if (shardedCustomerRepository == null) {
+            return;
+        }
+        try {
+            shardedCustomerRepository.insertAll(List.of(customer));
+        } catch (RuntimeException e) {
+            // the main database and the shard share no transaction, so the insert is undone by hand
+            jdbcTemplate.getJdbcTemplate().update(
+                    "delete from customer where id = ?", (Object) UuidBytes.toBytes(customer.getId()));
+            throw e;
+        }
+    }
+
+    @Transactional
+    public void insertAll(List<Customer> customers) {
+        if (customers.isEmpty()) {
+            return;
+        }
+        if (shardedCustomerRepository != null) {
+            List<Customer> inserted = List.copyOf(customers);
+            PaymentShards.beforeCommit(() -> shardedCustomerRepository.insertAll(inserted));
+        }
+        jdbcTemplate.getJdbcTemplate().batchUpdate(
+                "insert into customer (id, name, phone_number, phone_number_key) values (?, ?, ?, ?)",
+                customers,
+                customers.size(),
+                (ps, customer) -> {
+                    ps.setBytes(1, UuidBytes.toBytes(customer.getId()));
+                    ps.setString(2, customer.getName());
+                    ps.setString(3, customer.getPhoneNumber());
+                    ps.setLong(4, customer.getPhoneNumberKey());
+                });
+    }
+}
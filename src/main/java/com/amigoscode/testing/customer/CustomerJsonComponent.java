@@ -0,0 +1,89 @@
+package com.amigoscode.testing.customer;
+
+import com.amigoscode.testing.utils.JsonValues;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import org.springframework.boot.jackson.JsonComponent;
+
+import java.io.IOException;
+
+/**
+ * {@link Customer} written and read field by field, in JSON and CBOR alike, without bean
+ * introspection. Like the bean serializer it leaves out {@code phoneNumberKey}, which
+ * {@link Customer#setPhoneNumber} derives again on the way in.
+ */
+@JsonComponent
+public class CustomerJsonComponent {
+
+    private static final SerializedString ID = new SerializedString("id");
+    private static final SerializedString NAME = new SerializedString("name");
+    private static final SerializedString PHONE_NUMBER = new SerializedString("phoneNumber");
+
+    public static class Serializer extends JsonSerializer<Customer> {
+
+        @Override
+        public void serialize(Customer customer, JsonGenerator gen, SerializerProvider provider) throws IOException {
+            gen.writeStartObject(customer);
+            gen.writeFieldName(ID);
+            JsonValues.writeUuid(gen, customer.getId());
+            gen.writeFieldName(NAME);
+            gen.writeString(customer.getName());
+            gen.writeFieldName(PHONE_NUMBER);
+            gen.writeString(customer.getPhoneNumber());
+            gen.writeEndObject();
+        }
+
+        @Override
+        public Class<Customer> handledType() {
+            return Customer.class;
+        }
+    }
+
+    public static class Deserializer extends JsonDeserializer<Customer> {
+
+        @Override
+        public Customer deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+            String field;
+            if (p.isExpectedStartObjectToken()) {
+                field = p.nextFieldName();
+            } else if (p.hasToken(JsonToken.FIELD_NAME)) {
+                field = p.getCurrentName();
+            } else {
+                return (Customer) ctxt.handleUnexpectedToken(Customer.class, p);
+            }
+            Customer customer = new Customer();
+            for (; field != null; field = p.nextFieldName()) {
+                p.nextToken();
+                switch (field) {
+                    case "id":
+                        customer.setId(JsonValues.readUuid(p, ctxt));
+                        break;
+                    case "name":
+                        customer.setName(JsonValues.readString(p, ctxt));
+                        break;
+                    case "phoneNumber":
+                        customer.setPhoneNumber(JsonValues.readString(p, ctxt));
+                        break;
+                    case "phoneNumberKey":
+                        // ignored, as it is by the bean deserializer
+                        p.skipChildren();
+                        break;
+                    default:
+                        ctxt.handleUnknownProperty(p, this, Customer.class, field);
+                }
+            }
+            return customer;
+        }
+
+        @Override
+        public Class<?> handledType() {
+            return Customer.class;
+        }
+    }
+}
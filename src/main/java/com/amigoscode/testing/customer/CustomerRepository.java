@@ -9,10 +9,10 @@ import java.util.UUID;
 
 public interface CustomerRepository extends CrudRepository<Customer, UUID> {
 
-    @Query(value = "select id, name, phone_number " +
-            "from customer where phone_number = :phone_number",
+    @Query(value = "select id, name, phone_number, phone_number_key " +
+            "from customer where phone_number_key = :phone_number_key",
             nativeQuery = true
     )
-    Optional<Customer> selectCustomerByPhoneNumber(@Param("phone_number") String phoneNumber);
+    Optional<Customer> selectCustomerByPhoneNumberKey(@Param("phone_number_key") long phoneNumberKey);
 
 }
@@ -0,0 +1,133 @@
+package com.amigoscode.testing.customer;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded, least recently used phone number to customer index kept up to date by
+ * registration, keyed by the normalized number so every way of writing it finds the
+ * customer. Only positive entries are stored: a miss means "ask the database".
+ */
+@Component
+public class PhoneNumberIndex {
+
+    private final int maxSize;
+    private final Map<Long, Entry> entries;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    @Autowired
+    public PhoneNumberIndex(@Value("${customer.phone-index.max-size:100000}") int maxSize) {
+        this.maxSize = maxSize;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+                boolean evict = size() > PhoneNumberIndex.this.maxSize;
+                if (evict) {
+                    evictions.increment();
+                }
+                return evict;
+            }
+        };
+    }
+
+    public Optional<Customer> get(long phoneNumberKey) {
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(phoneNumberKey);
+        }
+        if (entry == null) {
+            misses.increment();
+            return Optional.empty();
+        }
+        hits.increment();
+        return Optional.of(new Customer(entry.customerId, entry.name, entry.phoneNumber));
+    }
+
+    public void put(Customer customer) {
+        Entry entry = new Entry(customer.getId(), customer.getName(), customer.getPhoneNumber());
+        synchronized (entries) {
+            entries.put(customer.getPhoneNumberKey(), entry);
+        }
+    }
+
+    public Stats stats() {
+        int size;
+        synchronized (entries) {
+            size = entries.size();
+        }
+        return new Stats(size, maxSize, hits.sum(), misses.sum(), evictions.sum());
+    }
+
+    private static final class Entry {
+        private final UUID customerId;
+        private final String name;
+        private final String phoneNumber;
+
+        private Entry(UUID customerId, String name, String phoneNumber) {
+            this.customerId = customerId;
+            this.name = name;
+            this.phoneNumber = phoneNumber;
+        }
+    }
+
+    public static class Stats {
+        private final int size;
+        private final int maxSize;
+        private final long hits;
+        private final long misses;
+        private final long evictions;
+
+        public Stats(int size, int maxSize, long hits, long misses, long evictions) {
+            this.size = size;
+            this.maxSize = maxSize;
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        public int getMaxSize() {
+            return maxSize;
+        }
+
+        public long getHits() {
+            return hits;
+        }
+
+        public long getMisses() {
+            return misses;
+        }
+
+        public long getEvictions() {
+            return evictions;
+        }
+
+        public double getHitRate() {
+            long lookups = hits + misses;
+            return lookups == 0 ? 0 : (double) hits / lookups;
+        }
+
+        @Override
+        public String toString() {
+            return "Stats{" +
+                    "size=" + size +
+                    ", maxSize=" + maxSize +
+                    ", hits=" + hits +
+                    ", misses=" + misses +
+                    ", evictions=" + evictions +
+                    '}';
+        }
+    }
+}
@@ -1,26 +1,50 @@
 package com.amigoscode.testing.customer;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import javax.validation.Valid;
+import java.io.IOException;
 
 @RestController
 @RequestMapping("api/v1/customer-registration")
 public class RegistrationController {
 
+    private static final String NDJSON = "application/x-ndjson";
+
     private final RegistrationService registrationService;
+    private final CustomerImportService customerImportService;
+    private final PhoneNumberIndex phoneNumberIndex;
 
     @Autowired
-    public RegistrationController(RegistrationService registrationService) {
+    public RegistrationController(RegistrationService registrationService,
+                                  CustomerImportService customerImportService,
+                                  PhoneNumberIndex phoneNumberIndex) {
         this.registrationService = registrationService;
+        this.customerImportService = customerImportService;
+        this.phoneNumberIndex = phoneNumberIndex;
     }
 
     @PutMapping
     public void registerNewCustomer(@Valid @RequestBody RegistrationRequest request) {
         registrationService.registerNewCustomer(request);
     }
+
+    @PostMapping(value = "import", consumes = NDJSON, produces = NDJSON)
+    public void importCustomers(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        response.setContentType(NDJSON);
+        customerImportService.importCustomers(request.getInputStream(), response.getOutputStream());
+    }
+
+    @GetMapping("phone-index")
+    public PhoneNumberIndex.Stats getPhoneNumberIndexStats() {
+        return phoneNumberIndex.stats();
+    }
 }
@@ -1,48 +1,121 @@
 package com.amigoscode.testing.customer;
 
+import com.amigoscode.testing.metrics.StageMetrics;
 import com.amigoscode.testing.utils.PhoneNumberValidator;
+import com.amigoscode.testing.utils.TimeOrderedUuidGenerator;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.util.Optional;
-import java.util.UUID;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * Registers customers with one conditional insert that only succeeds if nobody has the
+ * phone number yet. Registrations of the same number are queued behind one of
+ * {@code customer.registration.lock-stripes} locks, so concurrent retries of a
+ * registration wait for the first one and find its customer in the {@link PhoneNumberIndex}
+ * instead of racing it into the unique index. Other numbers only wait for each other
+ * when they share a stripe.
+ */
 @Service
 public class RegistrationService {
 
-    private final CustomerRepository customerRepository;
+    private final CustomerJdbcRepository customerJdbcRepository;
     private final PhoneNumberValidator phoneNumberValidator;
+    private final CustomerIdRegistry customerIdRegistry;
+    private final PhoneNumberIndex phoneNumberIndex;
+    private final TimeOrderedUuidGenerator customerIdGenerator;
+    private final Lock[] phoneNumberLocks;
+    private final StageMetrics.Timer validateTimer;
+    private final StageMetrics.Timer lookupTimer;
+    private final StageMetrics.Timer insertTimer;
+    private final StageMetrics.Timer registerTimer;
 
     @Autowired
-    public RegistrationService(CustomerRepository customerRepository, PhoneNumberValidator phoneNumberValidator) {
-        this.customerRepository = customerRepository;
+    public RegistrationService(CustomerJdbcRepository customerJdbcRepository,
+                               PhoneNumberValidator phoneNumberValidator,
+                               CustomerIdRegistry customerIdRegistry,
+                               PhoneNumberIndex phoneNumberIndex,
+                               TimeOrderedUuidGenerator customerIdGenerator,
+                               @Value("${customer.registration.lock-stripes:1024}") int lockStripes,
+                               StageMetrics stageMetrics) {
+        if (lockStripes < 1) {
+            throw new IllegalArgumentException(String.format("Lock stripes must be positive: %d", lockStripes));
+        }
+        this.customerJdbcRepository = customerJdbcRepository;
         this.phoneNumberValidator = phoneNumberValidator;
+        this.customerIdRegistry = customerIdRegistry;
+        this.phoneNumberIndex = phoneNumberIndex;
+        this.customerIdGenerator = customerIdGenerator;
+        int stripes = 1;
+        while (stripes < lockStripes) {
+            stripes <<= 1;
+        }
+        this.phoneNumberLocks = new Lock[stripes];
+        for (int stripe = 0; stripe < phoneNumberLocks.length; stripe++) {
+            phoneNumberLocks[stripe] = new ReentrantLock();
+        }
+        this.validateTimer = stageMetrics.timer("registration.validate");
+        this.lookupTimer = stageMetrics.timer("registration.lookup");
+        this.insertTimer = stageMetrics.timer("registration.insert");
+        this.registerTimer = stageMetrics.timer("registration.total");
     }
 
     public void registerNewCustomer(RegistrationRequest request) {
-        String phoneNumber = request.getCustomer().getPhoneNumber();
-        String name = request.getCustomer().getName();
-        // TODO: Validate phone number
+        long start = System.nanoTime();
+        try {
+            register(request, start);
+        } finally {
+            registerTimer.record(start);
+        }
+    }
+
+    private void register(RegistrationRequest request, long start) {
+        Customer customer = request.getCustomer();
+        String phoneNumber = customer.getPhoneNumber();
         if (!phoneNumberValidator.test(phoneNumber)) {
             throw new IllegalArgumentException(String.format("Phone number "+ phoneNumber +" is not valid"));
         }
+        long mark = validateTimer.record(start);
 
-        Optional<Customer> optionalCustomer = customerRepository
-                .selectCustomerByPhoneNumber(phoneNumber);
-
-        if (optionalCustomer.isPresent()) {
-            boolean hasSameName = optionalCustomer.get().getName().equals(name);
-            if (hasSameName) {
+        long phoneNumberKey = customer.getPhoneNumberKey();
+        Lock lock = phoneNumberLocks[stripe(phoneNumberKey)];
+        lock.lock();
+        try {
+            // a request for the same number that held the lock before us has left its customer in the index
+            Optional<Customer> owner = phoneNumberIndex.get(phoneNumberKey);
+            mark = lookupTimer.record(mark);
+            if (owner.isEmpty()) {
+                if (customer.getId() == null) {
+                    customer.setId(customerIdGenerator.get());
+                }
+                owner = customerJdbcRepository.insertUnlessPhoneNumberTaken(customer);
+                insertTimer.record(mark);
+                if (owner.isEmpty()) {
+                    customerIdRegistry.register(customer.getId());
+                    phoneNumberIndex.put(customer);
+                    return;
+                }
+                phoneNumberIndex.put(owner.get());
+            }
+            if (owner.get().getName().equals(customer.getName())) {
                 // client might have sent request twice
                 return;
             }
             throw new IllegalStateException(String.format("Phone number [%s] is taken", phoneNumber));
+        } finally {
+            lock.unlock();
         }
+    }
 
-        if (request.getCustomer().getId() == null) {
-            request.getCustomer().setId(UUID.randomUUID());
-        }
-
-        customerRepository.save(request.getCustomer());
+    private int stripe(long phoneNumberKey) {
+        // phone numbers of one country share their leading digits, mix them all into the stripe
+        long hash = phoneNumberKey;
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return (int) hash & (phoneNumberLocks.length - 1);
     }
 }
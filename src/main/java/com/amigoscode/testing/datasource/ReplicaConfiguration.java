@@ -0,0 +1,70 @@
+package com.amigoscode.testing.datasource;
+
+import com.amigoscode.testing.metrics.StageMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Read replicas, only with {@code datasource.replicas.enabled=true}. The primary is still
+ * configured through {@code spring.datasource.*}, but is wrapped in a
+ * {@link ReplicaRoutingDataSource}, which replaces the DataSource Spring Boot would create.
+ */
+@Configuration
+@ConditionalOnProperty(value = "datasource.replicas.enabled", havingValue = "true")
+public class ReplicaConfiguration {
+
+    /**
+     * @param urls one JDBC url per replica; without any, {@code count} stand-ins that open
+     *             the primary's own database, which is what tests and local runs get with H2
+     */
+    @Bean(initMethod = "start", destroyMethod = "shutdown")
+    public ReplicaLagMonitor replicaLagMonitor(DataSourceProperties dataSourceProperties,
+                                               @Value("${datasource.replicas.urls:}") List<String> urls,
+                                               @Value("${datasource.replicas.count:2}") int count,
+                                               @Value("${datasource.replicas.username:}") String username,
+                                               @Value("${datasource.replicas.password:}") String password,
+                                               @Value("${datasource.replicas.lag-check-ms:200}") long checkMillis,
+                                               @Value("${datasource.replicas.max-lag-ms:1000}") long maxLagMillis,
+                                               StageMetrics stageMetrics) {
+        DataSource primary = dataSourceProperties.initializeDataSourceBuilder().build();
+        List<String> replicaUrls = new ArrayList<>(urls);
+        replicaUrls.removeIf(String::isBlank);
+        if (replicaUrls.isEmpty()) {
+            for (int replica = 0; replica < count; replica++) {
+                replicaUrls.add(dataSourceProperties.determineUrl());
+            }
+        }
+        String replicaUsername = username.isBlank() ? dataSourceProperties.determineUsername() : username;
+        String replicaPassword = username.isBlank() ? dataSourceProperties.determinePassword() : password;
+        List<DataSource> replicas = new ArrayList<>(replicaUrls.size());
+        for (String url : replicaUrls) {
+            replicas.add(DataSourceBuilder.create()
+                    .url(url)
+                    .username(replicaUsername)
+                    .password(replicaPassword)
+                    .build());
+        }
+        ReplicaLagMonitor replicaLagMonitor = new ReplicaLagMonitor(primary, replicas, checkMillis, maxLagMillis);
+        for (int replica = 0; replica < replicas.size(); replica++) {
+            int index = replica;
+            stageMetrics.gauge(String.format("datasource.replica.%d.lag-ms", replica),
+                    () -> replicaLagMonitor.lagMillis(index));
+        }
+        return replicaLagMonitor;
+    }
+
+    @Bean
+    @Primary
+    public DataSource dataSource(ReplicaLagMonitor replicaLagMonitor) {
+        return new ReplicaRoutingDataSource(replicaLagMonitor);
+    }
+}
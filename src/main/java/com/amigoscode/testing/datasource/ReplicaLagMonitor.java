@@ -0,0 +1,163 @@
+package com.amigoscode.testing.datasource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+import java.sql.Timestamp;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Measures how far each replica is behind the primary and picks the replicas reads may use.
+ * <p>
+ * Every {@code lag-check-ms} it writes the time into the one-row {@code replica_heartbeat}
+ * table on the primary and reads it back from every replica; a replica's lag is how much
+ * older its copy is, so it is only known to within one check. {@link #pickReplica()} takes
+ * the replicas no more than {@code max-lag-ms} behind in turn. A replica that cannot be
+ * read, or has no heartbeat yet, is left out until a later check finds it caught up.
+ */
+public class ReplicaLagMonitor {
+
+    static final long UNAVAILABLE = -1;
+
+    private static final Logger log = LoggerFactory.getLogger(ReplicaLagMonitor.class);
+
+    private final DataSource primary;
+    private final List<DataSource> replicas;
+    private final JdbcTemplate primaryTemplate;
+    private final List<JdbcTemplate> replicaTemplates;
+    private final Clock clock;
+    private final long checkMillis;
+    private final long maxLagMillis;
+    private final AtomicLongArray lagMillis;
+    private final AtomicInteger next = new AtomicInteger();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "replica-lag-monitor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public ReplicaLagMonitor(DataSource primary, List<DataSource> replicas, long checkMillis, long maxLagMillis) {
+        this(primary, replicas, checkMillis, maxLagMillis, Clock.systemUTC());
+    }
+
+    ReplicaLagMonitor(DataSource primary, List<DataSource> replicas, long checkMillis, long maxLagMillis, Clock clock) {
+        this.primary = primary;
+        this.replicas = List.copyOf(replicas);
+        this.primaryTemplate = new JdbcTemplate(primary);
+        List<JdbcTemplate> replicaTemplates = new ArrayList<>(replicas.size());
+        for (DataSource replica : replicas) {
+            replicaTemplates.add(new JdbcTemplate(replica));
+        }
+        this.replicaTemplates = List.copyOf(replicaTemplates);
+        this.clock = clock;
+        this.checkMillis = checkMillis;
+        this.maxLagMillis = maxLagMillis;
+        this.lagMillis = new AtomicLongArray(replicas.size());
+        for (int replica = 0; replica < replicas.size(); replica++) {
+            lagMillis.set(replica, UNAVAILABLE);
+        }
+    }
+
+    public void start() {
+        primaryTemplate.execute("create table if not exists replica_heartbeat (id int primary key, beat_at timestamp not null)");
+        check();
+        scheduler.scheduleWithFixedDelay(this::checkQuietly, checkMillis, checkMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    private void checkQuietly() {
+        try {
+            check();
+        } catch (RuntimeException e) {
+            log.warn("Replica lag check failed, retrying in {} ms", checkMillis, e);
+        }
+    }
+
+    void check() {
+        Instant beat = clock.instant().truncatedTo(ChronoUnit.MILLIS);
+        try {
+            Timestamp beatAt = Timestamp.from(beat);
+            if (primaryTemplate.update("update replica_heartbeat set beat_at = ? where id = 1", beatAt) == 0) {
+                primaryTemplate.update("insert into replica_heartbeat (id, beat_at) values (1, ?)", beatAt);
+            }
+        } catch (DataAccessException e) {
+            // without a fresh heartbeat no lag can be trusted
+            log.warn("Could not write the replica heartbeat, reading from the primary", e);
+            for (int replica = 0; replica < replicas.size(); replica++) {
+                lagMillis.set(replica, UNAVAILABLE);
+            }
+            return;
+        }
+        for (int replica = 0; replica < replicas.size(); replica++) {
+            lagMillis.set(replica, measureLag(replica, beat));
+        }
+    }
+
+    private long measureLag(int replica, Instant beat) {
+        try {
+            List<Timestamp> beats = replicaTemplates.get(replica).queryForList(
+                    "select beat_at from replica_heartbeat where id = 1", Timestamp.class);
+            if (beats.isEmpty()) {
+                return UNAVAILABLE;
+            }
+            return Math.max(0, beat.toEpochMilli() - beats.get(0).getTime());
+        } catch (DataAccessException e) {
+            log.debug("Replica {} could not be read", replica, e);
+            return UNAVAILABLE;
+        }
+    }
+
+    /**
+     * @return the index of the next replica within the allowed lag, or -1 when the read
+     * should go to the primary
+     */
+    public int pickReplica() {
+        int count = replicas.size();
+        if (count == 0) {
+            return -1;
+        }
+        int first = Math.floorMod(next.getAndIncrement(), count);
+        for (int i = 0; i < count; i++) {
+            int replica = (first + i) % count;
+            long lag = lagMillis.get(replica);
+            if (lag != UNAVAILABLE && lag <= maxLagMillis) {
+                return replica;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the replica's lag as of the last check, or -1 if it was unavailable
+     */
+    public long lagMillis(int replica) {
+        return lagMillis.get(replica);
+    }
+
+    public int replicaCount() {
+        return replicas.size();
+    }
+
+    DataSource primary() {
+        return primary;
+    }
+
+    DataSource replica(int replica) {
+        return replicas.get(replica);
+    }
+}
@@ -0,0 +1,161 @@
+package com.amigoscode.testing.datasource;
+
+import com.amigoscode.testing.metrics.StageMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.TransactionException;
+
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Decides which reads may go to a read replica.
+ * <p>
+ * Work passed to {@link #read} runs with a thread-local mark that
+ * {@link ReplicaRoutingDataSource} turns into a replica connection, unless the customer
+ * wrote through this instance within {@code datasource.replicas.read-your-writes-ms}; then
+ * it reads the primary so the customer sees their own write. Everything else, writes
+ * included, uses the primary. The mark only counts when a connection is taken, so work
+ * that joins a transaction already open on the primary stays on the primary.
+ * <p>
+ * Without {@code datasource.replicas.enabled=true} there are no replicas and all of this
+ * just runs the work.
+ */
+@Component
+public class ReplicaRouter {
+
+    private static final Logger log = LoggerFactory.getLogger(ReplicaRouter.class);
+    private static final ThreadLocal<Boolean> REPLICA_READ = new ThreadLocal<>();
+
+    private final boolean enabled;
+    private final long readYourWritesNanos;
+    private final int maxTrackedCustomers;
+    private final LongSupplier nanoTime;
+    private final ConcurrentMap<UUID, Long> lastWriteNanos = new ConcurrentHashMap<>();
+    private final LongAdder replicaReads;
+    private final LongAdder primaryReads;
+    private final LongAdder primaryRetries;
+
+    @Autowired
+    public ReplicaRouter(@Value("${datasource.replicas.enabled:false}") boolean enabled,
+                         @Value("${datasource.replicas.read-your-writes-ms:5000}") long readYourWritesMillis,
+                         @Value("${datasource.replicas.max-tracked-customers:100000}") int maxTrackedCustomers,
+                         StageMetrics stageMetrics) {
+        this(enabled, readYourWritesMillis, maxTrackedCustomers, System::nanoTime, stageMetrics);
+    }
+
+    ReplicaRouter(boolean enabled,
+                  long readYourWritesMillis,
+                  int maxTrackedCustomers,
+                  LongSupplier nanoTime,
+                  StageMetrics stageMetrics) {
+        this.enabled = enabled;
+        this.readYourWritesNanos = TimeUnit.MILLISECONDS.toNanos(readYourWritesMillis);
+        this.maxTrackedCustomers = maxTrackedCustomers;
+        this.nanoTime = nanoTime;
+        this.replicaReads = stageMetrics.counter("datasource.replica.reads");
+        this.primaryReads = stageMetrics.counter("datasource.primary.reads");
+        this.primaryRetries = stageMetrics.counter("datasource.primary.retries");
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Runs read-only {@code work} on a replica when {@code customerId} (which may be null
+     * for reads that belong to no customer) has not written recently. A replica that fails
+     * the read is not trusted with it a second time; the work is run again on the primary.
+     */
+    public <T> T read(UUID customerId, Supplier<T> work) {
+        if (!routesToReplica(customerId)) {
+            return work.get();
+        }
+        return onReplica(work);
+    }
+
+    /**
+     * Like {@link #read}, but also asks the primary when the replica finds nothing, for
+     * lookups of rows that may have been written moments ago and not replicated yet.
+     */
+    public <T> Optional<T> find(UUID customerId, Supplier<Optional<T>> lookup) {
+        if (!routesToReplica(customerId)) {
+            return lookup.get();
+        }
+        Optional<T> found = onReplica(lookup);
+        if (found.isPresent()) {
+            return found;
+        }
+        primaryRetries.increment();
+        return lookup.get();
+    }
+
+    /**
+     * Sends the customer's reads to the primary for the read-your-writes window. Call it
+     * once the write has committed.
+     */
+    public void recordWrite(UUID customerId) {
+        if (!enabled || readYourWritesNanos <= 0) {
+            return;
+        }
+        long now = nanoTime.getAsLong();
+        if (lastWriteNanos.size() >= maxTrackedCustomers) {
+            // only outgrows the limit while more customers than that wrote within the window
+            lastWriteNanos.values().removeIf(writtenAt -> now - writtenAt >= readYourWritesNanos);
+        }
+        lastWriteNanos.put(customerId, now);
+    }
+
+    private boolean routesToReplica(UUID customerId) {
+        if (!enabled || (customerId != null && wroteRecently(customerId))) {
+            primaryReads.increment();
+            return false;
+        }
+        replicaReads.increment();
+        return true;
+    }
+
+    private boolean wroteRecently(UUID customerId) {
+        Long writtenAt = lastWriteNanos.get(customerId);
+        if (writtenAt == null) {
+            return false;
+        }
+        if (nanoTime.getAsLong() - writtenAt < readYourWritesNanos) {
+            return true;
+        }
+        lastWriteNanos.remove(customerId, writtenAt);
+        return false;
+    }
+
+    private <T> T onReplica(Supplier<T> work) {
+        REPLICA_READ.set(Boolean.TRUE);
+        try {
+            return work.get();
+        } catch (DataAccessException | TransactionException e) {
+            log.warn("Read on a replica failed, retrying on the primary", e);
+            REPLICA_READ.remove();
+            primaryRetries.increment();
+            return work.get();
+        } finally {
+            REPLICA_READ.remove();
+        }
+    }
+
+    int trackedCustomers() {
+        return lastWriteNanos.size();
+    }
+
+    static boolean isReplicaRead() {
+        return REPLICA_READ.get() != null;
+    }
+}
@@ -0,0 +1,44 @@
+package com.amigoscode.testing.datasource;
+
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The application's DataSource when replicas are enabled. A connection taken inside
+ * {@link ReplicaRouter#read} comes from the replica {@link ReplicaLagMonitor} picks, or
+ * from the primary when every replica is too far behind; every other connection comes
+ * from the primary.
+ */
+public class ReplicaRoutingDataSource extends AbstractRoutingDataSource {
+
+    private static final String PRIMARY = "primary";
+
+    private final ReplicaLagMonitor replicaLagMonitor;
+
+    public ReplicaRoutingDataSource(ReplicaLagMonitor replicaLagMonitor) {
+        this.replicaLagMonitor = replicaLagMonitor;
+        Map<Object, Object> targets = new HashMap<>();
+        targets.put(PRIMARY, replicaLagMonitor.primary());
+        for (int replica = 0; replica < replicaLagMonitor.replicaCount(); replica++) {
+            targets.put(replica, replicaLagMonitor.replica(replica));
+        }
+        setTargetDataSources(targets);
+        setDefaultTargetDataSource(replicaLagMonitor.primary());
+        setLenientFallback(false);
+        afterPropertiesSet();
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        if (!ReplicaRouter.isReplicaRead()) {
+            return PRIMARY;
+        }
+        int replica = replicaLagMonitor.pickReplica();
+        if (replica < 0) {
+            return PRIMARY;
+        }
+        return replica;
+    }
+}
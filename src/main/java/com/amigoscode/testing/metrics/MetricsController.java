@@ -0,0 +1,29 @@
+package com.amigoscode.testing.metrics;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+@RequestMapping("api/v1/metrics")
+public class MetricsController {
+
+    private final StageMetrics stageMetrics;
+
+    @Autowired
+    public MetricsController(StageMetrics stageMetrics) {
+        this.stageMetrics = stageMetrics;
+    }
+
+    @GetMapping
+    public StageMetrics.Report report() {
+        return stageMetrics.report();
+    }
+
+    @DeleteMapping
+    public void reset() {
+        stageMetrics.reset();
+    }
+}
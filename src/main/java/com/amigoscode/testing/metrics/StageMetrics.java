@@ -0,0 +1,207 @@
+package com.amigoscode.testing.metrics;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Latency histograms per named stage plus plain counters and gauges. Services look their
+ * {@link Timer}s up once and keep them in fields, so recording a stage is a
+ * {@code System.nanoTime()} and a lock-free, allocation-free histogram write.
+ */
+@Component
+public class StageMetrics {
+
+    private final ConcurrentMap<String, Timer> timers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, DoubleSupplier> gauges = new ConcurrentHashMap<>();
+    private volatile long resetAtNanos = System.nanoTime();
+
+    public Timer timer(String stage) {
+        return timers.computeIfAbsent(stage, s -> new Timer());
+    }
+
+    public LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, n -> new LongAdder());
+    }
+
+    /**
+     * Reports the current value of {@code gauge} with every {@link #report()}.
+     */
+    public void gauge(String name, DoubleSupplier gauge) {
+        gauges.put(name, gauge);
+    }
+
+    /**
+     * Percentiles and throughput of every stage since start up or the last {@link #reset()}.
+     */
+    public Report report() {
+        double seconds = Math.max(System.nanoTime() - resetAtNanos, 1) / 1e9;
+        Map<String, StageStats> stages = new TreeMap<>();
+        timers.forEach((stage, timer) -> stages.put(stage, timer.stats(seconds)));
+        Map<String, Long> counts = new TreeMap<>();
+        counters.forEach((name, counter) -> counts.put(name, counter.sum()));
+        Map<String, Double> values = new TreeMap<>();
+        gauges.forEach((name, gauge) -> values.put(name, gauge.getAsDouble()));
+        return new Report(seconds, stages, counts, values);
+    }
+
+    public void reset() {
+        timers.values().forEach(Timer::reset);
+        counters.values().forEach(LongAdder::reset);
+        resetAtNanos = System.nanoTime();
+    }
+
+    public static final class Timer {
+        private static final int SIGNIFICANT_DIGITS = 3;
+
+        private final Recorder recorder = new Recorder(SIGNIFICANT_DIGITS);
+        private final Histogram accumulated = new Histogram(SIGNIFICANT_DIGITS);
+        private Histogram interval;
+
+        private Timer() {
+        }
+
+        /**
+         * Records the time since {@code startNanos} and returns the current
+         * {@code System.nanoTime()}, which is the start of the next stage.
+         */
+        public long record(long startNanos) {
+            long now = System.nanoTime();
+            recorder.recordValue(Math.max(now - startNanos, 0));
+            return now;
+        }
+
+        private synchronized StageStats stats(double seconds) {
+            interval = recorder.getIntervalHistogram(interval);
+            accumulated.add(interval);
+            long count = accumulated.getTotalCount();
+            return new StageStats(
+                    count,
+                    count / seconds,
+                    toMicros(accumulated.getValueAtPercentile(50)),
+                    toMicros(accumulated.getValueAtPercentile(99)),
+                    toMicros(accumulated.getValueAtPercentile(99.9)),
+                    toMicros(accumulated.getMaxValue()));
+        }
+
+        private synchronized void reset() {
+            recorder.reset();
+            accumulated.reset();
+        }
+
+        private static double toMicros(long nanos) {
+            return nanos / (double) TimeUnit.MICROSECONDS.toNanos(1);
+        }
+    }
+
+    public static class StageStats {
+        private final long count;
+        private final double throughputPerSecond;
+        private final double p50Micros;
+        private final double p99Micros;
+        private final double p999Micros;
+        private final double maxMicros;
+
+        public StageStats(long count,
+                          double throughputPerSecond,
+                          double p50Micros,
+                          double p99Micros,
+                          double p999Micros,
+                          double maxMicros) {
+            this.count = count;
+            this.throughputPerSecond = throughputPerSecond;
+            this.p50Micros = p50Micros;
+            this.p99Micros = p99Micros;
+            this.p999Micros = p999Micros;
+            this.maxMicros = maxMicros;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getThroughputPerSecond() {
+            return throughputPerSecond;
+        }
+
+        public double getP50Micros() {
+            return p50Micros;
+        }
+
+        public double getP99Micros() {
+            return p99Micros;
+        }
+
+        public double getP999Micros() {
+            return p999Micros;
+        }
+
+        public double getMaxMicros() {
+            return maxMicros;
+        }
+
+        @Override
+        public String toString() {
+            return "StageStats{" +
+                    "count=" + count +
+                    ", throughputPerSecond=" + throughputPerSecond +
+                    ", p50Micros=" + p50Micros +
+                    ", p99Micros=" + p99Micros +
+                    ", p999Micros=" + p999Micros +
+                    ", maxMicros=" + maxMicros +
+                    '}';
+        }
+    }
+
+    public static class Report {
+        private final double seconds;
+        private final Map<String, StageStats> stages;
+        private final Map<String, Long> counters;
+        private final Map<String, Double> gauges;
+
+        public Report(double seconds,
+                      Map<String, StageStats> stages,
+                      Map<String, Long> counters,
+                      Map<String, Double> gauges) {
+            this.seconds = seconds;
+            this.stages = stages;
+            this.counters = counters;
+            this.gauges = gauges;
+        }
+
+        public double getSeconds() {
+            return seconds;
+        }
+
+        public Map<String, StageStats> getStages() {
+            return stages;
+        }
+
+        public Map<String, Long> getCounters() {
+            return counters;
+        }
+
+        public Map<String, Double> getGauges() {
+            return gauges;
+        }
+
+        @Override
+        public String toString() {
+            return "Report{" +
+                    "seconds=" + seconds +
+                    ", stages=" + stages +
+                    ", counters=" + counters +
+                    ", gauges=" + gauges +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.amigoscode.testing.notification;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+@RestController
+@RequestMapping("api/v1/notification")
+public class NotificationController {
+
+    private final SmsOutboxRepository smsOutboxRepository;
+
+    @Autowired
+    public NotificationController(SmsOutboxRepository smsOutboxRepository) {
+        this.smsOutboxRepository = smsOutboxRepository;
+    }
+
+    @GetMapping("sms")
+    public List<SmsOutboxMessage> getSms(@RequestParam("paymentId") long paymentId) {
+        return smsOutboxRepository.findByPaymentId(paymentId);
+    }
+}
@@ -0,0 +1,147 @@
+package com.amigoscode.testing.notification;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.UUID;
+
+/**
+ * An SMS waiting in, or delivered from, the {@code sms_outbox} table. Rows are written in
+ * the transaction of the payment they are about and sent later by {@link SmsRelay}.
+ */
+@Entity
+@Table(name = "sms_outbox", indexes = {
+        // the relay's scan for messages that are due
+        @Index(name = "sms_outbox_status_next_attempt_at_idx", columnList = "status, next_attempt_at"),
+        @Index(name = "sms_outbox_payment_id_idx", columnList = "payment_id")
+})
+public class SmsOutboxMessage {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+    @Column(name = "payment_id", nullable = false)
+    private Long paymentId;
+    @Column(name = "customer_id", nullable = false)
+    private UUID customerId;
+    @Column(nullable = false)
+    private String message;
+    @Column(nullable = false)
+    private SmsStatus status;
+    @Column(nullable = false)
+    private int attempts;
+    @Column(name = "next_attempt_at", nullable = false)
+    private Instant nextAttemptAt;
+    @Column(name = "created_at", nullable = false)
+    private Instant createdAt;
+    @Column(name = "sent_at")
+    private Instant sentAt;
+    @Column(name = "last_error")
+    private String lastError;
+    // the relay sending the message, which no other relay takes until claimed_until
+    @Column(name = "claimed_by")
+    private String claimedBy;
+    @Column(name = "claimed_until")
+    private Instant claimedUntil;
+
+    public SmsOutboxMessage(Long paymentId, UUID customerId, String message) {
+        this.paymentId = paymentId;
+        this.customerId = customerId;
+        this.message = message;
+        this.status = SmsStatus.PENDING;
+        this.createdAt = Instant.now().truncatedTo(ChronoUnit.MILLIS);
+        this.nextAttemptAt = createdAt;
+    }
+
+    public SmsOutboxMessage() {
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public Long getPaymentId() {
+        return paymentId;
+    }
+
+    public UUID getCustomerId() {
+        return customerId;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public SmsStatus getStatus() {
+        return status;
+    }
+
+    public void setStatus(SmsStatus status) {
+        this.status = status;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+
+    public Instant getNextAttemptAt() {
+        return nextAttemptAt;
+    }
+
+    public void setNextAttemptAt(Instant nextAttemptAt) {
+        this.nextAttemptAt = nextAttemptAt;
+    }
+
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(Instant createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    public Instant getSentAt() {
+        return sentAt;
+    }
+
+    public void setSentAt(Instant sentAt) {
+        this.sentAt = sentAt;
+    }
+
+    public String getLastError() {
+        return lastError;
+    }
+
+    public void setLastError(String lastError) {
+        this.lastError = lastError;
+    }
+
+    @Override
+    public String toString() {
+        return "SmsOutboxMessage{" +
+                "id=" + id +
+                ", paymentId=" + paymentId +
+                ", customerId=" + customerId +
+                ", message='" + message + '\'' +
+                ", status=" + status +
+                ", attempts=" + attempts +
+                ", nextAttemptAt=" + nextAttemptAt +
+                ", createdAt=" + createdAt +
+                ", sentAt=" + sentAt +
+                ", lastError='" + lastError + '\'' +
+                '}';
+    }
+}
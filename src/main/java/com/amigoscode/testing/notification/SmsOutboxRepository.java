@@ -0,0 +1,179 @@
+package com.amigoscode.testing.notification;
+
+import com.amigoscode.testing.utils.PhoneNumberValidator;
+import com.amigoscode.testing.utils.UuidBytes;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Plain JDBC access to the {@code sms_outbox} table, so payment writers can add their
+ * messages to the batch they are already running and the relay can settle a whole
+ * batch of attempts in one round trip. A relay claims the messages it is about to send,
+ * so relays on several instances never send the same message at once.
+ */
+@Repository
+public class SmsOutboxRepository {
+
+    private static final String INSERT = "insert into sms_outbox " +
+            "(payment_id, customer_id, message, status, attempts, next_attempt_at, created_at) " +
+            "values (?, ?, ?, ?, 0, ?, ?)";
+
+    private static final String SELECT_DUE = "select o.id, o.payment_id, o.message, o.attempts, c.phone_number_key " +
+            "from sms_outbox o join customer c on c.id = o.customer_id " +
+            "where o.status = ? and o.next_attempt_at <= ? and (o.claimed_until is null or o.claimed_until <= ?) " +
+            "order by o.next_attempt_at, o.id limit ?";
+
+    // the claim conditions are checked again, so of two relays that selected the same row one wins
+    private static final String CLAIM = "update sms_outbox set claimed_by = ?, claimed_until = ? " +
+            "where id = ? and status = ? and (claimed_until is null or claimed_until <= ?)";
+
+    private static final String UPDATE_ATTEMPT = "update sms_outbox " +
+            "set status = ?, attempts = ?, next_attempt_at = ?, sent_at = ?, last_error = ?, " +
+            "claimed_by = null, claimed_until = null " +
+            "where id = ? and claimed_by = ?";
+
+    private static final String SELECT_BY_PAYMENT = "select " +
+            "id, payment_id, customer_id, message, status, attempts, next_attempt_at, created_at, sent_at, last_error " +
+            "from sms_outbox where payment_id = ? order by id";
+
+    private static final RowMapper<SmsOutboxMessage> MESSAGE_ROW_MAPPER = (rs, rowNum) -> {
+        SmsOutboxMessage message = new SmsOutboxMessage(
+                rs.getLong("payment_id"),
+                UuidBytes.fromBytes(rs.getBytes("customer_id")),
+                rs.getString("message"));
+        message.setId(rs.getLong("id"));
+        message.setStatus(SmsStatus.values()[rs.getInt("status")]);
+        message.setAttempts(rs.getInt("attempts"));
+        message.setNextAttemptAt(rs.getTimestamp("next_attempt_at").toInstant());
+        message.setCreatedAt(rs.getTimestamp("created_at").toInstant());
+        Timestamp sentAt = rs.getTimestamp("sent_at");
+        message.setSentAt(sentAt == null ? null : sentAt.toInstant());
+        message.setLastError(rs.getString("last_error"));
+        return message;
+    };
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    public SmsOutboxRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Queues the messages. Call it in the transaction that writes what they are about.
+     */
+    public void enqueueAll(List<SmsOutboxMessage> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        jdbcTemplate.batchUpdate(INSERT, messages, messages.size(), (ps, message) -> {
+            ps.setLong(1, message.getPaymentId());
+            ps.setBytes(2, UuidBytes.toBytes(message.getCustomerId()));
+            ps.setString(3, message.getMessage());
+            ps.setInt(4, message.getStatus().ordinal());
+            ps.setTimestamp(5, Timestamp.from(message.getNextAttemptAt()));
+            ps.setTimestamp(6, Timestamp.from(message.getCreatedAt()));
+        });
+    }
+
+    /**
+     * Claims the oldest PENDING messages whose next attempt is due and that no other relay
+     * holds, for {@code claimant} until {@code claimedUntil}, and returns them with the
+     * customer's current phone number in E.164 form. A message whose claim runs out before
+     * its attempt is recorded can be claimed and sent again by another relay.
+     */
+    List<DueSms> claimDue(String claimant, Instant now, Instant claimedUntil, int limit) {
+        List<DueSms> due = jdbcTemplate.query(
+                SELECT_DUE,
+                (rs, rowNum) -> new DueSms(
+                        rs.getLong("id"),
+                        rs.getLong("payment_id"),
+                        PhoneNumberValidator.format(rs.getLong("phone_number_key")),
+                        rs.getString("message"),
+                        rs.getInt("attempts")),
+                SmsStatus.PENDING.ordinal(),
+                Timestamp.from(now),
+                Timestamp.from(now),
+                limit);
+        if (due.isEmpty()) {
+            return due;
+        }
+        List<Object[]> claims = new ArrayList<>(due.size());
+        for (DueSms sms : due) {
+            claims.add(new Object[]{
+                    claimant, Timestamp.from(claimedUntil), sms.id, SmsStatus.PENDING.ordinal(), Timestamp.from(now)});
+        }
+        int[] claimed = jdbcTemplate.batchUpdate(CLAIM, claims);
+        List<DueSms> won = new ArrayList<>(due.size());
+        for (int i = 0; i < due.size(); i++) {
+            if (claimed[i] == 1) {
+                won.add(due.get(i));
+            }
+        }
+        return won;
+    }
+
+    /**
+     * Records the attempts and releases their claims. An attempt whose claim was taken over
+     * by another relay meanwhile is not recorded, since that relay now owns the message.
+     */
+    void updateAttempts(String claimant, List<SmsAttempt> attempts) {
+        if (attempts.isEmpty()) {
+            return;
+        }
+        jdbcTemplate.batchUpdate(UPDATE_ATTEMPT, attempts, attempts.size(), (ps, attempt) -> {
+            ps.setInt(1, attempt.status.ordinal());
+            ps.setInt(2, attempt.attempts);
+            ps.setTimestamp(3, Timestamp.from(attempt.nextAttemptAt));
+            ps.setTimestamp(4, attempt.sentAt == null ? null : Timestamp.from(attempt.sentAt));
+            ps.setString(5, attempt.lastError);
+            ps.setLong(6, attempt.id);
+            ps.setString(7, claimant);
+        });
+    }
+
+    public List<SmsOutboxMessage> findByPaymentId(long paymentId) {
+        return jdbcTemplate.query(SELECT_BY_PAYMENT, MESSAGE_ROW_MAPPER, paymentId);
+    }
+
+    static final class DueSms {
+        final long id;
+        final long paymentId;
+        final String phoneNumber;
+        final String message;
+        final int attempts;
+
+        DueSms(long id, long paymentId, String phoneNumber, String message, int attempts) {
+            this.id = id;
+            this.paymentId = paymentId;
+            this.phoneNumber = phoneNumber;
+            this.message = message;
+            this.attempts = attempts;
+        }
+    }
+
+    static final class SmsAttempt {
+        final long id;
+        final SmsStatus status;
+        final int attempts;
+        final Instant nextAttemptAt;
+        final Instant sentAt;
+        final String lastError;
+
+        SmsAttempt(long id, SmsStatus status, int attempts, Instant nextAttemptAt, Instant sentAt, String lastError) {
+            this.id = id;
+            this.status = status;
+            this.attempts = attempts;
+            this.nextAttemptAt = nextAttemptAt;
+            this.sentAt = sentAt;
+            this.lastError = lastError;
+        }
+    }
+}
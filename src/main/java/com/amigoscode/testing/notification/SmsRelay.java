@@ -0,0 +1,205 @@
+package com.amigoscode.testing.notification;
+
+import com.amigoscode.testing.metrics.StageMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drains {@code sms_outbox} into the {@link SmsSender} from one background thread.
+ * <p>
+ * Every {@code notification.sms.poll-ms} it takes up to {@code batch-size} due messages,
+ * sends them no faster than {@code rate-per-second} and records every outcome in one
+ * batch update. A message the sender refuses is retried after an exponential backoff
+ * and given up as FAILED after {@code max-attempts}. Delivery is at least once: a crash
+ * between sending and recording the outcome sends that batch again.
+ * <p>
+ * The batch is claimed for {@code claim-ms} before it is sent, so relays on other instances
+ * leave it alone meanwhile. The claim has to outlast sending a whole batch at the rate limit.
+ * <p>
+ * There is no default {@link SmsSender}: the application does not start without a bean
+ * that sends through a real provider.
+ */
+@Component
+public class SmsRelay {
+
+    private static final Logger log = LoggerFactory.getLogger(SmsRelay.class);
+    private static final int MAX_ERROR_LENGTH = 255;
+
+    private final SmsOutboxRepository smsOutboxRepository;
+    private final SmsSender smsSender;
+    private final Clock clock;
+    private final long pollMillis;
+    private final int batchSize;
+    private final long sendIntervalNanos;
+    private final int maxAttempts;
+    private final long baseBackoffMillis;
+    private final long maxBackoffMillis;
+    private final long claimMillis;
+    private final String claimant = UUID.randomUUID().toString();
+    private final StageMetrics.Timer sendTimer;
+    private final LongAdder sent;
+    private final LongAdder retried;
+    private final LongAdder failed;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "sms-relay");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private long nextSendNanos = System.nanoTime();
+
+    @Autowired
+    public SmsRelay(SmsOutboxRepository smsOutboxRepository,
+                    ObjectProvider<SmsSender> smsSender,
+                    @Value("${notification.sms.poll-ms:500}") long pollMillis,
+                    @Value("${notification.sms.batch-size:100}") int batchSize,
+                    @Value("${notification.sms.rate-per-second:50}") double ratePerSecond,
+                    @Value("${notification.sms.max-attempts:5}") int maxAttempts,
+                    @Value("${notification.sms.base-backoff-ms:1000}") long baseBackoffMillis,
+                    @Value("${notification.sms.max-backoff-ms:300000}") long maxBackoffMillis,
+                    @Value("${notification.sms.claim-ms:60000}") long claimMillis,
+                    StageMetrics stageMetrics) {
+        this(smsOutboxRepository, required(smsSender.getIfAvailable()), Clock.systemUTC(), pollMillis, batchSize,
+                ratePerSecond, maxAttempts, baseBackoffMillis, maxBackoffMillis, claimMillis, stageMetrics);
+    }
+
+    SmsRelay(SmsOutboxRepository smsOutboxRepository,
+             SmsSender smsSender,
+             Clock clock,
+             long pollMillis,
+             int batchSize,
+             double ratePerSecond,
+             int maxAttempts,
+             long baseBackoffMillis,
+             long maxBackoffMillis,
+             long claimMillis,
+             StageMetrics stageMetrics) {
+        if (ratePerSecond <= 0) {
+            throw new IllegalArgumentException(String.format("Rate must be positive: %s", ratePerSecond));
+        }
+        if (claimMillis <= batchSize * 1000 / ratePerSecond) {
+            throw new IllegalArgumentException(String.format(
+                    "Claim of %d ms is too short to send %d messages at %s per second", claimMillis, batchSize, ratePerSecond));
+        }
+        this.smsOutboxRepository = smsOutboxRepository;
+        this.smsSender = smsSender;
+        this.clock = clock;
+        this.pollMillis = pollMillis;
+        this.batchSize = batchSize;
+        this.sendIntervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / ratePerSecond);
+        this.maxAttempts = maxAttempts;
+        this.baseBackoffMillis = baseBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.claimMillis = claimMillis;
+        this.sendTimer = stageMetrics.timer("sms.send");
+        this.sent = stageMetrics.counter("sms.sent");
+        this.retried = stageMetrics.counter("sms.retried");
+        this.failed = stageMetrics.counter("sms.failed");
+    }
+
+    @PostConstruct
+    void start() {
+        scheduler.scheduleWithFixedDelay(this::relayAll, pollMillis, pollMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void relayAll() {
+        try {
+            // keep going while batches come back full so a backlog drains without waiting for the next poll
+            while (relay() == batchSize) {
+                if (Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+            }
+        } catch (RuntimeException e) {
+            log.warn("SMS relay failed, retrying in {} ms", pollMillis, e);
+        }
+    }
+
+    /**
+     * Sends one batch of due messages.
+     *
+     * @return how many messages were attempted
+     */
+    int relay() {
+        Instant claimedAt = clock.instant();
+        List<SmsOutboxRepository.DueSms> due = smsOutboxRepository.claimDue(
+                claimant, claimedAt, claimedAt.plusMillis(claimMillis), batchSize);
+        List<SmsOutboxRepository.SmsAttempt> attempts = new ArrayList<>(due.size());
+        for (SmsOutboxRepository.DueSms sms : due) {
+            awaitRate();
+            int attempt = sms.attempts + 1;
+            long start = System.nanoTime();
+            try {
+                smsSender.send(sms.phoneNumber, sms.message);
+                sendTimer.record(start);
+                sent.increment();
+                Instant now = clock.instant();
+                attempts.add(new SmsOutboxRepository.SmsAttempt(sms.id, SmsStatus.SENT, attempt, now, now, null));
+            } catch (RuntimeException e) {
+                sendTimer.record(start);
+                String error = truncate(String.valueOf(e.getMessage()));
+                Instant now = clock.instant();
+                if (attempt >= maxAttempts) {
+                    failed.increment();
+                    log.warn("Giving up on SMS {} for payment {} after {} attempts", sms.id, sms.paymentId, attempt, e);
+                    attempts.add(new SmsOutboxRepository.SmsAttempt(sms.id, SmsStatus.FAILED, attempt, now, null, error));
+                } else {
+                    retried.increment();
+                    attempts.add(new SmsOutboxRepository.SmsAttempt(
+                            sms.id, SmsStatus.PENDING, attempt, now.plus(backoff(attempt)), null, error));
+                }
+            }
+        }
+        smsOutboxRepository.updateAttempts(claimant, attempts);
+        return due.size();
+    }
+
+    Duration backoff(int attempt) {
+        long millis = baseBackoffMillis << Math.min(attempt - 1, 30);
+        return Duration.ofMillis(millis <= 0 ? maxBackoffMillis : Math.min(millis, maxBackoffMillis));
+    }
+
+    private void awaitRate() {
+        long now = System.nanoTime();
+        while (nextSendNanos - now > 0 && !Thread.currentThread().isInterrupted()) {
+            LockSupport.parkNanos(nextSendNanos - now);
+            now = System.nanoTime();
+        }
+        // an idle relay does not bank sends for a burst later
+        nextSendNanos = Math.max(nextSendNanos, now) + sendIntervalNanos;
+    }
+
+    private static SmsSender required(SmsSender smsSender) {
+        if (smsSender == null) {
+            throw new IllegalStateException("No SmsSender is configured, provide one that sends through the SMS provider");
+        }
+        return smsSender;
+    }
+
+    private static String truncate(String error) {
+        return error.length() <= MAX_ERROR_LENGTH ? error : error.substring(0, MAX_ERROR_LENGTH);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        scheduler.shutdownNow();
+    }
+}
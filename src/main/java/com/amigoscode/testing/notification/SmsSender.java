@@ -0,0 +1,13 @@
+package com.amigoscode.testing.notification;
+
+/**
+ * Hands a text message to an SMS provider. {@link SmsRelay} calls it from a single
+ * thread, at most {@code notification.sms.rate-per-second} times a second.
+ */
+public interface SmsSender {
+
+    /**
+     * @throws RuntimeException if the provider did not accept the message, which is then retried
+     */
+    void send(String phoneNumber, String message);
+}
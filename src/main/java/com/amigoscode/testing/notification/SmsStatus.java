@@ -0,0 +1,7 @@
+package com.amigoscode.testing.notification;
+
+public enum SmsStatus {
+    PENDING,
+    SENT,
+    FAILED
+}
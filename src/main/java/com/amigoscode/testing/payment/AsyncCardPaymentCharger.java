@@ -0,0 +1,18 @@
+package com.amigoscode.testing.payment;
+
+import java.math.BigDecimal;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Non-blocking counterpart of {@link CardPaymentCharger}. Implementations must not
+ * hold a thread while the gateway call is in flight.
+ */
+public interface AsyncCardPaymentCharger {
+
+    CompletableFuture<CardPaymentCharge> chargeCard(
+            String cardSource,
+            BigDecimal amount,
+            Currency currency,
+            String description
+    );
+}
@@ -0,0 +1,51 @@
+package com.amigoscode.testing.payment;
+
+import java.util.UUID;
+
+public class BatchPaymentResult {
+
+    private final int index;
+    private final UUID customerId;
+    private final Long paymentId;
+    private final boolean succeeded;
+    private final String message;
+
+    public BatchPaymentResult(int index, UUID customerId, Long paymentId, boolean succeeded, String message) {
+        this.index = index;
+        this.customerId = customerId;
+        this.paymentId = paymentId;
+        this.succeeded = succeeded;
+        this.message = message;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public UUID getCustomerId() {
+        return customerId;
+    }
+
+    public Long getPaymentId() {
+        return paymentId;
+    }
+
+    public boolean isSucceeded() {
+        return succeeded;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    @Override
+    public String toString() {
+        return "BatchPaymentResult{" +
+                "index=" + index +
+                ", customerId=" + customerId +
+                ", paymentId=" + paymentId +
+                ", succeeded=" + succeeded +
+                ", message='" + message + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,33 @@
+package com.amigoscode.testing.payment;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.math.BigDecimal;
+import java.util.UUID;
+
+@RestController
+@RequestMapping("api/v1/customer")
+public class CustomerPaymentController {
+
+    private final PaymentHistoryService paymentHistoryService;
+
+    @Autowired
+    public CustomerPaymentController(PaymentHistoryService paymentHistoryService) {
+        this.paymentHistoryService = paymentHistoryService;
+    }
+
+    @GetMapping("{id}/payments")
+    public PaymentPage getPayments(@PathVariable("id") UUID customerId,
+                                   @RequestParam(value = "cursor", required = false) Long cursor,
+                                   @RequestParam(value = "currency", required = false) Currency currency,
+                                   @RequestParam(value = "minAmount", required = false) BigDecimal minAmount,
+                                   @RequestParam(value = "maxAmount", required = false) BigDecimal maxAmount,
+                                   @RequestParam(value = "limit", defaultValue = "20") int limit) {
+        return paymentHistoryService.findCustomerPayments(customerId, cursor, currency, minAmount, maxAmount, limit);
+    }
+}
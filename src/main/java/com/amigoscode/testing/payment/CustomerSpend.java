@@ -0,0 +1,104 @@
+package com.amigoscode.testing.payment;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.IdClass;
+import javax.persistence.Table;
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * One slot of a customer's running spend in one currency, maintained by
+ * {@link CustomerSpendRepository}. A customer's total is the sum of their slots;
+ * spreading it over {@code payment.spend.slots} rows lets concurrent payments of
+ * the same customer update different rows instead of queueing on one row lock.
+ */
+@Entity
+@Table(name = "customer_spend")
+@IdClass(CustomerSpend.Key.class)
+public class CustomerSpend {
+    @Id
+    @Column(name = "customer_id")
+    private UUID customerId;
+    @Id
+    private Currency currency;
+    @Id
+    private int slot;
+    @Column(nullable = false)
+    private BigDecimal total;
+    @Column(name = "payment_count", nullable = false)
+    private long paymentCount;
+
+    public CustomerSpend(UUID customerId, Currency currency, int slot, BigDecimal total, long paymentCount) {
+        this.customerId = customerId;
+        this.currency = currency;
+        this.slot = slot;
+        this.total = total;
+        this.paymentCount = paymentCount;
+    }
+
+    public CustomerSpend() {
+    }
+
+    public UUID getCustomerId() {
+        return customerId;
+    }
+
+    public Currency getCurrency() {
+        return currency;
+    }
+
+    public int getSlot() {
+        return slot;
+    }
+
+    public BigDecimal getTotal() {
+        return total;
+    }
+
+    public long getPaymentCount() {
+        return paymentCount;
+    }
+
+    @Override
+    public String toString() {
+        return "CustomerSpend{" +
+                "customerId=" + customerId +
+                ", currency=" + currency +
+                ", slot=" + slot +
+                ", total=" + total +
+                ", paymentCount=" + paymentCount +
+                '}';
+    }
+
+    public static class Key implements Serializable {
+        private UUID customerId;
+        private Currency currency;
+        private int slot;
+
+        public Key(UUID customerId, Currency currency, int slot) {
+            this.customerId = customerId;
+            this.currency = currency;
+            this.slot = slot;
+        }
+
+        public Key() {
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return slot == key.slot && Objects.equals(customerId, key.customerId) && currency == key.currency;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(customerId, currency, slot);
+        }
+    }
+}
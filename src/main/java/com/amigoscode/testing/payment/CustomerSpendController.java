@@ -0,0 +1,37 @@
+package com.amigoscode.testing.payment;
+
+import com.amigoscode.testing.datasource.ReplicaRouter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+import java.util.UUID;
+
+@RestController
+@RequestMapping("api/v1/customer")
+public class CustomerSpendController {
+
+    private final CustomerSpendRepository customerSpendRepository;
+    private final ReplicaRouter replicaRouter;
+
+    @Autowired
+    public CustomerSpendController(CustomerSpendRepository customerSpendRepository,
+                                   ReplicaRouter replicaRouter) {
+        this.customerSpendRepository = customerSpendRepository;
+        this.replicaRouter = replicaRouter;
+    }
+
+    @GetMapping("{id}/spend")
+    public List<CustomerSpendTotal> getSpend(@PathVariable("id") UUID customerId) {
+        return replicaRouter.read(customerId, () -> customerSpendRepository.findByCustomerId(customerId));
+    }
+
+    @PostMapping("spend/rebuild")
+    public int rebuildSpend() {
+        return customerSpendRepository.rebuild();
+    }
+}
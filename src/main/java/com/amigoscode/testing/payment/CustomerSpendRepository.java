@@ -0,0 +1,125 @@
+package com.amigoscode.testing.payment;
+
+import com.amigoscode.testing.payment.shard.ShardedPaymentRepository;
+import com.amigoscode.testing.utils.UuidBytes;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Keeps the {@code customer_spend} aggregate of SUCCEEDED payments in step with the
+ * {@code payment} table. Each payment is added to a random one of the customer's
+ * {@code payment.spend.slots} rows for its currency, so reading a customer's spend
+ * touches at most slots &times; currencies rows however many payments they made.
+ */
+@Repository
+public class CustomerSpendRepository {
+
+    // PostgreSQL's upsert takes a row lock on a conflict and never raises the duplicate
+    private static final String UPSERT_POSTGRESQL = "insert into customer_spend " +
+            "(customer_id, currency, slot, total, payment_count) values (?, ?, ?, ?, 1) " +
+            "on conflict (customer_id, currency, slot) do update " +
+            "set total = customer_spend.total + excluded.total, payment_count = customer_spend.payment_count + 1";
+
+    private static final String UPSERT_MERGE = "merge into customer_spend s " +
+            "using (select cast(? as binary(16)) as customer_id, cast(? as int) as currency, " +
+            "cast(? as int) as slot, cast(? as decimal(19, 2)) as amount) p " +
+            "on s.customer_id = p.customer_id and s.currency = p.currency and s.slot = p.slot " +
+            "when matched then update set total = s.total + p.amount, payment_count = s.payment_count + 1 " +
+            "when not matched then insert (customer_id, currency, slot, total, payment_count) " +
+            "values (p.customer_id, p.currency, p.slot, p.amount, 1)";
+
+    private static final String SELECT_TOTALS = "select currency, sum(total) as total, sum(payment_count) as payment_count " +
+            "from customer_spend where customer_id = ? group by currency order by currency";
+
+    private static final String TOTALS = "select customer_id, currency, 0, sum(amount), count(*) from payment " +
+            "where status = ? group by customer_id, currency";
+
+    private static final String REBUILD = "insert into customer_spend " +
+            "(customer_id, currency, slot, total, payment_count) " + TOTALS;
+
+    private final JdbcTemplate jdbcTemplate;
+    // null unless sharding is enabled
+    private final ShardedPaymentRepository shardedPaymentRepository;
+    private final int slots;
+    private final String upsert;
+
+    @Autowired
+    public CustomerSpendRepository(JdbcTemplate jdbcTemplate,
+                                   ObjectProvider<ShardedPaymentRepository> shardedPaymentRepository,
+                                   @Value("${payment.spend.slots:8}") int slots) {
+        this(jdbcTemplate, shardedPaymentRepository.getIfAvailable(), slots);
+    }
+
+    CustomerSpendRepository(JdbcTemplate jdbcTemplate, ShardedPaymentRepository shardedPaymentRepository, int slots) {
+        if (slots < 1) {
+            throw new IllegalArgumentException(String.format("Slots must be positive: %d", slots));
+        }
+        this.jdbcTemplate = jdbcTemplate;
+        this.shardedPaymentRepository = shardedPaymentRepository;
+        this.slots = slots;
+        String database = jdbcTemplate.execute(
+                (ConnectionCallback<String>) connection -> connection.getMetaData().getDatabaseProductName());
+        this.upsert = "PostgreSQL".equals(database) ? UPSERT_POSTGRESQL : UPSERT_MERGE;
+    }
+
+    /**
+     * Adds a SUCCEEDED payment to its customer's spend. Call it in the transaction that
+     * inserts the payment so the two commit or roll back together. The slot is created or
+     * incremented in one statement, as {@code insert ... on conflict} on PostgreSQL and as
+     * a standard {@code merge} elsewhere, so a concurrent first payment never makes it fail
+     * and abort the payment's transaction.
+     */
+    public void add(Payment payment) {
+        jdbcTemplate.update(upsert,
+                UuidBytes.toBytes(payment.getCustomerId()),
+                payment.getCurrency().ordinal(),
+                ThreadLocalRandom.current().nextInt(slots),
+                payment.getAmount());
+    }
+
+    public List<CustomerSpendTotal> findByCustomerId(UUID customerId) {
+        return jdbcTemplate.query(
+                SELECT_TOTALS,
+                (rs, rowNum) -> new CustomerSpendTotal(
+                        Currency.values()[rs.getInt("currency")],
+                        rs.getBigDecimal("total"),
+                        rs.getLong("payment_count")),
+                (Object) UuidBytes.toBytes(customerId));
+    }
+
+    /**
+     * Recomputes the whole aggregate from the {@code payment} table, one slot per
+     * customer and currency. Payments committed while it runs may be missed, so run it
+     * when nothing is charging. When sharded each shard is summed in turn; a customer's
+     * payments are all on one shard, so no total is split.
+     *
+     * @return the number of customer and currency rows written
+     */
+    @Transactional
+    public int rebuild() {
+        jdbcTemplate.update("delete from customer_spend");
+        if (shardedPaymentRepository == null) {
+            return jdbcTemplate.update(REBUILD, PaymentStatus.SUCCEEDED.ordinal());
+        }
+        int[] rows = {0};
+        shardedPaymentRepository.forEachShard(shard -> {
+            List<Object[]> totals = shard.query(TOTALS,
+                    (rs, rowNum) -> new Object[]{rs.getBytes(1), rs.getInt(2), rs.getInt(3), rs.getBigDecimal(4), rs.getLong(5)},
+                    PaymentStatus.SUCCEEDED.ordinal());
+            jdbcTemplate.batchUpdate("insert into customer_spend " +
+                    "(customer_id, currency, slot, total, payment_count) values (?, ?, ?, ?, ?)", totals);
+            rows[0] += totals.size();
+        });
+        return rows[0];
+    }
+}
@@ -0,0 +1,37 @@
+package com.amigoscode.testing.payment;
+
+import java.math.BigDecimal;
+
+public class CustomerSpendTotal {
+
+    private final Currency currency;
+    private final BigDecimal total;
+    private final long paymentCount;
+
+    public CustomerSpendTotal(Currency currency, BigDecimal total, long paymentCount) {
+        this.currency = currency;
+        this.total = total;
+        this.paymentCount = paymentCount;
+    }
+
+    public Currency getCurrency() {
+        return currency;
+    }
+
+    public BigDecimal getTotal() {
+        return total;
+    }
+
+    public long getPaymentCount() {
+        return paymentCount;
+    }
+
+    @Override
+    public String toString() {
+        return "CustomerSpendTotal{" +
+                "currency=" + currency +
+                ", total=" + total +
+                ", paymentCount=" + paymentCount +
+                '}';
+    }
+}
@@ -0,0 +1,417 @@
+package com.amigoscode.testing.payment;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+/**
+ * Remembers which {@code Idempotency-Key}s have completed, and the payment each one
+ * produced, so retries are answered with that payment without charging the card again.
+ * <p>
+ * Keys and request fingerprints are reduced to 128 bit SHA-256 prefixes and kept with
+ * the payment id in primitive open-addressing tables, 40 bytes per slot and 80 to 160
+ * bytes per key once load is counted. Each table is a generation covering
+ * {@code ttl / generations}; whole generations are dropped once every key in them is
+ * older than the ttl, or earlier when {@code max-keys} is hit. Keys are spread over
+ * {@value #STRIPES} stripes, each with its own generations and lock, so lookups and
+ * table resizes only block requests whose keys share a stripe. Requests still running
+ * are tracked separately so concurrent duplicates can wait for the first one.
+ */
+@Component
+public class IdempotencyKeyStore {
+
+    private static final int STRIPES = 64;
+
+    private final Clock clock;
+    private final long ttlMillis;
+    private final long generationMillis;
+    private final int maxKeys;
+    private final long waitTimeoutMillis;
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    private final ConcurrentHashMap<Digest, InFlight> inFlight = new ConcurrentHashMap<>();
+    private final AtomicInteger completedKeys = new AtomicInteger();
+    private final Object trimLock = new Object();
+
+    @Autowired
+    public IdempotencyKeyStore(@Value("${payment.idempotency.ttl-hours:24}") long ttlHours,
+                               @Value("${payment.idempotency.generations:24}") int generations,
+                               @Value("${payment.idempotency.max-keys:250000}") int maxKeys,
+                               @Value("${payment.idempotency.wait-timeout-ms:30000}") long waitTimeoutMillis) {
+        this(Clock.systemUTC(), Duration.ofHours(ttlHours), generations, maxKeys, waitTimeoutMillis);
+    }
+
+    IdempotencyKeyStore(Clock clock, Duration ttl, int generations, int maxKeys, long waitTimeoutMillis) {
+        this.clock = clock;
+        this.ttlMillis = ttl.toMillis();
+        this.generationMillis = Math.max(1, ttlMillis / generations);
+        this.maxKeys = maxKeys;
+        this.waitTimeoutMillis = waitTimeoutMillis;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * Runs {@code action} unless a request with the same key already completed or is
+     * running, in which case the payment it produced is returned instead.
+     *
+     * @param action charges the card and returns the id of the payment written
+     */
+    public Outcome execute(String idempotencyKey, Fingerprint fingerprint, LongSupplier action) {
+        Digest key = Digest.of(idempotencyKey);
+        Long completed = completedPaymentId(key, fingerprint);
+        if (completed != null) {
+            return new Outcome(completed, true);
+        }
+
+        InFlight mine = new InFlight(fingerprint);
+        InFlight running = inFlight.putIfAbsent(key, mine);
+        if (running != null) {
+            checkFingerprint(running.fingerprint, fingerprint);
+            return new Outcome(awaitOutcome(running), true);
+        }
+
+        try {
+            completed = completedPaymentId(key, fingerprint);
+            if (completed != null) {
+                mine.paymentId.complete(completed);
+                return new Outcome(completed, true);
+            }
+            long paymentId = action.getAsLong();
+            complete(key, fingerprint, paymentId);
+            mine.paymentId.complete(paymentId);
+            return new Outcome(paymentId, false);
+        } catch (RuntimeException e) {
+            mine.paymentId.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    int size() {
+        long now = clock.millis();
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                expire(stripe, now);
+            }
+        }
+        return completedKeys.get();
+    }
+
+    private Long completedPaymentId(Digest key, Fingerprint fingerprint) {
+        Stripe stripe = stripe(key);
+        synchronized (stripe) {
+            expire(stripe, clock.millis());
+            Iterator<Generation> newestFirst = stripe.generations.descendingIterator();
+            while (newestFirst.hasNext()) {
+                Generation generation = newestFirst.next();
+                int slot = generation.find(key.high, key.low);
+                if (slot >= 0) {
+                    checkFingerprint(generation.fingerprintAt(slot), fingerprint);
+                    return generation.paymentIdAt(slot);
+                }
+            }
+            return null;
+        }
+    }
+
+    private void complete(Digest key, Fingerprint fingerprint, long paymentId) {
+        long now = clock.millis();
+        long epoch = now / generationMillis;
+        Stripe stripe = stripe(key);
+        synchronized (stripe) {
+            expire(stripe, now);
+            Generation current = stripe.generations.peekLast();
+            if (current == null || current.epoch < epoch) {
+                current = new Generation(epoch);
+                stripe.generations.addLast(current);
+            }
+            if (current.put(key.high, key.low, fingerprint.digest.high, fingerprint.digest.low, paymentId)) {
+                completedKeys.incrementAndGet();
+            }
+        }
+        if (completedKeys.get() > maxKeys) {
+            trim();
+        }
+    }
+
+    /**
+     * Drops the oldest generation from every stripe, until the store is back under
+     * {@code max-keys} or only the newest generation is left. Runs once per generation
+     * at most when the store is full, so it may lock each stripe in turn.
+     */
+    private void trim() {
+        synchronized (trimLock) {
+            while (completedKeys.get() > maxKeys) {
+                long oldest = Long.MAX_VALUE;
+                long newest = Long.MIN_VALUE;
+                for (Stripe stripe : stripes) {
+                    synchronized (stripe) {
+                        if (!stripe.generations.isEmpty()) {
+                            oldest = Math.min(oldest, stripe.generations.peekFirst().epoch);
+                            newest = Math.max(newest, stripe.generations.peekLast().epoch);
+                        }
+                    }
+                }
+                if (oldest >= newest) {
+                    return;
+                }
+                for (Stripe stripe : stripes) {
+                    synchronized (stripe) {
+                        dropThrough(stripe, oldest);
+                    }
+                }
+            }
+        }
+    }
+
+    private void expire(Stripe stripe, long now) {
+        // keys in a generation were completed at most generationMillis after it started
+        dropThrough(stripe, Math.floorDiv(now - ttlMillis, generationMillis) - 1);
+    }
+
+    private void dropThrough(Stripe stripe, long epoch) {
+        while (!stripe.generations.isEmpty() && stripe.generations.peekFirst().epoch <= epoch) {
+            completedKeys.addAndGet(-stripe.generations.removeFirst().size);
+        }
+    }
+
+    private Stripe stripe(Digest key) {
+        // slots are picked from the high half, so the low half spreads keys over stripes
+        return stripes[(int) (key.low >>> 58)];
+    }
+
+    private long awaitOutcome(InFlight running) {
+        try {
+            return running.paymentId.get(waitTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (TimeoutException e) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "A request with this Idempotency-Key is still in progress");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void checkFingerprint(Fingerprint expected, Fingerprint actual) {
+        if (!expected.equals(actual)) {
+            throw new ResponseStatusException(HttpStatus.UNPROCESSABLE_ENTITY,
+                    "Idempotency-Key was already used with a different request");
+        }
+    }
+
+    /**
+     * The payment a key produced, and whether it was produced by an earlier request.
+     */
+    public static final class Outcome {
+        private final long paymentId;
+        private final boolean replayed;
+
+        private Outcome(long paymentId, boolean replayed) {
+            this.paymentId = paymentId;
+            this.replayed = replayed;
+        }
+
+        public long getPaymentId() {
+            return paymentId;
+        }
+
+        public boolean isReplayed() {
+            return replayed;
+        }
+    }
+
+    /**
+     * 128 bit SHA-256 prefix of the fields that make a request what it is. Callers pass
+     * the fields already normalized, so requests that mean the same thing match.
+     */
+    public static final class Fingerprint {
+        private final Digest digest;
+
+        private Fingerprint(Digest digest) {
+            this.digest = digest;
+        }
+
+        public static Fingerprint of(Object... fields) {
+            StringBuilder text = new StringBuilder();
+            for (Object field : fields) {
+                String value = String.valueOf(field);
+                // length prefixed, so no two different field lists share a text
+                text.append(value.length()).append(':').append(value);
+            }
+            return new Fingerprint(Digest.of(text.toString()));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            return digest.equals(((Fingerprint) o).digest);
+        }
+
+        @Override
+        public int hashCode() {
+            return digest.hashCode();
+        }
+    }
+
+    /**
+     * The generations of the keys that fall in one stripe, oldest first, guarded by the
+     * stripe itself.
+     */
+    private static final class Stripe {
+        private final ArrayDeque<Generation> generations = new ArrayDeque<>();
+    }
+
+    private static final class InFlight {
+        private final Fingerprint fingerprint;
+        private final CompletableFuture<Long> paymentId = new CompletableFuture<>();
+
+        private InFlight(Fingerprint fingerprint) {
+            this.fingerprint = fingerprint;
+        }
+    }
+
+    private static final class Digest {
+        private final long high;
+        private final long low;
+
+        private Digest(long high, long low) {
+            this.high = high;
+            this.low = low;
+        }
+
+        static Digest of(String text) {
+            try {
+                byte[] digest = MessageDigest.getInstance("SHA-256")
+                        .digest(text.getBytes(StandardCharsets.UTF_8));
+                ByteBuffer buffer = ByteBuffer.wrap(digest);
+                long high = buffer.getLong();
+                long low = buffer.getLong();
+                // (0, 0) marks an empty slot
+                return high == 0 && low == 0 ? new Digest(0, 1) : new Digest(high, low);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Digest digest = (Digest) o;
+            return high == digest.high && low == digest.low;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(high * 31 + low);
+        }
+    }
+
+    /**
+     * Linear-probing table of (key high, key low, fingerprint high, fingerprint low,
+     * payment id) slots.
+     */
+    private static final class Generation {
+        private static final int STRIDE = 5;
+
+        private final long epoch;
+        private long[] slots = new long[16 * STRIDE];
+        private int size;
+
+        private Generation(long epoch) {
+            this.epoch = epoch;
+        }
+
+        int find(long high, long low) {
+            int mask = slots.length / STRIDE - 1;
+            int slot = (int) (high ^ (high >>> 32)) & mask;
+            while (true) {
+                int offset = slot * STRIDE;
+                if (slots[offset] == high && slots[offset + 1] == low) {
+                    return slot;
+                }
+                if (slots[offset] == 0 && slots[offset + 1] == 0) {
+                    return -1;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+
+        Fingerprint fingerprintAt(int slot) {
+            return new Fingerprint(new Digest(slots[slot * STRIDE + 2], slots[slot * STRIDE + 3]));
+        }
+
+        long paymentIdAt(int slot) {
+            return slots[slot * STRIDE + 4];
+        }
+
+        /**
+         * @return true if the key was not in this generation yet
+         */
+        boolean put(long high, long low, long fingerprintHigh, long fingerprintLow, long paymentId) {
+            if ((size + 1) * 2 > slots.length / STRIDE) {
+                long[] old = slots;
+                slots = new long[old.length * 2];
+                for (int offset = 0; offset < old.length; offset += STRIDE) {
+                    if (old[offset] != 0 || old[offset + 1] != 0) {
+                        insert(old[offset], old[offset + 1], old[offset + 2], old[offset + 3], old[offset + 4]);
+                    }
+                }
+            }
+            if (insert(high, low, fingerprintHigh, fingerprintLow, paymentId)) {
+                size++;
+                return true;
+            }
+            return false;
+        }
+
+        private boolean insert(long high, long low, long fingerprintHigh, long fingerprintLow, long paymentId) {
+            int mask = slots.length / STRIDE - 1;
+            int slot = (int) (high ^ (high >>> 32)) & mask;
+            while (true) {
+                int offset = slot * STRIDE;
+                if (slots[offset] == 0 && slots[offset + 1] == 0) {
+                    slots[offset] = high;
+                    slots[offset + 1] = low;
+                    slots[offset + 2] = fingerprintHigh;
+                    slots[offset + 3] = fingerprintLow;
+                    slots[offset + 4] = paymentId;
+                    return true;
+                }
+                if (slots[offset] == high && slots[offset + 1] == low) {
+                    slots[offset + 2] = fingerprintHigh;
+                    slots[offset + 3] = fingerprintLow;
+                    slots[offset + 4] = paymentId;
+                    return false;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+    }
+}
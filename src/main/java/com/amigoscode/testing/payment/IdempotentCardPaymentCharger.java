@@ -0,0 +1,24 @@
+package com.amigoscode.testing.payment;
+
+import java.math.BigDecimal;
+
+/**
+ * {@link CardPaymentCharger} whose gateway deduplicates charges sent with the same
+ * idempotency key, so the same charge may safely be sent more than once.
+ */
+public interface IdempotentCardPaymentCharger extends CardPaymentCharger {
+
+    CardPaymentCharge chargeCard(
+            String idempotencyKey,
+            String cardSource,
+            BigDecimal amount,
+            Currency currency,
+            String description
+    );
+
+    /**
+     * Gives back the money of a charge this gateway made, such as the losing attempt of
+     * a hedged charge that went through on two accounts.
+     */
+    void refund(CardPaymentCharge charge);
+}
@@ -1,22 +1,54 @@
 package com.amigoscode.testing.payment;
 
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+
+import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.PrePersist;
+import javax.persistence.Table;
 import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
 import java.util.Objects;
 import java.util.UUID;
 
 @Entity
+@Table(indexes = {
+        // a customer's history, newest first, read a page at a time by PaymentJdbcRepository
+        @Index(name = "payment_customer_id_payment_id_idx", columnList = "customer_id, payment_id desc"),
+        @Index(name = "payment_customer_id_currency_payment_id_idx", columnList = "customer_id, currency, payment_id desc"),
+        @Index(name = "payment_created_at_idx", columnList = "created_at"),
+        // payments left PENDING, found by PendingPaymentSweeper
+        @Index(name = "payment_status_created_at_idx", columnList = "status, created_at")
+})
 public class Payment {
     @Id
-    @GeneratedValue
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "payment_id_generator")
+    @GenericGenerator(
+            name = "payment_id_generator",
+            strategy = "enhanced-sequence",
+            parameters = {
+                    @Parameter(name = "sequence_name", value = PaymentIdAllocator.SEQUENCE_NAME),
+                    @Parameter(name = "increment_size", value = "" + PaymentIdAllocator.BLOCK_SIZE),
+                    @Parameter(name = "optimizer", value = "pooled-lo")
+            }
+    )
+    @Column(name = "payment_id")
     private Long paymentId;
+    @Column(name = "customer_id")
     private UUID customerId;
     private BigDecimal amount;
     private Currency currency;
     private String source;
     private String description;
+    private PaymentStatus status;
+    @Column(name = "created_at")
+    private Instant createdAt;
 
     public Payment(Long paymentId, UUID customerId, BigDecimal amount, Currency currency, String source, String description) {
         this.paymentId = paymentId;
@@ -78,6 +110,30 @@ public class Payment {
         this.description = description;
     }
 
+    public PaymentStatus getStatus() {
+        return status;
+    }
+
+    public void setStatus(PaymentStatus status) {
+        this.status = status;
+    }
+
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(Instant createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    @PrePersist
+    void onCreate() {
+        if (createdAt == null) {
+            // millisecond precision survives a round trip through any database timestamp
+            createdAt = Instant.now().truncatedTo(ChronoUnit.MILLIS);
+        }
+    }
+
     @Override
     public String toString() {
         return "Payment{" +
@@ -87,6 +143,8 @@ public class Payment {
                 ", currency=" + currency +
                 ", source='" + source + '\'' +
                 ", description='" + description + '\'' +
+                ", status=" + status +
+                ", createdAt=" + createdAt +
                 '}';
     }
 
@@ -95,11 +153,11 @@ public class Payment {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         Payment payment = (Payment) o;
-        return paymentId.equals(payment.paymentId) && customerId.equals(payment.customerId) && amount.equals(payment.amount) && currency == payment.currency && source.equals(payment.source) && description.equals(payment.description);
+        return paymentId.equals(payment.paymentId) && customerId.equals(payment.customerId) && amount.equals(payment.amount) && currency == payment.currency && source.equals(payment.source) && description.equals(payment.description) && status == payment.status && Objects.equals(createdAt, payment.createdAt);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(paymentId, customerId, amount, currency, source, description);
+        return Objects.hash(paymentId, customerId, amount, currency, source, description, status, createdAt);
     }
 }
@@ -0,0 +1,166 @@
+package com.amigoscode.testing.payment;
+
+import com.amigoscode.testing.customer.CustomerIdRegistry;
+import com.amigoscode.testing.customer.CustomerJdbcRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+
+@Service
+public class PaymentBatchService {
+
+    private final CustomerJdbcRepository customerJdbcRepository;
+    private final CustomerIdRegistry customerIdRegistry;
+    private final AsyncCardPaymentCharger asyncCardPaymentCharger;
+    private final PaymentWriter paymentWriter;
+    // charges in flight across all batches
+    private final Semaphore chargePermits;
+
+    @Autowired
+    public PaymentBatchService(CustomerJdbcRepository customerJdbcRepository,
+                               CustomerIdRegistry customerIdRegistry,
+                               AsyncCardPaymentCharger asyncCardPaymentCharger,
+                               PaymentWriter paymentWriter,
+                               @Value("${payment.batch.concurrency:8}") int concurrency) {
+        this.customerJdbcRepository = customerJdbcRepository;
+        this.customerIdRegistry = customerIdRegistry;
+        this.asyncCardPaymentCharger = asyncCardPaymentCharger;
+        this.paymentWriter = paymentWriter;
+        this.chargePermits = new Semaphore(concurrency);
+    }
+
+    /**
+     * Charges every request on its own and answers with one result per request, in order.
+     * A request that is invalid, declined or could not be recorded fails alone.
+     */
+    List<BatchPaymentResult> chargeCards(List<PaymentRequest> paymentRequests) {
+        // 1. Reject malformed requests before anything else looks at them
+        BatchPaymentResult[] results = new BatchPaymentResult[paymentRequests.size()];
+        for (int i = 0; i < paymentRequests.size(); i++) {
+            String problem = validate(paymentRequests.get(i));
+            if (problem != null) {
+                Payment payment = paymentRequests.get(i) == null ? null : paymentRequests.get(i).getPayment();
+                results[i] = new BatchPaymentResult(i, payment == null ? null : payment.getCustomerId(), null, false, problem);
+            }
+        }
+
+        // 2. Look up every customer the registry does not know in a single query
+        Set<UUID> customerIds = new HashSet<>();
+        for (int i = 0; i < results.length; i++) {
+            if (results[i] == null) {
+                customerIds.add(paymentRequests.get(i).getPayment().getCustomerId());
+            }
+        }
+        Set<UUID> existingCustomerIds = new HashSet<>();
+        Set<UUID> unknownCustomerIds = new HashSet<>();
+        customerIds.forEach(id -> (customerIdRegistry.contains(id) ? existingCustomerIds : unknownCustomerIds).add(id));
+        if (!unknownCustomerIds.isEmpty()) {
+            customerJdbcRepository.findAllById(unknownCustomerIds).forEach(c -> {
+                existingCustomerIds.add(c.getId());
+                customerIdRegistry.register(c.getId());
+            });
+        }
+
+        // 3. Validate and charge cards, never more than payment.batch.concurrency at once
+        List<CompletableFuture<BatchPaymentResult>> futures = new ArrayList<>(paymentRequests.size());
+        for (int i = 0; i < paymentRequests.size(); i++) {
+            int index = i;
+            if (results[i] != null) {
+                continue;
+            }
+            Payment payment = paymentRequests.get(i).getPayment();
+            if (!existingCustomerIds.contains(payment.getCustomerId())) {
+                results[i] = failed(index, payment, "Not a customer");
+            } else if (!PaymentService.isCurrencySupported(payment.getCurrency())) {
+                results[i] = failed(index, payment, "This currency is not supported");
+            } else {
+                futures.add(charge(index, payment));
+            }
+        }
+
+        List<Integer> debitedIndexes = new ArrayList<>();
+        List<Payment> debitedPayments = new ArrayList<>();
+        for (CompletableFuture<BatchPaymentResult> future : futures) {
+            BatchPaymentResult outcome = future.join();
+            results[outcome.getIndex()] = outcome;
+            if (outcome.isSucceeded()) {
+                Payment payment = paymentRequests.get(outcome.getIndex()).getPayment();
+                payment.setStatus(PaymentStatus.SUCCEEDED);
+                debitedIndexes.add(outcome.getIndex());
+                debitedPayments.add(payment);
+            }
+        }
+
+        // 4. Insert all debited payments, their spend and SMS as one JDBC batch, which assigns their ids
+        List<RuntimeException> failures = paymentWriter.writeAll(debitedPayments);
+        for (int i = 0; i < debitedPayments.size(); i++) {
+            Payment payment = debitedPayments.get(i);
+            int index = debitedIndexes.get(i);
+            results[index] = failures.get(i) == null
+                    ? new BatchPaymentResult(index, payment.getCustomerId(), payment.getPaymentId(), true, null)
+                    : failed(index, payment, "The card was debited but the payment could not be recorded");
+        }
+        return Arrays.asList(results);
+    }
+
+    private static String validate(PaymentRequest paymentRequest) {
+        Payment payment = paymentRequest == null ? null : paymentRequest.getPayment();
+        if (payment == null) {
+            return "Missing payment";
+        }
+        if (payment.getCustomerId() == null) {
+            return "Missing customerId";
+        }
+        if (payment.getAmount() == null) {
+            return "Missing amount";
+        }
+        if (payment.getCurrency() == null) {
+            return "Missing currency";
+        }
+        if (payment.getSource() == null) {
+            return "Missing source";
+        }
+        return null;
+    }
+
+    private CompletableFuture<BatchPaymentResult> charge(int index, Payment payment) {
+        chargePermits.acquireUninterruptibly();
+        CompletableFuture<CardPaymentCharge> charge;
+        try {
+            charge = asyncCardPaymentCharger.chargeCard(
+                    payment.getSource(),
+                    payment.getAmount(),
+                    payment.getCurrency(),
+                    payment.getDescription());
+        } catch (RuntimeException e) {
+            charge = CompletableFuture.failedFuture(e);
+        }
+        return charge.handle((paymentCharge, failure) -> {
+            chargePermits.release();
+            if (failure != null) {
+                Throwable cause = failure instanceof CompletionException && failure.getCause() != null
+                        ? failure.getCause()
+                        : failure;
+                return failed(index, payment, cause.getMessage());
+            }
+            if (!paymentCharge.isCardDebited()) {
+                return failed(index, payment, "The card was not successfully debited");
+            }
+            return new BatchPaymentResult(index, payment.getCustomerId(), null, true, null);
+        });
+    }
+
+    private static BatchPaymentResult failed(int index, Payment payment, String message) {
+        return new BatchPaymentResult(index, payment.getCustomerId(), null, false, message);
+    }
+}
@@ -1,8 +1,23 @@
 package com.amigoscode.testing.payment;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.server.ResponseStatusException;
 
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.URI;
+import java.time.Instant;
+import java.util.List;
+import java.util.Locale;
 import java.util.Optional;
 import java.util.UUID;
 
@@ -11,24 +26,203 @@ import java.util.UUID;
 public class PaymentController {
 
     private final PaymentService paymentService;
+    private final PaymentBatchService paymentBatchService;
+    private final IdempotencyKeyStore idempotencyKeyStore;
+    private final PaymentExportService paymentExportService;
+    private final PaymentResponseCache paymentResponseCache;
 
     @Autowired
-    public PaymentController(PaymentService paymentService) {
+    public PaymentController(PaymentService paymentService,
+                             PaymentBatchService paymentBatchService,
+                             IdempotencyKeyStore idempotencyKeyStore,
+                             PaymentExportService paymentExportService,
+                             PaymentResponseCache paymentResponseCache) {
         this.paymentService = paymentService;
+        this.paymentBatchService = paymentBatchService;
+        this.idempotencyKeyStore = idempotencyKeyStore;
+        this.paymentExportService = paymentExportService;
+        this.paymentResponseCache = paymentResponseCache;
     }
 
     @GetMapping("{id}")
-    public Optional<Payment> getPayment(@PathVariable("id") String paymentId) {
+    public ResponseEntity<byte[]> getPayment(@PathVariable("id") String paymentId,
+                                             @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+                                             WebRequest request) {
+        Long id;
         try {
-            Long id = Long.valueOf(paymentId);
-            return paymentService.findPaymentById(id);
+            id = Long.valueOf(paymentId);
         } catch (NumberFormatException e) {
             throw new NumberFormatException(String.format("Not a Long value: ", paymentId));
         }
+        boolean cbor = prefersCbor(accept);
+        PaymentResponseCache.CachedBody cachedBody = paymentResponseCache.get(id, cbor);
+        if (cachedBody == null) {
+            Optional<Payment> payment = paymentService.findPaymentById(id);
+            if (payment.isEmpty()) {
+                return ResponseEntity.ok().build();
+            }
+            cachedBody = paymentResponseCache.put(payment.get()).body(cbor);
+        }
+        if (request.checkNotModified(cachedBody.getETag())) {
+            // the response is already a 304 carrying the ETag
+            return null;
+        }
+        return ResponseEntity.ok()
+                .contentType(cbor ? MediaType.APPLICATION_CBOR : MediaType.APPLICATION_JSON)
+                .eTag(cachedBody.getETag())
+                .varyBy(HttpHeaders.ACCEPT)
+                .body(cachedBody.getBody());
+    }
+
+    @GetMapping("export")
+    public void exportPayments(@RequestParam(value = "format", defaultValue = "csv") String format,
+                               @RequestParam(value = "from", required = false)
+                               @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant from,
+                               @RequestParam(value = "to", required = false)
+                               @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant to,
+                               @RequestParam(value = "currency", required = false) Currency currency,
+                               HttpServletResponse response) throws IOException {
+        PaymentExportFormat exportFormat;
+        try {
+            exportFormat = PaymentExportFormat.valueOf(format.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, String.format("Unknown export format [%s]", format));
+        }
+        response.setContentType(exportFormat.getContentType());
+        response.setCharacterEncoding("UTF-8");
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION,
+                "attachment; filename=\"payments." + exportFormat.getFileExtension() + "\"");
+        paymentExportService.exportPayments(exportFormat, from, to, currency, response.getOutputStream());
     }
 
     @PostMapping
-    public void makePayment(@RequestBody PaymentRequest paymentRequest) {
-        paymentService.chargeCard(paymentRequest.getPayment().getCustomerId(), paymentRequest);
+    public ResponseEntity<?> makePayment(@RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey,
+                                         @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+                                         @RequestBody PaymentRequest paymentRequest) {
+        UUID customerId = paymentRequest.getPayment().getCustomerId();
+        if (idempotencyKey == null) {
+            Payment payment = chargeCard(customerId, paymentRequest);
+            return ResponseEntity.ok()
+                    .location(paymentUri(payment.getPaymentId()))
+                    .body(payment);
+        }
+        Payment[] charged = new Payment[1];
+        IdempotencyKeyStore.Outcome outcome = idempotencyKeyStore.execute(
+                idempotencyKey,
+                fingerprint(paymentRequest.getPayment()),
+                () -> {
+                    charged[0] = chargeCard(customerId, paymentRequest);
+                    return charged[0].getPaymentId();
+                });
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .header("Idempotent-Replayed", String.valueOf(outcome.isReplayed()))
+                .location(paymentUri(outcome.getPaymentId()));
+        return outcome.isReplayed() ? replay(response, outcome.getPaymentId(), accept) : response.body(charged[0]);
+    }
+
+    @PostMapping(headers = "Prefer=respond-async")
+    public ResponseEntity<?> submitPayment(@RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey,
+                                           @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+                                           @RequestBody PaymentRequest paymentRequest) {
+        UUID customerId = paymentRequest.getPayment().getCustomerId();
+        if (idempotencyKey == null) {
+            Payment payment = paymentService.submitPayment(customerId, paymentRequest);
+            return ResponseEntity
+                    .accepted()
+                    .location(paymentUri(payment.getPaymentId()))
+                    .body(payment);
+        }
+        Payment[] submitted = new Payment[1];
+        IdempotencyKeyStore.Outcome outcome = idempotencyKeyStore.execute(
+                idempotencyKey,
+                fingerprint(paymentRequest.getPayment()),
+                () -> {
+                    submitted[0] = paymentService.submitPayment(customerId, paymentRequest);
+                    return submitted[0].getPaymentId();
+                });
+        ResponseEntity.BodyBuilder response = ResponseEntity
+                .accepted()
+                .header("Idempotent-Replayed", String.valueOf(outcome.isReplayed()))
+                .location(paymentUri(outcome.getPaymentId()));
+        return outcome.isReplayed() ? replay(response, outcome.getPaymentId(), accept) : response.body(submitted[0]);
+    }
+
+    @PostMapping("batch")
+    public List<BatchPaymentResult> makePayments(@RequestBody List<PaymentRequest> paymentRequests) {
+        List<BatchPaymentResult> results = paymentBatchService.chargeCards(paymentRequests);
+        results.stream()
+                .filter(BatchPaymentResult::isSucceeded)
+                .forEach(result -> paymentResponseCache.put(paymentRequests.get(result.getIndex()).getPayment()));
+        return results;
+    }
+
+    private Payment chargeCard(UUID customerId, PaymentRequest paymentRequest) {
+        Payment payment = paymentService.chargeCard(customerId, paymentRequest);
+        // written payments never change, so the first GET can already be served from the cache
+        paymentResponseCache.put(payment);
+        return payment;
+    }
+
+    /**
+     * Answers a retry with the payment an earlier request with the same Idempotency-Key
+     * produced, from the response cache, so a retry storm reaches neither the gateway nor
+     * the database. A payment that is not cached, because it is still pending or was
+     * evicted, is answered with its {@code Location} and no body.
+     */
+    private ResponseEntity<?> replay(ResponseEntity.BodyBuilder response, long paymentId, String accept) {
+        boolean cbor = prefersCbor(accept);
+        PaymentResponseCache.CachedBody cachedBody = paymentResponseCache.get(paymentId, cbor);
+        if (cachedBody == null) {
+            return response.build();
+        }
+        return response
+                .contentType(cbor ? MediaType.APPLICATION_CBOR : MediaType.APPLICATION_JSON)
+                .eTag(cachedBody.getETag())
+                .varyBy(HttpHeaders.ACCEPT)
+                .body(cachedBody.getBody());
+    }
+
+    private static URI paymentUri(Long paymentId) {
+        return URI.create("/api/v1/payment/" + paymentId);
+    }
+
+    /**
+     * True if the most preferred type in the Accept header that either format satisfies only
+     * CBOR does. Wildcards and a missing or unreadable header get JSON, as before.
+     */
+    static boolean prefersCbor(String accept) {
+        if (accept == null || accept.indexOf("cbor") < 0) {
+            return false;
+        }
+        List<MediaType> mediaTypes;
+        try {
+            mediaTypes = MediaType.parseMediaTypes(accept);
+        } catch (InvalidMediaTypeException e) {
+            return false;
+        }
+        MediaType.sortBySpecificityAndQuality(mediaTypes);
+        for (MediaType mediaType : mediaTypes) {
+            if (mediaType.isCompatibleWith(MediaType.APPLICATION_JSON)) {
+                return false;
+            }
+            if (mediaType.isCompatibleWith(MediaType.APPLICATION_CBOR)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The request fields that decide what is charged, normalized so that equal amounts
+     * written with a different scale, such as 10.0 and 10.00, are the same request.
+     */
+    static IdempotencyKeyStore.Fingerprint fingerprint(Payment payment) {
+        BigDecimal amount = payment.getAmount();
+        return IdempotencyKeyStore.Fingerprint.of(
+                payment.getCustomerId(),
+                amount == null ? null : amount.stripTrailingZeros().toPlainString(),
+                payment.getCurrency(),
+                payment.getSource(),
+                payment.getDescription());
     }
 }
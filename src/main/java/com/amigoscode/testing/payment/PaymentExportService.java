@@ -0,0 +1,130 @@
+package com.amigoscode.testing.payment;
+
+import com.amigoscode.testing.utils.UuidBytes;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+
+/**
+ * Writes payments as CSV or newline delimited JSON while they are read off the
+ * database cursor: each row goes from the {@link ResultSet} to a buffered writer
+ * without becoming a {@link Payment}, so memory use does not grow with the export.
+ */
+@Service
+public class PaymentExportService {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final String CSV_HEADER =
+            "payment_id,customer_id,amount,currency,source,description,status,created_at\n";
+
+    private final PaymentJdbcRepository paymentJdbcRepository;
+    private final JsonFactory jsonFactory;
+
+    @Autowired
+    public PaymentExportService(PaymentJdbcRepository paymentJdbcRepository, ObjectMapper objectMapper) {
+        this.paymentJdbcRepository = paymentJdbcRepository;
+        this.jsonFactory = objectMapper.getFactory();
+    }
+
+    public void exportPayments(PaymentExportFormat format,
+                               Instant from,
+                               Instant to,
+                               Currency currency,
+                               OutputStream out) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE);
+        try {
+            if (format == PaymentExportFormat.CSV) {
+                writer.write(CSV_HEADER);
+                paymentJdbcRepository.exportPayments(from, to, currency, rs -> writeCsv(rs, writer));
+            } else {
+                JsonGenerator generator = jsonFactory.createGenerator(writer);
+                generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+                generator.setRootValueSeparator(null);
+                paymentJdbcRepository.exportPayments(from, to, currency, rs -> writeJson(rs, generator));
+                generator.flush();
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        writer.flush();
+    }
+
+    private static void writeCsv(ResultSet rs, Writer writer) throws SQLException {
+        try {
+            writer.write(Long.toString(rs.getLong("payment_id")));
+            writer.write(',');
+            writer.write(UuidBytes.fromBytes(rs.getBytes("customer_id")).toString());
+            writer.write(',');
+            writer.write(rs.getBigDecimal("amount").toPlainString());
+            writer.write(',');
+            writer.write(Currency.values()[rs.getInt("currency")].name());
+            writer.write(',');
+            writeCsvField(writer, rs.getString("source"));
+            writer.write(',');
+            writeCsvField(writer, rs.getString("description"));
+            writer.write(',');
+            writeCsvField(writer, status(rs));
+            writer.write(',');
+            writeCsvField(writer, createdAt(rs));
+            writer.write('\n');
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void writeCsvField(Writer writer, String value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            writer.write(value);
+            return;
+        }
+        writer.write('"');
+        writer.write(value.replace("\"", "\"\""));
+        writer.write('"');
+    }
+
+    private static void writeJson(ResultSet rs, JsonGenerator generator) throws SQLException {
+        try {
+            generator.writeStartObject();
+            generator.writeNumberField("paymentId", rs.getLong("payment_id"));
+            generator.writeStringField("customerId", UuidBytes.fromBytes(rs.getBytes("customer_id")).toString());
+            generator.writeNumberField("amount", rs.getBigDecimal("amount"));
+            generator.writeStringField("currency", Currency.values()[rs.getInt("currency")].name());
+            generator.writeStringField("source", rs.getString("source"));
+            generator.writeStringField("description", rs.getString("description"));
+            generator.writeStringField("status", status(rs));
+            generator.writeStringField("createdAt", createdAt(rs));
+            generator.writeEndObject();
+            generator.writeRaw('\n');
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static String status(ResultSet rs) throws SQLException {
+        int status = rs.getInt("status");
+        return rs.wasNull() ? null : PaymentStatus.values()[status].name();
+    }
+
+    private static String createdAt(ResultSet rs) throws SQLException {
+        Timestamp createdAt = rs.getTimestamp("created_at");
+        return createdAt == null ? null : createdAt.toInstant().toString();
+    }
+}
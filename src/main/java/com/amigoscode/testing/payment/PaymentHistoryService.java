@@ -0,0 +1,47 @@
+package com.amigoscode.testing.payment;
+
+import com.amigoscode.testing.datasource.ReplicaRouter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.UUID;
+
+@Service
+public class PaymentHistoryService {
+
+    private final PaymentJdbcRepository paymentJdbcRepository;
+    private final ReplicaRouter replicaRouter;
+    private final int maxPageSize;
+
+    @Autowired
+    public PaymentHistoryService(PaymentJdbcRepository paymentJdbcRepository,
+                                 ReplicaRouter replicaRouter,
+                                 @Value("${payment.history.max-page-size:100}") int maxPageSize) {
+        this.paymentJdbcRepository = paymentJdbcRepository;
+        this.replicaRouter = replicaRouter;
+        this.maxPageSize = maxPageSize;
+    }
+
+    PaymentPage findCustomerPayments(UUID customerId,
+                                     Long cursor,
+                                     Currency currency,
+                                     BigDecimal minAmount,
+                                     BigDecimal maxAmount,
+                                     int pageSize) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException(String.format("Page size must be positive: %d", pageSize));
+        }
+        int limit = Math.min(pageSize, maxPageSize);
+        // one extra row tells whether there is a next page without a count query
+        List<Payment> payments = replicaRouter.read(customerId, () -> paymentJdbcRepository.selectPaymentsByCustomer(
+                customerId, cursor, currency, minAmount, maxAmount, limit + 1));
+        if (payments.size() <= limit) {
+            return new PaymentPage(payments, null);
+        }
+        List<Payment> page = payments.subList(0, limit);
+        return new PaymentPage(page, page.get(limit - 1).getPaymentId());
+    }
+}
@@ -0,0 +1,75 @@
+package com.amigoscode.testing.payment;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Hands out payment ids from blocks reserved on {@value #SEQUENCE_NAME}.
+ * <p>
+ * The sequence steps by {@link #BLOCK_SIZE} and every value {@code v} it returns
+ * reserves {@code [v, v + BLOCK_SIZE)}, which is exactly Hibernate's {@code pooled-lo}
+ * optimizer used by {@link Payment}, so JPA and JDBC inserts can share it. Because the
+ * reservation lives in the database, ids stay unique across restarts and instances;
+ * a restart only leaves a gap. The next block is reserved in the background once half
+ * of the current one is used.
+ */
+@Component
+public class PaymentIdAllocator {
+
+    static final String SEQUENCE_NAME = "payment_id_seq";
+    static final int BLOCK_SIZE = 50;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ExecutorService prefetchExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "payment-id-prefetch");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private long next;
+    private long end;
+    private CompletableFuture<Long> prefetchedBlock;
+
+    @Autowired
+    public PaymentIdAllocator(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public synchronized long next() {
+        if (next == end) {
+            next = prefetchedBlock != null ? takePrefetchedBlock() : reserveBlock();
+            end = next + BLOCK_SIZE;
+        }
+        long id = next++;
+        if (prefetchedBlock == null && end - next <= BLOCK_SIZE / 2) {
+            prefetchedBlock = CompletableFuture.supplyAsync(this::reserveBlock, prefetchExecutor);
+        }
+        return id;
+    }
+
+    private long takePrefetchedBlock() {
+        try {
+            return prefetchedBlock.join();
+        } catch (CompletionException e) {
+            return reserveBlock();
+        } finally {
+            prefetchedBlock = null;
+        }
+    }
+
+    private long reserveBlock() {
+        return jdbcTemplate.queryForObject("select next value for " + SEQUENCE_NAME, Long.class);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        prefetchExecutor.shutdownNow();
+    }
+}
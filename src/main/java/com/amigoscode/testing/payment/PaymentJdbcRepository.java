@@ -0,0 +1,279 @@
+package com.amigoscode.testing.payment;
+
+import com.amigoscode.testing.payment.shard.PaymentShards;
+import com.amigoscode.testing.payment.shard.ShardedPaymentRepository;
+import com.amigoscode.testing.utils.UuidBytes;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Plain JDBC access to the {@code payment} table, which every payment read and write goes
+ * through. With {@code payment.sharding.enabled} the table is the one on the customer's
+ * shard instead; shard writes happen just before the transaction on the main database
+ * commits, so they roll back the spend and SMS written with them if they fail.
+ */
+@Repository
+public class PaymentJdbcRepository {
+
+    private static final String INSERT_PAYMENT = "insert into payment " +
+            "(payment_id, customer_id, amount, currency, source, description, status, created_at) " +
+            "values (?, ?, ?, ?, ?, ?, ?, ?)";
+
+    public static final String SELECT_PAYMENT = "select " +
+            "payment_id, customer_id, amount, currency, source, description, status, created_at " +
+            "from payment ";
+
+    public static final RowMapper<Payment> PAYMENT_ROW_MAPPER = (rs, rowNum) -> {
+        Payment payment = new Payment(
+                rs.getLong("payment_id"),
+                UuidBytes.fromBytes(rs.getBytes("customer_id")),
+                rs.getBigDecimal("amount"),
+                Currency.values()[rs.getInt("currency")],
+                rs.getString("source"),
+                rs.getString("description"));
+        int status = rs.getInt("status");
+        payment.setStatus(rs.wasNull() ? null : PaymentStatus.values()[status]);
+        Timestamp createdAt = rs.getTimestamp("created_at");
+        payment.setCreatedAt(createdAt == null ? null : createdAt.toInstant());
+        return payment;
+    };
+
+    private final JdbcTemplate jdbcTemplate;
+    private final PaymentIdAllocator paymentIdAllocator;
+    // null unless sharding is enabled
+    private final ShardedPaymentRepository shardedPaymentRepository;
+    private final int batchSize;
+    private final int exportFetchSize;
+
+    @Autowired
+    public PaymentJdbcRepository(JdbcTemplate jdbcTemplate,
+                                 PaymentIdAllocator paymentIdAllocator,
+                                 ObjectProvider<ShardedPaymentRepository> shardedPaymentRepository,
+                                 @Value("${payment.batch.insert-size:500}") int batchSize,
+                                 @Value("${payment.export.fetch-size:1000}") int exportFetchSize) {
+        this(jdbcTemplate, paymentIdAllocator, shardedPaymentRepository.getIfAvailable(), batchSize, exportFetchSize);
+    }
+
+    PaymentJdbcRepository(JdbcTemplate jdbcTemplate,
+                          PaymentIdAllocator paymentIdAllocator,
+                          ShardedPaymentRepository shardedPaymentRepository,
+                          int batchSize,
+                          int exportFetchSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.paymentIdAllocator = paymentIdAllocator;
+        this.shardedPaymentRepository = shardedPaymentRepository;
+        this.batchSize = batchSize;
+        this.exportFetchSize = exportFetchSize;
+    }
+
+    /**
+     * Inserts the payments with freshly allocated ids, which are set on them.
+     */
+    @Transactional
+    public void insertAll(List<Payment> payments) {
+        if (payments.isEmpty()) {
+            return;
+        }
+        payments.forEach(payment -> {
+            payment.setPaymentId(shardedPaymentRepository == null
+                    ? paymentIdAllocator.next()
+                    : shardedPaymentRepository.nextPaymentId(payment.getCustomerId()));
+            payment.onCreate();
+        });
+        if (shardedPaymentRepository != null) {
+            List<Payment> inserted = List.copyOf(payments);
+            PaymentShards.beforeCommit(() -> shardedPaymentRepository.insertAll(inserted));
+            return;
+        }
+        jdbcTemplate.batchUpdate(INSERT_PAYMENT, payments, batchSize, (ps, payment) -> {
+            ps.setLong(1, payment.getPaymentId());
+            ps.setBytes(2, UuidBytes.toBytes(payment.getCustomerId()));
+            ps.setBigDecimal(3, payment.getAmount());
+            ps.setInt(4, payment.getCurrency().ordinal());
+            ps.setString(5, payment.getSource());
+            ps.setString(6, payment.getDescription());
+            ps.setInt(7, payment.getStatus().ordinal());
+            ps.setTimestamp(8, Timestamp.from(payment.getCreatedAt()));
+        });
+    }
+
+    /**
+     * Saves the final status of a payment inserted as PENDING, leaving it alone if it was
+     * settled in the meantime, such as by the sweeper failing it.
+     * <p>
+     * When sharded the shard is written as the transaction commits, so this answers true
+     * and a payment found settled by then fails the commit instead.
+     *
+     * @return false if the payment was no longer PENDING
+     */
+    @Transactional
+    public boolean updateStatus(Payment payment) {
+        if (shardedPaymentRepository != null) {
+            PaymentShards.beforeCommit(() -> {
+                if (!shardedPaymentRepository.updateStatus(payment)) {
+                    throw new IllegalStateException(String.format(
+                            "Payment %d is no longer PENDING", payment.getPaymentId()));
+                }
+            });
+            return true;
+        }
+        return jdbcTemplate.update("update payment set status = ? where payment_id = ? and status = ?",
+                payment.getStatus().ordinal(), payment.getPaymentId(), PaymentStatus.PENDING.ordinal()) > 0;
+    }
+
+    public Optional<Payment> findById(long paymentId) {
+        if (shardedPaymentRepository != null) {
+            return shardedPaymentRepository.findById(paymentId);
+        }
+        return jdbcTemplate.query(SELECT_PAYMENT + "where payment_id = ?", PAYMENT_ROW_MAPPER, paymentId)
+                .stream()
+                .findFirst();
+    }
+
+    /**
+     * Ids of payments still PENDING that were created before {@code before}, oldest first,
+     * or oldest first on each shard in turn when sharded.
+     */
+    public List<Long> selectPendingBefore(Instant before, int limit) {
+        String sql = "select payment_id from payment where status = ? and created_at < ? order by created_at limit ?";
+        Object[] args = {PaymentStatus.PENDING.ordinal(), Timestamp.from(before), limit};
+        if (shardedPaymentRepository == null) {
+            return jdbcTemplate.queryForList(sql, Long.class, args);
+        }
+        List<Long> paymentIds = new ArrayList<>();
+        shardedPaymentRepository.forEachShard(shard -> {
+            if (paymentIds.size() < limit) {
+                List<Long> shardIds = shard.queryForList(sql, Long.class, args);
+                paymentIds.addAll(shardIds.subList(0, Math.min(shardIds.size(), limit - paymentIds.size())));
+            }
+        });
+        return paymentIds;
+    }
+
+    /**
+     * Marks the payments FAILED, leaving alone any that were settled in the meantime.
+     *
+     * @return how many were marked
+     */
+    @Transactional
+    public int failPending(List<Long> paymentIds) {
+        if (shardedPaymentRepository != null) {
+            return shardedPaymentRepository.failPending(paymentIds);
+        }
+        int[][] updated = jdbcTemplate.batchUpdate(
+                "update payment set status = ? where payment_id = ? and status = ?",
+                paymentIds,
+                batchSize,
+                (ps, paymentId) -> {
+                    ps.setInt(1, PaymentStatus.FAILED.ordinal());
+                    ps.setLong(2, paymentId);
+                    ps.setInt(3, PaymentStatus.PENDING.ordinal());
+                });
+        int failed = 0;
+        for (int[] batch : updated) {
+            for (int count : batch) {
+                failed += Math.max(count, 0);
+            }
+        }
+        return failed;
+    }
+
+    /**
+     * A customer's payments, newest first, seeking past {@code beforePaymentId} on the
+     * {@code (customer_id, payment_id)} indexes so every page costs the same however deep
+     * it is. Every filter but {@code customerId} is optional.
+     */
+    public List<Payment> selectPaymentsByCustomer(UUID customerId,
+                                                  Long beforePaymentId,
+                                                  Currency currency,
+                                                  BigDecimal minAmount,
+                                                  BigDecimal maxAmount,
+                                                  int limit) {
+        StringBuilder sql = new StringBuilder(SELECT_PAYMENT).append("where customer_id = ?");
+        List<Object> args = new ArrayList<>(6);
+        args.add(UuidBytes.toBytes(customerId));
+        if (beforePaymentId != null) {
+            sql.append(" and payment_id < ?");
+            args.add(beforePaymentId);
+        }
+        if (currency != null) {
+            sql.append(" and currency = ?");
+            args.add(currency.ordinal());
+        }
+        if (minAmount != null) {
+            sql.append(" and amount >= ?");
+            args.add(minAmount);
+        }
+        if (maxAmount != null) {
+            sql.append(" and amount <= ?");
+            args.add(maxAmount);
+        }
+        sql.append(" order by payment_id desc limit ?");
+        args.add(limit);
+        if (shardedPaymentRepository != null) {
+            return shardedPaymentRepository.onCustomerShard(customerId,
+                    shard -> shard.query(sql.toString(), PAYMENT_ROW_MAPPER, args.toArray()));
+        }
+        return jdbcTemplate.query(sql.toString(), PAYMENT_ROW_MAPPER, args.toArray());
+    }
+
+    /**
+     * Hands every matching row, in payment id order, to {@code rowHandler} straight off a
+     * forward-only cursor that fetches {@code payment.export.fetch-size} rows at a time,
+     * so no more than that is ever held in memory. {@code from} is inclusive, {@code to}
+     * exclusive and every filter is optional. The transaction keeps drivers such as
+     * PostgreSQL's from reading the whole result up front. When sharded the shards are
+     * read one after the other, each in payment id order and outside any transaction.
+     */
+    @Transactional(readOnly = true)
+    public void exportPayments(Instant from, Instant to, Currency currency, RowCallbackHandler rowHandler) {
+        List<String> conditions = new ArrayList<>(3);
+        List<Object> args = new ArrayList<>(3);
+        if (from != null) {
+            conditions.add("created_at >= ?");
+            args.add(Timestamp.from(from));
+        }
+        if (to != null) {
+            conditions.add("created_at < ?");
+            args.add(Timestamp.from(to));
+        }
+        if (currency != null) {
+            conditions.add("currency = ?");
+            args.add(currency.ordinal());
+        }
+        String sql = SELECT_PAYMENT
+                + (conditions.isEmpty() ? "" : "where " + String.join(" and ", conditions) + " ")
+                + "order by payment_id";
+        PreparedStatementCreator statement = connection -> {
+            PreparedStatement ps = connection.prepareStatement(
+                    sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            ps.setFetchSize(exportFetchSize);
+            for (int i = 0; i < args.size(); i++) {
+                ps.setObject(i + 1, args.get(i));
+            }
+            return ps;
+        };
+        if (shardedPaymentRepository != null) {
+            shardedPaymentRepository.forEachShard(shard -> shard.query(statement, rowHandler));
+            return;
+        }
+        jdbcTemplate.query(statement, rowHandler);
+    }
+}
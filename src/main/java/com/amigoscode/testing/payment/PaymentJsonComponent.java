@@ -0,0 +1,116 @@
+package com.amigoscode.testing.payment;
+
+import com.amigoscode.testing.utils.JsonValues;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import org.springframework.boot.jackson.JsonComponent;
+
+import java.io.IOException;
+import java.time.Instant;
+
+/**
+ * {@link Payment} written and read field by field, in JSON and CBOR alike, instead of
+ * through Jackson's bean introspection and reflective getter and setter calls. The output
+ * is the same as the bean serializer's, field for field and in the same order.
+ */
+@JsonComponent
+public class PaymentJsonComponent {
+
+    private static final SerializedString PAYMENT_ID = new SerializedString("paymentId");
+    private static final SerializedString CUSTOMER_ID = new SerializedString("customerId");
+    private static final SerializedString AMOUNT = new SerializedString("amount");
+    private static final SerializedString CURRENCY = new SerializedString("currency");
+    private static final SerializedString SOURCE = new SerializedString("source");
+    private static final SerializedString DESCRIPTION = new SerializedString("description");
+    private static final SerializedString STATUS = new SerializedString("status");
+    private static final String CREATED_AT = "createdAt";
+
+    public static class Serializer extends JsonSerializer<Payment> {
+
+        @Override
+        public void serialize(Payment payment, JsonGenerator gen, SerializerProvider provider) throws IOException {
+            gen.writeStartObject(payment);
+            gen.writeFieldName(PAYMENT_ID);
+            JsonValues.writeLong(gen, payment.getPaymentId());
+            gen.writeFieldName(CUSTOMER_ID);
+            JsonValues.writeUuid(gen, payment.getCustomerId());
+            gen.writeFieldName(AMOUNT);
+            gen.writeNumber(payment.getAmount());
+            gen.writeFieldName(CURRENCY);
+            JsonValues.writeEnum(gen, payment.getCurrency());
+            gen.writeFieldName(SOURCE);
+            gen.writeString(payment.getSource());
+            gen.writeFieldName(DESCRIPTION);
+            gen.writeString(payment.getDescription());
+            gen.writeFieldName(STATUS);
+            JsonValues.writeEnum(gen, payment.getStatus());
+            // left to the java.time module, which knows whether dates are configured as text or numbers
+            provider.defaultSerializeField(CREATED_AT, payment.getCreatedAt(), gen);
+            gen.writeEndObject();
+        }
+
+        @Override
+        public Class<Payment> handledType() {
+            return Payment.class;
+        }
+    }
+
+    public static class Deserializer extends JsonDeserializer<Payment> {
+
+        @Override
+        public Payment deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+            String field;
+            if (p.isExpectedStartObjectToken()) {
+                field = p.nextFieldName();
+            } else if (p.hasToken(JsonToken.FIELD_NAME)) {
+                field = p.getCurrentName();
+            } else {
+                return (Payment) ctxt.handleUnexpectedToken(Payment.class, p);
+            }
+            Payment payment = new Payment();
+            for (; field != null; field = p.nextFieldName()) {
+                p.nextToken();
+                switch (field) {
+                    case "paymentId":
+                        payment.setPaymentId(JsonValues.readLong(p, ctxt));
+                        break;
+                    case "customerId":
+                        payment.setCustomerId(JsonValues.readUuid(p, ctxt));
+                        break;
+                    case "amount":
+                        payment.setAmount(JsonValues.readDecimal(p, ctxt));
+                        break;
+                    case "currency":
+                        payment.setCurrency(JsonValues.readEnum(p, ctxt, Currency.class));
+                        break;
+                    case "source":
+                        payment.setSource(JsonValues.readString(p, ctxt));
+                        break;
+                    case "description":
+                        payment.setDescription(JsonValues.readString(p, ctxt));
+                        break;
+                    case "status":
+                        payment.setStatus(JsonValues.readEnum(p, ctxt, PaymentStatus.class));
+                        break;
+                    case CREATED_AT:
+                        payment.setCreatedAt(p.hasToken(JsonToken.VALUE_NULL) ? null : ctxt.readValue(p, Instant.class));
+                        break;
+                    default:
+                        ctxt.handleUnknownProperty(p, this, Payment.class, field);
+                }
+            }
+            return payment;
+        }
+
+        @Override
+        public Class<?> handledType() {
+            return Payment.class;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.amigoscode.testing.payment;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * The card was charged but its payment was not committed in time, and may still be. It
+ * answers 504 naming the payment, so the caller can look it up instead of paying again.
+ */
+public class PaymentOutcomeUnknownException extends ResponseStatusException {
+
+    // null if the payment had no id allocated yet
+    private final Long paymentId;
+
+    public PaymentOutcomeUnknownException(Long paymentId, Throwable cause) {
+        super(HttpStatus.GATEWAY_TIMEOUT,
+                paymentId == null
+                        ? "The card was charged but the payment is not committed yet"
+                        : String.format("The card was charged but payment %d is not committed yet, "
+                        + "check /api/v1/payment/%d before paying again", paymentId, paymentId),
+                cause);
+        this.paymentId = paymentId;
+    }
+
+    public Long getPaymentId() {
+        return paymentId;
+    }
+}
@@ -0,0 +1,33 @@
+package com.amigoscode.testing.payment;
+
+import java.util.List;
+
+public class PaymentPage {
+
+    private final List<Payment> payments;
+    private final Long nextCursor;
+
+    public PaymentPage(List<Payment> payments, Long nextCursor) {
+        this.payments = payments;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<Payment> getPayments() {
+        return payments;
+    }
+
+    /**
+     * Pass as {@code cursor} to get the next page, {@code null} on the last page.
+     */
+    public Long getNextCursor() {
+        return nextCursor;
+    }
+
+    @Override
+    public String toString() {
+        return "PaymentPage{" +
+                "payments=" + payments +
+                ", nextCursor=" + nextCursor +
+                '}';
+    }
+}
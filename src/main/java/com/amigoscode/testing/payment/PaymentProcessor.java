@@ -0,0 +1,122 @@
+package com.amigoscode.testing.payment;
+
+import com.amigoscode.testing.metrics.StageMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Charges PENDING payments in the background on the {@link AsyncCardPaymentCharger}, so a
+ * charge in flight holds no thread. At most {@code payment.async.queue-capacity} charges are
+ * in flight at once and a burst beyond that is rejected instead of piling up. When a charge
+ * answers, one of {@code payment.async.workers} threads saves the final status through
+ * {@link PaymentWriter#settle}, so a SUCCEEDED payment gets its spend and SMS like a
+ * synchronous one. A payment the sweeper failed in the meantime is left FAILED, and a
+ * status that cannot be saved is logged and counted in {@code payment.settle.failed}.
+ */
+@Component
+public class PaymentProcessor {
+
+    private static final Logger log = LoggerFactory.getLogger(PaymentProcessor.class);
+
+    private final PaymentWriter paymentWriter;
+    private final AsyncCardPaymentCharger asyncCardPaymentCharger;
+    private final Semaphore inFlight;
+    private final ExecutorService executor;
+    private final StageMetrics.Timer gatewayTimer;
+    private final LongAdder gatewaySucceeded;
+    private final LongAdder gatewayDeclined;
+    private final LongAdder gatewayFailed;
+    private final LongAdder settleSkipped;
+    private final LongAdder settleFailed;
+
+    @Autowired
+    public PaymentProcessor(PaymentWriter paymentWriter,
+                            AsyncCardPaymentCharger asyncCardPaymentCharger,
+                            @Value("${payment.async.workers:16}") int workers,
+                            @Value("${payment.async.queue-capacity:1000}") int queueCapacity,
+                            StageMetrics stageMetrics) {
+        this.paymentWriter = paymentWriter;
+        this.asyncCardPaymentCharger = asyncCardPaymentCharger;
+        this.inFlight = new Semaphore(queueCapacity);
+        // never more than queueCapacity settlements waiting, since each holds a permit
+        this.executor = Executors.newFixedThreadPool(workers);
+        this.gatewayTimer = stageMetrics.timer("payment.process.gateway");
+        this.gatewaySucceeded = stageMetrics.counter("gateway.succeeded");
+        this.gatewayDeclined = stageMetrics.counter("gateway.declined");
+        this.gatewayFailed = stageMetrics.counter("gateway.failed");
+        this.settleSkipped = stageMetrics.counter("payment.settle.skipped");
+        this.settleFailed = stageMetrics.counter("payment.settle.failed");
+    }
+
+    /**
+     * @throws RejectedExecutionException when too many charges are in flight
+     */
+    void submit(Payment payment) {
+        if (!inFlight.tryAcquire()) {
+            throw new RejectedExecutionException("Too many payments in flight");
+        }
+        process(payment).whenComplete((settled, failure) -> inFlight.release());
+    }
+
+    /**
+     * @return completed once the final status is saved
+     */
+    CompletableFuture<Void> process(Payment payment) {
+        long start = System.nanoTime();
+        return charge(payment).handleAsync((charge, failure) -> {
+            gatewayTimer.record(start);
+            if (failure != null) {
+                gatewayFailed.increment();
+                log.warn("Charge for payment {} failed", payment.getPaymentId(), failure);
+                payment.setStatus(PaymentStatus.FAILED);
+            } else {
+                boolean isDebitSuccess = charge.isCardDebited();
+                payment.setStatus(isDebitSuccess ? PaymentStatus.SUCCEEDED : PaymentStatus.FAILED);
+                (isDebitSuccess ? gatewaySucceeded : gatewayDeclined).increment();
+            }
+            settle(payment);
+            return null;
+        }, executor);
+    }
+
+    private void settle(Payment payment) {
+        try {
+            if (!paymentWriter.settle(payment)) {
+                settleSkipped.increment();
+                log.warn("Payment {} was settled before its {} charge answered", payment.getPaymentId(), payment.getStatus());
+            }
+        } catch (RuntimeException e) {
+            // left PENDING for the sweeper, even though the card may have been debited
+            settleFailed.increment();
+            log.error("Could not save {} status of payment {}", payment.getStatus(), payment.getPaymentId(), e);
+        }
+    }
+
+    private CompletableFuture<CardPaymentCharge> charge(Payment payment) {
+        try {
+            return asyncCardPaymentCharger.chargeCard(
+                    payment.getSource(),
+                    payment.getAmount(),
+                    payment.getCurrency(),
+                    payment.getDescription());
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,347 @@
+package com.amigoscode.testing.payment;
+
+import com.amigoscode.testing.metrics.StageMetrics;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * The JSON and CBOR of payments in a final state, kept serialized so
+ * {@code GET /api/v1/payment/{id}} can answer without the database or Jackson.
+ * <p>
+ * The bytes live in an arena of {@value #SEGMENTS} large segments that together hold
+ * {@code payment.response-cache.max-bytes}, allocated off heap unless
+ * {@code payment.response-cache.off-heap=false}. Entries are appended to the current
+ * segment. When it is full the next one is recycled: entries read since they were written
+ * are moved to its start and the rest are dropped, so a sweep over the arena evicts what
+ * nobody asked for, much like a CLOCK. Only writers synchronize; a lookup is a
+ * {@link ConcurrentHashMap} read plus an optimistic copy of the one representation asked
+ * for, retried as a miss if its segment was recycled meanwhile.
+ * <p>
+ * PENDING payments are serialized but never kept, since the background charge still
+ * changes their status.
+ */
+@Component
+public class PaymentResponseCache {
+
+    // enough segments that recycling one drops a small share of the cache
+    private static final int SEGMENTS = 16;
+
+    private final ObjectMapper objectMapper;
+    private final ObjectMapper cborObjectMapper;
+    private final boolean offHeap;
+    private final int segmentBytes;
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final ConcurrentHashMap<Long, Entry> entries = new ConcurrentHashMap<>();
+    private final LongAdder hits;
+    private final LongAdder misses;
+    // guarded by this
+    private int current;
+    private volatile long bytes;
+
+    @Autowired
+    public PaymentResponseCache(ObjectMapper objectMapper,
+                                MappingJackson2CborHttpMessageConverter cborHttpMessageConverter,
+                                @Value("${payment.response-cache.max-bytes:67108864}") long maxBytes,
+                                @Value("${payment.response-cache.off-heap:true}") boolean offHeap,
+                                StageMetrics stageMetrics) {
+        this(objectMapper, cborHttpMessageConverter.getObjectMapper(), maxBytes, offHeap, stageMetrics);
+    }
+
+    PaymentResponseCache(ObjectMapper objectMapper,
+                         ObjectMapper cborObjectMapper,
+                         long maxBytes,
+                         boolean offHeap,
+                         StageMetrics stageMetrics) {
+        this.objectMapper = objectMapper;
+        this.cborObjectMapper = cborObjectMapper;
+        this.offHeap = offHeap;
+        this.segmentBytes = (int) Math.min(maxBytes / SEGMENTS, Integer.MAX_VALUE);
+        this.hits = stageMetrics.counter("payment.response-cache.hit");
+        this.misses = stageMetrics.counter("payment.response-cache.miss");
+        stageMetrics.gauge("payment.response-cache.bytes", this::bytes);
+    }
+
+    /**
+     * @return the cached CBOR or JSON body, or null if the payment has to be loaded
+     */
+    public CachedBody get(long paymentId, boolean cbor) {
+        Entry entry = entries.get(paymentId);
+        CachedBody body = entry == null ? null : entry.read(cbor);
+        if (body == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return body;
+    }
+
+    /**
+     * Serializes {@code payment} to both formats and keeps it if its status is final.
+     */
+    public CachedPayment put(Payment payment) {
+        byte[] json;
+        byte[] cbor;
+        try {
+            json = objectMapper.writeValueAsBytes(payment);
+            cbor = cborObjectMapper.writeValueAsBytes(payment);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+        CachedPayment cachedPayment = new CachedPayment(json, cbor, eTag(json));
+        if (payment.getPaymentId() == null || !isFinal(payment.getStatus()) || json.length + cbor.length > segmentBytes) {
+            return cachedPayment;
+        }
+        synchronized (this) {
+            Entry entry = append(payment.getPaymentId(), json, cbor, cachedPayment.getETag());
+            Entry previous = entries.put(payment.getPaymentId(), entry);
+            bytes += entry.length() - (previous == null ? 0 : previous.length());
+        }
+        return cachedPayment;
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    long bytes() {
+        return bytes;
+    }
+
+    // guarded by this
+    private Entry append(long paymentId, byte[] json, byte[] cbor, String eTag) {
+        Segment segment = segments[current];
+        if (segment == null) {
+            segment = segments[current] = new Segment(segmentBytes, offHeap);
+        }
+        if (segment.position + json.length + cbor.length > segmentBytes) {
+            current = (current + 1) % SEGMENTS;
+            segment = recycle(current, json.length + cbor.length);
+        }
+        return segment.append(paymentId, json, cbor, eTag);
+    }
+
+    /**
+     * Empties the segment at {@code index} but for the entries read since they were written,
+     * as long as they leave {@code needed} bytes free.
+     */
+    // guarded by this
+    private Segment recycle(int index, int needed) {
+        Segment segment = segments[index];
+        if (segment == null) {
+            return segments[index] = new Segment(segmentBytes, offHeap);
+        }
+        List<Entry> survivors = new ArrayList<>();
+        int free = segmentBytes - needed;
+        for (Entry entry : segment.entries) {
+            if (entries.get(entry.paymentId) != entry) {
+                // replaced since, its bytes are already garbage
+                continue;
+            }
+            if (entry.referenced && entry.length() <= free) {
+                survivors.add(entry);
+                free -= entry.length();
+            } else {
+                entries.remove(entry.paymentId, entry);
+                bytes -= entry.length();
+            }
+        }
+        // survivors are copied out before their bytes are overwritten
+        List<byte[][]> survivorBytes = new ArrayList<>(survivors.size());
+        for (Entry survivor : survivors) {
+            survivorBytes.add(new byte[][]{survivor.copy(false), survivor.copy(true)});
+        }
+        segment.reset();
+        for (int i = 0; i < survivors.size(); i++) {
+            Entry survivor = survivors.get(i);
+            byte[][] body = survivorBytes.get(i);
+            entries.replace(survivor.paymentId, survivor, segment.append(survivor.paymentId, body[0], body[1], survivor.eTag));
+        }
+        return segment;
+    }
+
+    private static boolean isFinal(PaymentStatus status) {
+        return status == PaymentStatus.SUCCEEDED || status == PaymentStatus.FAILED;
+    }
+
+    private static String eTag(byte[] json) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(json);
+            StringBuilder eTag = new StringBuilder(34).append('"');
+            for (int i = 0; i < 16; i++) {
+                eTag.append(Character.forDigit((digest[i] >> 4) & 0xF, 16))
+                        .append(Character.forDigit(digest[i] & 0xF, 16));
+            }
+            return eTag.append('"').toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String cborETag(String eTag) {
+        return eTag.substring(0, eTag.length() - 1) + "-cbor\"";
+    }
+
+    /**
+     * A payment just serialized to both formats.
+     */
+    public static final class CachedPayment {
+        private final byte[] json;
+        private final byte[] cbor;
+        private final String eTag;
+
+        private CachedPayment(byte[] json, byte[] cbor, String eTag) {
+            this.json = json;
+            this.cbor = cbor;
+            this.eTag = eTag;
+        }
+
+        public byte[] getJson() {
+            return json;
+        }
+
+        public byte[] getCbor() {
+            return cbor;
+        }
+
+        /**
+         * Strong entity tag, quoted, derived from the JSON bytes.
+         */
+        public String getETag() {
+            return eTag;
+        }
+
+        /**
+         * The JSON entity tag with a suffix, since the two representations must not share one.
+         */
+        public String getCborETag() {
+            return cborETag(eTag);
+        }
+
+        public CachedBody body(boolean cbor) {
+            return cbor ? new CachedBody(this.cbor, getCborETag()) : new CachedBody(json, eTag);
+        }
+    }
+
+    /**
+     * One representation of a payment and its entity tag.
+     */
+    public static final class CachedBody {
+        private final byte[] body;
+        private final String eTag;
+
+        private CachedBody(byte[] body, String eTag) {
+            this.body = body;
+            this.eTag = eTag;
+        }
+
+        public byte[] getBody() {
+            return body;
+        }
+
+        public String getETag() {
+            return eTag;
+        }
+    }
+
+    private static final class Segment {
+        private final ByteBuffer buffer;
+        // taken for writing only while the segment is recycled
+        private final StampedLock lock = new StampedLock();
+        private final List<Entry> entries = new ArrayList<>();
+        // both guarded by the cache; generation is also written under the lock
+        private int generation;
+        private int position;
+
+        private Segment(int capacity, boolean offHeap) {
+            this.buffer = offHeap ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+        }
+
+        private Entry append(long paymentId, byte[] json, byte[] cbor, String eTag) {
+            ByteBuffer target = buffer.duplicate();
+            target.position(position);
+            target.put(json).put(cbor);
+            Entry entry = new Entry(this, generation, paymentId, position, json.length, cbor.length, eTag);
+            position += json.length + cbor.length;
+            entries.add(entry);
+            return entry;
+        }
+
+        private void reset() {
+            long stamp = lock.writeLock();
+            try {
+                generation++;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+            position = 0;
+            entries.clear();
+        }
+    }
+
+    private static final class Entry {
+        private final Segment segment;
+        private final int generation;
+        private final long paymentId;
+        // the JSON at offset, followed by the CBOR
+        private final int offset;
+        private final int jsonLength;
+        private final int cborLength;
+        private final String eTag;
+        // set on a hit, cleared when the entry survives a recycle by moving
+        private volatile boolean referenced;
+
+        private Entry(Segment segment, int generation, long paymentId, int offset, int jsonLength, int cborLength, String eTag) {
+            this.segment = segment;
+            this.generation = generation;
+            this.paymentId = paymentId;
+            this.offset = offset;
+            this.jsonLength = jsonLength;
+            this.cborLength = cborLength;
+            this.eTag = eTag;
+        }
+
+        int length() {
+            return jsonLength + cborLength;
+        }
+
+        /**
+         * @return the body, or null if the segment was recycled under the entry
+         */
+        CachedBody read(boolean cbor) {
+            long stamp = segment.lock.tryOptimisticRead();
+            if (segment.generation != generation) {
+                return null;
+            }
+            byte[] body = copy(cbor);
+            if (!segment.lock.validate(stamp)) {
+                return null;
+            }
+            if (!referenced) {
+                referenced = true;
+            }
+            return new CachedBody(body, cbor ? cborETag(eTag) : eTag);
+        }
+
+        byte[] copy(boolean cbor) {
+            byte[] body = new byte[cbor ? cborLength : jsonLength];
+            // read through a duplicate so concurrent readers do not share a position
+            ByteBuffer source = segment.buffer.duplicate();
+            source.position(cbor ? offset + jsonLength : offset);
+            source.get(body);
+            return body;
+        }
+    }
+}
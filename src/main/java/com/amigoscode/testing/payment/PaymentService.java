@@ -1,59 +1,160 @@
 package com.amigoscode.testing.payment;
 
-import com.amigoscode.testing.customer.CustomerRepository;
+import com.amigoscode.testing.customer.CustomerIdRegistry;
+import com.amigoscode.testing.customer.CustomerJdbcRepository;
+import com.amigoscode.testing.datasource.ReplicaRouter;
+import com.amigoscode.testing.metrics.StageMetrics;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
 
 @Service
 public class PaymentService {
 
-    private final CustomerRepository customerRepository;
-    private final PaymentRepository paymentRepository;
+    private final CustomerJdbcRepository customerJdbcRepository;
+    private final CustomerIdRegistry customerIdRegistry;
+    private final PaymentJdbcRepository paymentJdbcRepository;
     private final CardPaymentCharger cardPaymentCharger;
+    private final PaymentProcessor paymentProcessor;
+    private final PaymentWriter paymentWriter;
+    private final ReplicaRouter replicaRouter;
+    private final StageMetrics.Timer customerLookupTimer;
+    private final StageMetrics.Timer currencyCheckTimer;
+    private final StageMetrics.Timer gatewayTimer;
+    private final StageMetrics.Timer debitCheckTimer;
+    private final StageMetrics.Timer insertTimer;
+    private final StageMetrics.Timer chargeCardTimer;
+    private final LongAdder gatewaySucceeded;
+    private final LongAdder gatewayDeclined;
+    private final LongAdder gatewayFailed;
     private static final List<Currency> ACCEPTED_CURRENCIES = List.of(Currency.USD, Currency.GBP);
 
     @Autowired
-    public PaymentService(CustomerRepository customerRepository,
-                          PaymentRepository paymentRepository,
-                          CardPaymentCharger cardPaymentCharger) {
-        this.customerRepository = customerRepository;
-        this.paymentRepository = paymentRepository;
+    public PaymentService(CustomerJdbcRepository customerJdbcRepository,
+                          CustomerIdRegistry customerIdRegistry,
+                          PaymentJdbcRepository paymentJdbcRepository,
+                          CardPaymentCharger cardPaymentCharger,
+                          PaymentProcessor paymentProcessor,
+                          PaymentWriter paymentWriter,
+                          ReplicaRouter replicaRouter,
+                          StageMetrics stageMetrics) {
+        this.customerJdbcRepository = customerJdbcRepository;
+        this.customerIdRegistry = customerIdRegistry;
+        this.paymentJdbcRepository = paymentJdbcRepository;
         this.cardPaymentCharger = cardPaymentCharger;
+        this.paymentProcessor = paymentProcessor;
+        this.paymentWriter = paymentWriter;
+        this.replicaRouter = replicaRouter;
+        this.customerLookupTimer = stageMetrics.timer("payment.charge.customer-lookup");
+        this.currencyCheckTimer = stageMetrics.timer("payment.charge.currency-check");
+        this.gatewayTimer = stageMetrics.timer("payment.charge.gateway");
+        this.debitCheckTimer = stageMetrics.timer("payment.charge.debit-check");
+        this.insertTimer = stageMetrics.timer("payment.charge.insert");
+        this.chargeCardTimer = stageMetrics.timer("payment.charge.total");
+        this.gatewaySucceeded = stageMetrics.counter("gateway.succeeded");
+        this.gatewayDeclined = stageMetrics.counter("gateway.declined");
+        this.gatewayFailed = stageMetrics.counter("gateway.failed");
+    }
+
+    /**
+     * @return the payment as inserted
+     */
+    Payment chargeCard(UUID customerId, PaymentRequest paymentRequest) {
+        long start = System.nanoTime();
+        try {
+            // 1. Does customer exist, if not throw
+            if (!customerExists(customerId)) { throw new IllegalStateException(String.format("Not a customer", customerId)); }
+            long mark = customerLookupTimer.record(start);
+            // 2. Do we support the currency, if not throw
+            Payment payment = paymentRequest.getPayment();
+            if (!isCurrencySupported(payment.getCurrency())) { throw new IllegalStateException(String.format("This currency is not supported", payment.getCurrency())); }
+            mark = currencyCheckTimer.record(mark);
+            // 3. Charge card
+            boolean isDebitSuccess = debit(payment);
+            mark = gatewayTimer.record(mark);
+            // 4. If not debited throw
+            if (!isDebitSuccess) { throw new IllegalStateException("The card was not successfully debited"); }
+            mark = debitCheckTimer.record(mark);
+            // 5. Insert payment and add it to the customer's spend in one transaction
+            payment.setCustomerId(customerId);
+            payment.setStatus(PaymentStatus.SUCCEEDED);
+            Payment savedPayment = paymentWriter.write(payment);
+            replicaRouter.recordWrite(customerId);
+            insertTimer.record(mark);
+            // 6. The sms was queued with the payment and is sent by SmsRelay
+            return savedPayment;
+        } finally {
+            chargeCardTimer.record(start);
+        }
     }
 
-    void chargeCard(UUID customerId, PaymentRequest paymentRequest) {
+    private boolean debit(Payment payment) {
+        boolean isDebitSuccess;
+        try {
+            isDebitSuccess = cardPaymentCharger
+                    .chargeCard(
+                            payment.getSource(),
+                            payment.getAmount(),
+                            payment.getCurrency(),
+                            payment.getDescription()
+                    )
+                    .isCardDebited();
+        } catch (RuntimeException e) {
+            gatewayFailed.increment();
+            throw e;
+        }
+        (isDebitSuccess ? gatewaySucceeded : gatewayDeclined).increment();
+        return isDebitSuccess;
+    }
+
+    Payment submitPayment(UUID customerId, PaymentRequest paymentRequest) {
         // 1. Does customer exist, if not throw
-        boolean customerExists = customerRepository.findById(customerId).isPresent();
-        if (!customerExists) { throw new IllegalStateException(String.format("Not a customer", customerId)); }
+        if (!customerExists(customerId)) { throw new IllegalStateException(String.format("Not a customer", customerId)); }
         // 2. Do we support the currency, if not throw
         Payment payment = paymentRequest.getPayment();
-        boolean isCurrencySupported = ACCEPTED_CURRENCIES
-                .stream()
-                .anyMatch(c -> c.equals(payment.getCurrency()));
-
-        if (!isCurrencySupported) { throw new IllegalStateException(String.format("This currency is not supported", payment.getCurrency())); }
-        // 3. Charge card
-        boolean isDebitSuccess = cardPaymentCharger
-                .chargeCard(
-                        payment.getSource(),
-                        payment.getAmount(),
-                        payment.getCurrency(),
-                        payment.getDescription()
-                )
-                .isCardDebited();
-
-        // 4. If not debited throw
-        if (!isDebitSuccess) { throw new IllegalStateException("The card was not successfully debited"); }
-        // 5. Insert payment
+        if (!isCurrencySupported(payment.getCurrency())) { throw new IllegalStateException(String.format("This currency is not supported", payment.getCurrency())); }
+        // 3. Insert payment as pending
         payment.setCustomerId(customerId);
-        paymentRepository.save(payment);
-        // 6. TODO: send sms
+        payment.setStatus(PaymentStatus.PENDING);
+        paymentJdbcRepository.insertAll(List.of(payment));
+        replicaRouter.recordWrite(customerId);
+        // 4. Hand over to the workers, which charge the card and settle the status
+        try {
+            paymentProcessor.submit(payment);
+        } catch (RejectedExecutionException e) {
+            payment.setStatus(PaymentStatus.FAILED);
+            paymentJdbcRepository.updateStatus(payment);
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Too many pending payments", e);
+        }
+        return payment;
+    }
+
+    private boolean customerExists(UUID customerId) {
+        if (customerIdRegistry.contains(customerId)) {
+            return true;
+        }
+        // a customer registered moments ago may not have reached the replica, find asks the primary then
+        boolean customerExists = replicaRouter.find(customerId, () -> customerJdbcRepository.findById(customerId)).isPresent();
+        if (customerExists) {
+            customerIdRegistry.register(customerId);
+        }
+        return customerExists;
     }
 
     Optional<Payment> findPaymentById(Long payment) {
-        return paymentRepository.findById(payment);
+        return replicaRouter.find(null, () -> paymentJdbcRepository.findById(payment));
+    }
+
+    static boolean isCurrencySupported(Currency currency) {
+        return ACCEPTED_CURRENCIES
+                .stream()
+                .anyMatch(c -> c.equals(currency));
     }
 }
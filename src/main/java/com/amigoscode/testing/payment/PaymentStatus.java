@@ -0,0 +1,7 @@
+package com.amigoscode.testing.payment;
+
+public enum PaymentStatus {
+    PENDING,
+    SUCCEEDED,
+    FAILED
+}
@@ -0,0 +1,284 @@
+package com.amigoscode.testing.payment;
+
+import com.amigoscode.testing.metrics.StageMetrics;
+import com.amigoscode.testing.notification.SmsOutboxMessage;
+import com.amigoscode.testing.notification.SmsOutboxRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionOperations;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * Inserts SUCCEEDED payments together with their {@link CustomerSpendRepository customer spend}
+ * and the SMS telling the customer, which is queued in the outbox for
+ * {@link com.amigoscode.testing.notification.SmsRelay} to send. Every path that records a
+ * SUCCEEDED payment goes through here: single charges, batches and background charges.
+ * <p>
+ * By default every payment gets its own transaction. With {@code payment.group-commit.enabled}
+ * callers instead queue their payment and wait while a single committer thread collects
+ * whatever arrives within {@code window-ms} of the first one, up to {@code max-batch-size},
+ * and writes them as one JDBC batch in one transaction. Every caller returns only once that
+ * transaction has committed, so no payment is acknowledged before it is durable, but a
+ * commit is paid once per batch instead of once per payment. If the batch fails its payments
+ * are written again one per transaction, so only the one at fault fails.
+ * <p>
+ * A caller whose card is already charged never gets turned away: when the queue is full it
+ * writes its payment itself, as it would without group commit, and so does a caller that
+ * has waited {@code wait-timeout-ms} for a committer that has not picked its payment up yet.
+ */
+@Component
+public class PaymentWriter {
+
+    private final PaymentJdbcRepository paymentJdbcRepository;
+    private final CustomerSpendRepository customerSpendRepository;
+    private final SmsOutboxRepository smsOutboxRepository;
+    private final TransactionOperations transactionOperations;
+    private final boolean groupCommit;
+    private final long windowNanos;
+    private final int maxBatchSize;
+    private final long waitTimeoutNanos;
+    private final BlockingQueue<PendingWrite> queue;
+    private final Thread committer;
+    private final StageMetrics.Timer commitTimer;
+    private final LongAdder batches;
+    private final LongAdder batchedPayments;
+    private final LongAdder directWrites;
+    private final LongAdder retriedPayments;
+
+    @Autowired
+    public PaymentWriter(PaymentJdbcRepository paymentJdbcRepository,
+                         CustomerSpendRepository customerSpendRepository,
+                         SmsOutboxRepository smsOutboxRepository,
+                         TransactionOperations transactionOperations,
+                         @Value("${payment.group-commit.enabled:false}") boolean groupCommit,
+                         @Value("${payment.group-commit.window-ms:2}") long windowMillis,
+                         @Value("${payment.group-commit.max-batch-size:200}") int maxBatchSize,
+                         @Value("${payment.group-commit.queue-capacity:10000}") int queueCapacity,
+                         @Value("${payment.group-commit.wait-timeout-ms:5000}") long waitTimeoutMillis,
+                         StageMetrics stageMetrics) {
+        this.paymentJdbcRepository = paymentJdbcRepository;
+        this.customerSpendRepository = customerSpendRepository;
+        this.smsOutboxRepository = smsOutboxRepository;
+        this.transactionOperations = transactionOperations;
+        this.groupCommit = groupCommit;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.maxBatchSize = maxBatchSize;
+        this.waitTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(waitTimeoutMillis);
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.commitTimer = stageMetrics.timer("payment.group-commit.commit");
+        this.batches = stageMetrics.counter("payment.group-commit.batches");
+        this.batchedPayments = stageMetrics.counter("payment.group-commit.payments");
+        this.directWrites = stageMetrics.counter("payment.group-commit.direct-writes");
+        this.retriedPayments = stageMetrics.counter("payment.group-commit.retried-payments");
+        stageMetrics.gauge("payment.group-commit.queued", queue::size);
+        if (groupCommit) {
+            committer = new Thread(this::commitLoop, "payment-group-commit");
+            committer.setDaemon(true);
+            committer.start();
+        } else {
+            committer = null;
+        }
+    }
+
+    /**
+     * @return the payment as inserted
+     * @throws IllegalStateException if it could not be written
+     * @throws PaymentOutcomeUnknownException if it was still not committed after twice
+     * {@code wait-timeout-ms}, in which case it may be committed later
+     */
+    public Payment write(Payment payment) {
+        if (!groupCommit) {
+            return writeNow(payment);
+        }
+        PendingWrite pendingWrite = new PendingWrite(payment);
+        if (!queue.offer(pendingWrite)) {
+            directWrites.increment();
+            return writeNow(payment);
+        }
+        try {
+            try {
+                pendingWrite.committed.get(waitTimeoutNanos, TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                if (pendingWrite.claim()) {
+                    // the committer never got to it and now never will
+                    directWrites.increment();
+                    return writeNow(payment);
+                }
+                // the committer is writing it, so give that one more timeout
+                pendingWrite.committed.get(waitTimeoutNanos, TimeUnit.NANOSECONDS);
+            }
+            return payment;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (TimeoutException e) {
+            // the committer has it, so its id is allocated unless that is what is stuck
+            throw new PaymentOutcomeUnknownException(payment.getPaymentId(), e);
+        } catch (InterruptedException e) {
+            // the payment may still be committed, as with a commit whose reply was lost
+            Thread.currentThread().interrupt();
+            throw new PaymentOutcomeUnknownException(payment.getPaymentId(), e);
+        }
+    }
+
+    /**
+     * Inserts the debited payments of a batch charge as one JDBC batch in one transaction,
+     * setting their ids. Group commit is bypassed since they already are a batch. If the
+     * batch fails the payments are inserted again one per transaction.
+     *
+     * @return for each payment, why it could not be written, or null if it was
+     */
+    public List<RuntimeException> writeAll(List<Payment> payments) {
+        return payments.isEmpty() ? List.of() : insertAllOrEach(payments);
+    }
+
+    /**
+     * Saves the final status of a payment inserted as PENDING, with its spend and SMS in
+     * the same transaction if it SUCCEEDED. A payment that is no longer PENDING, because
+     * the sweeper failed it first, is left as it is and gets neither.
+     *
+     * @return false if the payment was no longer PENDING
+     */
+    public boolean settle(Payment payment) {
+        return Boolean.TRUE.equals(transactionOperations.execute(status -> {
+            if (!paymentJdbcRepository.updateStatus(payment)) {
+                return false;
+            }
+            if (payment.getStatus() == PaymentStatus.SUCCEEDED) {
+                customerSpendRepository.add(payment);
+                smsOutboxRepository.enqueueAll(List.of(paymentReceivedSms(payment)));
+            }
+            return true;
+        }));
+    }
+
+    private Payment writeNow(Payment payment) {
+        insertAll(List.of(payment));
+        return payment;
+    }
+
+    private void commitLoop() {
+        List<PendingWrite> batch = new ArrayList<>(maxBatchSize);
+        try {
+            while (true) {
+                batch.add(queue.take());
+                long deadline = System.nanoTime() + windowNanos;
+                while (batch.size() < maxBatchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    PendingWrite next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                // callers that gave up waiting write their payment themselves
+                batch.removeIf(pendingWrite -> !pendingWrite.claim());
+                if (!batch.isEmpty()) {
+                    commit(batch);
+                }
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            queue.drainTo(batch);
+            IllegalStateException stopped = new IllegalStateException("Payment writer stopped");
+            batch.stream()
+                    .filter(PendingWrite::claim)
+                    .forEach(pendingWrite -> pendingWrite.committed.completeExceptionally(stopped));
+        }
+    }
+
+    private void commit(List<PendingWrite> batch) {
+        long start = System.nanoTime();
+        List<RuntimeException> failures = insertAllOrEach(batch.stream()
+                .map(pendingWrite -> pendingWrite.payment)
+                .collect(Collectors.toList()));
+        // recorded before any caller is released, so they see their own batch counted
+        commitTimer.record(start);
+        batches.increment();
+        batchedPayments.add(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            if (failures.get(i) == null) {
+                batch.get(i).committed.complete(null);
+            } else {
+                batch.get(i).committed.completeExceptionally(failures.get(i));
+            }
+        }
+    }
+
+    /**
+     * @return for each payment, why it could not be inserted, or null if it was
+     */
+    private List<RuntimeException> insertAllOrEach(List<Payment> payments) {
+        List<RuntimeException> failures = new ArrayList<>(Collections.nCopies(payments.size(), null));
+        try {
+            insertAll(payments);
+        } catch (RuntimeException e) {
+            // one bad row must not fail the payments that happened to share its batch
+            retriedPayments.add(payments.size());
+            for (int i = 0; i < payments.size(); i++) {
+                try {
+                    insertAll(List.of(payments.get(i)));
+                } catch (RuntimeException rowFailure) {
+                    failures.set(i, rowFailure);
+                }
+            }
+        }
+        return failures;
+    }
+
+    private void insertAll(List<Payment> payments) {
+        transactionOperations.executeWithoutResult(status -> {
+            paymentJdbcRepository.insertAll(payments);
+            payments.forEach(customerSpendRepository::add);
+            smsOutboxRepository.enqueueAll(payments.stream()
+                    .map(PaymentWriter::paymentReceivedSms)
+                    .collect(Collectors.toList()));
+        });
+    }
+
+    static SmsOutboxMessage paymentReceivedSms(Payment payment) {
+        return new SmsOutboxMessage(
+                payment.getPaymentId(),
+                payment.getCustomerId(),
+                String.format("Payment of %s %s received, reference %d",
+                        payment.getAmount().toPlainString(), payment.getCurrency(), payment.getPaymentId()));
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (committer != null) {
+            committer.interrupt();
+        }
+    }
+
+    private static final class PendingWrite {
+        private final Payment payment;
+        private final CompletableFuture<Void> committed = new CompletableFuture<>();
+        // taken by whoever writes the payment, the committer or the caller that gave up on it
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        private PendingWrite(Payment payment) {
+            this.payment = payment;
+        }
+
+        private boolean claim() {
+            return claimed.compareAndSet(false, true);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.amigoscode.testing.payment;
+
+import com.amigoscode.testing.metrics.StageMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Settles payments a background charge left PENDING, for example because the application
+ * stopped while it was in flight. At start up and every {@code payment.pending-sweep.interval-ms}
+ * it marks FAILED every payment that has been PENDING for longer than {@code max-age-ms}.
+ * <p>
+ * The charge may or may not have reached the gateway, and charging again could debit the
+ * card twice, so these payments are not retried. Each one is logged by id to be reconciled
+ * against the gateway.
+ */
+@Component
+public class PendingPaymentSweeper {
+
+    private static final Logger log = LoggerFactory.getLogger(PendingPaymentSweeper.class);
+
+    private final PaymentJdbcRepository paymentJdbcRepository;
+    private final Clock clock;
+    private final long intervalMillis;
+    private final Duration maxAge;
+    private final int batchSize;
+    private final LongAdder failed;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "pending-payment-sweeper");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Autowired
+    public PendingPaymentSweeper(PaymentJdbcRepository paymentJdbcRepository,
+                                 @Value("${payment.pending-sweep.interval-ms:60000}") long intervalMillis,
+                                 @Value("${payment.pending-sweep.max-age-ms:600000}") long maxAgeMillis,
+                                 @Value("${payment.pending-sweep.batch-size:500}") int batchSize,
+                                 StageMetrics stageMetrics) {
+        this(paymentJdbcRepository, Clock.systemUTC(), intervalMillis, maxAgeMillis, batchSize, stageMetrics);
+    }
+
+    PendingPaymentSweeper(PaymentJdbcRepository paymentJdbcRepository,
+                          Clock clock,
+                          long intervalMillis,
+                          long maxAgeMillis,
+                          int batchSize,
+                          StageMetrics stageMetrics) {
+        this.paymentJdbcRepository = paymentJdbcRepository;
+        this.clock = clock;
+        this.intervalMillis = intervalMillis;
+        this.maxAge = Duration.ofMillis(maxAgeMillis);
+        this.batchSize = batchSize;
+        this.failed = stageMetrics.counter("payment.pending-sweep.failed");
+    }
+
+    @PostConstruct
+    void start() {
+        scheduler.scheduleWithFixedDelay(this::sweepQuietly, 0, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void sweepQuietly() {
+        try {
+            sweep();
+        } catch (RuntimeException e) {
+            log.warn("Pending payment sweep failed, retrying in {} ms", intervalMillis, e);
+        }
+    }
+
+    /**
+     * @return how many payments were marked FAILED
+     */
+    int sweep() {
+        int total = 0;
+        while (true) {
+            List<Long> paymentIds = paymentJdbcRepository.selectPendingBefore(clock.instant().minus(maxAge), batchSize);
+            if (paymentIds.isEmpty()) {
+                return total;
+            }
+            int swept = paymentJdbcRepository.failPending(paymentIds);
+            failed.add(swept);
+            total += swept;
+            if (swept > 0) {
+                log.warn("Marked {} of payments {} FAILED after PENDING for over {}, reconcile them with the gateway",
+                        swept, paymentIds, maxAge);
+            }
+            if (paymentIds.size() < batchSize) {
+                return total;
+            }
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        scheduler.shutdownNow();
+    }
+}
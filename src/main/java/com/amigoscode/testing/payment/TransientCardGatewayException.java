@@ -0,0 +1,17 @@
+package com.amigoscode.testing.payment;
+
+/**
+ * The card gateway could not be reached or failed on its side, a transport error or a
+ * 5xx, so the charge may or may not have been made. Unlike a decline or a rejected
+ * request, sending it again with the same idempotency key can succeed.
+ */
+public class TransientCardGatewayException extends IllegalStateException {
+
+    public TransientCardGatewayException(String message) {
+        super(message);
+    }
+
+    public TransientCardGatewayException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,107 @@
+package com.amigoscode.testing.payment.gateway;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-flight limit for gateway calls that adapts to how the gateway behaves (AIMD).
+ * While the smoothed latency stays within {@code latency-tolerance} times the lowest
+ * recent latency, a busy limit grows by one per call; failures or a smoothed latency
+ * above that shrink it by {@code backoff-ratio}. The lowest latency is re-measured every
+ * {@code probe-interval} calls so the baseline follows the gateway.
+ */
+@Component
+public class AdaptiveConcurrencyLimit {
+
+    private static final double SMOOTHING = 0.1;
+    // differences below this are scheduling noise rather than a slower gateway
+    private static final long LATENCY_FLOOR_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double backoffRatio;
+    private final double latencyTolerance;
+    private final int probeInterval;
+
+    private double limit;
+    private int inFlight;
+    private long minLatencyNanos = Long.MAX_VALUE;
+    private long nextMinLatencyNanos = Long.MAX_VALUE;
+    private int samples;
+    private double smoothedLatencyNanos = -1;
+    private int callsSinceBackoff;
+
+    @Autowired
+    public AdaptiveConcurrencyLimit(@Value("${payment.gateway.limit.initial:20}") int initialLimit,
+                                    @Value("${payment.gateway.limit.min:1}") int minLimit,
+                                    @Value("${payment.gateway.limit.max:200}") int maxLimit,
+                                    @Value("${payment.gateway.limit.backoff-ratio:0.9}") double backoffRatio,
+                                    @Value("${payment.gateway.limit.latency-tolerance:2.0}") double latencyTolerance,
+                                    @Value("${payment.gateway.limit.probe-interval:1000}") int probeInterval) {
+        if (minLimit < 1 || minLimit > initialLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException(String.format(
+                    "Limits must satisfy 1 <= min (%d) <= initial (%d) <= max (%d)", minLimit, initialLimit, maxLimit));
+        }
+        if (backoffRatio <= 0 || backoffRatio >= 1) {
+            throw new IllegalArgumentException("Backoff ratio must be within (0, 1): " + backoffRatio);
+        }
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.backoffRatio = backoffRatio;
+        this.latencyTolerance = latencyTolerance;
+        this.probeInterval = probeInterval;
+    }
+
+    /**
+     * @return whether another call fits under the limit; every acquired call must be
+     * followed by {@link #release(long, boolean)}
+     */
+    public synchronized boolean tryAcquire() {
+        if (inFlight >= (int) limit) {
+            return false;
+        }
+        inFlight++;
+        return true;
+    }
+
+    public synchronized void release(long latencyNanos, boolean failed) {
+        boolean wasBusy = inFlight * 2 >= (int) limit;
+        inFlight--;
+
+        nextMinLatencyNanos = Math.min(nextMinLatencyNanos, latencyNanos);
+        if (++samples >= probeInterval) {
+            minLatencyNanos = nextMinLatencyNanos;
+            nextMinLatencyNanos = Long.MAX_VALUE;
+            samples = 0;
+        } else {
+            minLatencyNanos = Math.min(minLatencyNanos, latencyNanos);
+        }
+        smoothedLatencyNanos = smoothedLatencyNanos < 0
+                ? latencyNanos
+                : smoothedLatencyNanos + SMOOTHING * (latencyNanos - smoothedLatencyNanos);
+        callsSinceBackoff++;
+
+        double slowLatencyNanos = Math.max(minLatencyNanos * latencyTolerance, minLatencyNanos + LATENCY_FLOOR_NANOS);
+        if (failed || smoothedLatencyNanos > slowLatencyNanos) {
+            // back off at most once per limit's worth of calls, roughly once per round trip
+            if (callsSinceBackoff >= (int) limit) {
+                limit = Math.max(minLimit, limit * backoffRatio);
+                callsSinceBackoff = 0;
+            }
+        } else if (wasBusy) {
+            limit = Math.min(maxLimit, limit + 1);
+        }
+    }
+
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+}
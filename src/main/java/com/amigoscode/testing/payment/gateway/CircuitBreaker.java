@@ -0,0 +1,172 @@
+package com.amigoscode.testing.payment.gateway;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Count based circuit breaker over the last {@code window-size} gateway calls. It opens
+ * when either the share of failed calls or the share of calls slower than
+ * {@code slow-call-ms} reaches its threshold, rejects everything for {@code open-ms},
+ * then lets {@code half-open-calls} trial calls through and closes only if they all
+ * come back healthy.
+ */
+@Component
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final int minimumCalls;
+    private final double failureRateThreshold;
+    private final double slowCallRateThreshold;
+    private final long slowCallNanos;
+    private final long openNanos;
+    private final int halfOpenCalls;
+    private final LongSupplier nanoTime;
+
+    // ring of the last outcomes: bit 0 failed, bit 1 slow
+    private final byte[] window;
+    private int position;
+    private int calls;
+    private int failures;
+    private int slowCalls;
+
+    private State state = State.CLOSED;
+    private long openUntilNanos;
+    private int trialsStarted;
+    private int trialsSucceeded;
+
+    @Autowired
+    public CircuitBreaker(@Value("${payment.gateway.circuit.window-size:100}") int windowSize,
+                          @Value("${payment.gateway.circuit.minimum-calls:20}") int minimumCalls,
+                          @Value("${payment.gateway.circuit.failure-rate-threshold:0.5}") double failureRateThreshold,
+                          @Value("${payment.gateway.circuit.slow-call-rate-threshold:0.5}") double slowCallRateThreshold,
+                          @Value("${payment.gateway.circuit.slow-call-ms:2000}") long slowCallMillis,
+                          @Value("${payment.gateway.circuit.open-ms:10000}") long openMillis,
+                          @Value("${payment.gateway.circuit.half-open-calls:5}") int halfOpenCalls) {
+        this(windowSize,
+                minimumCalls,
+                failureRateThreshold,
+                slowCallRateThreshold,
+                slowCallMillis,
+                openMillis,
+                halfOpenCalls,
+                System::nanoTime);
+    }
+
+    CircuitBreaker(int windowSize,
+                   int minimumCalls,
+                   double failureRateThreshold,
+                   double slowCallRateThreshold,
+                   long slowCallMillis,
+                   long openMillis,
+                   int halfOpenCalls,
+                   LongSupplier nanoTime) {
+        if (windowSize < 1 || minimumCalls < 1 || minimumCalls > windowSize || halfOpenCalls < 1) {
+            throw new IllegalArgumentException(String.format(
+                    "Invalid circuit breaker window: size %d, minimum calls %d, half open calls %d",
+                    windowSize, minimumCalls, halfOpenCalls));
+        }
+        this.window = new byte[windowSize];
+        this.minimumCalls = minimumCalls;
+        this.failureRateThreshold = failureRateThreshold;
+        this.slowCallRateThreshold = slowCallRateThreshold;
+        this.slowCallNanos = TimeUnit.MILLISECONDS.toNanos(slowCallMillis);
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+        this.halfOpenCalls = halfOpenCalls;
+        this.nanoTime = nanoTime;
+    }
+
+    /**
+     * @return whether a call may go to the gateway; every permitted call must be
+     * followed by {@link #onResult(long, boolean)} or {@link #releasePermission()}
+     */
+    public synchronized boolean tryAcquirePermission() {
+        if (state == State.OPEN) {
+            if (nanoTime.getAsLong() - openUntilNanos < 0) {
+                return false;
+            }
+            state = State.HALF_OPEN;
+            trialsStarted = 0;
+            trialsSucceeded = 0;
+        }
+        if (state == State.HALF_OPEN) {
+            if (trialsStarted >= halfOpenCalls) {
+                return false;
+            }
+            trialsStarted++;
+        }
+        return true;
+    }
+
+    /**
+     * Hands back a permission for a call that never reached the gateway.
+     */
+    public synchronized void releasePermission() {
+        if (state == State.HALF_OPEN && trialsStarted > 0) {
+            trialsStarted--;
+        }
+    }
+
+    public synchronized void onResult(long durationNanos, boolean failed) {
+        boolean slow = durationNanos >= slowCallNanos;
+        if (state == State.HALF_OPEN) {
+            if (failed || slow) {
+                open();
+            } else if (++trialsSucceeded >= halfOpenCalls) {
+                state = State.CLOSED;
+                clearWindow();
+            }
+            return;
+        }
+        if (state == State.OPEN) {
+            // a call that started before the circuit opened
+            return;
+        }
+        record(failed, slow);
+        if (calls >= minimumCalls
+                && ((double) failures / calls >= failureRateThreshold
+                || (double) slowCalls / calls >= slowCallRateThreshold)) {
+            open();
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    private void record(boolean failed, boolean slow) {
+        byte outcome = (byte) ((failed ? 1 : 0) | (slow ? 2 : 0));
+        if (calls == window.length) {
+            byte evicted = window[position];
+            failures -= evicted & 1;
+            slowCalls -= (evicted >> 1) & 1;
+        } else {
+            calls++;
+        }
+        window[position] = outcome;
+        failures += outcome & 1;
+        slowCalls += (outcome >> 1) & 1;
+        position = (position + 1) % window.length;
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openUntilNanos = nanoTime.getAsLong() + openNanos;
+        clearWindow();
+    }
+
+    private void clearWindow() {
+        position = 0;
+        calls = 0;
+        failures = 0;
+        slowCalls = 0;
+    }
+}
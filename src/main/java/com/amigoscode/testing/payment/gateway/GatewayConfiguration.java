@@ -0,0 +1,33 @@
+package com.amigoscode.testing.payment.gateway;
+
+import com.amigoscode.testing.payment.CardPaymentCharger;
+import com.amigoscode.testing.payment.IdempotentCardPaymentCharger;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.List;
+
+@Configuration
+public class GatewayConfiguration {
+
+    /**
+     * Without routing the gateway is the one {@code "backend"} charger itself.
+     */
+    @Bean
+    @Qualifier("gateway")
+    @ConditionalOnProperty(
+            value = "payment.gateway.routing.enabled",
+            havingValue = "false",
+            matchIfMissing = true
+    )
+    public CardPaymentCharger gateway(@Qualifier("backend") List<IdempotentCardPaymentCharger> backends) {
+        if (backends.size() != 1) {
+            throw new IllegalStateException(String.format(
+                    "Found %d card gateway backends, set payment.gateway.routing.enabled=true to use more than one",
+                    backends.size()));
+        }
+        return backends.get(0);
+    }
+}
@@ -0,0 +1,78 @@
+package com.amigoscode.testing.payment.gateway;
+
+import com.amigoscode.testing.metrics.StageMetrics;
+import com.amigoscode.testing.payment.AsyncCardPaymentCharger;
+import com.amigoscode.testing.payment.CardPaymentCharge;
+import com.amigoscode.testing.payment.Currency;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.annotation.Primary;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.math.BigDecimal;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The {@link AsyncCardPaymentCharger} everything else is given, guarded like
+ * {@link GuardedCardPaymentCharger} and sharing its {@link CircuitBreaker} and
+ * {@link AdaptiveConcurrencyLimit}, so batches and background charges count towards the
+ * same gateway health and in-flight limit as single charges. A refused charge fails at
+ * once with 503. A charge holds its permit until its future completes, not just until
+ * it is sent.
+ */
+@Component
+@Primary
+public class GuardedAsyncCardPaymentCharger implements AsyncCardPaymentCharger {
+
+    private final AsyncCardPaymentCharger gateway;
+    private final CircuitBreaker circuitBreaker;
+    private final AdaptiveConcurrencyLimit concurrencyLimit;
+    private final LongAdder rejectedByCircuit;
+    private final LongAdder rejectedByLimit;
+
+    @Autowired
+    public GuardedAsyncCardPaymentCharger(@Qualifier("gateway") AsyncCardPaymentCharger gateway,
+                                          CircuitBreaker circuitBreaker,
+                                          AdaptiveConcurrencyLimit concurrencyLimit,
+                                          StageMetrics stageMetrics) {
+        this.gateway = gateway;
+        this.circuitBreaker = circuitBreaker;
+        this.concurrencyLimit = concurrencyLimit;
+        this.rejectedByCircuit = stageMetrics.counter("gateway.rejected.circuit-open");
+        this.rejectedByLimit = stageMetrics.counter("gateway.rejected.limit");
+    }
+
+    @Override
+    public CompletableFuture<CardPaymentCharge> chargeCard(String cardSource,
+                                                           BigDecimal amount,
+                                                           Currency currency,
+                                                           String description) {
+        if (!circuitBreaker.tryAcquirePermission()) {
+            rejectedByCircuit.increment();
+            return CompletableFuture.failedFuture(
+                    new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Card gateway circuit is open"));
+        }
+        if (!concurrencyLimit.tryAcquire()) {
+            circuitBreaker.releasePermission();
+            rejectedByLimit.increment();
+            return CompletableFuture.failedFuture(
+                    new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Card gateway is at its concurrency limit"));
+        }
+        long start = System.nanoTime();
+        CompletableFuture<CardPaymentCharge> charge;
+        try {
+            charge = gateway.chargeCard(cardSource, amount, currency, description);
+        } catch (RuntimeException e) {
+            charge = CompletableFuture.failedFuture(e);
+        }
+        // released before the caller sees the result, so it can charge again at once
+        return charge.whenComplete((result, failure) -> {
+            long latencyNanos = System.nanoTime() - start;
+            concurrencyLimit.release(latencyNanos, failure != null);
+            circuitBreaker.onResult(latencyNanos, failure != null);
+        });
+    }
+}
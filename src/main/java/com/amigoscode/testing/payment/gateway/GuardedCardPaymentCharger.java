@@ -0,0 +1,74 @@
+package com.amigoscode.testing.payment.gateway;
+
+import com.amigoscode.testing.metrics.StageMetrics;
+import com.amigoscode.testing.payment.CardPaymentCharge;
+import com.amigoscode.testing.payment.CardPaymentCharger;
+import com.amigoscode.testing.payment.Currency;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.annotation.Primary;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.math.BigDecimal;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The {@link CardPaymentCharger} everything else is given. It wraps the actual gateway,
+ * the bean qualified {@code "gateway"}, with a {@link CircuitBreaker} and an
+ * {@link AdaptiveConcurrencyLimit}. When either refuses a call it fails straight away
+ * with 503 rather than tying up a request thread on a struggling gateway.
+ */
+@Component
+@Primary
+public class GuardedCardPaymentCharger implements CardPaymentCharger {
+
+    private final CardPaymentCharger gateway;
+    private final CircuitBreaker circuitBreaker;
+    private final AdaptiveConcurrencyLimit concurrencyLimit;
+    private final LongAdder rejectedByCircuit;
+    private final LongAdder rejectedByLimit;
+
+    @Autowired
+    public GuardedCardPaymentCharger(@Qualifier("gateway") CardPaymentCharger gateway,
+                                     CircuitBreaker circuitBreaker,
+                                     AdaptiveConcurrencyLimit concurrencyLimit,
+                                     StageMetrics stageMetrics) {
+        this.gateway = gateway;
+        this.circuitBreaker = circuitBreaker;
+        this.concurrencyLimit = concurrencyLimit;
+        this.rejectedByCircuit = stageMetrics.counter("gateway.rejected.circuit-open");
+        this.rejectedByLimit = stageMetrics.counter("gateway.rejected.limit");
+        stageMetrics.gauge("gateway.circuit.state", () -> circuitBreaker.getState().ordinal());
+        stageMetrics.gauge("gateway.limit", concurrencyLimit::getLimit);
+        stageMetrics.gauge("gateway.in-flight", concurrencyLimit::getInFlight);
+    }
+
+    @Override
+    public CardPaymentCharge chargeCard(String cardSource,
+                                        BigDecimal amount,
+                                        Currency currency,
+                                        String description) {
+        if (!circuitBreaker.tryAcquirePermission()) {
+            rejectedByCircuit.increment();
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Card gateway circuit is open");
+        }
+        if (!concurrencyLimit.tryAcquire()) {
+            circuitBreaker.releasePermission();
+            rejectedByLimit.increment();
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Card gateway is at its concurrency limit");
+        }
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            CardPaymentCharge charge = gateway.chargeCard(cardSource, amount, currency, description);
+            failed = false;
+            return charge;
+        } finally {
+            long latencyNanos = System.nanoTime() - start;
+            concurrencyLimit.release(latencyNanos, failed);
+            circuitBreaker.onResult(latencyNanos, failed);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.amigoscode.testing.payment.gateway;
+
+/**
+ * Caps extra gateway attempts (retries and hedges) at a fraction of first attempts.
+ * Every first attempt deposits {@code ratio} of a token, every extra attempt spends a
+ * whole one, and at most {@code maxTokens} can be saved up for a burst.
+ */
+class RetryBudget {
+
+    private final double ratio;
+    private final double maxTokens;
+    private double tokens;
+
+    RetryBudget(double ratio, int maxTokens) {
+        if (ratio < 0 || maxTokens < 0) {
+            throw new IllegalArgumentException(
+                    String.format("Retry budget ratio %s and max tokens %d must not be negative", ratio, maxTokens));
+        }
+        this.ratio = ratio;
+        this.maxTokens = maxTokens;
+        this.tokens = maxTokens;
+    }
+
+    synchronized void deposit() {
+        tokens = Math.min(maxTokens, tokens + ratio);
+    }
+
+    synchronized boolean tryWithdraw() {
+        if (tokens < 1) {
+            return false;
+        }
+        tokens--;
+        return true;
+    }
+
+    synchronized double getTokens() {
+        return tokens;
+    }
+}
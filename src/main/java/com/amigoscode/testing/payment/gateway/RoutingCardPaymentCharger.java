@@ -0,0 +1,436 @@
+package com.amigoscode.testing.payment.gateway;
+
+import com.amigoscode.testing.metrics.StageMetrics;
+import com.amigoscode.testing.payment.CardPaymentCharge;
+import com.amigoscode.testing.payment.CardPaymentCharger;
+import com.amigoscode.testing.payment.Currency;
+import com.amigoscode.testing.payment.IdempotentCardPaymentCharger;
+import com.amigoscode.testing.payment.TransientCardGatewayException;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+import javax.annotation.PreDestroy;
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.LongSupplier;
+import java.util.stream.Collectors;
+
+/**
+ * Spreads charges over every {@code "backend"} charger and trims their tail latency.
+ * Each charge gets a gateway idempotency key and stays on the backend it was first sent
+ * to, since a key only deduplicates within that backend's account. A charge still
+ * running after the recent {@code hedge.percentile} latency gets a second, hedged
+ * attempt on another backend under a key of its own, since the first backend would
+ * refuse a second request with a key still in use. Whichever attempt answers first
+ * wins; if the other one debits the card as well, it is refunded.
+ * <p>
+ * A charge that failed in transit or with a 5xx, a {@link TransientCardGatewayException},
+ * is retried with jittered exponential backoff, each attempt on the same backends with
+ * the same keys. Declines and other errors are not retried. Hedges and retries both draw
+ * on a {@link RetryBudget} so they cannot multiply the load on a gateway that is
+ * already failing.
+ */
+@Component
+@Qualifier("gateway")
+@ConditionalOnProperty(
+        value = "payment.gateway.routing.enabled",
+        havingValue = "true"
+)
+public class RoutingCardPaymentCharger implements CardPaymentCharger {
+
+    public enum Balancer {
+        LEAST_OUTSTANDING,
+        EWMA
+    }
+
+    private static final Logger log = LoggerFactory.getLogger(RoutingCardPaymentCharger.class);
+
+    private static final double EWMA_WEIGHT = 0.2;
+    private static final long HEDGE_REFRESH_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final int HEDGE_MIN_SAMPLES = 100;
+
+    private final List<Backend> backends;
+    private final Balancer balancer;
+    private final double hedgePercentile;
+    private final long minHedgeDelayNanos;
+    private final int maxAttempts;
+    private final long baseBackoffNanos;
+    private final long maxBackoffNanos;
+    private final RetryBudget retryBudget;
+    private final ExecutorService executor;
+    private final LongSupplier nanoTime;
+    private final LongAdder hedges;
+    private final LongAdder retries;
+    private final LongAdder budgetExhausted;
+    private final LongAdder hedgeRefunds;
+    private final LongAdder hedgeRefundFailures;
+
+    private final Recorder latencies = new Recorder(3);
+    private Histogram interval;
+    private volatile long nextRefreshNanos;
+    private volatile long hedgeDelayNanos = Long.MAX_VALUE;
+
+    @Autowired
+    public RoutingCardPaymentCharger(@Qualifier("backend") List<IdempotentCardPaymentCharger> backends,
+                                     @Value("${payment.gateway.routing.balancer:least-outstanding}") String balancer,
+                                     @Value("${payment.gateway.routing.threads:200}") int threads,
+                                     @Value("${payment.gateway.routing.queue-capacity:1000}") int queueCapacity,
+                                     @Value("${payment.gateway.hedge.percentile:95}") double hedgePercentile,
+                                     @Value("${payment.gateway.hedge.min-delay-ms:20}") long minHedgeDelayMillis,
+                                     @Value("${payment.gateway.retry.max-attempts:3}") int maxAttempts,
+                                     @Value("${payment.gateway.retry.base-backoff-ms:50}") long baseBackoffMillis,
+                                     @Value("${payment.gateway.retry.max-backoff-ms:1000}") long maxBackoffMillis,
+                                     @Value("${payment.gateway.retry.budget-ratio:0.1}") double budgetRatio,
+                                     @Value("${payment.gateway.retry.budget-max:10}") int budgetMax,
+                                     StageMetrics stageMetrics) {
+        this(backends,
+                Balancer.valueOf(balancer.trim().replace('-', '_').toUpperCase(Locale.ROOT)),
+                hedgePercentile,
+                minHedgeDelayMillis,
+                maxAttempts,
+                baseBackoffMillis,
+                maxBackoffMillis,
+                new RetryBudget(budgetRatio, budgetMax),
+                newExecutor(threads, queueCapacity),
+                System::nanoTime,
+                stageMetrics);
+    }
+
+    RoutingCardPaymentCharger(List<IdempotentCardPaymentCharger> backends,
+                              Balancer balancer,
+                              double hedgePercentile,
+                              long minHedgeDelayMillis,
+                              int maxAttempts,
+                              long baseBackoffMillis,
+                              long maxBackoffMillis,
+                              RetryBudget retryBudget,
+                              ExecutorService executor,
+                              LongSupplier nanoTime,
+                              StageMetrics stageMetrics) {
+        if (backends.isEmpty()) {
+            throw new IllegalStateException("No card gateway backends to route to");
+        }
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("Max attempts must be at least 1: " + maxAttempts);
+        }
+        this.backends = backends.stream().map(Backend::new).collect(Collectors.toList());
+        this.balancer = balancer;
+        this.hedgePercentile = hedgePercentile;
+        this.minHedgeDelayNanos = TimeUnit.MILLISECONDS.toNanos(minHedgeDelayMillis);
+        this.maxAttempts = maxAttempts;
+        this.baseBackoffNanos = TimeUnit.MILLISECONDS.toNanos(baseBackoffMillis);
+        this.maxBackoffNanos = TimeUnit.MILLISECONDS.toNanos(maxBackoffMillis);
+        this.retryBudget = retryBudget;
+        this.executor = executor;
+        this.nanoTime = nanoTime;
+        this.nextRefreshNanos = nanoTime.getAsLong() + HEDGE_REFRESH_NANOS;
+        this.hedges = stageMetrics.counter("gateway.hedges");
+        this.retries = stageMetrics.counter("gateway.retries");
+        this.budgetExhausted = stageMetrics.counter("gateway.retry-budget-exhausted");
+        this.hedgeRefunds = stageMetrics.counter("gateway.hedge-refunds");
+        this.hedgeRefundFailures = stageMetrics.counter("gateway.hedge-refund-failures");
+        stageMetrics.gauge("gateway.hedge-delay-ms", () -> hedgeDelayNanos == Long.MAX_VALUE
+                ? 0
+                : hedgeDelayNanos / (double) TimeUnit.MILLISECONDS.toNanos(1));
+        for (int i = 0; i < this.backends.size(); i++) {
+            Backend backend = this.backends.get(i);
+            stageMetrics.gauge("gateway.backend." + i + ".outstanding", backend.outstanding::get);
+        }
+    }
+
+    @Override
+    public CardPaymentCharge chargeCard(String cardSource,
+                                        BigDecimal amount,
+                                        Currency currency,
+                                        String description) {
+        refreshHedgeDelay();
+        Charge charge = new Charge(new Target(select(null)), cardSource, amount, currency, description);
+        retryBudget.deposit();
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return hedged(charge);
+            } catch (TransientCardGatewayException e) {
+                if (attempt >= maxAttempts) {
+                    throw e;
+                }
+                if (!retryBudget.tryWithdraw()) {
+                    budgetExhausted.increment();
+                    throw e;
+                }
+                retries.increment();
+                backoff(attempt);
+            }
+        }
+    }
+
+    private CardPaymentCharge hedged(Charge charge) {
+        CompletableFuture<CardPaymentCharge> first;
+        try {
+            first = attempt(charge.primary, charge);
+        } catch (RejectedExecutionException e) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Card gateway router is saturated");
+        }
+        long delayNanos = hedgeDelayNanos;
+        if (delayNanos == Long.MAX_VALUE || backends.size() < 2) {
+            return await(first);
+        }
+        try {
+            return first.get(delayNanos, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            // slower than most recent charges, hedge below
+        } catch (ExecutionException e) {
+            throw unwrap(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for card gateway", e);
+        }
+        if (!retryBudget.tryWithdraw()) {
+            budgetExhausted.increment();
+            return await(first);
+        }
+        Target hedge = charge.hedge(this);
+        CompletableFuture<CardPaymentCharge> second;
+        try {
+            second = attempt(hedge, charge);
+        } catch (RejectedExecutionException e) {
+            return await(first);
+        }
+        hedges.increment();
+        return await(firstAnswer(charge.primary, first, hedge, second));
+    }
+
+    private CompletableFuture<CardPaymentCharge> attempt(Target target, Charge charge) {
+        Backend backend = target.backend;
+        long start = System.nanoTime();
+        backend.outstanding.incrementAndGet();
+        try {
+            return CompletableFuture
+                    .supplyAsync(() -> backend.charger.chargeCard(
+                            target.idempotencyKey, charge.cardSource, charge.amount, charge.currency, charge.description), executor)
+                    .whenComplete((result, e) -> {
+                        long latencyNanos = System.nanoTime() - start;
+                        backend.outstanding.decrementAndGet();
+                        backend.recordLatency(latencyNanos);
+                        if (e == null) {
+                            latencies.recordValue(latencyNanos);
+                        }
+                    });
+        } catch (RuntimeException e) {
+            backend.outstanding.decrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * Completes with whichever attempt answers first, or fails once both have failed.
+     * A debit from the attempt that answered second is refunded.
+     */
+    private CompletableFuture<CardPaymentCharge> firstAnswer(Target firstTarget,
+                                                             CompletableFuture<CardPaymentCharge> first,
+                                                             Target secondTarget,
+                                                             CompletableFuture<CardPaymentCharge> second) {
+        CompletableFuture<CardPaymentCharge> result = new CompletableFuture<>();
+        AtomicInteger failures = new AtomicInteger();
+        first.whenComplete(onAnswer(result, failures, firstTarget));
+        second.whenComplete(onAnswer(result, failures, secondTarget));
+        return result;
+    }
+
+    private BiConsumer<CardPaymentCharge, Throwable> onAnswer(CompletableFuture<CardPaymentCharge> result,
+                                                              AtomicInteger failures,
+                                                              Target target) {
+        return (charge, e) -> {
+            if (e != null) {
+                if (failures.incrementAndGet() == 2) {
+                    result.completeExceptionally(e);
+                }
+            } else if (!result.complete(charge) && charge.isCardDebited()) {
+                refund(target, charge);
+            }
+        };
+    }
+
+    private void refund(Target target, CardPaymentCharge charge) {
+        try {
+            target.backend.charger.refund(charge);
+            hedgeRefunds.increment();
+        } catch (RuntimeException e) {
+            hedgeRefundFailures.increment();
+            log.error("Could not refund hedged charge {} made with idempotency key {}",
+                    charge.getChargeId(), target.idempotencyKey, e);
+        }
+    }
+
+    /**
+     * @param excluded a backend not to pick, or null
+     */
+    Backend select(Backend excluded) {
+        Backend best = null;
+        for (Backend candidate : backends) {
+            if (candidate != excluded && (best == null || compare(candidate, best) < 0)) {
+                best = candidate;
+            }
+        }
+        return best;
+    }
+
+    private int compare(Backend a, Backend b) {
+        int aOutstanding = a.outstanding.get();
+        int bOutstanding = b.outstanding.get();
+        if (balancer == Balancer.EWMA) {
+            // a backend that has not answered yet scores 0 and gets tried
+            return Double.compare((aOutstanding + 1) * a.ewmaNanos, (bOutstanding + 1) * b.ewmaNanos);
+        }
+        int byOutstanding = Integer.compare(aOutstanding, bOutstanding);
+        return byOutstanding != 0 ? byOutstanding : Double.compare(a.ewmaNanos, b.ewmaNanos);
+    }
+
+    void refreshHedgeDelay() {
+        long now = nanoTime.getAsLong();
+        if (now - nextRefreshNanos < 0) {
+            return;
+        }
+        synchronized (latencies) {
+            if (now - nextRefreshNanos < 0) {
+                return;
+            }
+            nextRefreshNanos = now + HEDGE_REFRESH_NANOS;
+            interval = latencies.getIntervalHistogram(interval);
+            if (hedgePercentile > 0 && interval.getTotalCount() >= HEDGE_MIN_SAMPLES) {
+                hedgeDelayNanos = Math.max(minHedgeDelayNanos, interval.getValueAtPercentile(hedgePercentile));
+            }
+        }
+    }
+
+    private void backoff(int attempt) {
+        long ceiling = Math.min(maxBackoffNanos, baseBackoffNanos << Math.min(attempt - 1, 30));
+        long nanos = ThreadLocalRandom.current().nextLong(ceiling + 1);
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted backing off from card gateway", e);
+        }
+    }
+
+    private static CardPaymentCharge await(CompletableFuture<CardPaymentCharge> future) {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw unwrap(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for card gateway", e);
+        }
+    }
+
+    private static RuntimeException unwrap(Throwable cause) {
+        if (cause instanceof CompletionException && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause instanceof RuntimeException
+                ? (RuntimeException) cause
+                : new IllegalStateException("Cannot make card charge", cause);
+    }
+
+    private static ExecutorService newExecutor(int threads, int queueCapacity) {
+        AtomicInteger count = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                threads,
+                threads,
+                60L,
+                TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "card-gateway-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * A backend and the idempotency key a charge uses on it.
+     */
+    private static final class Target {
+        private final Backend backend;
+        private final String idempotencyKey = UUID.randomUUID().toString();
+
+        private Target(Backend backend) {
+            this.backend = backend;
+        }
+    }
+
+    private static final class Charge {
+        private final Target primary;
+        private final String cardSource;
+        private final BigDecimal amount;
+        private final Currency currency;
+        private final String description;
+        // picked on the first hedge and kept for retries, so they reuse its key
+        private Target hedge;
+
+        private Charge(Target primary, String cardSource, BigDecimal amount, Currency currency, String description) {
+            this.primary = primary;
+            this.cardSource = cardSource;
+            this.amount = amount;
+            this.currency = currency;
+            this.description = description;
+        }
+
+        private Target hedge(RoutingCardPaymentCharger router) {
+            if (hedge == null) {
+                hedge = new Target(router.select(primary.backend));
+            }
+            return hedge;
+        }
+    }
+
+    static final class Backend {
+        private final IdempotentCardPaymentCharger charger;
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private volatile double ewmaNanos;
+
+        private Backend(IdempotentCardPaymentCharger charger) {
+            this.charger = charger;
+        }
+
+        IdempotentCardPaymentCharger getCharger() {
+            return charger;
+        }
+
+        private synchronized void recordLatency(long latencyNanos) {
+            ewmaNanos = ewmaNanos == 0 ? latencyNanos : ewmaNanos + EWMA_WEIGHT * (latencyNanos - ewmaNanos);
+        }
+    }
+}
@@ -0,0 +1,308 @@
+package com.amigoscode.testing.payment.shard;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+
+/**
+ * The payment shards and which of them holds each customer.
+ * <p>
+ * Customers hash to one of {@value #BUCKETS} fixed virtual buckets and every bucket lives
+ * on exactly one shard, so all of a customer's payments are on one shard. Payment ids
+ * carry their bucket in the low {@value #BUCKET_BITS} bits, which routes a lookup by id
+ * without asking anyone. Adding shards only moves whole buckets and changes the
+ * bucket-to-shard map, which is kept in the {@code payment_bucket} table on shard 0;
+ * neither customers nor payment ids ever change bucket. A customer's own row lives with
+ * their payments; the main database keeps every customer too, as the directory of phone
+ * numbers.
+ * <p>
+ * The map and the bucket locks live in this process, so only one instance may use the
+ * shards at a time. It holds a lease in the {@code payment_shard_owner} table on shard 0,
+ * renewed every third of {@code ownerLeaseMillis}. A second instance fails to start while
+ * the lease is held, and an instance that cannot renew its lease stops routing before the
+ * lease runs out.
+ */
+public class PaymentShards {
+
+    private static final Logger log = LoggerFactory.getLogger(PaymentShards.class);
+
+    private static final long DEFAULT_OWNER_LEASE_MILLIS = 30000;
+
+    static final int BUCKET_BITS = 10;
+    static final int BUCKETS = 1 << BUCKET_BITS;
+
+    private static final String[] SCHEMA = {
+            "create table if not exists payment (" +
+                    "payment_id bigint primary key, " +
+                    "bucket int not null, " +
+                    "customer_id binary(16) not null, " +
+                    "amount decimal(19, 2), " +
+                    "currency int, " +
+                    "source varchar(255), " +
+                    "description varchar(255), " +
+                    "status int, " +
+                    "created_at timestamp)",
+            "create index if not exists payment_bucket_idx on payment (bucket)",
+            "create index if not exists payment_customer_id_payment_id_idx on payment (customer_id, payment_id desc)",
+            "create index if not exists payment_created_at_idx on payment (created_at)",
+            "create index if not exists payment_status_created_at_idx on payment (status, created_at)",
+            "create table if not exists customer (" +
+                    "customer_id binary(16) primary key, " +
+                    "bucket int not null, " +
+                    "name varchar(255), " +
+                    "phone_number varchar(255))",
+            "create index if not exists customer_bucket_idx on customer (bucket)"
+    };
+
+    private final List<JdbcTemplate> shards;
+    private final ReadWriteLock[] bucketLocks = new ReadWriteLock[BUCKETS];
+    private final String owner = UUID.randomUUID().toString();
+    private final long ownerLeaseMillis;
+    private final ScheduledExecutorService leaseRenewer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "payment-shard-lease");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // System.nanoTime() until which this instance may route, 0 once it has given the shards up
+    private volatile long ownedUntilNanos;
+    // replaced, never modified, so readers need no lock to see a consistent map
+    private volatile int[] bucketToShard;
+
+    public PaymentShards(List<DataSource> dataSources, int activeShards) {
+        this(dataSources, activeShards, DEFAULT_OWNER_LEASE_MILLIS);
+    }
+
+    /**
+     * @param activeShards     how many of {@code dataSources} a new map spreads buckets over;
+     *                         an existing map is kept as it is
+     * @param ownerLeaseMillis how long another instance is kept out after this one last
+     *                         renewed its lease
+     */
+    public PaymentShards(List<DataSource> dataSources, int activeShards, long ownerLeaseMillis) {
+        if (dataSources.isEmpty() || activeShards < 1 || activeShards > dataSources.size()) {
+            throw new IllegalArgumentException(String.format(
+                    "Cannot use %d of %d shards", activeShards, dataSources.size()));
+        }
+        this.ownerLeaseMillis = ownerLeaseMillis;
+        List<JdbcTemplate> shards = new ArrayList<>(dataSources.size());
+        for (DataSource dataSource : dataSources) {
+            JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+            for (String ddl : SCHEMA) {
+                jdbcTemplate.execute(ddl);
+            }
+            shards.add(jdbcTemplate);
+        }
+        this.shards = List.copyOf(shards);
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            bucketLocks[bucket] = new ReentrantReadWriteLock();
+        }
+        this.shards.get(0).execute("create table if not exists payment_shard_owner (" +
+                "id int primary key, owner varchar(64) not null, lease_until timestamp not null)");
+        if (!renewLease()) {
+            throw new IllegalStateException(
+                    "The payment shards are in use by another instance, sharding supports one instance at a time");
+        }
+        try {
+            this.bucketToShard = loadBucketMap(activeShards);
+        } catch (RuntimeException e) {
+            close();
+            throw e;
+        }
+        long renewMillis = Math.max(1, ownerLeaseMillis / 3);
+        leaseRenewer.scheduleWithFixedDelay(this::keepLease, renewMillis, renewMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Takes or extends the lease on the shards, unless another instance holds it.
+     */
+    private boolean renewLease() {
+        long start = System.nanoTime();
+        JdbcTemplate ownerShard = shards.get(0);
+        Instant now = Instant.now();
+        Timestamp leaseUntil = Timestamp.from(now.plusMillis(ownerLeaseMillis));
+        boolean renewed = ownerShard.update("update payment_shard_owner set owner = ?, lease_until = ? " +
+                "where id = 0 and (owner = ? or lease_until < ?)", owner, leaseUntil, owner, Timestamp.from(now)) == 1;
+        if (!renewed) {
+            try {
+                ownerShard.update("insert into payment_shard_owner (id, owner, lease_until) values (0, ?, ?)",
+                        owner, leaseUntil);
+                renewed = true;
+            } catch (DuplicateKeyException e) {
+                // held by another instance
+            }
+        }
+        if (renewed) {
+            // counted from before the update, so this instance stops before the lease others see runs out
+            ownedUntilNanos = start + TimeUnit.MILLISECONDS.toNanos(ownerLeaseMillis);
+        }
+        return renewed;
+    }
+
+    private void keepLease() {
+        try {
+            if (!renewLease()) {
+                ownedUntilNanos = 0;
+                log.error("Another instance took over the payment shards, this one stops routing to them");
+                leaseRenewer.shutdown();
+            }
+        } catch (DataAccessException e) {
+            log.warn("Cannot renew the lease on the payment shards, retrying", e);
+        }
+    }
+
+    private void checkOwned() {
+        long ownedUntil = ownedUntilNanos;
+        if (ownedUntil == 0 || ownedUntil - System.nanoTime() <= 0) {
+            throw new IllegalStateException("This instance does not hold the lease on the payment shards");
+        }
+    }
+
+    /**
+     * Stops renewing the lease and gives it up, so another instance can start at once.
+     */
+    public void close() {
+        leaseRenewer.shutdownNow();
+        ownedUntilNanos = 0;
+        try {
+            shards.get(0).update("delete from payment_shard_owner where id = 0 and owner = ?", owner);
+        } catch (DataAccessException e) {
+            log.warn("Cannot give up the lease on the payment shards, it runs out in {} ms", ownerLeaseMillis, e);
+        }
+    }
+
+    private int[] loadBucketMap(int activeShards) {
+        JdbcTemplate mapShard = shards.get(0);
+        mapShard.execute("create table if not exists payment_bucket (bucket int primary key, shard int not null)");
+        int[] map = new int[BUCKETS];
+        Arrays.fill(map, -1);
+        mapShard.query("select bucket, shard from payment_bucket", rs -> {
+            map[rs.getInt("bucket")] = rs.getInt("shard");
+        });
+        if (map[0] == -1) {
+            List<Object[]> rows = new ArrayList<>(BUCKETS);
+            for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                map[bucket] = bucket % activeShards;
+                rows.add(new Object[]{bucket, map[bucket]});
+            }
+            mapShard.batchUpdate("insert into payment_bucket (bucket, shard) values (?, ?)", rows);
+        }
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            if (map[bucket] < 0 || map[bucket] >= shards.size()) {
+                throw new IllegalStateException(String.format(
+                        "Bucket %d maps to shard %d but only %d shards are configured", bucket, map[bucket], shards.size()));
+            }
+        }
+        return map;
+    }
+
+    public static int bucketOf(UUID customerId) {
+        long hash = customerId.getMostSignificantBits() ^ customerId.getLeastSignificantBits();
+        // murmur3 finalizer, random UUIDs are already uniform but other ids may not be
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return (int) (hash & (BUCKETS - 1));
+    }
+
+    public static int bucketOfPaymentId(long paymentId) {
+        return (int) (paymentId & (BUCKETS - 1));
+    }
+
+    static long paymentId(long sequence, int bucket) {
+        return (sequence << BUCKET_BITS) | bucket;
+    }
+
+    /**
+     * Runs a shard write as the last step of the transaction open on the main database, or
+     * now if there is none. If the write fails the main transaction rolls back with it; only
+     * a failure of the main commit itself can leave the shard write behind.
+     */
+    public static void beforeCommit(Runnable shardWrite) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            shardWrite.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void beforeCommit(boolean readOnly) {
+                shardWrite.run();
+            }
+        });
+    }
+
+    public int shardCount() {
+        return shards.size();
+    }
+
+    public int shardOf(int bucket) {
+        return bucketToShard[bucket];
+    }
+
+    JdbcTemplate shard(int shard) {
+        checkOwned();
+        return shards.get(shard);
+    }
+
+    /**
+     * Held shared while reading or writing a bucket and exclusively while moving it.
+     */
+    ReadWriteLock bucketLock(int bucket) {
+        return bucketLocks[bucket];
+    }
+
+    /**
+     * Runs {@code work} against the shard holding {@code bucket}, with the bucket's lock
+     * held shared so it cannot move meanwhile.
+     */
+    <T> T onBucket(int bucket, Function<JdbcTemplate, T> work) {
+        Lock lock = bucketLocks[bucket].readLock();
+        lock.lock();
+        try {
+            checkOwned();
+            return work.apply(shards.get(bucketToShard[bucket]));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * How many buckets each shard holds.
+     */
+    public int[] bucketCounts() {
+        int[] counts = new int[shards.size()];
+        for (int shard : bucketToShard) {
+            counts[shard]++;
+        }
+        return counts;
+    }
+
+    /**
+     * Points {@code bucket} at {@code shard}. The caller holds the bucket's write lock.
+     */
+    synchronized void assign(int bucket, int shard) {
+        checkOwned();
+        shards.get(0).update("update payment_bucket set shard = ? where bucket = ?", shard, bucket);
+        int[] map = bucketToShard.clone();
+        map[bucket] = shard;
+        bucketToShard = map;
+    }
+}
@@ -0,0 +1,38 @@
+package com.amigoscode.testing.payment.shard;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+@RequestMapping("api/v1/payment-shards")
+@ConditionalOnProperty(value = "payment.sharding.enabled", havingValue = "true")
+public class ShardController {
+
+    private final PaymentShards paymentShards;
+    private final ShardRebalancer shardRebalancer;
+
+    @Autowired
+    public ShardController(PaymentShards paymentShards,
+                           ShardRebalancer shardRebalancer) {
+        this.paymentShards = paymentShards;
+        this.shardRebalancer = shardRebalancer;
+    }
+
+    /**
+     * How many buckets each shard holds.
+     */
+    @GetMapping
+    public int[] getBucketCounts() {
+        return paymentShards.bucketCounts();
+    }
+
+    @PostMapping("rebalance")
+    public ShardRebalancer.RebalanceResult rebalance(@RequestParam("shards") int shards) {
+        return shardRebalancer.rebalance(shards);
+    }
+}
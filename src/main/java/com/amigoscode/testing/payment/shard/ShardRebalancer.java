@@ -0,0 +1,155 @@
+package com.amigoscode.testing.payment.shard;
+
+import com.amigoscode.testing.customer.Customer;
+import com.amigoscode.testing.payment.Payment;
+import com.amigoscode.testing.payment.PaymentJdbcRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Spreads the buckets of {@link PaymentShards} evenly over the first {@code shards} shards,
+ * moving as few buckets as it can. Each bucket is copied to its new shard, re-pointed and
+ * then deleted from the old one while its write lock is held, so the customers in that
+ * bucket wait for the move and everyone else carries on. A move that dies half way only
+ * leaves copies behind on the target, which the next attempt clears before copying again.
+ * The bucket's customers move with its payments. The locks and the map only live in this
+ * instance, which is why {@link PaymentShards} lets one instance use the shards at a time.
+ */
+public class ShardRebalancer {
+
+    private static final Logger log = LoggerFactory.getLogger(ShardRebalancer.class);
+
+    private final PaymentShards shards;
+    private final int batchSize;
+
+    public ShardRebalancer(PaymentShards shards, int batchSize) {
+        this.shards = shards;
+        this.batchSize = batchSize;
+    }
+
+    public synchronized RebalanceResult rebalance(int targetShards) {
+        if (targetShards < 1 || targetShards > shards.shardCount()) {
+            throw new IllegalArgumentException(String.format(
+                    "Cannot rebalance over %d shards, %d are configured", targetShards, shards.shardCount()));
+        }
+        int[] quota = new int[targetShards];
+        for (int shard = 0; shard < targetShards; shard++) {
+            quota[shard] = PaymentShards.BUCKETS / targetShards + (shard < PaymentShards.BUCKETS % targetShards ? 1 : 0);
+        }
+
+        // buckets stay where they are while their shard is within quota
+        int[] kept = new int[targetShards];
+        Deque<Integer> toMove = new ArrayDeque<>();
+        for (int bucket = 0; bucket < PaymentShards.BUCKETS; bucket++) {
+            int shard = shards.shardOf(bucket);
+            if (shard < targetShards && kept[shard] < quota[shard]) {
+                kept[shard]++;
+            } else {
+                toMove.add(bucket);
+            }
+        }
+
+        int movedBuckets = 0;
+        long movedPayments = 0;
+        for (int shard = 0; shard < targetShards; shard++) {
+            for (int free = quota[shard] - kept[shard]; free > 0; free--) {
+                movedPayments += move(toMove.remove(), shard);
+                movedBuckets++;
+            }
+        }
+        log.info("Rebalanced payments over {} shards, moved {} buckets with {} payments",
+                targetShards, movedBuckets, movedPayments);
+        return new RebalanceResult(movedBuckets, movedPayments);
+    }
+
+    private long move(int bucket, int targetShard) {
+        Lock lock = shards.bucketLock(bucket).writeLock();
+        lock.lock();
+        try {
+            JdbcTemplate source = shards.shard(shards.shardOf(bucket));
+            JdbcTemplate target = shards.shard(targetShard);
+            target.update("delete from payment where bucket = ?", bucket);
+            List<Payment> batch = new ArrayList<>(batchSize);
+            long[] copied = {0};
+            source.query(PaymentJdbcRepository.SELECT_PAYMENT + "where bucket = ?", rs -> {
+                batch.add(PaymentJdbcRepository.PAYMENT_ROW_MAPPER.mapRow(rs, 0));
+                if (batch.size() == batchSize) {
+                    copied[0] += insert(target, batch, bucket);
+                }
+            }, bucket);
+            copied[0] += insert(target, batch, bucket);
+            moveCustomers(source, target, bucket);
+            shards.assign(bucket, targetShard);
+            source.update("delete from payment where bucket = ?", bucket);
+            source.update("delete from customer where bucket = ?", bucket);
+            return copied[0];
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void moveCustomers(JdbcTemplate source, JdbcTemplate target, int bucket) {
+        target.update("delete from customer where bucket = ?", bucket);
+        List<Customer> batch = new ArrayList<>(batchSize);
+        source.query(ShardedCustomerRepository.SELECT_CUSTOMER + "where bucket = ?", rs -> {
+            batch.add(ShardedCustomerRepository.CUSTOMER_ROW_MAPPER.mapRow(rs, 0));
+            if (batch.size() == batchSize) {
+                insertCustomers(target, batch, bucket);
+            }
+        }, bucket);
+        insertCustomers(target, batch, bucket);
+    }
+
+    private static void insertCustomers(JdbcTemplate target, List<Customer> batch, int bucket) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        target.batchUpdate(ShardedCustomerRepository.INSERT_CUSTOMER, batch, batch.size(),
+                (ps, customer) -> ShardedCustomerRepository.setValues(ps, customer, bucket));
+        batch.clear();
+    }
+
+    private static int insert(JdbcTemplate target, List<Payment> batch, int bucket) {
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        int size = batch.size();
+        target.batchUpdate(ShardedPaymentRepository.INSERT_PAYMENT, batch, size,
+                (ps, payment) -> ShardedPaymentRepository.setValues(ps, payment, bucket));
+        batch.clear();
+        return size;
+    }
+
+    public static final class RebalanceResult {
+        private final int movedBuckets;
+        private final long movedPayments;
+
+        public RebalanceResult(int movedBuckets, long movedPayments) {
+            this.movedBuckets = movedBuckets;
+            this.movedPayments = movedPayments;
+        }
+
+        public int getMovedBuckets() {
+            return movedBuckets;
+        }
+
+        public long getMovedPayments() {
+            return movedPayments;
+        }
+
+        @Override
+        public String toString() {
+            return "RebalanceResult{" +
+                    "movedBuckets=" + movedBuckets +
+                    ", movedPayments=" + movedPayments +
+                    '}';
+        }
+    }
+}
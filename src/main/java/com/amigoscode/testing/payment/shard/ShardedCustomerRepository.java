@@ -0,0 +1,96 @@
+package com.amigoscode.testing.payment.shard;
+
+import com.amigoscode.testing.customer.Customer;
+import com.amigoscode.testing.utils.UuidBytes;
+import org.springframework.jdbc.core.RowMapper;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.function.Function;
+
+/**
+ * Customers kept on the shard of {@link PaymentShards} that holds their payments, so a
+ * charge looks its customer up on the shard it is about to write to.
+ */
+public class ShardedCustomerRepository {
+
+    static final String INSERT_CUSTOMER = "insert into customer " +
+            "(customer_id, bucket, name, phone_number) values (?, ?, ?, ?)";
+
+    static final String SELECT_CUSTOMER = "select customer_id, name, phone_number from customer ";
+
+    static final RowMapper<Customer> CUSTOMER_ROW_MAPPER = (rs, rowNum) -> new Customer(
+            UuidBytes.fromBytes(rs.getBytes("customer_id")),
+            rs.getString("name"),
+            rs.getString("phone_number"));
+
+    private final PaymentShards shards;
+
+    public ShardedCustomerRepository(PaymentShards shards) {
+        this.shards = shards;
+    }
+
+    /**
+     * Inserts the customers as one JDBC batch per bucket, deleting them all again if any
+     * batch fails.
+     */
+    public void insertAll(List<Customer> customers) {
+        Map<Integer, List<Customer>> byBucket = groupByBucket(customers, Customer::getId);
+        try {
+            byBucket.forEach((bucket, bucketCustomers) -> shards.onBucket(bucket, shard ->
+                    shard.batchUpdate(INSERT_CUSTOMER, bucketCustomers, bucketCustomers.size(),
+                            (ps, customer) -> setValues(ps, customer, bucket))));
+        } catch (RuntimeException e) {
+            deleteAll(customers);
+            throw e;
+        }
+    }
+
+    public void deleteAll(List<Customer> customers) {
+        groupByBucket(customers, Customer::getId).forEach((bucket, bucketCustomers) -> shards.onBucket(bucket, shard ->
+                shard.batchUpdate("delete from customer where customer_id = ?", bucketCustomers, bucketCustomers.size(),
+                        (ps, customer) -> ps.setBytes(1, UuidBytes.toBytes(customer.getId())))));
+    }
+
+    public Optional<Customer> findById(UUID customerId) {
+        return findAllById(List.of(customerId)).stream().findFirst();
+    }
+
+    /**
+     * The customers found, one query per bucket they fall in.
+     */
+    public List<Customer> findAllById(Collection<UUID> customerIds) {
+        List<Customer> customers = new ArrayList<>(customerIds.size());
+        groupByBucket(customerIds, Function.identity()).forEach((bucket, bucketIds) -> {
+            String placeholders = String.join(", ", Collections.nCopies(bucketIds.size(), "?"));
+            Object[] args = bucketIds.stream().map(UuidBytes::toBytes).toArray();
+            customers.addAll(shards.onBucket(bucket, shard -> shard.query(
+                    SELECT_CUSTOMER + "where customer_id in (" + placeholders + ")", CUSTOMER_ROW_MAPPER, args)));
+        });
+        return customers;
+    }
+
+    static void setValues(PreparedStatement ps, Customer customer, int bucket) throws SQLException {
+        ps.setBytes(1, UuidBytes.toBytes(customer.getId()));
+        ps.setInt(2, bucket);
+        ps.setString(3, customer.getName());
+        ps.setString(4, customer.getPhoneNumber());
+    }
+
+    private static <T> Map<Integer, List<T>> groupByBucket(Collection<T> items, Function<T, UUID> customerId) {
+        Map<Integer, List<T>> byBucket = new TreeMap<>();
+        for (T item : items) {
+            byBucket.computeIfAbsent(PaymentShards.bucketOf(customerId.apply(item)), bucket -> new ArrayList<>())
+                    .add(item);
+        }
+        return byBucket;
+    }
+}
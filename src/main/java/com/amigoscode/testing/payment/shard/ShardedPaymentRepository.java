@@ -0,0 +1,158 @@
+package com.amigoscode.testing.payment.shard;
+
+import com.amigoscode.testing.payment.Payment;
+import com.amigoscode.testing.payment.PaymentJdbcRepository;
+import com.amigoscode.testing.payment.PaymentStatus;
+import com.amigoscode.testing.utils.UuidBytes;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * Payments spread over {@link PaymentShards} by customer. Ids combine a number from
+ * {@code idSequence}, which must never repeat across shards, with the customer's bucket.
+ * Reads and writes of a bucket hold its lock shared, so they wait while it is moved.
+ */
+public class ShardedPaymentRepository {
+
+    static final String INSERT_PAYMENT = "insert into payment " +
+            "(payment_id, bucket, customer_id, amount, currency, source, description, status, created_at) " +
+            "values (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private final PaymentShards shards;
+    private final LongSupplier idSequence;
+
+    public ShardedPaymentRepository(PaymentShards shards, LongSupplier idSequence) {
+        this.shards = shards;
+        this.idSequence = idSequence;
+    }
+
+    /**
+     * A new id for a payment of {@code customerId}, which routes to the customer's bucket.
+     */
+    public long nextPaymentId(UUID customerId) {
+        return PaymentShards.paymentId(idSequence.getAsLong(), PaymentShards.bucketOf(customerId));
+    }
+
+    /**
+     * Inserts payments with ids from {@link #nextPaymentId}, as one JDBC batch per bucket.
+     * The batches are not one transaction, so if any fails the rows already written are
+     * deleted again before the failure is thrown.
+     */
+    public void insertAll(List<Payment> payments) {
+        Map<Integer, List<Payment>> byBucket = new TreeMap<>();
+        for (Payment payment : payments) {
+            if (payment.getCreatedAt() == null) {
+                payment.setCreatedAt(Instant.now().truncatedTo(ChronoUnit.MILLIS));
+            }
+            byBucket.computeIfAbsent(PaymentShards.bucketOfPaymentId(payment.getPaymentId()), bucket -> new ArrayList<>())
+                    .add(payment);
+        }
+        try {
+            byBucket.forEach((bucket, bucketPayments) -> shards.onBucket(bucket, shard -> shard.batchUpdate(
+                    INSERT_PAYMENT, bucketPayments, bucketPayments.size(), (ps, payment) -> setValues(ps, payment, bucket))));
+        } catch (RuntimeException e) {
+            byBucket.forEach((bucket, bucketPayments) -> shards.onBucket(bucket, shard -> shard.batchUpdate(
+                    "delete from payment where payment_id = ?", bucketPayments, bucketPayments.size(),
+                    (ps, payment) -> ps.setLong(1, payment.getPaymentId()))));
+            throw e;
+        }
+    }
+
+    /**
+     * Saves the final status of a payment still PENDING.
+     *
+     * @return false if the payment was no longer PENDING
+     */
+    public boolean updateStatus(Payment payment) {
+        return onPaymentShard(payment.getPaymentId(), shard -> shard.update(
+                "update payment set status = ? where payment_id = ? and status = ?",
+                payment.getStatus().ordinal(), payment.getPaymentId(), PaymentStatus.PENDING.ordinal())) > 0;
+    }
+
+    /**
+     * Marks the payments FAILED, leaving alone any that were settled in the meantime.
+     *
+     * @return how many were marked
+     */
+    public int failPending(List<Long> paymentIds) {
+        int failed = 0;
+        for (long paymentId : paymentIds) {
+            failed += onPaymentShard(paymentId, shard -> shard.update(
+                    "update payment set status = ? where payment_id = ? and status = ?",
+                    PaymentStatus.FAILED.ordinal(), paymentId, PaymentStatus.PENDING.ordinal()));
+        }
+        return failed;
+    }
+
+    public Optional<Payment> findById(long paymentId) {
+        return onPaymentShard(paymentId, shard -> shard
+                .query(PaymentJdbcRepository.SELECT_PAYMENT + "where payment_id = ?",
+                        PaymentJdbcRepository.PAYMENT_ROW_MAPPER,
+                        paymentId)
+                .stream()
+                .findFirst());
+    }
+
+    /**
+     * A customer's payments, newest first, read from the one shard that holds them.
+     */
+    public List<Payment> findByCustomerId(UUID customerId, int limit) {
+        return onCustomerShard(customerId, shard -> shard.query(
+                PaymentJdbcRepository.SELECT_PAYMENT + "where customer_id = ? order by payment_id desc limit ?",
+                PaymentJdbcRepository.PAYMENT_ROW_MAPPER,
+                UuidBytes.toBytes(customerId),
+                limit));
+    }
+
+    /**
+     * Runs {@code work} against the shard holding {@code customerId}'s payments.
+     */
+    public <T> T onCustomerShard(UUID customerId, Function<JdbcTemplate, T> work) {
+        return shards.onBucket(PaymentShards.bucketOf(customerId), work);
+    }
+
+    public <T> T onPaymentShard(long paymentId, Function<JdbcTemplate, T> work) {
+        return shards.onBucket(PaymentShards.bucketOfPaymentId(paymentId), work);
+    }
+
+    /**
+     * Runs {@code work} against every shard in turn. No bucket is locked, so the payments of
+     * a bucket being moved meanwhile may be seen twice or not at all.
+     */
+    public void forEachShard(Consumer<JdbcTemplate> work) {
+        for (int shard = 0; shard < shards.shardCount(); shard++) {
+            work.accept(shards.shard(shard));
+        }
+    }
+
+    static void setValues(PreparedStatement ps, Payment payment, int bucket) throws SQLException {
+        ps.setLong(1, payment.getPaymentId());
+        ps.setInt(2, bucket);
+        ps.setBytes(3, UuidBytes.toBytes(payment.getCustomerId()));
+        ps.setBigDecimal(4, payment.getAmount());
+        ps.setInt(5, payment.getCurrency().ordinal());
+        ps.setString(6, payment.getSource());
+        ps.setString(7, payment.getDescription());
+        if (payment.getStatus() == null) {
+            ps.setNull(8, Types.INTEGER);
+        } else {
+            ps.setInt(8, payment.getStatus().ordinal());
+        }
+        ps.setTimestamp(9, payment.getCreatedAt() == null ? null : Timestamp.from(payment.getCreatedAt()));
+    }
+}
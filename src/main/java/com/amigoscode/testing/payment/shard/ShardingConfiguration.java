@@ -0,0 +1,63 @@
+package com.amigoscode.testing.payment.shard;
+
+import com.amigoscode.testing.payment.PaymentIdAllocator;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sharded payment and customer storage, only with {@code payment.sharding.enabled=true}.
+ * The shard DataSources are private to {@link PaymentShards} rather than beans, so the
+ * application's own DataSource stays the only one Spring Boot configures.
+ */
+@Configuration
+@ConditionalOnProperty(value = "payment.sharding.enabled", havingValue = "true")
+public class ShardingConfiguration {
+
+    /**
+     * @param urls one JDBC url per shard; without any, {@code shards} in-memory H2 databases
+     */
+    @Bean
+    public PaymentShards paymentShards(@Value("${payment.sharding.urls:}") List<String> urls,
+                                       @Value("${payment.sharding.shards:4}") int shardCount,
+                                       @Value("${payment.sharding.active-shards:0}") int activeShards,
+                                       @Value("${payment.sharding.username:sa}") String username,
+                                       @Value("${payment.sharding.password:}") String password,
+                                       @Value("${payment.sharding.owner-lease-ms:30000}") long ownerLeaseMillis) {
+        List<String> shardUrls = new ArrayList<>(urls);
+        shardUrls.removeIf(String::isBlank);
+        if (shardUrls.isEmpty()) {
+            for (int shard = 0; shard < shardCount; shard++) {
+                shardUrls.add(String.format("jdbc:h2:mem:payment-shard-%d;DB_CLOSE_DELAY=-1", shard));
+            }
+        }
+        List<DataSource> dataSources = new ArrayList<>(shardUrls.size());
+        for (String url : shardUrls) {
+            dataSources.add(DataSourceBuilder.create().url(url).username(username).password(password).build());
+        }
+        return new PaymentShards(dataSources, activeShards > 0 ? activeShards : dataSources.size(), ownerLeaseMillis);
+    }
+
+    @Bean
+    public ShardedPaymentRepository shardedPaymentRepository(PaymentShards paymentShards,
+                                                             PaymentIdAllocator paymentIdAllocator) {
+        return new ShardedPaymentRepository(paymentShards, paymentIdAllocator::next);
+    }
+
+    @Bean
+    public ShardedCustomerRepository shardedCustomerRepository(PaymentShards paymentShards) {
+        return new ShardedCustomerRepository(paymentShards);
+    }
+
+    @Bean
+    public ShardRebalancer shardRebalancer(PaymentShards paymentShards,
+                                           @Value("${payment.sharding.rebalance-batch-size:500}") int batchSize) {
+        return new ShardRebalancer(paymentShards, batchSize);
+    }
+}
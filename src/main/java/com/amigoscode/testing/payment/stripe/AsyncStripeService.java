@@ -0,0 +1,152 @@
+package com.amigoscode.testing.payment.stripe;
+
+import com.amigoscode.testing.payment.AsyncCardPaymentCharger;
+import com.amigoscode.testing.payment.CardPaymentCharge;
+import com.amigoscode.testing.payment.Currency;
+import com.amigoscode.testing.payment.TransientCardGatewayException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.MissingNode;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Calls the Stripe charges endpoint directly on the JDK {@link HttpClient}. The client
+ * keeps its connections pooled and completes the returned future from its own
+ * selector thread, so in-flight charges do not pin a thread each.
+ * <p>
+ * It charges on the first of {@link StripeConfiguration#accounts the configured accounts}, with
+ * that account's timeouts where it sets them. A declined card, which Stripe answers with 402
+ * and a {@code card_error}, is a charge that was not debited. Connection failures and 5xx are
+ * {@link TransientCardGatewayException}s.
+ */
+@Service
+@Qualifier("gateway")
+@ConditionalOnProperty(
+        value = "stripe.enabled",
+        havingValue = "true"
+)
+public class AsyncStripeService implements AsyncCardPaymentCharger {
+
+    private final HttpClient httpClient;
+    private final ObjectMapper objectMapper;
+    private final URI chargesUri;
+    private final Duration requestTimeout;
+    private final StripeAccount account;
+
+    @Autowired
+    public AsyncStripeService(ObjectMapper objectMapper,
+                              Environment environment,
+                              @Value("${stripe.api-base:https://api.stripe.com}") String apiBase,
+                              @Value("${stripe.connect-timeout-ms:2000}") int connectTimeoutMs,
+                              @Value("${stripe.request-timeout-ms:10000}") int requestTimeoutMs) {
+        this(objectMapper, URI.create(apiBase + "/v1/charges"), StripeConfiguration.accounts(environment).get(0),
+                connectTimeoutMs, requestTimeoutMs);
+    }
+
+    private AsyncStripeService(ObjectMapper objectMapper,
+                               URI chargesUri,
+                               StripeAccount account,
+                               int defaultConnectTimeoutMs,
+                               int defaultRequestTimeoutMs) {
+        this(HttpClient.newBuilder()
+                        .connectTimeout(Duration.ofMillis(account.connectTimeoutMs(defaultConnectTimeoutMs)))
+                        .build(),
+                objectMapper,
+                chargesUri,
+                Duration.ofMillis(account.readTimeoutMs(defaultRequestTimeoutMs)),
+                account);
+    }
+
+    AsyncStripeService(HttpClient httpClient,
+                       ObjectMapper objectMapper,
+                       URI chargesUri,
+                       Duration requestTimeout,
+                       StripeAccount account) {
+        if (account.getApiKey() == null || account.getApiKey().isBlank()) {
+            throw new IllegalStateException(String.format("Stripe account [%s] has no api-key", account.getName()));
+        }
+        this.httpClient = httpClient;
+        this.objectMapper = objectMapper;
+        this.chargesUri = chargesUri;
+        this.requestTimeout = requestTimeout;
+        this.account = account;
+    }
+
+    @Override
+    public CompletableFuture<CardPaymentCharge> chargeCard(String cardSource,
+                                                           BigDecimal amount,
+                                                           Currency currency,
+                                                           String description) {
+        String form;
+        try {
+            form = "amount=" + StripeCharges.minorUnits(amount) +
+                    "&currency=" + StripeCharges.currencyCode(currency) +
+                    "&source=" + encode(cardSource) +
+                    "&description=" + encode(description);
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        HttpRequest.Builder request = HttpRequest.newBuilder(chargesUri)
+                .timeout(requestTimeout)
+                .header("Authorization", "Bearer " + account.getApiKey())
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .POST(HttpRequest.BodyPublishers.ofString(form));
+        if (account.getStripeAccount() != null) {
+            request.header("Stripe-Account", account.getStripeAccount());
+        }
+
+        return httpClient.sendAsync(request.build(), HttpResponse.BodyHandlers.ofByteArray())
+                .handle((response, failure) -> {
+                    if (failure != null) {
+                        throw new TransientCardGatewayException("Cannot reach Stripe", failure);
+                    }
+                    return toCharge(response);
+                });
+    }
+
+    private CardPaymentCharge toCharge(HttpResponse<byte[]> response) {
+        int status = response.statusCode();
+        JsonNode body;
+        try {
+            body = objectMapper.readTree(response.body());
+        } catch (IOException e) {
+            if (status / 100 == 2) {
+                throw new IllegalStateException("Cannot read Stripe charge", e);
+            }
+            body = MissingNode.getInstance();
+        }
+        if (status / 100 == 2) {
+            return new CardPaymentCharge(body.path("paid").asBoolean(false), body.path("id").asText(null));
+        }
+        if (status == 402 && "card_error".equals(body.path("error").path("type").asText())) {
+            // declined, which is an answer rather than a failure
+            return new CardPaymentCharge(false, body.path("error").path("charge").asText(null));
+        }
+        String message = String.format("Cannot make Stripe charge, status [%d]", status);
+        if (status >= 500) {
+            throw new TransientCardGatewayException(message);
+        }
+        throw new IllegalStateException(message);
+    }
+
+    private static String encode(String value) {
+        return value == null ? "" : URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,231 @@
+package com.amigoscode.testing.payment.stripe;
+
+import com.amigoscode.testing.payment.CardPaymentCharge;
+import com.amigoscode.testing.payment.TransientCardGatewayException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Stands in for the card gateway when {@code stripe.enabled=false}. Latency, declines,
+ * errors and the number of charges the gateway accepts at once are all set through
+ * {@code stripe.mock.*}; the defaults answer every charge instantly with success.
+ */
+@Component
+@ConditionalOnProperty(
+        value = "stripe.enabled",
+        havingValue = "false"
+)
+public class GatewaySimulator {
+
+    public enum Latency {
+        NONE,
+        FIXED,
+        NORMAL,
+        PARETO
+    }
+
+    private final Latency latency;
+    private final long latencyNanos;
+    private final long stddevNanos;
+    private final double paretoShape;
+    private final long maxLatencyNanos;
+    private final double declineRate;
+    private final double errorRate;
+    private final int maxConcurrent;
+    private final Semaphore permits;
+    private final Supplier<Random> random;
+    private final ScheduledExecutorService scheduler;
+    private final LongAdder refunds = new LongAdder();
+
+    @Autowired
+    public GatewaySimulator(@Value("${stripe.mock.latency:none}") String latency,
+                            @Value("${stripe.mock.latency-ms:0}") double latencyMillis,
+                            @Value("${stripe.mock.latency-stddev-ms:0}") double stddevMillis,
+                            @Value("${stripe.mock.pareto-shape:1.5}") double paretoShape,
+                            @Value("${stripe.mock.max-latency-ms:30000}") double maxLatencyMillis,
+                            @Value("${stripe.mock.decline-rate:0}") double declineRate,
+                            @Value("${stripe.mock.error-rate:0}") double errorRate,
+                            @Value("${stripe.mock.max-concurrent:0}") int maxConcurrent) {
+        this(Latency.valueOf(latency.trim().toUpperCase(Locale.ROOT)),
+                latencyMillis,
+                stddevMillis,
+                paretoShape,
+                maxLatencyMillis,
+                declineRate,
+                errorRate,
+                maxConcurrent,
+                ThreadLocalRandom::current);
+    }
+
+    GatewaySimulator(Latency latency,
+                     double latencyMillis,
+                     double stddevMillis,
+                     double paretoShape,
+                     double maxLatencyMillis,
+                     double declineRate,
+                     double errorRate,
+                     int maxConcurrent,
+                     Supplier<Random> random) {
+        if (latencyMillis < 0 || stddevMillis < 0 || maxLatencyMillis < 0) {
+            throw new IllegalArgumentException("Latencies must not be negative");
+        }
+        if (paretoShape <= 0) {
+            throw new IllegalArgumentException("Pareto shape must be positive: " + paretoShape);
+        }
+        if (declineRate < 0 || errorRate < 0 || declineRate + errorRate > 1) {
+            throw new IllegalArgumentException(
+                    String.format("Decline rate %s and error rate %s must be within [0, 1]", declineRate, errorRate));
+        }
+        this.latency = latency;
+        this.latencyNanos = toNanos(latencyMillis);
+        this.stddevNanos = toNanos(stddevMillis);
+        this.paretoShape = paretoShape;
+        this.maxLatencyNanos = toNanos(maxLatencyMillis);
+        this.declineRate = declineRate;
+        this.errorRate = errorRate;
+        this.maxConcurrent = maxConcurrent;
+        this.permits = maxConcurrent > 0 ? new Semaphore(maxConcurrent) : null;
+        this.random = random;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "gateway-simulator");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Blocks the calling thread for the sampled latency, like a synchronous HTTP call.
+     *
+     * @throws IllegalStateException when the gateway is at its concurrency limit or the
+     *                               charge is picked to fail
+     */
+    public CardPaymentCharge charge() {
+        acquire();
+        try {
+            long nanos = sampleLatencyNanos();
+            if (nanos > 0) {
+                TimeUnit.NANOSECONDS.sleep(nanos);
+            }
+            return outcome();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for gateway", e);
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Completes after the sampled latency without holding a thread while waiting.
+     */
+    public CompletableFuture<CardPaymentCharge> chargeAsync() {
+        CompletableFuture<CardPaymentCharge> future = new CompletableFuture<>();
+        try {
+            acquire();
+        } catch (IllegalStateException e) {
+            future.completeExceptionally(e);
+            return future;
+        }
+        Runnable complete = () -> {
+            CardPaymentCharge charge;
+            try {
+                charge = outcome();
+            } catch (IllegalStateException e) {
+                release();
+                future.completeExceptionally(e);
+                return;
+            }
+            // released first, so whoever the future wakes sees the permit back
+            release();
+            future.complete(charge);
+        };
+        long nanos = sampleLatencyNanos();
+        if (nanos > 0) {
+            scheduler.schedule(complete, nanos, TimeUnit.NANOSECONDS);
+        } else {
+            complete.run();
+        }
+        return future;
+    }
+
+    /**
+     * Refunds always go through and are only counted.
+     */
+    public void refund() {
+        refunds.increment();
+    }
+
+    public long refunds() {
+        return refunds.sum();
+    }
+
+    /**
+     * Charges currently held by the simulated gateway.
+     */
+    public int inFlight() {
+        return permits == null ? 0 : maxConcurrent - permits.availablePermits();
+    }
+
+    long sampleLatencyNanos() {
+        double nanos;
+        switch (latency) {
+            case FIXED:
+                nanos = latencyNanos;
+                break;
+            case NORMAL:
+                nanos = latencyNanos + stddevNanos * random.get().nextGaussian();
+                break;
+            case PARETO:
+                // latency-ms is the minimum (scale); most charges land near it, a few far above
+                double u = 1.0 - random.get().nextDouble();
+                nanos = latencyNanos / Math.pow(u, 1.0 / paretoShape);
+                break;
+            default:
+                return 0;
+        }
+        return (long) Math.max(0, Math.min(nanos, maxLatencyNanos));
+    }
+
+    private CardPaymentCharge outcome() {
+        double roll = random.get().nextDouble();
+        if (roll < errorRate) {
+            throw new TransientCardGatewayException("Simulated gateway error");
+        }
+        return new CardPaymentCharge(roll >= errorRate + declineRate);
+    }
+
+    private void acquire() {
+        if (permits != null && !permits.tryAcquire()) {
+            throw new IllegalStateException("Gateway concurrency limit reached");
+        }
+    }
+
+    private void release() {
+        if (permits != null) {
+            permits.release();
+        }
+    }
+
+    private static long toNanos(double millis) {
+        return (long) (millis * 1_000_000);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+}
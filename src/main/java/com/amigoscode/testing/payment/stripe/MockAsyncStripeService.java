@@ -0,0 +1,37 @@
+package com.amigoscode.testing.payment.stripe;
+
+import com.amigoscode.testing.payment.AsyncCardPaymentCharger;
+import com.amigoscode.testing.payment.CardPaymentCharge;
+import com.amigoscode.testing.payment.Currency;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+import java.util.concurrent.CompletableFuture;
+
+@Service
+@Qualifier("gateway")
+@ConditionalOnProperty(
+        value = "stripe.enabled",
+        havingValue = "false"
+)
+public class MockAsyncStripeService implements AsyncCardPaymentCharger {
+
+    private final GatewaySimulator gatewaySimulator;
+
+    @Autowired
+    public MockAsyncStripeService(GatewaySimulator gatewaySimulator) {
+        this.gatewaySimulator = gatewaySimulator;
+    }
+
+    @Override
+    public CompletableFuture<CardPaymentCharge> chargeCard(String cardSource,
+                                                           BigDecimal amount,
+                                                           Currency currency,
+                                                           String description) {
+
+        return gatewaySimulator.chargeAsync();
+    }
+}
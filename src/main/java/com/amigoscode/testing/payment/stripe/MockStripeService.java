@@ -1,26 +1,51 @@
 package com.amigoscode.testing.payment.stripe;
 
 import com.amigoscode.testing.payment.CardPaymentCharge;
-import com.amigoscode.testing.payment.CardPaymentCharger;
 import com.amigoscode.testing.payment.Currency;
+import com.amigoscode.testing.payment.IdempotentCardPaymentCharger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
-import org.springframework.context.annotation.Conditional;
 import org.springframework.stereotype.Service;
 
 import java.math.BigDecimal;
 
 @Service
+@Qualifier("backend")
 @ConditionalOnProperty(
         value = "stripe.enabled",
         havingValue = "false"
 )
-public class MockStripeService implements CardPaymentCharger {
+public class MockStripeService implements IdempotentCardPaymentCharger {
+
+    private final GatewaySimulator gatewaySimulator;
+
+    @Autowired
+    public MockStripeService(GatewaySimulator gatewaySimulator) {
+        this.gatewaySimulator = gatewaySimulator;
+    }
+
     @Override
     public CardPaymentCharge chargeCard(String cardSource,
                                         BigDecimal amount,
                                         Currency currency,
                                         String description) {
 
-        return new CardPaymentCharge(true);
+        return gatewaySimulator.charge();
+    }
+
+    @Override
+    public CardPaymentCharge chargeCard(String idempotencyKey,
+                                        String cardSource,
+                                        BigDecimal amount,
+                                        Currency currency,
+                                        String description) {
+
+        return gatewaySimulator.charge();
+    }
+
+    @Override
+    public void refund(CardPaymentCharge charge) {
+        gatewaySimulator.refund();
     }
 }
@@ -0,0 +1,91 @@
+package com.amigoscode.testing.payment.stripe;
+
+import com.stripe.net.RequestOptions;
+
+/**
+ * One entry of {@code stripe.accounts}: the key to charge with and the options to send
+ * it with. Timeouts left unset fall back to {@code stripe.connect-timeout-ms} and
+ * {@code stripe.request-timeout-ms}.
+ */
+public class StripeAccount {
+
+    private String name;
+    private String apiKey;
+    private String stripeAccount;
+    private Integer connectTimeoutMs;
+    private Integer readTimeoutMs;
+    // the router retries with the same idempotency key, so the client does not by default
+    private int maxNetworkRetries;
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getApiKey() {
+        return apiKey;
+    }
+
+    public void setApiKey(String apiKey) {
+        this.apiKey = apiKey;
+    }
+
+    /**
+     * Connected account to charge on behalf of, sent as {@code Stripe-Account}.
+     */
+    public String getStripeAccount() {
+        return stripeAccount;
+    }
+
+    public void setStripeAccount(String stripeAccount) {
+        this.stripeAccount = stripeAccount;
+    }
+
+    public Integer getConnectTimeoutMs() {
+        return connectTimeoutMs;
+    }
+
+    public void setConnectTimeoutMs(Integer connectTimeoutMs) {
+        this.connectTimeoutMs = connectTimeoutMs;
+    }
+
+    public Integer getReadTimeoutMs() {
+        return readTimeoutMs;
+    }
+
+    public void setReadTimeoutMs(Integer readTimeoutMs) {
+        this.readTimeoutMs = readTimeoutMs;
+    }
+
+    public int getMaxNetworkRetries() {
+        return maxNetworkRetries;
+    }
+
+    public void setMaxNetworkRetries(int maxNetworkRetries) {
+        this.maxNetworkRetries = maxNetworkRetries;
+    }
+
+    int connectTimeoutMs(int defaultConnectTimeoutMs) {
+        return connectTimeoutMs != null ? connectTimeoutMs : defaultConnectTimeoutMs;
+    }
+
+    int readTimeoutMs(int defaultReadTimeoutMs) {
+        return readTimeoutMs != null ? readTimeoutMs : defaultReadTimeoutMs;
+    }
+
+    RequestOptions toRequestOptions(int defaultConnectTimeoutMs, int defaultReadTimeoutMs) {
+        if (apiKey == null || apiKey.isBlank()) {
+            throw new IllegalStateException(String.format("Stripe account [%s] has no api-key", name));
+        }
+        return RequestOptions.builder()
+                .setApiKey(apiKey)
+                .setStripeAccount(stripeAccount)
+                .setConnectTimeout(connectTimeoutMs(defaultConnectTimeoutMs))
+                .setReadTimeout(readTimeoutMs(defaultReadTimeoutMs))
+                .setMaxNetworkRetries(maxNetworkRetries)
+                .build();
+    }
+}
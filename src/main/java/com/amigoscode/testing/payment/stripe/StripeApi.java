@@ -2,6 +2,7 @@ package com.amigoscode.testing.payment.stripe;
 
 import com.stripe.exception.StripeException;
 import com.stripe.model.Charge;
+import com.stripe.model.Refund;
 import com.stripe.net.RequestOptions;
 import org.springframework.stereotype.Service;
 
@@ -13,4 +14,8 @@ public class StripeApi {
     public Charge create(Map<String, Object> requestMap, RequestOptions options) throws StripeException {
         return Charge.create(requestMap, options);
     }
+
+    public Refund refund(Map<String, Object> requestMap, RequestOptions options) throws StripeException {
+        return Refund.create(requestMap, options);
+    }
 }
@@ -0,0 +1,34 @@
+package com.amigoscode.testing.payment.stripe;
+
+import com.amigoscode.testing.payment.Currency;
+
+import java.math.BigDecimal;
+import java.util.Locale;
+
+/**
+ * How a charge's amount and currency are written for Stripe, shared by {@link StripeService}
+ * and {@link AsyncStripeService} so a payment is sent the same way whichever path charges it.
+ */
+final class StripeCharges {
+
+    private StripeCharges() {
+    }
+
+    /**
+     * The amount in minor units, such as cents or pence, which is what Stripe expects. Every
+     * {@link Currency} here has two decimals.
+     *
+     * @throws IllegalArgumentException if the amount has more than two decimals
+     */
+    static long minorUnits(BigDecimal amount) {
+        try {
+            return amount.movePointRight(2).longValueExact();
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException(String.format("Amount [%s] has more than 2 decimals", amount), e);
+        }
+    }
+
+    static String currencyCode(Currency currency) {
+        return currency.name().toLowerCase(Locale.ROOT);
+    }
+}
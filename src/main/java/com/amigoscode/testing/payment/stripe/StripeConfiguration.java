@@ -0,0 +1,83 @@
+package com.amigoscode.testing.payment.stripe;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.config.RuntimeBeanReference;
+import org.springframework.beans.factory.support.AutowireCandidateQualifier;
+import org.springframework.beans.factory.support.BeanDefinitionRegistry;
+import org.springframework.beans.factory.support.RootBeanDefinition;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.EnvironmentAware;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.context.annotation.ImportBeanDefinitionRegistrar;
+import org.springframework.core.env.Environment;
+import org.springframework.core.type.AnnotationMetadata;
+
+import java.util.List;
+
+/**
+ * Registers a {@code "backend"} {@link StripeService} for every account in
+ * {@code stripe.accounts}, for example
+ * <pre>
+ * stripe.accounts[0].name=eu
+ * stripe.accounts[0].api-key=sk_live_...
+ * stripe.accounts[1].name=us
+ * stripe.accounts[1].api-key=sk_live_...
+ * stripe.accounts[1].read-timeout-ms=5000
+ * </pre>
+ * More than one account needs {@code payment.gateway.routing.enabled=true}. Without
+ * the list there is a single account keyed by {@code stripe.api-key}.
+ */
+@Configuration
+@ConditionalOnProperty(
+        value = "stripe.enabled",
+        havingValue = "true"
+)
+@Import(StripeConfiguration.AccountRegistrar.class)
+public class StripeConfiguration {
+
+    static class AccountRegistrar implements ImportBeanDefinitionRegistrar, EnvironmentAware {
+
+        private Environment environment;
+
+        @Override
+        public void setEnvironment(Environment environment) {
+            this.environment = environment;
+        }
+
+        @Override
+        public void registerBeanDefinitions(AnnotationMetadata metadata, BeanDefinitionRegistry registry) {
+            int connectTimeoutMs = environment.getProperty("stripe.connect-timeout-ms", Integer.class, 2000);
+            int readTimeoutMs = environment.getProperty("stripe.request-timeout-ms", Integer.class, 10000);
+            List<StripeAccount> accounts = accounts(environment);
+            for (int i = 0; i < accounts.size(); i++) {
+                StripeAccount account = accounts.get(i);
+                if (account.getName() == null) {
+                    account.setName(String.valueOf(i));
+                }
+                RootBeanDefinition definition = new RootBeanDefinition(StripeService.class);
+                definition.getConstructorArgumentValues()
+                        .addIndexedArgumentValue(0, new RuntimeBeanReference(StripeApi.class));
+                definition.getConstructorArgumentValues()
+                        .addIndexedArgumentValue(1, account.toRequestOptions(connectTimeoutMs, readTimeoutMs));
+                definition.addQualifier(new AutowireCandidateQualifier(Qualifier.class, "backend"));
+                registry.registerBeanDefinition("stripeService." + account.getName(), definition);
+            }
+        }
+    }
+
+    static List<StripeAccount> accounts(Environment environment) {
+        List<StripeAccount> accounts = Binder.get(environment)
+                .bind("stripe.accounts", Bindable.listOf(StripeAccount.class))
+                .orElse(List.of());
+        if (!accounts.isEmpty()) {
+            return accounts;
+        }
+        StripeAccount account = new StripeAccount();
+        account.setName("default");
+        account.setApiKey(environment.getProperty("stripe.api-key"));
+        return List.of(account);
+    }
+}
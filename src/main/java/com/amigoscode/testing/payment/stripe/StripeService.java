@@ -1,35 +1,32 @@
 package com.amigoscode.testing.payment.stripe;
 
 import com.amigoscode.testing.payment.CardPaymentCharge;
-import com.amigoscode.testing.payment.CardPaymentCharger;
 import com.amigoscode.testing.payment.Currency;
+import com.amigoscode.testing.payment.IdempotentCardPaymentCharger;
+import com.amigoscode.testing.payment.TransientCardGatewayException;
+import com.stripe.exception.ApiConnectionException;
+import com.stripe.exception.CardException;
 import com.stripe.exception.StripeException;
 import com.stripe.model.Charge;
 import com.stripe.net.RequestOptions;
-import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
-import org.springframework.stereotype.Service;
 
 import java.math.BigDecimal;
 import java.util.HashMap;
 import java.util.Map;
 
-@Service
-@ConditionalOnProperty(
-        value = "stripe.enabled",
-        havingValue = "true"
-)
-public class StripeService implements CardPaymentCharger {
+/**
+ * Charges through one Stripe account. {@link StripeConfiguration} registers one of these
+ * per account in {@code stripe.accounts}, each a {@code "backend"} with its own
+ * {@link RequestOptions}.
+ */
+public class StripeService implements IdempotentCardPaymentCharger {
 
     private final StripeApi stripeApi;
+    private final RequestOptions requestOptions;
 
-    private final static RequestOptions requestOptions = RequestOptions.builder()
-            .setApiKey("sk_test_jA7FK1vJMf90GIdQ2e6OLQaa")
-            .build();
-
-    @Autowired
-    public StripeService(StripeApi stripeApi) {
+    public StripeService(StripeApi stripeApi, RequestOptions requestOptions) {
         this.stripeApi = stripeApi;
+        this.requestOptions = requestOptions;
     }
 
     @Override
@@ -37,9 +34,46 @@ public class StripeService implements CardPaymentCharger {
                                         BigDecimal amount,
                                         Currency currency,
                                         String description) {
+        return chargeCard(requestOptions, cardSource, amount, currency, description);
+    }
+
+    @Override
+    public CardPaymentCharge chargeCard(String idempotencyKey,
+                                        String cardSource,
+                                        BigDecimal amount,
+                                        Currency currency,
+                                        String description) {
+        RequestOptions options = requestOptions.toBuilder()
+                .setIdempotencyKey(idempotencyKey)
+                .build();
+        return chargeCard(options, cardSource, amount, currency, description);
+    }
+
+    @Override
+    public void refund(CardPaymentCharge charge) {
+        if (charge.getChargeId() == null) {
+            throw new IllegalStateException("Cannot refund a Stripe charge without its id");
+        }
+        Map<String, Object> params = new HashMap<>();
+        params.put("charge", charge.getChargeId());
+        RequestOptions options = requestOptions.toBuilder()
+                .setIdempotencyKey("refund-" + charge.getChargeId())
+                .build();
+        try {
+            stripeApi.refund(params, options);
+        } catch (StripeException e) {
+            throw toException("Cannot refund Stripe charge", e);
+        }
+    }
+
+    private CardPaymentCharge chargeCard(RequestOptions requestOptions,
+                                         String cardSource,
+                                         BigDecimal amount,
+                                         Currency currency,
+                                         String description) {
         Map<String, Object> params = new HashMap<>();
-        params.put("amount", amount);
-        params.put("currency", currency);
+        params.put("amount", StripeCharges.minorUnits(amount));
+        params.put("currency", StripeCharges.currencyCode(currency));
         params.put("source", cardSource);
         params.put("description", description);
 
@@ -47,10 +81,25 @@ public class StripeService implements CardPaymentCharger {
             Charge charge = stripeApi.create(params, requestOptions);
             Boolean chargePaid = charge.getPaid();
 
-            return new CardPaymentCharge(chargePaid);
+            return new CardPaymentCharge(chargePaid, charge.getId());
+        } catch (CardException e) {
+            // declined, which is an answer rather than a failure
+            return new CardPaymentCharge(false, e.getCharge());
         } catch (StripeException e) {
-            throw new IllegalStateException("Cannot make Stripe charge", e);
+            throw toException("Cannot make Stripe charge", e);
         }
 
     }
+
+    /**
+     * Connection failures and 5xx answers may go through on a retry with the same
+     * idempotency key; anything else Stripe rejected will not.
+     */
+    private static IllegalStateException toException(String message, StripeException e) {
+        Integer statusCode = e.getStatusCode();
+        if (e instanceof ApiConnectionException || (statusCode != null && statusCode >= 500)) {
+            return new TransientCardGatewayException(message, e);
+        }
+        return new IllegalStateException(message, e);
+    }
 }
@@ -0,0 +1,26 @@
+package com.amigoscode.testing.utils;
+
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+/**
+ * Lets every {@code @RequestBody} and response body be CBOR ({@code application/cbor})
+ * as well as JSON, chosen by {@code Content-Type} and {@code Accept}. The CBOR mapper comes
+ * from the same builder as the JSON one, so it has the same settings and the
+ * {@code @JsonComponent} serializers.
+ * <p>
+ * Only a converter is exposed, not the mapper: a second {@code ObjectMapper} bean would
+ * replace the JSON one Spring Boot configures.
+ */
+@Configuration
+public class CborConfiguration {
+
+    @Bean
+    public MappingJackson2CborHttpMessageConverter cborHttpMessageConverter(Jackson2ObjectMapperBuilder builder) {
+        // the builder is a prototype, so setting the factory leaves the JSON mapper alone
+        return new MappingJackson2CborHttpMessageConverter(builder.factory(new CBORFactory()).build());
+    }
+}
@@ -0,0 +1,141 @@
+package com.amigoscode.testing.utils;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.UUID;
+
+/**
+ * Reads and writes single values for the hand-written serializers, accepting the same input
+ * Jackson's own deserializers do. Works for any format Jackson streams, JSON or CBOR.
+ */
+public final class JsonValues {
+
+    private JsonValues() {
+    }
+
+    /**
+     * Writes the id as 16 raw bytes to formats that carry binary, like CBOR, and as its
+     * 36 char string to JSON, the same as Jackson's own UUID serializer.
+     */
+    public static void writeUuid(JsonGenerator gen, UUID id) throws IOException {
+        if (id == null) {
+            gen.writeNull();
+        } else if (gen.canWriteBinaryNatively()) {
+            gen.writeBinary(UuidBytes.toBytes(id));
+        } else {
+            gen.writeString(id.toString());
+        }
+    }
+
+    public static void writeLong(JsonGenerator gen, Long value) throws IOException {
+        if (value == null) {
+            gen.writeNull();
+        } else {
+            gen.writeNumber(value);
+        }
+    }
+
+    public static void writeEnum(JsonGenerator gen, Enum<?> value) throws IOException {
+        gen.writeString(value == null ? null : value.name());
+    }
+
+    /**
+     * The parser must be on the value.
+     */
+    public static UUID readUuid(JsonParser p, DeserializationContext ctxt) throws IOException {
+        JsonToken token = p.currentToken();
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (token == JsonToken.VALUE_STRING) {
+            String text = p.getText().trim();
+            try {
+                return UUID.fromString(text);
+            } catch (IllegalArgumentException e) {
+                throw ctxt.weirdStringException(text, UUID.class, "not a valid UUID");
+            }
+        }
+        if (token == JsonToken.VALUE_EMBEDDED_OBJECT) {
+            byte[] bytes = p.getBinaryValue();
+            if (bytes.length != 16) {
+                throw ctxt.weirdStringException(String.valueOf(bytes.length), UUID.class, "UUID needs 16 bytes");
+            }
+            return UuidBytes.fromBytes(bytes);
+        }
+        return (UUID) ctxt.handleUnexpectedToken(UUID.class, p);
+    }
+
+    public static String readString(JsonParser p, DeserializationContext ctxt) throws IOException {
+        JsonToken token = p.currentToken();
+        if (token == JsonToken.VALUE_STRING) {
+            return p.getText();
+        }
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (token != null && token.isScalarValue()) {
+            // numbers and booleans become their text, as they do for String properties
+            return p.getValueAsString();
+        }
+        return (String) ctxt.handleUnexpectedToken(String.class, p);
+    }
+
+    public static Long readLong(JsonParser p, DeserializationContext ctxt) throws IOException {
+        JsonToken token = p.currentToken();
+        if (token == JsonToken.VALUE_NUMBER_INT) {
+            return p.getLongValue();
+        }
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (token == JsonToken.VALUE_STRING) {
+            String text = p.getText().trim();
+            try {
+                return Long.valueOf(text);
+            } catch (NumberFormatException e) {
+                throw ctxt.weirdStringException(text, Long.class, "not a valid Long value");
+            }
+        }
+        return (Long) ctxt.handleUnexpectedToken(Long.class, p);
+    }
+
+    public static BigDecimal readDecimal(JsonParser p, DeserializationContext ctxt) throws IOException {
+        JsonToken token = p.currentToken();
+        if (token == JsonToken.VALUE_NUMBER_INT || token == JsonToken.VALUE_NUMBER_FLOAT) {
+            return p.getDecimalValue();
+        }
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (token == JsonToken.VALUE_STRING) {
+            String text = p.getText().trim();
+            try {
+                return new BigDecimal(text);
+            } catch (NumberFormatException e) {
+                throw ctxt.weirdStringException(text, BigDecimal.class, "not a valid representation");
+            }
+        }
+        return (BigDecimal) ctxt.handleUnexpectedToken(BigDecimal.class, p);
+    }
+
+    public static <E extends Enum<E>> E readEnum(JsonParser p, DeserializationContext ctxt, Class<E> type) throws IOException {
+        JsonToken token = p.currentToken();
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (token == JsonToken.VALUE_STRING) {
+            String text = p.getText();
+            try {
+                return Enum.valueOf(type, text);
+            } catch (IllegalArgumentException e) {
+                throw ctxt.weirdStringException(text, type, "not one of the values accepted for Enum class");
+            }
+        }
+        return type.cast(ctxt.handleUnexpectedToken(type, p));
+    }
+}
@@ -0,0 +1,220 @@
+package com.amigoscode.testing.utils;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Open-addressing set of {@link UUID}s stored as two primitive longs per slot in a
+ * direct {@link ByteBuffer}, so millions of ids cost 16 bytes each outside the heap
+ * and nothing for the garbage collector to trace.
+ * <p>
+ * Lookups are optimistic and never block; writers take an exclusive lock. The
+ * all-zero UUID marks an empty slot, so it is tracked separately.
+ * <p>
+ * A resize publishes the new buffer and its mask together in one immutable {@link Table},
+ * so an optimistic reader racing it probes either the old table or the new one, never
+ * the new buffer with the old mask or the other way round.
+ * <p>
+ * Once the largest table is at its load limit the set is full: further ids are refused,
+ * and nothing already in it changes.
+ */
+public class OffHeapUuidSet {
+
+    private static final int SLOT_BYTES = 16;
+    private static final double MAX_LOAD = 0.7;
+    // largest power of two number of slots a single ByteBuffer can hold
+    private static final int MAX_CAPACITY = 1 << 26;
+
+    private final StampedLock lock = new StampedLock();
+    private final int maxCapacity;
+    private volatile Table table;
+    private int size;
+    private int resizeThreshold;
+    private boolean containsZero;
+    private volatile boolean full;
+
+    public OffHeapUuidSet(int expectedSize) {
+        this(expectedSize, MAX_CAPACITY);
+    }
+
+    OffHeapUuidSet(int expectedSize, int maxCapacity) {
+        this.maxCapacity = maxCapacity;
+        long slots = Math.max(16, (long) (expectedSize / MAX_LOAD));
+        int capacity = 16;
+        while (capacity < slots && capacity < maxCapacity) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    public boolean contains(UUID id) {
+        return id != null && contains(id.getMostSignificantBits(), id.getLeastSignificantBits());
+    }
+
+    public boolean contains(long msb, long lsb) {
+        long stamp = lock.tryOptimisticRead();
+        boolean found = probe(msb, lsb);
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                found = probe(msb, lsb);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @return true if the id was not in the set yet and was added, false if it was already
+     * there or the set is {@link #isFull() full}
+     */
+    public boolean add(UUID id) {
+        long msb = id.getMostSignificantBits();
+        long lsb = id.getLeastSignificantBits();
+        long stamp = lock.writeLock();
+        try {
+            if (msb == 0 && lsb == 0) {
+                boolean added = !containsZero;
+                containsZero = true;
+                return added;
+            }
+            if (size >= resizeThreshold) {
+                // make room before touching the table, so a full set is left as it was
+                if (table.capacity() >= maxCapacity) {
+                    full = true;
+                    return false;
+                }
+                resize();
+            }
+            if (!table.insert(msb, lsb)) {
+                return false;
+            }
+            size++;
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * True once an id was refused because the set cannot grow any further.
+     */
+    public boolean isFull() {
+        return full;
+    }
+
+    public int size() {
+        long stamp = lock.readLock();
+        try {
+            return containsZero ? size + 1 : size;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public void clear() {
+        long stamp = lock.writeLock();
+        try {
+            allocate(table.capacity());
+            containsZero = false;
+            full = false;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private boolean probe(long msb, long lsb) {
+        if (msb == 0 && lsb == 0) {
+            return containsZero;
+        }
+        return table.contains(msb, lsb);
+    }
+
+    private void resize() {
+        Table oldTable = table;
+        int newCapacity = oldTable.capacity() << 1;
+        Table newTable = new Table(newCapacity);
+        for (int slot = 0; slot < oldTable.capacity(); slot++) {
+            long msb = oldTable.buffer.getLong(slot * SLOT_BYTES);
+            long lsb = oldTable.buffer.getLong(slot * SLOT_BYTES + 8);
+            if (msb != 0 || lsb != 0) {
+                newTable.insert(msb, lsb);
+            }
+        }
+        // size is unchanged: the same ids, spread over twice the slots
+        table = newTable;
+        resizeThreshold = (int) (newCapacity * MAX_LOAD);
+    }
+
+    private void allocate(int capacity) {
+        table = new Table(capacity);
+        size = 0;
+        resizeThreshold = (int) (capacity * MAX_LOAD);
+    }
+
+    private static int hash(long msb, long lsb) {
+        long h = msb ^ Long.rotateLeft(lsb, 32);
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+
+    /**
+     * A buffer and the mask that goes with it, never changed after construction apart from
+     * the slots themselves.
+     */
+    private static final class Table {
+
+        private final ByteBuffer buffer;
+        private final int mask;
+
+        private Table(int capacity) {
+            this.buffer = ByteBuffer.allocateDirect(capacity * SLOT_BYTES);
+            this.mask = capacity - 1;
+        }
+
+        private int capacity() {
+            return mask + 1;
+        }
+
+        private boolean contains(long msb, long lsb) {
+            int slot = hash(msb, lsb) & mask;
+            for (int i = 0; i <= mask; i++) {
+                int offset = slot * SLOT_BYTES;
+                long slotMsb = buffer.getLong(offset);
+                long slotLsb = buffer.getLong(offset + 8);
+                if (slotMsb == msb && slotLsb == lsb) {
+                    return true;
+                }
+                if (slotMsb == 0 && slotLsb == 0) {
+                    return false;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return false;
+        }
+
+        private boolean insert(long msb, long lsb) {
+            int slot = hash(msb, lsb) & mask;
+            while (true) {
+                int offset = slot * SLOT_BYTES;
+                long slotMsb = buffer.getLong(offset);
+                long slotLsb = buffer.getLong(offset + 8);
+                if (slotMsb == 0 && slotLsb == 0) {
+                    buffer.putLong(offset, msb);
+                    buffer.putLong(offset + 8, lsb);
+                    return true;
+                }
+                if (slotMsb == msb && slotLsb == lsb) {
+                    return false;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+    }
+}
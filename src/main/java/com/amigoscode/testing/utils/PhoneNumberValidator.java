@@ -4,11 +4,141 @@ import org.springframework.stereotype.Service;
 
 import java.util.function.Predicate;
 
+/**
+ * Accepts international numbers in E.164 form, a {@code +}, the country calling code and
+ * the national number, optionally broken up by spaces, dashes, dots or brackets.
+ * <p>
+ * {@link #normalize} turns such a number into its digits as a {@code long}, the key customers
+ * are stored and looked up by. Calling codes are a prefix code of at most three digits, so
+ * the first three digits of any number index a table that gives the code's length and the
+ * national number lengths its country uses. Checking a number is one pass over its chars and
+ * one array read; nothing is allocated. Countries missing from the table are rejected.
+ */
 @Service
 public class PhoneNumberValidator implements Predicate<String> {
 
+    public static final long INVALID = -1;
+
+    private static final int MAX_DIGITS = 15;
+    private static final long[] POWERS_OF_TEN = new long[MAX_DIGITS + 1];
+    // calling code length << 8 | shortest national number << 4 | longest national number, 0 if unassigned
+    private static final short[] PREFIXES = new short[1000];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+        country("1", 10, 10);
+        country("7", 10, 10);
+        country("20", 8, 10);
+        country("27", 9, 9);
+        country("30", 10, 10);
+        country("31", 9, 9);
+        country("32", 8, 9);
+        country("33", 9, 9);
+        country("34", 9, 9);
+        country("36", 8, 9);
+        country("39", 6, 11);
+        country("40", 9, 9);
+        country("41", 9, 9);
+        country("43", 4, 13);
+        country("44", 10, 10);
+        country("45", 8, 8);
+        country("46", 7, 13);
+        country("47", 8, 8);
+        country("48", 9, 9);
+        country("49", 6, 13);
+        country("51", 8, 9);
+        country("52", 10, 10);
+        country("54", 10, 11);
+        country("55", 10, 11);
+        country("56", 9, 9);
+        country("57", 10, 10);
+        country("60", 8, 10);
+        country("61", 9, 9);
+        country("62", 8, 12);
+        country("63", 8, 10);
+        country("64", 8, 10);
+        country("65", 8, 8);
+        country("66", 8, 9);
+        country("81", 9, 10);
+        country("82", 8, 10);
+        country("84", 9, 10);
+        country("86", 10, 11);
+        country("90", 10, 10);
+        country("91", 10, 10);
+        country("92", 9, 10);
+        country("234", 8, 10);
+        country("254", 9, 9);
+        country("351", 9, 9);
+        country("353", 7, 9);
+        country("358", 5, 12);
+        country("380", 9, 9);
+        country("420", 9, 9);
+        country("852", 8, 8);
+        country("966", 9, 9);
+        country("971", 8, 9);
+        country("972", 8, 9);
+    }
+
+    private static void country(String callingCode, int minNationalDigits, int maxNationalDigits) {
+        int codeLength = callingCode.length();
+        int scale = (int) POWERS_OF_TEN[3 - codeLength];
+        int first = Integer.parseInt(callingCode) * scale;
+        for (int prefix = first; prefix < first + scale; prefix++) {
+            if (PREFIXES[prefix] != 0) {
+                throw new IllegalStateException(String.format("Calling code %s overlaps another", callingCode));
+            }
+            PREFIXES[prefix] = (short) (codeLength << 8 | minNationalDigits << 4 | maxNationalDigits);
+        }
+    }
+
     @Override
     public boolean test(String phoneNumber) {
-        return phoneNumber.startsWith("+44") && phoneNumber.length() == 13;
+        return normalize(phoneNumber) != INVALID;
+    }
+
+    /**
+     * @return the digits of the number, calling code first, or {@link #INVALID}. Two ways of
+     * writing the same number give the same value and no two numbers share one, because no
+     * calling code starts with 0.
+     */
+    public static long normalize(CharSequence phoneNumber) {
+        if (phoneNumber == null || phoneNumber.length() == 0 || phoneNumber.charAt(0) != '+') {
+            return INVALID;
+        }
+        long digits = 0;
+        int count = 0;
+        for (int i = 1; i < phoneNumber.length(); i++) {
+            char c = phoneNumber.charAt(i);
+            if (c >= '0' && c <= '9') {
+                if (++count > MAX_DIGITS) {
+                    return INVALID;
+                }
+                digits = digits * 10 + (c - '0');
+            } else if (c != ' ' && c != '-' && c != '.' && c != '(' && c != ')') {
+                return INVALID;
+            }
+        }
+        if (count < 3) {
+            return INVALID;
+        }
+        int prefix = PREFIXES[(int) (digits / POWERS_OF_TEN[count - 3])];
+        if (prefix == 0) {
+            return INVALID;
+        }
+        int nationalDigits = count - (prefix >>> 8);
+        if (nationalDigits < ((prefix >>> 4) & 0xF) || nationalDigits > (prefix & 0xF)) {
+            return INVALID;
+        }
+        return digits;
+    }
+
+    /**
+     * The E.164 form of a normalized number, for handing to carriers.
+     */
+    public static String format(long phoneNumberKey) {
+        return "+" + phoneNumberKey;
     }
 }
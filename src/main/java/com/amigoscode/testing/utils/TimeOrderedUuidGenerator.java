@@ -0,0 +1,76 @@
+package com.amigoscode.testing.utils;
+
+import org.springframework.stereotype.Component;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Version 7 UUIDs, which start with the time, for primary keys.
+ * <p>
+ * The first 48 bits are Unix time in milliseconds, so new ids land at the right edge of
+ * the index instead of on random pages all over it. The 12 bits after the version are a
+ * counter that keeps ids from one generator strictly increasing within a millisecond.
+ * Time and counter share one {@link AtomicLong} that every id advances with a single
+ * compare-and-set, never a lock; a counter that overflows carries into the time, which
+ * then runs slightly ahead of the clock until the clock catches up. The last 62 bits are
+ * random, from a {@link SecureRandom} per thread so threads do not queue for one the way
+ * {@link UUID#randomUUID()} callers do.
+ * <p>
+ * They are ordinary UUIDs and live in the same columns as the version 4 ids already there.
+ */
+@Component
+public class TimeOrderedUuidGenerator implements Supplier<UUID> {
+
+    private static final int COUNTER_BITS = 12;
+    // each millisecond starts its counter somewhere in the lower half, leaving the upper half to count into
+    private static final int COUNTER_START_BOUND = 1 << (COUNTER_BITS - 1);
+    private static final ThreadLocal<SecureRandom> RANDOM = ThreadLocal.withInitial(TimeOrderedUuidGenerator::newRandom);
+
+    private final LongSupplier currentMillis;
+    // unix millis << COUNTER_BITS | counter, of the last id handed out
+    private final AtomicLong last = new AtomicLong();
+
+    public TimeOrderedUuidGenerator() {
+        this(System::currentTimeMillis);
+    }
+
+    TimeOrderedUuidGenerator(LongSupplier currentMillis) {
+        this.currentMillis = currentMillis;
+    }
+
+    @Override
+    public UUID get() {
+        SecureRandom random = RANDOM.get();
+        long start = currentMillis.getAsLong() << COUNTER_BITS | random.nextInt(COUNTER_START_BOUND);
+        long timeAndCounter = last.accumulateAndGet(start, (previous, now) -> Math.max(previous + 1, now));
+        long msb = (timeAndCounter >>> COUNTER_BITS) << 16
+                | 0x7000L
+                | (timeAndCounter & ((1 << COUNTER_BITS) - 1));
+        long lsb = random.nextLong() & 0x3fffffffffffffffL | 0x8000000000000000L;
+        return new UUID(msb, lsb);
+    }
+
+    /**
+     * @return the millisecond a version 7 id was made in
+     */
+    public static long timestampMillis(UUID id) {
+        if (id.version() != 7) {
+            throw new IllegalArgumentException(String.format("Not a version 7 UUID: %s", id));
+        }
+        return id.getMostSignificantBits() >>> 16;
+    }
+
+    private static SecureRandom newRandom() {
+        try {
+            // seeded once from the system, then generates without the shared lock of the native source
+            return SecureRandom.getInstance("DRBG");
+        } catch (NoSuchAlgorithmException e) {
+            return new SecureRandom();
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.amigoscode.testing.utils;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+/**
+ * Converts {@link UUID}s to and from the 16 byte big-endian layout Hibernate uses
+ * for {@code uuid-binary} columns, so plain JDBC code can read and write them.
+ */
+public final class UuidBytes {
+
+    private UuidBytes() {
+    }
+
+    public static byte[] toBytes(UUID uuid) {
+        return ByteBuffer.allocate(16)
+                .putLong(uuid.getMostSignificantBits())
+                .putLong(uuid.getLeastSignificantBits())
+                .array();
+    }
+
+    public static UUID fromBytes(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        return new UUID(buffer.getLong(), buffer.getLong());
+    }
+}
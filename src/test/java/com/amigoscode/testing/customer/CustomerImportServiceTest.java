@@ -0,0 +1,116 @@
+package com.amigoscode.testing.customer;
+
+import com.amigoscode.testing.utils.PhoneNumberValidator;
+import com.amigoscode.testing.utils.TimeOrderedUuidGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.then;
+import static org.mockito.Mockito.times;
+
+class CustomerImportServiceTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Mock
+    private CustomerJdbcRepository customerJdbcRepository;
+    @Mock
+    private CustomerIdRegistry customerIdRegistry;
+
+    private CustomerImportService underTest;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.initMocks(this);
+        underTest = new CustomerImportService(
+                objectMapper,
+                new PhoneNumberValidator(),
+                customerJdbcRepository,
+                customerIdRegistry,
+                new PhoneNumberIndex(100),
+                new TimeOrderedUuidGenerator(),
+                2);
+    }
+
+    @Test
+    void itShouldReportAnOutcomePerRow() throws Exception {
+        // Given
+        Customer existing = new Customer(UUID.randomUUID(), "Mika", "+447000000003");
+        given(customerJdbcRepository.selectCustomersByPhoneNumberKeys(anyCollection()))
+                .willReturn(Map.of())
+                .willReturn(Map.of(existing.getPhoneNumberKey(), existing))
+                .willReturn(Map.of());
+
+        String ndjson = "{\"name\":\"Tara\",\"phoneNumber\":\"+447000000001\"}\n" +
+                "{\"name\":\"Tara\",\"phoneNumber\":\"+44 7000 000001\"}\n" +
+                "{\"name\":\"Jaime\",\"phoneNumber\":\"+447000000003\"}\n" +
+                "{\"name\":\"Mika\",\"phoneNumber\":\"+447000000003\"}\n" +
+                "\n" +
+                "{\"name\":\"Abby\",\"phoneNumber\":\"+4470\"}\n" +
+                "not json\n";
+        // When
+        List<JsonNode> outcomes = runImport(ndjson);
+        // Then
+        assertThat(outcomes)
+                .extracting(o -> o.get("status").asText())
+                .containsExactly("CREATED", "EXISTS", "TAKEN", "EXISTS", "INVALID", "INVALID");
+        assertThat(outcomes)
+                .extracting(o -> o.get("line").asLong())
+                .containsExactly(1L, 2L, 3L, 4L, 6L, 7L);
+        assertThat(outcomes.get(3).get("customerId").asText())
+                .isEqualTo(existing.getId().toString());
+    }
+
+    @Test
+    void itShouldInsertEachChunkAsOneBatch() throws Exception {
+        // Given
+        given(customerJdbcRepository.selectCustomersByPhoneNumberKeys(anyCollection()))
+                .willReturn(Map.of());
+
+        String ndjson = "{\"name\":\"Tara\",\"phoneNumber\":\"+447000000001\"}\n" +
+                "{\"name\":\"Mika\",\"phoneNumber\":\"+447000000002\"}\n" +
+                "{\"name\":\"Abby\",\"phoneNumber\":\"+447000000003\"}\n";
+        // When
+        runImport(ndjson);
+        // Then
+        ArgumentCaptor<List<Customer>> customersArgumentCaptor = ArgumentCaptor.forClass(List.class);
+        then(customerJdbcRepository)
+                .should(times(2))
+                .insertAll(customersArgumentCaptor.capture());
+
+        assertThat(customersArgumentCaptor.getAllValues())
+                .extracting(List::size)
+                .containsExactly(2, 1);
+        then(customerIdRegistry)
+                .should(times(3))
+                .register(any(UUID.class));
+    }
+
+    private List<JsonNode> runImport(String ndjson) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        underTest.importCustomers(new ByteArrayInputStream(ndjson.getBytes(StandardCharsets.UTF_8)), out);
+
+        List<JsonNode> outcomes = new ArrayList<>();
+        for (String line : out.toString(StandardCharsets.UTF_8).split("\n")) {
+            outcomes.add(objectMapper.readTree(line));
+        }
+        return outcomes;
+    }
+}
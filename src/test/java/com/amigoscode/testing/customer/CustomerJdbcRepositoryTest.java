@@ -0,0 +1,76 @@
+package com.amigoscode.testing.customer;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.dao.DuplicateKeyException;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@DataJpaTest(
+        properties = {"spring.jpa.properties.javax.persistence.validation.mode=none"}
+)
+@Import(CustomerJdbcRepository.class)
+class CustomerJdbcRepositoryTest {
+
+    @Autowired
+    private CustomerJdbcRepository underTest;
+
+    @Test
+    void itShouldInsertCustomerWhenPhoneNumberIsFree() {
+        // Given
+        Customer customer = new Customer(UUID.randomUUID(), "Tara", "+447000000000");
+        // When
+        Optional<Customer> owner = underTest.insertUnlessPhoneNumberTaken(customer);
+        // Then
+        assertThat(owner).isNotPresent();
+        assertThat(underTest.selectCustomerByPhoneNumberKey(447000000000L))
+                .hasValueSatisfying(c -> assertThat(c).isEqualToComparingFieldByField(customer));
+    }
+
+    @Test
+    void itShouldReturnTheOwnerWhenPhoneNumberIsTaken() {
+        // Given
+        Customer existingCustomer = new Customer(UUID.randomUUID(), "Mika", "+447000000000");
+        underTest.insertUnlessPhoneNumberTaken(existingCustomer);
+        // When
+        Optional<Customer> owner = underTest.insertUnlessPhoneNumberTaken(
+                new Customer(UUID.randomUUID(), "Tara", "+44 7000 000000"));
+        // Then
+        assertThat(owner)
+                .hasValueSatisfying(c -> assertThat(c).isEqualToComparingFieldByField(existingCustomer));
+    }
+
+    @Test
+    void itShouldNotInsertTwoCustomersWithTheSameId() {
+        // Given
+        UUID id = UUID.randomUUID();
+        underTest.insertUnlessPhoneNumberTaken(new Customer(id, "Mika", "+447000000000"));
+        // When
+        // Then
+        assertThatThrownBy(() -> underTest.insertUnlessPhoneNumberTaken(new Customer(id, "Tara", "+447000000001")))
+                .isInstanceOf(DuplicateKeyException.class);
+    }
+
+    @Test
+    void itShouldFindCustomersById() {
+        // Given
+        Customer tara = new Customer(UUID.randomUUID(), "Tara", "+447000000000");
+        Customer mika = new Customer(UUID.randomUUID(), "Mika", "+447000000001");
+        underTest.insertAll(List.of(tara, mika));
+        // When
+        // Then
+        assertThat(underTest.findById(tara.getId()))
+                .hasValueSatisfying(c -> assertThat(c).isEqualToComparingFieldByField(tara));
+        assertThat(underTest.findById(UUID.randomUUID())).isNotPresent();
+        assertThat(underTest.findAllById(List.of(tara.getId(), mika.getId(), UUID.randomUUID())))
+                .extracting(Customer::getName)
+                .containsExactlyInAnyOrder("Tara", "Mika");
+    }
+}
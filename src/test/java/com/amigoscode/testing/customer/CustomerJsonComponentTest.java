@@ -0,0 +1,67 @@
+package com.amigoscode.testing.customer;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CustomerJsonComponentTest {
+
+    private final ObjectMapper beanMapper = mapper(new JsonFactory(), false);
+    private final ObjectMapper underTest = mapper(new JsonFactory(), true);
+    private final ObjectMapper cborUnderTest = mapper(new CBORFactory(), true);
+
+    @Test
+    void itShouldWriteTheSameJsonAsTheBeanSerializer() throws IOException {
+        // Given
+        Customer customer = new Customer(new UUID(0, 42), "Tara", "+44 7000 000000");
+        // When
+        String json = underTest.writeValueAsString(customer);
+        // Then
+        assertThat(json)
+                .isEqualTo(beanMapper.writeValueAsString(customer))
+                .doesNotContain("phoneNumberKey");
+    }
+
+    @Test
+    void itShouldDeriveThePhoneNumberKeyWhenReading() throws IOException {
+        // Given
+        String json = "{\"customer\":{\"id\":null,\"name\":\"Tara\",\"phoneNumber\":\"+44 7000 000000\",\"phoneNumberKey\":1}}";
+        // When
+        RegistrationRequest request = underTest.readValue(json, RegistrationRequest.class);
+        // Then
+        assertThat(request.getCustomer().getId()).isNull();
+        assertThat(request.getCustomer().getName()).isEqualTo("Tara");
+        assertThat(request.getCustomer().getPhoneNumberKey()).isEqualTo(447000000000L);
+    }
+
+    @Test
+    void itShouldRoundTripThroughCbor() throws IOException {
+        // Given
+        Customer customer = new Customer(new UUID(0, 42), "Tara", "+447000000000");
+        // When
+        byte[] cbor = cborUnderTest.writeValueAsBytes(new RegistrationRequest(customer));
+        // Then
+        assertThat(cbor.length).isLessThan(underTest.writeValueAsBytes(new RegistrationRequest(customer)).length);
+        assertThat(cborUnderTest.readValue(cbor, RegistrationRequest.class).getCustomer())
+                .isEqualToComparingFieldByField(customer);
+    }
+
+    private static ObjectMapper mapper(JsonFactory factory, boolean handWritten) {
+        ObjectMapper mapper = new ObjectMapper(factory)
+                .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+        if (handWritten) {
+            mapper.registerModule(new SimpleModule()
+                    .addSerializer(new CustomerJsonComponent.Serializer())
+                    .addDeserializer(Customer.class, new CustomerJsonComponent.Deserializer()));
+        }
+        return mapper;
+    }
+}
@@ -5,8 +5,10 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
 import org.springframework.dao.DataIntegrityViolationException;
 
+import javax.persistence.PersistenceException;
 import java.util.Optional;
 import java.util.UUID;
 
@@ -22,16 +24,19 @@ class CustomerRepositoryTest {
     @Autowired
     private CustomerRepository underTest;
 
+    @Autowired
+    private TestEntityManager entityManager;
+
     @Test
     void itShouldSelectCustomerByPhoneNumber() {
         // Given
         UUID id = UUID.randomUUID();
-        String phoneNumber = "555-5000";
+        String phoneNumber = "+44 7000 005000";
         Customer customer = new Customer(id, "Abby", phoneNumber);
         // When
         underTest.save(customer);
         // Then
-        Optional<Customer> optionalCustomer = underTest.selectCustomerByPhoneNumber(phoneNumber);
+        Optional<Customer> optionalCustomer = underTest.selectCustomerByPhoneNumberKey(447000005000L);
 
         assertThat(optionalCustomer)
                 .isPresent()
@@ -44,9 +49,9 @@ class CustomerRepositoryTest {
     @Test
     void itShouldNotSelectCustomerWhenPhoneNumberDoesNotExist() {
         // Given
-        String phoneNumber = "555-5000";
+        long phoneNumberKey = 447000005000L;
         // Then
-        Optional<Customer> optionalCustomer = underTest.selectCustomerByPhoneNumber(phoneNumber);
+        Optional<Customer> optionalCustomer = underTest.selectCustomerByPhoneNumberKey(phoneNumberKey);
 
         assertThat(optionalCustomer)
                 .isNotPresent();
@@ -56,7 +61,7 @@ class CustomerRepositoryTest {
     void itShouldSaveCustomer() {
         // Given
         UUID id = UUID.randomUUID();
-        Customer customer = new Customer(id, "Abby", "555-5000");
+        Customer customer = new Customer(id, "Abby", "+447000005000");
         // When
         underTest.save(customer);
         // Then
@@ -74,7 +79,7 @@ class CustomerRepositoryTest {
     void itShouldNotSaveCustomerWhenNameIsNull() {
         // Given
         UUID id = UUID.randomUUID();
-        Customer customer = new Customer(id, null, "444-5555");
+        Customer customer = new Customer(id, null, "+447000004444");
         // When
         assertThatThrownBy(() -> underTest.save(customer))
                 .isInstanceOf(DataIntegrityViolationException.class);
@@ -91,4 +96,26 @@ class CustomerRepositoryTest {
                 .isInstanceOf(DataIntegrityViolationException.class);
         // Then
     }
-}
\ No newline at end of file
+
+    @Test
+    void itShouldNotSaveCustomerWhenPhoneNumberIsNotValid() {
+        // Given
+        UUID id = UUID.randomUUID();
+        Customer customer = new Customer(id, "Jane", "555-5000");
+        // When
+        assertThatThrownBy(() -> underTest.save(customer))
+                .isInstanceOf(DataIntegrityViolationException.class);
+        // Then
+    }
+
+    @Test
+    void itShouldNotSaveTheSameNumberWrittenDifferently() {
+        // Given
+        entityManager.persistAndFlush(new Customer(UUID.randomUUID(), "Abby", "+447000005000"));
+        Customer customer = new Customer(UUID.randomUUID(), "Jane", "+44 (7000) 005-000");
+        // When
+        assertThatThrownBy(() -> entityManager.persistAndFlush(customer))
+                .isInstanceOf(PersistenceException.class);
+        // Then
+    }
+}
@@ -0,0 +1,52 @@
+package com.amigoscode.testing.customer;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PhoneNumberIndexTest {
+
+    private PhoneNumberIndex underTest;
+
+    @BeforeEach
+    void setUp() {
+        underTest = new PhoneNumberIndex(2);
+    }
+
+    @Test
+    void itShouldReturnIndexedCustomer() {
+        // Given
+        Customer customer = new Customer(UUID.randomUUID(), "Tara", "+447000000000");
+        underTest.put(customer);
+        // Then
+        assertThat(underTest.get(447000000000L))
+                .hasValueSatisfying(c -> assertThat(c).isEqualToComparingFieldByField(customer));
+        assertThat(underTest.get(447000000001L))
+                .isNotPresent();
+
+        PhoneNumberIndex.Stats stats = underTest.stats();
+        assertThat(stats.getHits()).isEqualTo(1);
+        assertThat(stats.getMisses()).isEqualTo(1);
+    }
+
+    @Test
+    void itShouldEvictLeastRecentlyUsedCustomerWhenFull() {
+        // Given
+        underTest.put(new Customer(UUID.randomUUID(), "Tara", "+447000000001"));
+        underTest.put(new Customer(UUID.randomUUID(), "Mika", "+447000000002"));
+        underTest.get(447000000001L);
+        // When
+        underTest.put(new Customer(UUID.randomUUID(), "Abby", "+447000000003"));
+        // Then
+        assertThat(underTest.get(447000000001L)).isPresent();
+        assertThat(underTest.get(447000000002L)).isNotPresent();
+        assertThat(underTest.get(447000000003L)).isPresent();
+
+        PhoneNumberIndex.Stats stats = underTest.stats();
+        assertThat(stats.getSize()).isEqualTo(2);
+        assertThat(stats.getEvictions()).isEqualTo(1);
+    }
+}
@@ -1,6 +1,8 @@
 package com.amigoscode.testing.customer;
 
+import com.amigoscode.testing.metrics.StageMetrics;
 import com.amigoscode.testing.utils.PhoneNumberValidator;
+import com.amigoscode.testing.utils.TimeOrderedUuidGenerator;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
@@ -8,8 +10,15 @@ import org.mockito.Captor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
@@ -19,13 +28,20 @@ import static org.mockito.Mockito.*;
 
 class RegistrationServiceTest {
 
+    private static final long PHONE_NUMBER_KEY = 447000000000L;
+
     private RegistrationService underTest;
 
     @Mock
     private PhoneNumberValidator phoneNumberValidator;
 
     @Mock
-    private CustomerRepository customerRepository;
+    private CustomerJdbcRepository customerJdbcRepository;
+
+    @Mock
+    private CustomerIdRegistry customerIdRegistry;
+
+    private PhoneNumberIndex phoneNumberIndex;
 
     @Captor
     private ArgumentCaptor<Customer> customerArgumentCaptor;
@@ -33,7 +49,9 @@ class RegistrationServiceTest {
     @BeforeEach
     void setUp() {
         MockitoAnnotations.initMocks(this);
-        underTest = new RegistrationService(customerRepository, phoneNumberValidator);
+        phoneNumberIndex = new PhoneNumberIndex(100);
+        underTest = new RegistrationService(customerJdbcRepository, phoneNumberValidator, customerIdRegistry, phoneNumberIndex,
+                new TimeOrderedUuidGenerator(), 16, new StageMetrics());
     }
 
     @Test
@@ -42,7 +60,7 @@ class RegistrationServiceTest {
         String phoneNumber = "+447000000000";
         Customer customer = new Customer(UUID.randomUUID(), "Tara", phoneNumber);
 
-        given(customerRepository.selectCustomerByPhoneNumber(phoneNumber))
+        given(customerJdbcRepository.insertUnlessPhoneNumberTaken(any()))
                 .willReturn(Optional.empty());
 
         given(phoneNumberValidator.test(phoneNumber))
@@ -51,12 +69,16 @@ class RegistrationServiceTest {
         underTest.registerNewCustomer(new RegistrationRequest(customer));
 
         // Then
-        then(customerRepository)
+        then(customerJdbcRepository)
                 .should()
-                .save(customerArgumentCaptor.capture());
+                .insertUnlessPhoneNumberTaken(customerArgumentCaptor.capture());
 
         Customer customerCapture = customerArgumentCaptor.getValue();
         assertThat(customerCapture).isEqualTo(customer);
+
+        then(customerIdRegistry)
+                .should()
+                .register(customer.getId());
     }
 
     @Test
@@ -65,7 +87,7 @@ class RegistrationServiceTest {
         String phoneNumber = "+447000000000";
         Customer customer = new Customer(null, "Tara", phoneNumber);
 
-        given(customerRepository.selectCustomerByPhoneNumber(phoneNumber))
+        given(customerJdbcRepository.insertUnlessPhoneNumberTaken(any()))
                 .willReturn(Optional.empty());
 
         given(phoneNumberValidator.test(phoneNumber))
@@ -74,34 +96,37 @@ class RegistrationServiceTest {
         underTest.registerNewCustomer(new RegistrationRequest(customer));
 
         // Then
-        then(customerRepository)
+        then(customerJdbcRepository)
                 .should()
-                .save(customerArgumentCaptor.capture());
+                .insertUnlessPhoneNumberTaken(customerArgumentCaptor.capture());
 
         Customer customerCapture = customerArgumentCaptor.getValue();
         assertThat(customerCapture)
                 .isEqualToIgnoringGivenFields(customer, "id");
         assertThat(customerCapture.getId())
                 .isNotNull();
+        assertThat(customerCapture.getId().version())
+                .isEqualTo(7);
     }
 
     @Test
-    void itShouldNotSaveCustomerWhenTheyAlreadyExist() {
+    void itShouldNotRegisterCustomerAgainWhenTheyAlreadyExist() {
         // Given
         String phoneNumber = "+447000000000";
-        Customer customer = new Customer(UUID.randomUUID(), "Tara", phoneNumber);
+        Customer existingCustomer = new Customer(UUID.randomUUID(), "Tara", phoneNumber);
 
-        given(customerRepository.selectCustomerByPhoneNumber(phoneNumber))
-                .willReturn(Optional.of(customer));
+        given(customerJdbcRepository.insertUnlessPhoneNumberTaken(any()))
+                .willReturn(Optional.of(existingCustomer));
 
         given(phoneNumberValidator.test(phoneNumber))
                 .willReturn(true);
         // When
-        underTest.registerNewCustomer(new RegistrationRequest(customer));
+        underTest.registerNewCustomer(new RegistrationRequest(new Customer(null, "Tara", phoneNumber)));
         // Then
-        then(customerRepository)
-                .should(never())
-                .save(any());
+        then(customerIdRegistry)
+                .shouldHaveNoInteractions();
+        assertThat(phoneNumberIndex.get(PHONE_NUMBER_KEY))
+                .hasValueSatisfying(c -> assertThat(c).isEqualToComparingFieldByField(existingCustomer));
     }
 
     @Test
@@ -117,7 +142,7 @@ class RegistrationServiceTest {
         assertThatThrownBy(() -> underTest.registerNewCustomer(request))
                 .isInstanceOf(IllegalArgumentException.class);
         // Then
-        then(customerRepository)
+        then(customerJdbcRepository)
                 .shouldHaveNoInteractions();
     }
 
@@ -128,7 +153,7 @@ class RegistrationServiceTest {
         Customer newCustomer = new Customer(UUID.randomUUID(), "Tara", phoneNumber);
         Customer existingCustomer = new Customer(UUID.randomUUID(), "Mika", phoneNumber);
 
-        given(customerRepository.selectCustomerByPhoneNumber(phoneNumber))
+        given(customerJdbcRepository.insertUnlessPhoneNumberTaken(any()))
                 .willReturn(Optional.of(existingCustomer));
 
         given(phoneNumberValidator.test(phoneNumber))
@@ -138,8 +163,97 @@ class RegistrationServiceTest {
                 .isInstanceOf(IllegalStateException.class)
                 .hasMessageContaining(String.format("Phone number [%s] is taken", phoneNumber));
         // And
-        then(customerRepository)
-                .should(never())
-                .save(any());
+        then(customerIdRegistry)
+                .shouldHaveNoInteractions();
+    }
+
+    @Test
+    void itShouldDetectDuplicateFromIndexWithoutQueryingDatabase() {
+        // Given
+        String phoneNumber = "+447000000000";
+        Customer existingCustomer = new Customer(UUID.randomUUID(), "Tara", phoneNumber);
+        phoneNumberIndex.put(existingCustomer);
+
+        given(phoneNumberValidator.test(phoneNumber))
+                .willReturn(true);
+        // When
+        underTest.registerNewCustomer(new RegistrationRequest(new Customer(null, "Tara", phoneNumber)));
+        // Then
+        then(customerJdbcRepository)
+                .shouldHaveNoInteractions();
+        assertThat(phoneNumberIndex.stats().getHits()).isEqualTo(1);
+    }
+
+    @Test
+    void itShouldFindTheExistingCustomerHoweverTheNumberIsWritten() {
+        // Given
+        String phoneNumber = "+44 7000-000000";
+        Customer existingCustomer = new Customer(UUID.randomUUID(), "Mika", "+447000000000");
+        phoneNumberIndex.put(existingCustomer);
+
+        given(phoneNumberValidator.test(phoneNumber))
+                .willReturn(true);
+        // When
+        // Then
+        assertThatThrownBy(() -> underTest.registerNewCustomer(new RegistrationRequest(new Customer(null, "Tara", phoneNumber))))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("is taken");
+        then(customerJdbcRepository)
+                .shouldHaveNoInteractions();
+    }
+
+    @Test
+    void itShouldIndexNewCustomerAfterSaving() {
+        // Given
+        String phoneNumber = "+447000000000";
+        Customer customer = new Customer(UUID.randomUUID(), "Tara", phoneNumber);
+
+        given(customerJdbcRepository.insertUnlessPhoneNumberTaken(any()))
+                .willReturn(Optional.empty());
+
+        given(phoneNumberValidator.test(phoneNumber))
+                .willReturn(true);
+        // When
+        underTest.registerNewCustomer(new RegistrationRequest(customer));
+        // Then
+        assertThat(phoneNumberIndex.get(PHONE_NUMBER_KEY))
+                .hasValueSatisfying(c -> assertThat(c).isEqualToComparingFieldByField(customer));
+    }
+
+    @Test
+    void itShouldInsertOnceWhenTheSameRegistrationArrivesConcurrently() throws Exception {
+        // Given
+        String phoneNumber = "+447000000000";
+        given(phoneNumberValidator.test(phoneNumber))
+                .willReturn(true);
+        given(customerJdbcRepository.insertUnlessPhoneNumberTaken(any()))
+                .willAnswer(invocation -> {
+                    // slow enough for the other requests to pile up behind the lock
+                    Thread.sleep(50);
+                    return Optional.empty();
+                });
+
+        int requests = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(requests);
+        CountDownLatch ready = new CountDownLatch(1);
+        // When
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < requests; i++) {
+            futures.add(executor.submit(() -> {
+                ready.await();
+                underTest.registerNewCustomer(new RegistrationRequest(new Customer(null, "Tara", phoneNumber)));
+                return null;
+            }));
+        }
+        ready.countDown();
+        for (Future<?> future : futures) {
+            future.get(10, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+        // Then
+        then(customerJdbcRepository)
+                .should(times(1))
+                .insertUnlessPhoneNumberTaken(any());
+        assertThat(phoneNumberIndex.stats().getHits()).isEqualTo(requests - 1);
     }
-}
\ No newline at end of file
+}
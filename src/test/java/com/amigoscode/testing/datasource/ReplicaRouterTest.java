@@ -0,0 +1,110 @@
+package com.amigoscode.testing.datasource;
+
+import com.amigoscode.testing.metrics.StageMetrics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataAccessResourceFailureException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ReplicaRouterTest {
+
+    private final AtomicLong nanoTime = new AtomicLong();
+    private final StageMetrics stageMetrics = new StageMetrics();
+
+    private ReplicaRouter underTest;
+
+    @BeforeEach
+    void setUp() {
+        underTest = new ReplicaRouter(true, 5000, 3, nanoTime::get, stageMetrics);
+    }
+
+    @Test
+    void itShouldMarkReadsForTheReplicaOnlyWhileTheyRun() {
+        // When
+        boolean duringRead = underTest.read(UUID.randomUUID(), ReplicaRouter::isReplicaRead);
+        // Then
+        assertThat(duringRead).isTrue();
+        assertThat(ReplicaRouter.isReplicaRead()).isFalse();
+    }
+
+    @Test
+    void itShouldReadTheCustomersOwnWritesFromThePrimary() {
+        // Given
+        UUID customerId = UUID.randomUUID();
+        underTest.recordWrite(customerId);
+        // When
+        nanoTime.addAndGet(TimeUnit.MILLISECONDS.toNanos(4999));
+        boolean withinWindow = underTest.read(customerId, ReplicaRouter::isReplicaRead);
+        boolean otherCustomer = underTest.read(UUID.randomUUID(), ReplicaRouter::isReplicaRead);
+        nanoTime.addAndGet(TimeUnit.MILLISECONDS.toNanos(1));
+        boolean afterWindow = underTest.read(customerId, ReplicaRouter::isReplicaRead);
+        // Then
+        assertThat(withinWindow).isFalse();
+        assertThat(otherCustomer).isTrue();
+        assertThat(afterWindow).isTrue();
+        assertThat(underTest.trackedCustomers()).isZero();
+    }
+
+    @Test
+    void itShouldAskThePrimaryWhenTheReplicaFindsNothing() {
+        // Given
+        List<Boolean> onReplica = new ArrayList<>();
+        // When
+        Optional<String> found = underTest.find(UUID.randomUUID(), () -> {
+            onReplica.add(ReplicaRouter.isReplicaRead());
+            return onReplica.size() == 1 ? Optional.empty() : Optional.of("payment");
+        });
+        // Then
+        assertThat(found).contains("payment");
+        assertThat(onReplica).containsExactly(true, false);
+        assertThat(stageMetrics.report().getCounters()).containsEntry("datasource.primary.retries", 1L);
+    }
+
+    @Test
+    void itShouldRetryOnThePrimaryWhenTheReplicaFails() {
+        // Given
+        List<Boolean> onReplica = new ArrayList<>();
+        // When
+        String result = underTest.read(null, () -> {
+            onReplica.add(ReplicaRouter.isReplicaRead());
+            if (onReplica.size() == 1) {
+                throw new DataAccessResourceFailureException("replica down");
+            }
+            return "ok";
+        });
+        // Then
+        assertThat(result).isEqualTo("ok");
+        assertThat(onReplica).containsExactly(true, false);
+    }
+
+    @Test
+    void itShouldForgetExpiredWritesOnceTooManyCustomersAreTracked() {
+        // Given
+        underTest.recordWrite(UUID.randomUUID());
+        underTest.recordWrite(UUID.randomUUID());
+        nanoTime.addAndGet(TimeUnit.SECONDS.toNanos(5));
+        underTest.recordWrite(UUID.randomUUID());
+        // When
+        underTest.recordWrite(UUID.randomUUID());
+        // Then
+        assertThat(underTest.trackedCustomers()).isEqualTo(2);
+    }
+
+    @Test
+    void itShouldNeverMarkReadsWhenDisabled() {
+        // Given
+        underTest = new ReplicaRouter(false, 5000, 3, nanoTime::get, stageMetrics);
+        // When
+        boolean duringRead = underTest.read(UUID.randomUUID(), ReplicaRouter::isReplicaRead);
+        // Then
+        assertThat(duringRead).isFalse();
+    }
+}
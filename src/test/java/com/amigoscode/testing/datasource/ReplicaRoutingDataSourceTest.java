@@ -0,0 +1,113 @@
+package com.amigoscode.testing.datasource;
+
+import com.amigoscode.testing.metrics.StageMetrics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import javax.sql.DataSource;
+import java.sql.Timestamp;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ReplicaRoutingDataSourceTest {
+
+    private static final Instant NOW = Instant.parse("2020-05-01T10:00:00Z");
+
+    private DataSource primary;
+    private DataSource caughtUp;
+    private DataSource behind;
+    private DataSource broken;
+    private ReplicaLagMonitor monitor;
+    private ReplicaRouter router;
+    private JdbcTemplate underTest;
+
+    @BeforeEach
+    void setUp() {
+        String name = UUID.randomUUID().toString();
+        primary = dataSource(name, "primary");
+        caughtUp = dataSource(name, "caught-up");
+        behind = dataSource(name, "behind");
+        // never gets a heartbeat table, as if it could not be reached
+        broken = dataSource(name, "broken");
+        // these stand-ins replicate nothing, so the tests put in the heartbeat each has seen
+        heartbeat(caughtUp, NOW);
+        heartbeat(behind, NOW.minusSeconds(5));
+
+        monitor = new ReplicaLagMonitor(primary, List.of(caughtUp, behind, broken), 60000, 1000,
+                Clock.fixed(NOW, ZoneOffset.UTC));
+        monitor.start();
+        router = new ReplicaRouter(true, 5000, 100, new StageMetrics());
+        underTest = new JdbcTemplate(new ReplicaRoutingDataSource(monitor));
+    }
+
+    @AfterEach
+    void tearDown() {
+        monitor.shutdown();
+    }
+
+    @Test
+    void itShouldMeasureLagFromTheHeartbeat() {
+        // Then
+        assertThat(monitor.lagMillis(0)).isZero();
+        assertThat(monitor.lagMillis(1)).isEqualTo(5000);
+        assertThat(monitor.lagMillis(2)).isEqualTo(ReplicaLagMonitor.UNAVAILABLE);
+        assertThat(new JdbcTemplate(primary).queryForObject(
+                "select beat_at from replica_heartbeat where id = 1", Timestamp.class))
+                .isEqualTo(Timestamp.from(NOW));
+    }
+
+    @Test
+    void itShouldOnlyPickReplicasWithinTheAllowedLag() {
+        // When
+        // Then
+        for (int i = 0; i < 6; i++) {
+            assertThat(monitor.pickReplica()).isZero();
+        }
+    }
+
+    @Test
+    void itShouldSendMarkedReadsToAReplicaAndEverythingElseToThePrimary() {
+        // When
+        String read = router.read(null, () -> underTest.queryForObject("select database()", String.class));
+        String other = underTest.queryForObject("select database()", String.class);
+        // Then
+        assertThat(read).isEqualTo(databaseName(caughtUp));
+        assertThat(other).isEqualTo(databaseName(primary));
+    }
+
+    @Test
+    void itShouldFallBackToThePrimaryWhenEveryReplicaIsBehind() {
+        // Given
+        heartbeat(caughtUp, NOW.minusSeconds(2));
+        monitor.check();
+        // When
+        String read = router.read(null, () -> underTest.queryForObject("select database()", String.class));
+        // Then
+        assertThat(monitor.pickReplica()).isEqualTo(-1);
+        assertThat(read).isEqualTo(databaseName(primary));
+    }
+
+    private static DataSource dataSource(String name, String role) {
+        return new DriverManagerDataSource(
+                String.format("jdbc:h2:mem:%s-%s;DB_CLOSE_DELAY=-1", name, role), "sa", "");
+    }
+
+    private static void heartbeat(DataSource replica, Instant beatAt) {
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(replica);
+        jdbcTemplate.execute("create table if not exists replica_heartbeat (id int primary key, beat_at timestamp not null)");
+        jdbcTemplate.update("delete from replica_heartbeat");
+        jdbcTemplate.update("insert into replica_heartbeat (id, beat_at) values (1, ?)", Timestamp.from(beatAt));
+    }
+
+    private static String databaseName(DataSource dataSource) {
+        return new JdbcTemplate(dataSource).queryForObject("select database()", String.class);
+    }
+}
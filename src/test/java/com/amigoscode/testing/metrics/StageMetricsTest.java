@@ -0,0 +1,82 @@
+package com.amigoscode.testing.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StageMetricsTest {
+
+    private final StageMetrics underTest = new StageMetrics();
+
+    @Test
+    void itShouldReportPercentilesOfRecordedStages() {
+        // Given
+        StageMetrics.Timer timer = underTest.timer("stage");
+        for (int i = 1; i <= 1000; i++) {
+            timer.record(System.nanoTime() - TimeUnit.MICROSECONDS.toNanos(i));
+        }
+
+        // When
+        StageMetrics.StageStats stats = underTest.report().getStages().get("stage");
+
+        // Then
+        assertThat(stats.getCount()).isEqualTo(1000);
+        assertThat(stats.getP50Micros()).isBetween(500.0, 520.0);
+        assertThat(stats.getP99Micros()).isBetween(990.0, 1010.0);
+        assertThat(stats.getP999Micros()).isGreaterThanOrEqualTo(stats.getP99Micros());
+        assertThat(stats.getMaxMicros()).isGreaterThanOrEqualTo(1000.0);
+        assertThat(stats.getThroughputPerSecond()).isPositive();
+    }
+
+    @Test
+    void itShouldKeepAccumulatingAcrossReports() {
+        // Given
+        StageMetrics.Timer timer = underTest.timer("stage");
+        timer.record(System.nanoTime());
+        underTest.report();
+        timer.record(System.nanoTime());
+
+        // When
+        StageMetrics.Report report = underTest.report();
+
+        // Then
+        assertThat(report.getStages().get("stage").getCount()).isEqualTo(2);
+    }
+
+    @Test
+    void itShouldReturnTheSameTimerAndCounterForAName() {
+        assertThat(underTest.timer("stage")).isSameAs(underTest.timer("stage"));
+        assertThat(underTest.counter("count")).isSameAs(underTest.counter("count"));
+    }
+
+    @Test
+    void itShouldResetTimersAndCounters() {
+        // Given
+        underTest.timer("stage").record(System.nanoTime());
+        underTest.counter("count").increment();
+
+        // When
+        underTest.reset();
+
+        // Then
+        StageMetrics.Report report = underTest.report();
+        assertThat(report.getStages().get("stage").getCount()).isZero();
+        assertThat(report.getCounters()).containsEntry("count", 0L);
+    }
+
+    @Test
+    void itShouldReportGauges() {
+        // Given
+        double[] value = {1};
+        underTest.gauge("gauge", () -> value[0]);
+        value[0] = 2;
+
+        // When
+        StageMetrics.Report report = underTest.report();
+
+        // Then
+        assertThat(report.getGauges()).containsEntry("gauge", 2.0);
+    }
+}
@@ -0,0 +1,67 @@
+package com.amigoscode.testing.notification;
+
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stand-in {@link SmsSender} for tests that keeps every message in memory instead of
+ * sending it.
+ */
+@Component
+public class InMemorySmsSender implements SmsSender {
+
+    private final List<Sms> sentMessages = new ArrayList<>();
+    private final AtomicInteger failuresToInject = new AtomicInteger();
+
+    @Override
+    public void send(String phoneNumber, String message) {
+        if (failuresToInject.getAndUpdate(failures -> Math.max(0, failures - 1)) > 0) {
+            throw new IllegalStateException("Simulated SMS provider failure");
+        }
+        synchronized (sentMessages) {
+            sentMessages.add(new Sms(phoneNumber, message));
+        }
+    }
+
+    public List<Sms> getSentMessages() {
+        synchronized (sentMessages) {
+            return new ArrayList<>(sentMessages);
+        }
+    }
+
+    /**
+     * Makes the next {@code failures} sends throw, to exercise retries.
+     */
+    public void failNext(int failures) {
+        failuresToInject.set(failures);
+    }
+
+    public static final class Sms {
+        private final String phoneNumber;
+        private final String message;
+
+        public Sms(String phoneNumber, String message) {
+            this.phoneNumber = phoneNumber;
+            this.message = message;
+        }
+
+        public String getPhoneNumber() {
+            return phoneNumber;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        @Override
+        public String toString() {
+            return "Sms{" +
+                    "phoneNumber='" + phoneNumber + '\'' +
+                    ", message='" + message + '\'' +
+                    '}';
+        }
+    }
+}
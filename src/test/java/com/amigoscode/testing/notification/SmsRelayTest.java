@@ -0,0 +1,192 @@
+package com.amigoscode.testing.notification;
+
+import com.amigoscode.testing.customer.Customer;
+import com.amigoscode.testing.metrics.StageMetrics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.context.annotation.Import;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.tuple;
+
+@DataJpaTest(
+        properties = {"spring.jpa.properties.javax.persistence.validation.mode=none"}
+)
+@Import(SmsOutboxRepository.class)
+class SmsRelayTest {
+
+    private static final String PHONE_NUMBER = "+447000000000";
+
+    @Autowired
+    private SmsOutboxRepository smsOutboxRepository;
+
+    @Autowired
+    private TestEntityManager entityManager;
+
+    private final InMemorySmsSender smsSender = new InMemorySmsSender();
+    private final StageMetrics stageMetrics = new StageMetrics();
+    private UUID customerId;
+    private Instant now;
+
+    @BeforeEach
+    void setUp() {
+        customerId = UUID.randomUUID();
+        entityManager.persistAndFlush(new Customer(customerId, "Maryam", PHONE_NUMBER));
+        now = Instant.now().truncatedTo(ChronoUnit.MILLIS).plusSeconds(1);
+    }
+
+    @Test
+    void itShouldSendDueMessagesAndMarkThemSent() {
+        // Given
+        smsOutboxRepository.enqueueAll(List.of(
+                new SmsOutboxMessage(1L, customerId, "Payment 1 received"),
+                new SmsOutboxMessage(2L, customerId, "Payment 2 received")));
+        // When
+        int attempted = relay(at(now), 1000).relay();
+        // Then
+        assertThat(attempted).isEqualTo(2);
+        assertThat(smsSender.getSentMessages())
+                .extracting(InMemorySmsSender.Sms::getPhoneNumber, InMemorySmsSender.Sms::getMessage)
+                .containsExactly(
+                        tuple(PHONE_NUMBER, "Payment 1 received"),
+                        tuple(PHONE_NUMBER, "Payment 2 received"));
+        SmsOutboxMessage message = smsOutboxRepository.findByPaymentId(1L).get(0);
+        assertThat(message.getStatus()).isEqualTo(SmsStatus.SENT);
+        assertThat(message.getAttempts()).isEqualTo(1);
+        assertThat(message.getSentAt()).isEqualTo(now);
+        assertThat(stageMetrics.report().getCounters()).containsEntry("sms.sent", 2L);
+        // nothing is due any more
+        assertThat(relay(at(now), 1000).relay()).isZero();
+    }
+
+    @Test
+    void itShouldRetryAfterBackoffWhenSenderFails() {
+        // Given
+        smsOutboxRepository.enqueueAll(List.of(new SmsOutboxMessage(1L, customerId, "Payment 1 received")));
+        smsSender.failNext(1);
+        // When
+        relay(at(now), 1000).relay();
+        // Then
+        SmsOutboxMessage message = smsOutboxRepository.findByPaymentId(1L).get(0);
+        assertThat(message.getStatus()).isEqualTo(SmsStatus.PENDING);
+        assertThat(message.getAttempts()).isEqualTo(1);
+        assertThat(message.getNextAttemptAt()).isEqualTo(now.plusSeconds(1));
+        assertThat(message.getLastError()).isEqualTo("Simulated SMS provider failure");
+
+        assertThat(relay(at(now.plusMillis(999)), 1000).relay()).isZero();
+        assertThat(relay(at(now.plusSeconds(1)), 1000).relay()).isEqualTo(1);
+        message = smsOutboxRepository.findByPaymentId(1L).get(0);
+        assertThat(message.getStatus()).isEqualTo(SmsStatus.SENT);
+        assertThat(message.getAttempts()).isEqualTo(2);
+        assertThat(smsSender.getSentMessages()).hasSize(1);
+    }
+
+    @Test
+    void itShouldGiveUpAfterMaxAttempts() {
+        // Given
+        smsOutboxRepository.enqueueAll(List.of(new SmsOutboxMessage(1L, customerId, "Payment 1 received")));
+        smsSender.failNext(3);
+        // When
+        relay(at(now), 1000).relay();
+        relay(at(now.plus(Duration.ofMinutes(10))), 1000).relay();
+        relay(at(now.plus(Duration.ofMinutes(20))), 1000).relay();
+        // Then
+        SmsOutboxMessage message = smsOutboxRepository.findByPaymentId(1L).get(0);
+        assertThat(message.getStatus()).isEqualTo(SmsStatus.FAILED);
+        assertThat(message.getAttempts()).isEqualTo(3);
+        assertThat(smsSender.getSentMessages()).isEmpty();
+        assertThat(stageMetrics.report().getCounters())
+                .containsEntry("sms.retried", 2L)
+                .containsEntry("sms.failed", 1L);
+    }
+
+    @Test
+    void itShouldNotSendFasterThanTheRate() {
+        // Given
+        smsOutboxRepository.enqueueAll(List.of(
+                new SmsOutboxMessage(1L, customerId, "1"),
+                new SmsOutboxMessage(2L, customerId, "2"),
+                new SmsOutboxMessage(3L, customerId, "3")));
+        SmsRelay underTest = relay(at(now), 20);
+        long start = System.nanoTime();
+        // When
+        underTest.relay();
+        // Then
+        assertThat(Duration.ofNanos(System.nanoTime() - start)).isGreaterThanOrEqualTo(Duration.ofMillis(100));
+        assertThat(smsSender.getSentMessages()).hasSize(3);
+    }
+
+    @Test
+    void itShouldNotSendMessagesAnotherRelayHasClaimed() {
+        // Given
+        smsOutboxRepository.enqueueAll(List.of(
+                new SmsOutboxMessage(1L, customerId, "Payment 1 received"),
+                new SmsOutboxMessage(2L, customerId, "Payment 2 received")));
+        List<SmsOutboxRepository.DueSms> claimed =
+                smsOutboxRepository.claimDue("another-relay", now, now.plusSeconds(60), 1);
+        // When
+        int attempted = relay(at(now), 1000).relay();
+        // Then
+        assertThat(claimed).hasSize(1);
+        assertThat(attempted).isEqualTo(1);
+        assertThat(smsSender.getSentMessages())
+                .extracting(InMemorySmsSender.Sms::getMessage)
+                .containsExactly("Payment 2 received");
+        // the other relay's claim runs out without it recording an attempt
+        assertThat(relay(at(now.plusSeconds(59)), 1000).relay()).isZero();
+        assertThat(relay(at(now.plusSeconds(60)), 1000).relay()).isEqualTo(1);
+        assertThat(smsOutboxRepository.findByPaymentId(1L).get(0).getStatus()).isEqualTo(SmsStatus.SENT);
+    }
+
+    @Test
+    void itShouldRefuseAClaimShorterThanABatch() {
+        // Then
+        assertThatThrownBy(() -> new SmsRelay(
+                smsOutboxRepository, smsSender, at(now), 500, 100, 50, 3, 1000, 300000, 2000, stageMetrics))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void itShouldNotStartWithoutAnSmsSender() {
+        // Then
+        assertThatThrownBy(() -> new SmsRelay(
+                smsOutboxRepository, new DefaultListableBeanFactory().getBeanProvider(SmsSender.class),
+                500, 100, 50, 3, 1000, 300000, 60000, stageMetrics))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("No SmsSender");
+    }
+
+    @Test
+    void itShouldDoubleBackoffUpToTheMaximum() {
+        // Given
+        SmsRelay underTest = relay(at(now), 1000);
+        // When
+        // Then
+        assertThat(underTest.backoff(1)).isEqualTo(Duration.ofSeconds(1));
+        assertThat(underTest.backoff(2)).isEqualTo(Duration.ofSeconds(2));
+        assertThat(underTest.backoff(5)).isEqualTo(Duration.ofSeconds(16));
+        assertThat(underTest.backoff(20)).isEqualTo(Duration.ofMinutes(5));
+        assertThat(underTest.backoff(100)).isEqualTo(Duration.ofMinutes(5));
+    }
+
+    private SmsRelay relay(Clock clock, double ratePerSecond) {
+        return new SmsRelay(smsOutboxRepository, smsSender, clock, 500, 100, ratePerSecond, 3, 1000, 300000, 60000, stageMetrics);
+    }
+
+    private static Clock at(Instant instant) {
+        return Clock.fixed(instant, ZoneOffset.UTC);
+    }
+}
@@ -0,0 +1,88 @@
+package com.amigoscode.testing.payment;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.context.annotation.Import;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DataJpaTest(
+        properties = {
+                "spring.jpa.properties.javax.persistence.validation.mode=none",
+                "payment.spend.slots=4"
+        }
+)
+@Import(CustomerSpendRepository.class)
+class CustomerSpendRepositoryTest {
+
+    @Autowired
+    private CustomerSpendRepository underTest;
+
+    @Autowired
+    private PaymentRepository paymentRepository;
+
+    @Autowired
+    private TestEntityManager entityManager;
+
+    @Test
+    void itShouldSumPaymentsAcrossSlots() {
+        // Given
+        UUID customerId = UUID.randomUUID();
+        // When
+        for (int i = 0; i < 20; i++) {
+            underTest.add(payment(customerId, "10.00", Currency.USD, PaymentStatus.SUCCEEDED));
+        }
+        underTest.add(payment(customerId, "2.50", Currency.GBP, PaymentStatus.SUCCEEDED));
+        underTest.add(payment(UUID.randomUUID(), "99.00", Currency.GBP, PaymentStatus.SUCCEEDED));
+        // Then
+        List<CustomerSpendTotal> spend = underTest.findByCustomerId(customerId);
+        assertThat(spend).extracting(CustomerSpendTotal::getCurrency)
+                .containsExactly(Currency.USD, Currency.GBP);
+        assertThat(spend.get(0).getTotal()).isEqualByComparingTo("200.00");
+        assertThat(spend.get(0).getPaymentCount()).isEqualTo(20);
+        assertThat(spend.get(1).getTotal()).isEqualByComparingTo("2.50");
+        assertThat(spend.get(1).getPaymentCount()).isEqualTo(1);
+    }
+
+    @Test
+    void itShouldReturnNothingForCustomerWithoutPayments() {
+        // When
+        List<CustomerSpendTotal> spend = underTest.findByCustomerId(UUID.randomUUID());
+        // Then
+        assertThat(spend).isEmpty();
+    }
+
+    @Test
+    void itShouldRebuildFromSucceededPayments() {
+        // Given
+        UUID customerId = UUID.randomUUID();
+        paymentRepository.save(payment(customerId, "10.00", Currency.USD, PaymentStatus.SUCCEEDED));
+        paymentRepository.save(payment(customerId, "15.00", Currency.USD, PaymentStatus.SUCCEEDED));
+        paymentRepository.save(payment(customerId, "70.00", Currency.USD, PaymentStatus.FAILED));
+        paymentRepository.save(payment(UUID.randomUUID(), "5.00", Currency.GBP, PaymentStatus.SUCCEEDED));
+        entityManager.flush();
+        // a stale figure that the rebuild replaces
+        underTest.add(payment(customerId, "1000.00", Currency.USD, PaymentStatus.SUCCEEDED));
+        // When
+        int rows = underTest.rebuild();
+        // Then
+        assertThat(rows).isEqualTo(2);
+        List<CustomerSpendTotal> spend = underTest.findByCustomerId(customerId);
+        assertThat(spend).hasSize(1);
+        assertThat(spend.get(0).getCurrency()).isEqualTo(Currency.USD);
+        assertThat(spend.get(0).getTotal()).isEqualByComparingTo("25.00");
+        assertThat(spend.get(0).getPaymentCount()).isEqualTo(2);
+    }
+
+    private static Payment payment(UUID customerId, String amount, Currency currency, PaymentStatus status) {
+        Payment payment = new Payment(null, customerId, new BigDecimal(amount), currency, "card1", "Donation");
+        payment.setStatus(status);
+        return payment;
+    }
+}
@@ -0,0 +1,153 @@
+package com.amigoscode.testing.payment;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class IdempotencyKeyStoreTest {
+
+    private static final IdempotencyKeyStore.Fingerprint FINGERPRINT = IdempotencyKeyStore.Fingerprint.of("42");
+
+    private final AtomicLong now = new AtomicLong(1_000_000L);
+    private final AtomicInteger charges = new AtomicInteger();
+
+    private IdempotencyKeyStore underTest;
+
+    @BeforeEach
+    void setUp() {
+        Clock clock = new Clock() {
+            @Override
+            public ZoneId getZone() {
+                return ZoneOffset.UTC;
+            }
+
+            @Override
+            public Clock withZone(ZoneId zone) {
+                return this;
+            }
+
+            @Override
+            public Instant instant() {
+                return Instant.ofEpochMilli(now.get());
+            }
+        };
+        underTest = new IdempotencyKeyStore(clock, Duration.ofHours(24), 24, 1_000, 5_000);
+    }
+
+    @Test
+    void itShouldReplayCompletedRequestWithoutRunningItAgain() {
+        // Given
+        IdempotencyKeyStore.Outcome first = underTest.execute("key-1", FINGERPRINT, charges::incrementAndGet);
+        // When
+        IdempotencyKeyStore.Outcome second = underTest.execute("key-1", FINGERPRINT, charges::incrementAndGet);
+        // Then
+        assertThat(first.isReplayed()).isFalse();
+        assertThat(second.isReplayed()).isTrue();
+        assertThat(second.getPaymentId()).isEqualTo(first.getPaymentId()).isEqualTo(1L);
+        assertThat(charges).hasValue(1);
+    }
+
+    @Test
+    void itShouldMatchFingerprintsOfTheSameFields() {
+        assertThat(IdempotencyKeyStore.Fingerprint.of("a", 1, null))
+                .isEqualTo(IdempotencyKeyStore.Fingerprint.of("a", "1", "null"))
+                .isNotEqualTo(IdempotencyKeyStore.Fingerprint.of("a1", null))
+                .isNotEqualTo(IdempotencyKeyStore.Fingerprint.of("a", "1:"));
+    }
+
+    @Test
+    void itShouldRejectKeyReusedForDifferentRequest() {
+        // Given
+        underTest.execute("key-1", FINGERPRINT, charges::incrementAndGet);
+        // Then
+        assertThatThrownBy(() -> underTest.execute("key-1", IdempotencyKeyStore.Fingerprint.of("43"), charges::incrementAndGet))
+                .isInstanceOf(ResponseStatusException.class)
+                .hasMessageContaining("different request");
+        assertThat(charges).hasValue(1);
+    }
+
+    @Test
+    void itShouldNotRememberFailedRequests() {
+        // Given
+        assertThatThrownBy(() -> underTest.execute("key-1", FINGERPRINT, () -> {
+            throw new IllegalStateException("The card was not successfully debited");
+        })).isInstanceOf(IllegalStateException.class);
+        // When
+        IdempotencyKeyStore.Outcome outcome = underTest.execute("key-1", FINGERPRINT, charges::incrementAndGet);
+        // Then
+        assertThat(outcome.isReplayed()).isFalse();
+        assertThat(charges).hasValue(1);
+    }
+
+    @Test
+    void itShouldMakeConcurrentDuplicateWaitForFirstRequest() throws Exception {
+        // Given
+        CountDownLatch charging = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<IdempotencyKeyStore.Outcome> first = CompletableFuture.supplyAsync(() ->
+                underTest.execute("key-1", FINGERPRINT, () -> {
+                    charging.countDown();
+                    await(release);
+                    return charges.incrementAndGet();
+                }));
+        assertThat(charging.await(5, TimeUnit.SECONDS)).isTrue();
+        // When
+        CompletableFuture<IdempotencyKeyStore.Outcome> duplicate = CompletableFuture.supplyAsync(() ->
+                underTest.execute("key-1", FINGERPRINT, charges::incrementAndGet));
+        release.countDown();
+        // Then
+        assertThat(first.get(5, TimeUnit.SECONDS).isReplayed()).isFalse();
+        assertThat(duplicate.get(5, TimeUnit.SECONDS).isReplayed()).isTrue();
+        assertThat(duplicate.get().getPaymentId()).isEqualTo(1L);
+        assertThat(charges).hasValue(1);
+    }
+
+    @Test
+    void itShouldForgetKeysAfterTheirTimeToLive() {
+        // Given
+        underTest.execute("key-1", FINGERPRINT, charges::incrementAndGet);
+        now.addAndGet(Duration.ofHours(23).toMillis());
+        assertThat(underTest.execute("key-1", FINGERPRINT, charges::incrementAndGet).isReplayed()).isTrue();
+        // When
+        now.addAndGet(Duration.ofHours(2).toMillis());
+        // Then
+        assertThat(underTest.execute("key-1", FINGERPRINT, charges::incrementAndGet).isReplayed()).isFalse();
+        assertThat(charges).hasValue(2);
+    }
+
+    @Test
+    void itShouldDropOldestKeysWhenFull() {
+        // Given
+        for (int i = 0; i < 1_000; i++) {
+            underTest.execute("old-" + i, FINGERPRINT, charges::incrementAndGet);
+        }
+        now.addAndGet(Duration.ofHours(1).toMillis());
+        // When
+        underTest.execute("new", FINGERPRINT, charges::incrementAndGet);
+        // Then
+        assertThat(underTest.size()).isEqualTo(1);
+        assertThat(underTest.execute("old-0", FINGERPRINT, charges::incrementAndGet).isReplayed()).isFalse();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.amigoscode.testing.payment;
+
+import com.amigoscode.testing.customer.Customer;
+import com.amigoscode.testing.customer.CustomerIdRegistry;
+import com.amigoscode.testing.customer.CustomerJdbcRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.then;
+import static org.mockito.Mockito.times;
+
+class PaymentBatchServiceTest {
+    @Mock
+    private CustomerJdbcRepository customerJdbcRepository;
+    @Mock
+    private CustomerIdRegistry customerIdRegistry;
+    @Mock
+    private AsyncCardPaymentCharger asyncCardPaymentCharger;
+    @Mock
+    private PaymentWriter paymentWriter;
+
+    private PaymentBatchService underTest;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.initMocks(this);
+        underTest = new PaymentBatchService(customerJdbcRepository, customerIdRegistry, asyncCardPaymentCharger, paymentWriter, 2);
+    }
+
+    @Test
+    void itShouldInsertOnlyDebitedPaymentsInOneBatch() {
+        // Given
+        UUID customerId = UUID.randomUUID();
+        given(customerJdbcRepository.findAllById(anyCollection()))
+                .willReturn(List.of(new Customer(customerId, "Tara", "+447000000000")));
+
+        Payment debited = new Payment(null, customerId, new BigDecimal("10.00"), Currency.USD, "card1", "Food");
+        Payment declined = new Payment(null, customerId, new BigDecimal("20.00"), Currency.GBP, "card2", "Rent");
+
+        given(asyncCardPaymentCharger.chargeCard(eq("card1"), any(), any(), any()))
+                .willReturn(CompletableFuture.completedFuture(new CardPaymentCharge(true)));
+        given(asyncCardPaymentCharger.chargeCard(eq("card2"), any(), any(), any()))
+                .willReturn(CompletableFuture.completedFuture(new CardPaymentCharge(false)));
+        given(paymentWriter.writeAll(anyList())).willReturn(Collections.singletonList(null));
+        // When
+        List<BatchPaymentResult> results = underTest.chargeCards(List.of(
+                new PaymentRequest(debited),
+                new PaymentRequest(declined)));
+        // Then
+        ArgumentCaptor<List<Payment>> paymentsArgumentCaptor = ArgumentCaptor.forClass(List.class);
+        then(paymentWriter)
+                .should(times(1))
+                .writeAll(paymentsArgumentCaptor.capture());
+
+        assertThat(paymentsArgumentCaptor.getValue()).containsExactly(debited);
+        assertThat(results)
+                .extracting(BatchPaymentResult::isSucceeded)
+                .containsExactly(true, false);
+    }
+
+    @Test
+    void itShouldNotChargeCardsOfUnknownCustomersOrUnsupportedCurrencies() {
+        // Given
+        UUID customerId = UUID.randomUUID();
+        given(customerJdbcRepository.findAllById(anyCollection()))
+                .willReturn(List.of(new Customer(customerId, "Tara", "+447000000000")));
+
+        Payment unknownCustomer = new Payment(null, UUID.randomUUID(), new BigDecimal("10.00"), Currency.USD, "card1", "Food");
+        Payment unsupportedCurrency = new Payment(null, customerId, new BigDecimal("10.00"), Currency.EUR, "card2", "Food");
+        // When
+        List<BatchPaymentResult> results = underTest.chargeCards(List.of(
+                new PaymentRequest(unknownCustomer),
+                new PaymentRequest(unsupportedCurrency)));
+        // Then
+        then(asyncCardPaymentCharger)
+                .shouldHaveNoInteractions();
+        then(paymentWriter)
+                .should()
+                .writeAll(List.of());
+
+        assertThat(results)
+                .extracting(BatchPaymentResult::getMessage)
+                .containsExactly("Not a customer", "This currency is not supported");
+    }
+
+    @Test
+    void itShouldFailMalformedRequestsAloneWithoutCharging() {
+        // Given
+        UUID customerId = UUID.randomUUID();
+        given(customerJdbcRepository.findAllById(anyCollection()))
+                .willReturn(List.of(new Customer(customerId, "Tara", "+447000000000")));
+        Payment valid = new Payment(null, customerId, new BigDecimal("10.00"), Currency.USD, "card1", "Food");
+        given(asyncCardPaymentCharger.chargeCard(eq("card1"), any(), any(), any()))
+                .willReturn(CompletableFuture.completedFuture(new CardPaymentCharge(true)));
+        given(paymentWriter.writeAll(anyList())).willReturn(Collections.singletonList(null));
+        // When
+        List<BatchPaymentResult> results = underTest.chargeCards(Arrays.asList(
+                new PaymentRequest(null),
+                null,
+                new PaymentRequest(new Payment(null, null, new BigDecimal("10.00"), Currency.USD, "card1", "Food")),
+                new PaymentRequest(new Payment(null, customerId, null, Currency.USD, "card1", "Food")),
+                new PaymentRequest(valid)));
+        // Then
+        assertThat(results)
+                .extracting(BatchPaymentResult::getIndex, BatchPaymentResult::isSucceeded, BatchPaymentResult::getMessage)
+                .containsExactly(
+                        tuple(0, false, "Missing payment"),
+                        tuple(1, false, "Missing payment"),
+                        tuple(2, false, "Missing customerId"),
+                        tuple(3, false, "Missing amount"),
+                        tuple(4, true, null));
+        then(asyncCardPaymentCharger).should(times(1)).chargeCard(any(), any(), any(), any());
+    }
+
+    @Test
+    void itShouldReportDebitedPaymentsThatCouldNotBeRecorded() {
+        // Given
+        UUID customerId = UUID.randomUUID();
+        given(customerJdbcRepository.findAllById(anyCollection()))
+                .willReturn(List.of(new Customer(customerId, "Tara", "+447000000000")));
+        Payment recorded = new Payment(null, customerId, new BigDecimal("10.00"), Currency.USD, "card1", "Food");
+        Payment unrecorded = new Payment(null, customerId, new BigDecimal("20.00"), Currency.GBP, "card2", "Rent");
+        given(asyncCardPaymentCharger.chargeCard(any(), any(), any(), any()))
+                .willReturn(CompletableFuture.completedFuture(new CardPaymentCharge(true)));
+        given(paymentWriter.writeAll(anyList())).willAnswer(invocation -> {
+            invocation.<List<Payment>>getArgument(0).get(0).setPaymentId(7L);
+            return Arrays.asList(null, new IllegalStateException("value too long"));
+        });
+        // When
+        List<BatchPaymentResult> results = underTest.chargeCards(List.of(
+                new PaymentRequest(recorded),
+                new PaymentRequest(unrecorded)));
+        // Then
+        assertThat(results)
+                .extracting(BatchPaymentResult::getPaymentId, BatchPaymentResult::isSucceeded, BatchPaymentResult::getMessage)
+                .containsExactly(
+                        tuple(7L, true, null),
+                        tuple(null, false, "The card was debited but the payment could not be recorded"));
+    }
+
+    @Test
+    void itShouldFailOnlyTheItemWhoseChargeFails() {
+        // Given
+        UUID customerId = UUID.randomUUID();
+        given(customerJdbcRepository.findAllById(anyCollection()))
+                .willReturn(List.of(new Customer(customerId, "Tara", "+447000000000")));
+        given(asyncCardPaymentCharger.chargeCard(eq("card1"), any(), any(), any()))
+                .willReturn(CompletableFuture.completedFuture(new CardPaymentCharge(true)));
+        given(asyncCardPaymentCharger.chargeCard(eq("card2"), any(), any(), any()))
+                .willReturn(CompletableFuture.failedFuture(new IllegalStateException("Cannot make Stripe charge")));
+        given(paymentWriter.writeAll(anyList())).willReturn(Collections.singletonList(null));
+        // When
+        List<BatchPaymentResult> results = underTest.chargeCards(List.of(
+                new PaymentRequest(new Payment(null, customerId, new BigDecimal("10.00"), Currency.USD, "card1", "Food")),
+                new PaymentRequest(new Payment(null, customerId, new BigDecimal("20.00"), Currency.GBP, "card2", "Rent"))));
+        // Then
+        assertThat(results)
+                .extracting(BatchPaymentResult::isSucceeded, BatchPaymentResult::getMessage)
+                .containsExactly(tuple(true, null), tuple(false, "Cannot make Stripe charge"));
+    }
+}
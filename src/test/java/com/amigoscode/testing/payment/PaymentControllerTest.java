@@ -0,0 +1,90 @@
+package com.amigoscode.testing.payment;
+
+import com.amigoscode.testing.metrics.StageMetrics;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.springframework.http.ResponseEntity;
+
+import java.math.BigDecimal;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.then;
+import static org.mockito.Mockito.mock;
+
+class PaymentControllerTest {
+
+    @ParameterizedTest
+    @CsvSource(delimiter = '|', value = {
+            "application/cbor|true",
+            "application/cbor, application/json;q=0.5|true",
+            "application/json;q=0.5, application/cbor|true",
+            "application/cbor;q=0.5, application/json|false",
+            "application/cbor, */*|true",
+            "*/*|false",
+            "application/*|false",
+            "application/json|false",
+            "text/html|false",
+            "cbor?|false",
+            "|false"
+    })
+    void itShouldAnswerInCborOnlyWhenItIsPreferred(String accept, boolean expected) {
+        // When
+        boolean cbor = PaymentController.prefersCbor(accept);
+        // Then
+        assertThat(cbor)
+                .as(accept)
+                .isEqualTo(expected);
+    }
+
+    @Test
+    void itShouldFingerprintEqualAmountsAlike() {
+        // Given
+        UUID customerId = UUID.randomUUID();
+        Payment payment = new Payment(null, customerId, new BigDecimal("10.0"), Currency.GBP, "card123xx", "Donation");
+        Payment samePayment = new Payment(1L, customerId, new BigDecimal("10.00"), Currency.GBP, "card123xx", "Donation");
+        Payment otherPayment = new Payment(null, customerId, new BigDecimal("10.01"), Currency.GBP, "card123xx", "Donation");
+        // When
+        IdempotencyKeyStore.Fingerprint fingerprint = PaymentController.fingerprint(payment);
+        // Then
+        assertThat(fingerprint)
+                .isEqualTo(PaymentController.fingerprint(samePayment))
+                .isNotEqualTo(PaymentController.fingerprint(otherPayment));
+    }
+
+    @Test
+    void itShouldReplayFromTheResponseCacheWithoutTheDatabase() throws Exception {
+        // Given
+        ObjectMapper objectMapper = new ObjectMapper().registerModule(new JavaTimeModule());
+        PaymentService paymentService = mock(PaymentService.class);
+        PaymentController underTest = new PaymentController(
+                paymentService,
+                mock(PaymentBatchService.class),
+                new IdempotencyKeyStore(Clock.systemUTC(), Duration.ofHours(24), 24, 1_000, 5_000),
+                mock(PaymentExportService.class),
+                new PaymentResponseCache(objectMapper, new ObjectMapper(new CBORFactory()).registerModule(new JavaTimeModule()),
+                        1 << 20, false, new StageMetrics()));
+        UUID customerId = UUID.randomUUID();
+        Payment payment = new Payment(7L, customerId, new BigDecimal("10.00"), Currency.GBP, "card123xx", "Donation");
+        payment.setStatus(PaymentStatus.SUCCEEDED);
+        PaymentRequest request = new PaymentRequest(
+                new Payment(null, customerId, new BigDecimal("10.00"), Currency.GBP, "card123xx", "Donation"));
+        given(paymentService.chargeCard(any(), any())).willReturn(payment);
+        underTest.makePayment("key-1", null, request);
+        // When
+        ResponseEntity<?> replayed = underTest.makePayment("key-1", null, request);
+        // Then
+        assertThat(replayed.getHeaders().getFirst("Idempotent-Replayed")).isEqualTo("true");
+        assertThat(objectMapper.readValue((byte[]) replayed.getBody(), Payment.class)).isEqualTo(payment);
+        then(paymentService).should().chargeCard(any(), any());
+        then(paymentService).shouldHaveNoMoreInteractions();
+    }
+}
@@ -0,0 +1,99 @@
+package com.amigoscode.testing.payment;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DataJpaTest(
+        properties = {"spring.jpa.properties.javax.persistence.validation.mode=none"}
+)
+@Import({PaymentJdbcRepository.class, PaymentIdAllocator.class})
+class PaymentExportServiceTest {
+
+    private static final Instant JANUARY = Instant.parse("2020-01-15T10:00:00Z");
+    private static final Instant FEBRUARY = Instant.parse("2020-02-15T10:00:00Z");
+    private static final Instant MARCH = Instant.parse("2020-03-15T10:00:00Z");
+
+    @Autowired
+    private PaymentJdbcRepository paymentJdbcRepository;
+
+    private PaymentExportService underTest;
+    private UUID customerId;
+    private List<Payment> payments;
+
+    @BeforeEach
+    void setUp() {
+        underTest = new PaymentExportService(paymentJdbcRepository, new ObjectMapper());
+        customerId = UUID.randomUUID();
+        payments = List.of(
+                payment("10.00", Currency.USD, "Food", JANUARY),
+                payment("20.50", Currency.GBP, "Rent, \"flat\"", FEBRUARY),
+                payment("30.00", Currency.USD, "Bills", MARCH));
+        paymentJdbcRepository.insertAll(payments);
+    }
+
+    @Test
+    void itShouldExportPaymentsAsCsv() throws IOException {
+        // When
+        String csv = export(PaymentExportFormat.CSV, null, null, null);
+        // Then
+        assertThat(csv.split("\n")).containsExactly(
+                "payment_id,customer_id,amount,currency,source,description,status,created_at",
+                payments.get(0).getPaymentId() + "," + customerId + ",10.00,USD,card1,Food,SUCCEEDED,2020-01-15T10:00:00Z",
+                payments.get(1).getPaymentId() + "," + customerId + ",20.50,GBP,card1,\"Rent, \"\"flat\"\"\",SUCCEEDED,2020-02-15T10:00:00Z",
+                payments.get(2).getPaymentId() + "," + customerId + ",30.00,USD,card1,Bills,SUCCEEDED,2020-03-15T10:00:00Z");
+    }
+
+    @Test
+    void itShouldExportPaymentsAsNdjson() throws IOException {
+        // When
+        String ndjson = export(PaymentExportFormat.NDJSON, null, null, null);
+        // Then
+        String[] lines = ndjson.split("\n");
+        assertThat(lines).hasSize(3);
+        JsonNode first = new ObjectMapper().readTree(lines[0]);
+        assertThat(first.get("paymentId").asLong()).isEqualTo(payments.get(0).getPaymentId());
+        assertThat(first.get("customerId").asText()).isEqualTo(customerId.toString());
+        assertThat(first.get("amount").decimalValue()).isEqualByComparingTo("10.00");
+        assertThat(first.get("currency").asText()).isEqualTo("USD");
+        assertThat(first.get("status").asText()).isEqualTo("SUCCEEDED");
+        assertThat(lines[0]).contains("\"createdAt\":\"2020-01-15T10:00:00Z\"");
+    }
+
+    @Test
+    void itShouldFilterByDateRangeAndCurrency() throws IOException {
+        // When
+        String csv = export(PaymentExportFormat.CSV, FEBRUARY, Instant.parse("2020-04-01T00:00:00Z"), Currency.USD);
+        // Then
+        String[] lines = csv.split("\n");
+        assertThat(lines).hasSize(2);
+        assertThat(lines[1]).startsWith(payments.get(2).getPaymentId() + ",");
+    }
+
+    private String export(PaymentExportFormat format, Instant from, Instant to, Currency currency) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        underTest.exportPayments(format, from, to, currency, out);
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    private Payment payment(String amount, Currency currency, String description, Instant createdAt) {
+        Payment payment = new Payment(null, customerId, new BigDecimal(amount), currency, "card1", description);
+        payment.setStatus(PaymentStatus.SUCCEEDED);
+        payment.setCreatedAt(createdAt);
+        return payment;
+    }
+}
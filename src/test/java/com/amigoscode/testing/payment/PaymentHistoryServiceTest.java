@@ -0,0 +1,82 @@
+package com.amigoscode.testing.payment;
+
+import com.amigoscode.testing.datasource.ReplicaRouter;
+import com.amigoscode.testing.metrics.StageMetrics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.then;
+
+class PaymentHistoryServiceTest {
+
+    @Mock
+    private PaymentJdbcRepository paymentJdbcRepository;
+
+    private PaymentHistoryService underTest;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.initMocks(this);
+        underTest = new PaymentHistoryService(paymentJdbcRepository, new ReplicaRouter(false, 0, 0, new StageMetrics()), 2);
+    }
+
+    @Test
+    void itShouldReturnCursorWhenThereIsAnotherPage() {
+        // Given
+        UUID customerId = UUID.randomUUID();
+        given(paymentJdbcRepository.selectPaymentsByCustomer(customerId, null, null, null, null, 3))
+                .willReturn(List.of(payment(30L), payment(20L), payment(10L)));
+        // When
+        PaymentPage page = underTest.findCustomerPayments(customerId, null, null, null, null, 2);
+        // Then
+        assertThat(page.getPayments()).extracting(Payment::getPaymentId).containsExactly(30L, 20L);
+        assertThat(page.getNextCursor()).isEqualTo(20L);
+    }
+
+    @Test
+    void itShouldNotReturnCursorOnTheLastPage() {
+        // Given
+        UUID customerId = UUID.randomUUID();
+        given(paymentJdbcRepository.selectPaymentsByCustomer(customerId, 20L, Currency.GBP, null, null, 3))
+                .willReturn(List.of(payment(10L)));
+        // When
+        PaymentPage page = underTest.findCustomerPayments(customerId, 20L, Currency.GBP, null, null, 2);
+        // Then
+        assertThat(page.getPayments()).extracting(Payment::getPaymentId).containsExactly(10L);
+        assertThat(page.getNextCursor()).isNull();
+    }
+
+    @Test
+    void itShouldCapThePageSize() {
+        // Given
+        UUID customerId = UUID.randomUUID();
+        given(paymentJdbcRepository.selectPaymentsByCustomer(any(), any(), any(), any(), any(), anyInt()))
+                .willReturn(List.of());
+        // When
+        underTest.findCustomerPayments(customerId, null, null, null, null, 500);
+        // Then
+        then(paymentJdbcRepository).should().selectPaymentsByCustomer(customerId, null, null, null, null, 3);
+    }
+
+    @Test
+    void itShouldThrowWhenPageSizeIsNotPositive() {
+        assertThatThrownBy(() -> underTest.findCustomerPayments(UUID.randomUUID(), null, null, null, null, 0))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("Page size must be positive");
+    }
+
+    private static Payment payment(Long paymentId) {
+        return new Payment(paymentId, UUID.randomUUID(), new BigDecimal("10.00"), Currency.GBP, "card1", "Food");
+    }
+}
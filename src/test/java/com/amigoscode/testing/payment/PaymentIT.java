@@ -2,24 +2,33 @@ package com.amigoscode.testing.payment;
 
 import com.amigoscode.testing.customer.Customer;
 import com.amigoscode.testing.customer.RegistrationRequest;
+import com.amigoscode.testing.notification.InMemorySmsSender;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.mock.web.MockHttpServletResponse;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.ResultActions;
 
 import java.math.BigDecimal;
+import java.util.List;
 import java.util.Objects;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.fail;
+import static org.assertj.core.api.Assertions.tuple;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @SpringBootTest
@@ -31,6 +40,12 @@ class PaymentIT {
     @Autowired
     private MockMvc mockMvc;
 
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private InMemorySmsSender smsSender;
+
     @Test
     void itShouldCreatePaymentSuccessfully() throws Exception {
         // Given
@@ -68,14 +83,116 @@ class PaymentIT {
         retrievePaymentAction.andExpect(status().isOk());
 
         MockHttpServletResponse content = retrievePaymentAction.andReturn().getResponse();
-        Payment actualPayment = new ObjectMapper().readValue(content.getContentAsString(), Payment.class);
+        Payment actualPayment = objectMapper.readValue(content.getContentAsString(), Payment.class);
 
         assertThat(actualPayment)
                 .isNotNull();
         assertThat(actualPayment)
-                .isEqualToComparingFieldByField(payment);
+                .isEqualToIgnoringGivenFields(payment, "status", "createdAt");
+        assertThat(actualPayment.getStatus())
+                .isEqualTo(PaymentStatus.SUCCEEDED);
+        assertThat(actualPayment.getCreatedAt())
+                .isNotNull();
+
+        String eTag = content.getHeader(HttpHeaders.ETAG);
+        assertThat(eTag).isNotNull();
+        mockMvc.perform(get("/api/v1/payment/{id}", paymentId)
+                        .header(HttpHeaders.IF_NONE_MATCH, eTag))
+                .andExpect(status().isNotModified());
+
+        ObjectMapper cborMapper = new ObjectMapper(new CBORFactory()).registerModule(new JavaTimeModule());
+        MockHttpServletResponse cborContent = mockMvc.perform(get("/api/v1/payment/{id}", paymentId)
+                        .accept(MediaType.APPLICATION_CBOR))
+                .andExpect(status().isOk())
+                .andReturn()
+                .getResponse();
+        assertThat(cborContent.getContentType()).isEqualTo(MediaType.APPLICATION_CBOR_VALUE);
+        assertThat(cborContent.getHeader(HttpHeaders.ETAG)).isNotEqualTo(eTag);
+        assertThat(cborContent.getContentAsByteArray().length).isLessThan(content.getContentAsByteArray().length);
+        assertThat(cborMapper.readValue(cborContent.getContentAsByteArray(), Payment.class)).isEqualTo(actualPayment);
+
+        // a retried registration, sent as CBOR this time
+        mockMvc.perform(put("/api/v1/customer-registration")
+                        .contentType(MediaType.APPLICATION_CBOR)
+                        .content(cborMapper.writeValueAsBytes(registrationRequest)))
+                .andExpect(status().isOk());
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (smsSender.getSentMessages().isEmpty() && System.nanoTime() < deadline) {
+            Thread.sleep(50);
+        }
+        assertThat(smsSender.getSentMessages())
+                .extracting(InMemorySmsSender.Sms::getPhoneNumber, InMemorySmsSender.Sms::getMessage)
+                .containsExactly(tuple("+447000000000", "Payment of 100.00 GBP received, reference 1"));
+
+        // a retried payment with the same Idempotency-Key gets the first payment back
+        MockHttpServletResponse charged = mockMvc.perform(post("/api/v1/payment")
+                        .header("Idempotency-Key", "retry-1")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(Objects.requireNonNull(objectToJson(new PaymentRequest(new Payment(
+                                null, custId, new BigDecimal("25.0"), Currency.GBP, "x0x0x0x0x0", "Food"))))))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Idempotent-Replayed", "false"))
+                .andReturn()
+                .getResponse();
+        Payment chargedPayment = objectMapper.readValue(charged.getContentAsString(), Payment.class);
+        mockMvc.perform(post("/api/v1/payment")
+                        .header("Idempotency-Key", "retry-1")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(Objects.requireNonNull(objectToJson(new PaymentRequest(new Payment(
+                                null, custId, new BigDecimal("25.00"), Currency.GBP, "x0x0x0x0x0", "Food"))))))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Idempotent-Replayed", "true"))
+                .andExpect(header().string(HttpHeaders.LOCATION, "/api/v1/payment/" + chargedPayment.getPaymentId()))
+                .andExpect(jsonPath("$.paymentId").value(chargedPayment.getPaymentId()));
+    }
 
-        // TODO: Ensure sms is delivered
+    @Test
+    void itShouldRecordSpendAndSmsForBatchAndAsyncPayments() throws Exception {
+        // Given
+        UUID custId = UUID.randomUUID();
+        mockMvc.perform(put("/api/v1/customer-registration")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(Objects.requireNonNull(objectToJson(new RegistrationRequest(
+                                new Customer(custId, "Ada", "+447000000001"))))))
+                .andExpect(status().isOk());
+        // When
+        MockHttpServletResponse batch = mockMvc.perform(post("/api/v1/payment/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(Objects.requireNonNull(objectToJson(List.of(new PaymentRequest(new Payment(
+                                null, custId, new BigDecimal("10.00"), Currency.GBP, "x0x0x0x0x0", "Food")))))))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].succeeded").value(true))
+                .andReturn()
+                .getResponse();
+        long batchPaymentId = objectMapper.readTree(batch.getContentAsString()).get(0).get("paymentId").asLong();
+        MockHttpServletResponse submitted = mockMvc.perform(post("/api/v1/payment")
+                        .header("Prefer", "respond-async")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(Objects.requireNonNull(objectToJson(new PaymentRequest(new Payment(
+                                null, custId, new BigDecimal("15.00"), Currency.GBP, "x0x0x0x0x0", "Rent"))))))
+                .andExpect(status().isAccepted())
+                .andReturn()
+                .getResponse();
+        long asyncPaymentId = objectMapper.readValue(submitted.getContentAsString(), Payment.class).getPaymentId();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (paymentRepository.findById(asyncPaymentId).map(Payment::getStatus).orElse(null) == PaymentStatus.PENDING
+                && System.nanoTime() < deadline) {
+            Thread.sleep(50);
+        }
+        // Then
+        assertThat(paymentRepository.findById(asyncPaymentId).map(Payment::getStatus)).contains(PaymentStatus.SUCCEEDED);
+        for (long paymentId : new long[]{batchPaymentId, asyncPaymentId}) {
+            mockMvc.perform(get("/api/v1/notification/sms").param("paymentId", String.valueOf(paymentId)))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.length()").value(1))
+                    .andExpect(jsonPath("$[0].customerId").value(custId.toString()));
+        }
+        mockMvc.perform(get("/api/v1/customer/{id}/spend", custId))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].currency").value("GBP"))
+                .andExpect(jsonPath("$[0].total").value(25.0))
+                .andExpect(jsonPath("$[0].paymentCount").value(2));
     }
 
     private String objectToJson(Object customer) {
@@ -0,0 +1,58 @@
+package com.amigoscode.testing.payment;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+
+import java.math.BigDecimal;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DataJpaTest(
+        properties = {"spring.jpa.properties.javax.persistence.validation.mode=none"}
+)
+@Import(PaymentIdAllocator.class)
+class PaymentIdAllocatorTest {
+
+    @Autowired
+    private PaymentIdAllocator underTest;
+
+    @Autowired
+    private PaymentRepository paymentRepository;
+
+    @Test
+    void itShouldHandOutUniqueIdsAcrossBlocks() {
+        // Given
+        Set<Long> ids = new HashSet<>();
+        // When
+        for (int i = 0; i < PaymentIdAllocator.BLOCK_SIZE * 3; i++) {
+            ids.add(underTest.next());
+        }
+        // Then
+        assertThat(ids).hasSize(PaymentIdAllocator.BLOCK_SIZE * 3);
+    }
+
+    @Test
+    void itShouldNotCollideWithIdsGeneratedByHibernate() {
+        // Given
+        Set<Long> ids = new HashSet<>();
+        // When
+        for (int i = 0; i < PaymentIdAllocator.BLOCK_SIZE * 2; i++) {
+            ids.add(underTest.next());
+            Payment payment = paymentRepository.save(new Payment(
+                    null,
+                    UUID.randomUUID(),
+                    new BigDecimal("10.00"),
+                    Currency.USD,
+                    "card123",
+                    "Donation"));
+            ids.add(payment.getPaymentId());
+        }
+        // Then
+        assertThat(ids).hasSize(PaymentIdAllocator.BLOCK_SIZE * 4);
+    }
+}
@@ -0,0 +1,111 @@
+package com.amigoscode.testing.payment;
+
+import com.amigoscode.testing.payment.shard.PaymentShards;
+import com.amigoscode.testing.payment.shard.ShardedPaymentRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class PaymentJdbcRepositoryShardingTest {
+
+    private PaymentJdbcRepository underTest;
+    private TransactionTemplate transactionTemplate;
+
+    @BeforeEach
+    void setUp() {
+        String name = UUID.randomUUID().toString();
+        List<DataSource> dataSources = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            dataSources.add(new DriverManagerDataSource(
+                    String.format("jdbc:h2:mem:%s-%d;DB_CLOSE_DELAY=-1", name, i), "sa", ""));
+        }
+        ShardedPaymentRepository shardedPaymentRepository =
+                new ShardedPaymentRepository(new PaymentShards(dataSources, 3), new AtomicLong()::incrementAndGet);
+        underTest = new PaymentJdbcRepository(null, null, shardedPaymentRepository, 500, 1000);
+        // a main database with nothing in it, only its transactions matter here
+        transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(new DriverManagerDataSource(
+                String.format("jdbc:h2:mem:%s-main;DB_CLOSE_DELAY=-1", name), "sa", "")));
+    }
+
+    @Test
+    void itShouldReadAndWritePaymentsOnTheirCustomersShard() {
+        // Given
+        UUID customerId = UUID.randomUUID();
+        List<Payment> payments = List.of(payment(customerId, "10.00"), payment(customerId, "20.00"),
+                payment(UUID.randomUUID(), "30.00"));
+        payments.get(0).setStatus(PaymentStatus.PENDING);
+        // When
+        underTest.insertAll(payments);
+        payments.get(0).setStatus(PaymentStatus.FAILED);
+        underTest.updateStatus(payments.get(0));
+        // Then
+        assertThat(PaymentShards.bucketOfPaymentId(payments.get(0).getPaymentId()))
+                .isEqualTo(PaymentShards.bucketOf(customerId));
+        assertThat(underTest.findById(payments.get(0).getPaymentId()).map(Payment::getStatus))
+                .contains(PaymentStatus.FAILED);
+        assertThat(underTest.selectPaymentsByCustomer(customerId, null, null, null, null, 10))
+                .containsExactly(payments.get(1), payments.get(0));
+    }
+
+    @Test
+    void itShouldWriteToTheShardOnlyWhenTheMainTransactionCommits() {
+        // Given
+        Payment committed = payment(UUID.randomUUID(), "10.00");
+        Payment rolledBack = payment(UUID.randomUUID(), "20.00");
+        // When
+        transactionTemplate.executeWithoutResult(status -> {
+            underTest.insertAll(List.of(committed));
+            assertThat(underTest.findById(committed.getPaymentId())).isEmpty();
+        });
+        assertThatThrownBy(() -> transactionTemplate.executeWithoutResult(status -> {
+            underTest.insertAll(List.of(rolledBack));
+            throw new IllegalStateException("Spend could not be added");
+        })).isInstanceOf(IllegalStateException.class);
+        // Then
+        assertThat(underTest.findById(committed.getPaymentId())).contains(committed);
+        assertThat(underTest.findById(rolledBack.getPaymentId())).isEmpty();
+    }
+
+    @Test
+    void itShouldExportAndSweepEveryShard() {
+        // Given
+        List<Payment> payments = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            Payment payment = payment(UUID.randomUUID(), "1.00");
+            payment.setStatus(i % 3 == 0 ? PaymentStatus.PENDING : PaymentStatus.SUCCEEDED);
+            payments.add(payment);
+        }
+        underTest.insertAll(payments);
+        // When
+        List<Long> exported = new ArrayList<>();
+        underTest.exportPayments(null, null, null, rs -> exported.add(rs.getLong("payment_id")));
+        List<Long> firstFour = underTest.selectPendingBefore(Instant.now().plusSeconds(60), 4);
+        List<Long> pending = underTest.selectPendingBefore(Instant.now().plusSeconds(60), 100);
+        int failed = underTest.failPending(pending);
+        // Then
+        assertThat(exported).hasSize(30).doesNotHaveDuplicates();
+        assertThat(firstFour).hasSize(4);
+        assertThat(pending).hasSize(10).containsAll(firstFour);
+        assertThat(failed).isEqualTo(10);
+        assertThat(underTest.selectPendingBefore(Instant.now().plusSeconds(60), 100)).isEmpty();
+    }
+
+    private static Payment payment(UUID customerId, String amount) {
+        Payment payment = new Payment(null, customerId, new BigDecimal(amount), Currency.GBP, "card1", "Food");
+        payment.setStatus(PaymentStatus.SUCCEEDED);
+        return payment;
+    }
+}
@@ -0,0 +1,136 @@
+package com.amigoscode.testing.payment;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DataJpaTest(
+        properties = {"spring.jpa.properties.javax.persistence.validation.mode=none"}
+)
+@Import({PaymentJdbcRepository.class, PaymentIdAllocator.class})
+class PaymentJdbcRepositoryTest {
+
+    @Autowired
+    private PaymentJdbcRepository underTest;
+
+    @Autowired
+    private PaymentRepository paymentRepository;
+
+    @Test
+    void itShouldInsertAllPayments() {
+        // Given
+        UUID customerId = UUID.randomUUID();
+        Payment food = new Payment(null, customerId, new BigDecimal("10.00"), Currency.USD, "card1", "Food");
+        Payment rent = new Payment(null, customerId, new BigDecimal("900.00"), Currency.GBP, "card1", "Rent");
+        food.setStatus(PaymentStatus.SUCCEEDED);
+        rent.setStatus(PaymentStatus.SUCCEEDED);
+        // When
+        underTest.insertAll(List.of(food, rent));
+        // Then
+        assertThat(paymentRepository.findAll())
+                .hasSize(2)
+                .usingElementComparatorIgnoringFields("paymentId")
+                .containsExactlyInAnyOrder(food, rent);
+        assertThat(food.getPaymentId()).isNotNull();
+        assertThat(rent.getPaymentId()).isNotNull();
+    }
+
+    @Test
+    void itShouldSelectCustomerPaymentsNewestFirstPastTheCursor() {
+        // Given
+        UUID customerId = UUID.randomUUID();
+        List<Payment> payments = List.of(
+                payment(customerId, "10.00", Currency.USD),
+                payment(customerId, "20.00", Currency.GBP),
+                payment(customerId, "30.00", Currency.USD),
+                payment(UUID.randomUUID(), "40.00", Currency.USD));
+        underTest.insertAll(payments);
+        // When
+        List<Payment> firstPage = underTest.selectPaymentsByCustomer(customerId, null, null, null, null, 2);
+        List<Payment> secondPage = underTest.selectPaymentsByCustomer(
+                customerId, firstPage.get(1).getPaymentId(), null, null, null, 2);
+        // Then
+        assertThat(firstPage).containsExactly(payments.get(2), payments.get(1));
+        assertThat(secondPage).containsExactly(payments.get(0));
+    }
+
+    @Test
+    void itShouldFilterCustomerPaymentsByCurrencyAndAmount() {
+        // Given
+        UUID customerId = UUID.randomUUID();
+        List<Payment> payments = List.of(
+                payment(customerId, "10.00", Currency.USD),
+                payment(customerId, "20.00", Currency.GBP),
+                payment(customerId, "30.00", Currency.USD),
+                payment(customerId, "50.00", Currency.USD));
+        underTest.insertAll(payments);
+        // When
+        List<Payment> selected = underTest.selectPaymentsByCustomer(
+                customerId, null, Currency.USD, new BigDecimal("15.00"), new BigDecimal("40.00"), 10);
+        // Then
+        assertThat(selected).containsExactly(payments.get(2));
+    }
+
+    @Test
+    void itShouldFailOnlyPaymentsStillPending() {
+        // Given
+        Payment pending = payment(UUID.randomUUID(), "10.00", Currency.USD);
+        pending.setStatus(PaymentStatus.PENDING);
+        Payment succeeded = payment(UUID.randomUUID(), "20.00", Currency.USD);
+        underTest.insertAll(List.of(pending, succeeded));
+        // When
+        List<Long> stale = underTest.selectPendingBefore(Instant.now().plusSeconds(60), 10);
+        int failed = underTest.failPending(stale);
+        // Then
+        assertThat(underTest.selectPendingBefore(pending.getCreatedAt(), 10)).isEmpty();
+        assertThat(stale).containsExactly(pending.getPaymentId());
+        assertThat(failed).isEqualTo(1);
+        assertThat(paymentRepository.findById(pending.getPaymentId()).map(Payment::getStatus))
+                .contains(PaymentStatus.FAILED);
+        assertThat(underTest.failPending(stale)).isZero();
+    }
+
+    @Test
+    void itShouldFindAPaymentAndUpdateItsStatus() {
+        // Given
+        Payment payment = payment(UUID.randomUUID(), "10.00", Currency.GBP);
+        payment.setStatus(PaymentStatus.PENDING);
+        underTest.insertAll(List.of(payment));
+        // When
+        payment.setStatus(PaymentStatus.SUCCEEDED);
+        underTest.updateStatus(payment);
+        // Then
+        assertThat(underTest.findById(payment.getPaymentId())).contains(payment);
+        assertThat(underTest.findById(payment.getPaymentId() + 1)).isEmpty();
+    }
+
+    @Test
+    void itShouldNotUpdateThePaymentOnceItIsSettled() {
+        // Given
+        Payment payment = payment(UUID.randomUUID(), "10.00", Currency.GBP);
+        payment.setStatus(PaymentStatus.PENDING);
+        underTest.insertAll(List.of(payment));
+        underTest.failPending(List.of(payment.getPaymentId()));
+        // When
+        payment.setStatus(PaymentStatus.SUCCEEDED);
+        boolean updated = underTest.updateStatus(payment);
+        // Then
+        assertThat(updated).isFalse();
+        assertThat(underTest.findById(payment.getPaymentId()).map(Payment::getStatus))
+                .contains(PaymentStatus.FAILED);
+    }
+
+    private static Payment payment(UUID customerId, String amount, Currency currency) {
+        Payment payment = new Payment(null, customerId, new BigDecimal(amount), currency, "card1", "Food");
+        payment.setStatus(PaymentStatus.SUCCEEDED);
+        return payment;
+    }
+}
@@ -0,0 +1,113 @@
+package com.amigoscode.testing.payment;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.exc.InvalidFormatException;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class PaymentJsonComponentTest {
+
+    private final ObjectMapper beanMapper = mapper(new JsonFactory(), false);
+    private final ObjectMapper underTest = mapper(new JsonFactory(), true);
+    private final ObjectMapper cborBeanMapper = mapper(new CBORFactory(), false);
+    private final ObjectMapper cborUnderTest = mapper(new CBORFactory(), true);
+
+    @Test
+    void itShouldWriteTheSameJsonAsTheBeanSerializer() throws IOException {
+        // Given
+        Payment payment = payment();
+        // When
+        String json = underTest.writeValueAsString(payment);
+        // Then
+        assertThat(json).isEqualTo(beanMapper.writeValueAsString(payment));
+        assertThat(underTest.readValue(json, Payment.class)).isEqualTo(payment);
+    }
+
+    @Test
+    void itShouldWriteNullsAsTheBeanSerializerDoes() throws IOException {
+        // Given
+        Payment payment = new Payment();
+        // When
+        String json = underTest.writeValueAsString(payment);
+        // Then
+        assertThat(json).isEqualTo(beanMapper.writeValueAsString(payment));
+        assertThat(underTest.readValue(json, Payment.class))
+                .isEqualToComparingFieldByField(payment);
+    }
+
+    @Test
+    void itShouldRoundTripThroughCbor() throws IOException {
+        // Given
+        Payment payment = payment();
+        // When
+        byte[] cbor = cborUnderTest.writeValueAsBytes(payment);
+        // Then
+        assertThat(cbor).isEqualTo(cborBeanMapper.writeValueAsBytes(payment));
+        assertThat(cbor.length).isLessThan(underTest.writeValueAsBytes(payment).length);
+        assertThat(cborUnderTest.readValue(cbor, Payment.class)).isEqualTo(payment);
+        assertThat(cborBeanMapper.readValue(cbor, Payment.class)).isEqualTo(payment);
+    }
+
+    @Test
+    void itShouldReadPaymentRequestWithLooseValuesAndUnknownFields() throws IOException {
+        // Given
+        String json = "{\"payment\":{" +
+                "\"paymentId\":\"7\"," +
+                "\"customerId\":\"00000000-0000-0000-0000-00000000002a\"," +
+                "\"amount\":\"100.00\"," +
+                "\"currency\":\"GBP\"," +
+                "\"card\":{\"number\":\"4242\"}," +
+                "\"source\":\"card123xx\"," +
+                "\"description\":\"Donation\"}}";
+        // When
+        PaymentRequest request = underTest.readValue(json, PaymentRequest.class);
+        // Then
+        assertThat(request.getPayment()).isEqualToComparingFieldByField(
+                new Payment(7L, new UUID(0, 42), new BigDecimal("100.00"), Currency.GBP, "card123xx", "Donation"));
+    }
+
+    @Test
+    void itShouldNotReadAnUnknownCurrency() {
+        // Given
+        String json = "{\"currency\":\"XYZ\"}";
+        // When
+        // Then
+        assertThatThrownBy(() -> underTest.readValue(json, Payment.class))
+                .isInstanceOf(InvalidFormatException.class)
+                .hasMessageContaining("XYZ");
+    }
+
+    private static Payment payment() {
+        Payment payment = new Payment(1L, new UUID(0, 42), new BigDecimal("100.00"), Currency.GBP, "card123xx", "Donation");
+        payment.setStatus(PaymentStatus.SUCCEEDED);
+        payment.setCreatedAt(Instant.parse("2020-05-01T10:00:00.123Z"));
+        return payment;
+    }
+
+    private static ObjectMapper mapper(JsonFactory factory, boolean handWritten) {
+        // configured as Spring Boot configures its mapper
+        ObjectMapper mapper = new ObjectMapper(factory)
+                .registerModule(new JavaTimeModule())
+                .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+                .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+        if (handWritten) {
+            mapper.registerModule(new SimpleModule()
+                    .addSerializer(new PaymentJsonComponent.Serializer())
+                    .addDeserializer(Payment.class, new PaymentJsonComponent.Deserializer()));
+        }
+        return mapper;
+    }
+}
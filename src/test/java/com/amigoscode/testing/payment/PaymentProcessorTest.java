@@ -0,0 +1,126 @@
+package com.amigoscode.testing.payment;
+
+import com.amigoscode.testing.metrics.StageMetrics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.math.BigDecimal;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.then;
+import static org.mockito.Mockito.timeout;
+
+class PaymentProcessorTest {
+    @Mock
+    private PaymentWriter paymentWriter;
+    @Mock
+    private AsyncCardPaymentCharger asyncCardPaymentCharger;
+
+    private final StageMetrics stageMetrics = new StageMetrics();
+
+    private PaymentProcessor underTest;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.initMocks(this);
+        underTest = new PaymentProcessor(paymentWriter, asyncCardPaymentCharger, 1, 1, stageMetrics);
+    }
+
+    @AfterEach
+    void tearDown() {
+        underTest.shutdown();
+    }
+
+    @Test
+    void itShouldMarkPaymentAsSucceededWhenCardIsDebited() {
+        // Given
+        Payment payment = pendingPayment();
+        given(asyncCardPaymentCharger.chargeCard(any(), any(), any(), any()))
+                .willReturn(CompletableFuture.completedFuture(new CardPaymentCharge(true)));
+        // When
+        underTest.process(payment).join();
+        // Then
+        assertThat(payment.getStatus()).isEqualTo(PaymentStatus.SUCCEEDED);
+        assertThat(stageMetrics.counter("gateway.succeeded").sum()).isEqualTo(1);
+        then(paymentWriter).should().settle(payment);
+    }
+
+    @Test
+    void itShouldMarkPaymentAsFailedWhenCardIsNotDebited() {
+        // Given
+        Payment payment = pendingPayment();
+        given(asyncCardPaymentCharger.chargeCard(any(), any(), any(), any()))
+                .willReturn(CompletableFuture.completedFuture(new CardPaymentCharge(false)));
+        // When
+        underTest.process(payment).join();
+        // Then
+        assertThat(payment.getStatus()).isEqualTo(PaymentStatus.FAILED);
+        assertThat(stageMetrics.counter("gateway.declined").sum()).isEqualTo(1);
+        then(paymentWriter).should().settle(payment);
+    }
+
+    @Test
+    void itShouldMarkPaymentAsFailedWhenChargeThrows() {
+        // Given
+        Payment payment = pendingPayment();
+        given(asyncCardPaymentCharger.chargeCard(any(), any(), any(), any()))
+                .willReturn(CompletableFuture.failedFuture(new IllegalStateException("Cannot make Stripe charge")));
+        // When
+        underTest.process(payment).join();
+        // Then
+        assertThat(payment.getStatus()).isEqualTo(PaymentStatus.FAILED);
+        then(paymentWriter).should().settle(payment);
+    }
+
+    @Test
+    void itShouldCountAStatusThatCannotBeSaved() {
+        // Given
+        Payment payment = pendingPayment();
+        given(asyncCardPaymentCharger.chargeCard(any(), any(), any(), any()))
+                .willReturn(CompletableFuture.completedFuture(new CardPaymentCharge(true)));
+        given(paymentWriter.settle(payment)).willThrow(new IllegalStateException("Database is down"));
+        // When
+        underTest.process(payment).join();
+        // Then
+        assertThat(stageMetrics.counter("payment.settle.failed").sum()).isEqualTo(1);
+    }
+
+    @Test
+    void itShouldRejectPaymentsBeyondTheChargesInFlight() {
+        // Given
+        CompletableFuture<CardPaymentCharge> inFlight = new CompletableFuture<>();
+        given(asyncCardPaymentCharger.chargeCard(any(), any(), any(), any()))
+                .willReturn(inFlight);
+        Payment first = pendingPayment();
+        underTest.submit(first);
+        // When
+        // Then
+        assertThatThrownBy(() -> underTest.submit(pendingPayment()))
+                .isInstanceOf(RejectedExecutionException.class);
+        inFlight.complete(new CardPaymentCharge(true));
+        then(paymentWriter).should(timeout(1000)).settle(first);
+        assertThat(first.getStatus()).isEqualTo(PaymentStatus.SUCCEEDED);
+    }
+
+    private static Payment pendingPayment() {
+        Payment payment = new Payment(
+                1L,
+                UUID.randomUUID(),
+                new BigDecimal("10.00"),
+                Currency.GBP,
+                "card123xx",
+                "Donation"
+        );
+        payment.setStatus(PaymentStatus.PENDING);
+        return payment;
+    }
+}
@@ -30,13 +30,15 @@ class PaymentRepositoryTest {
                 "card123",
                 "Donation");
         // When
-        underTest.save(payment);
+        Payment saved = underTest.save(payment);
         // Then
         Optional<Payment> paymentOptional = underTest.findById(paymentId);
         assertThat(paymentOptional)
                 .isPresent()
                 .hasValueSatisfying(p -> {
-                    assertThat(p).isEqualTo(payment);
+                    assertThat(p).isEqualTo(saved);
+                    assertThat(p).isEqualToIgnoringGivenFields(payment, "createdAt");
+                    assertThat(p.getCreatedAt()).isNotNull();
                 });
     }
 }
\ No newline at end of file
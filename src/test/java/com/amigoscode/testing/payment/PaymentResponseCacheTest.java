@@ -0,0 +1,148 @@
+package com.amigoscode.testing.payment;
+
+import com.amigoscode.testing.metrics.StageMetrics;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PaymentResponseCacheTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper().registerModule(new JavaTimeModule());
+    private final ObjectMapper cborObjectMapper = new ObjectMapper(new CBORFactory()).registerModule(new JavaTimeModule());
+    private final StageMetrics stageMetrics = new StageMetrics();
+
+    @Test
+    void itShouldServeCachedPaymentFromOffHeap() throws IOException {
+        // Given
+        PaymentResponseCache underTest = new PaymentResponseCache(objectMapper, cborObjectMapper, 1 << 20, true, stageMetrics);
+        Payment payment = payment(1L, PaymentStatus.SUCCEEDED);
+        PaymentResponseCache.CachedPayment written = underTest.put(payment);
+        // When
+        PaymentResponseCache.CachedBody cachedBody = underTest.get(1L, false);
+        // Then
+        assertThat(cachedBody).isNotNull();
+        assertThat(cachedBody.getBody()).isEqualTo(written.getJson());
+        assertThat(cachedBody.getETag()).isEqualTo(written.getETag());
+        assertThat(objectMapper.readValue(cachedBody.getBody(), Payment.class)).isEqualTo(payment);
+        assertThat(stageMetrics.report().getCounters()).containsEntry("payment.response-cache.hit", 1L);
+    }
+
+    @Test
+    void itShouldServeCachedPaymentAsCbor() throws IOException {
+        // Given
+        PaymentResponseCache underTest = new PaymentResponseCache(objectMapper, cborObjectMapper, 1 << 20, true, stageMetrics);
+        Payment payment = payment(1L, PaymentStatus.SUCCEEDED);
+        PaymentResponseCache.CachedPayment written = underTest.put(payment);
+        // When
+        PaymentResponseCache.CachedBody cachedBody = underTest.get(1L, true);
+        // Then
+        assertThat(cachedBody).isNotNull();
+        assertThat(cachedBody.getBody()).isEqualTo(written.getCbor());
+        assertThat(cachedBody.getBody().length).isLessThan(written.getJson().length);
+        assertThat(cachedBody.getETag()).isEqualTo(written.getCborETag()).isNotEqualTo(written.getETag());
+        assertThat(written.getCborETag()).startsWith("\"").endsWith("\"");
+        assertThat(cborObjectMapper.readValue(cachedBody.getBody(), Payment.class)).isEqualTo(payment);
+    }
+
+    @Test
+    void itShouldGiveSameETagForSameJson() {
+        // Given
+        PaymentResponseCache underTest = new PaymentResponseCache(objectMapper, cborObjectMapper, 1 << 20, false, stageMetrics);
+        // When
+        String first = underTest.put(payment(1L, PaymentStatus.SUCCEEDED)).getETag();
+        String second = underTest.put(payment(1L, PaymentStatus.SUCCEEDED)).getETag();
+        String failed = underTest.put(payment(1L, PaymentStatus.FAILED)).getETag();
+        // Then
+        assertThat(first).startsWith("\"").endsWith("\"").isEqualTo(second);
+        assertThat(failed).isNotEqualTo(first);
+    }
+
+    @Test
+    void itShouldNotKeepPendingPayments() {
+        // Given
+        PaymentResponseCache underTest = new PaymentResponseCache(objectMapper, cborObjectMapper, 1 << 20, true, stageMetrics);
+        // When
+        PaymentResponseCache.CachedPayment cachedPayment = underTest.put(payment(1L, PaymentStatus.PENDING));
+        // Then
+        assertThat(cachedPayment.getJson()).isNotEmpty();
+        assertThat(underTest.get(1L, false)).isNull();
+        assertThat(underTest.size()).isZero();
+    }
+
+    @Test
+    void itShouldKeepRecentlyReadPaymentsWhenRecyclingASegment() {
+        // Given
+        // ids 100 to 255 serialize to the same length in both formats
+        PaymentResponseCache.CachedPayment written = new PaymentResponseCache(objectMapper, cborObjectMapper, 1 << 20, false, stageMetrics)
+                .put(payment(100L, PaymentStatus.SUCCEEDED));
+        int entryBytes = written.getJson().length + written.getCbor().length;
+        // sixteen segments of two payments each
+        long maxBytes = 16 * 2L * entryBytes;
+        PaymentResponseCache underTest = new PaymentResponseCache(objectMapper, cborObjectMapper, maxBytes, true, stageMetrics);
+        for (long paymentId = 100; paymentId < 132; paymentId++) {
+            underTest.put(payment(paymentId, PaymentStatus.SUCCEEDED));
+        }
+        underTest.get(100L, false);
+        // When
+        underTest.put(payment(132L, PaymentStatus.SUCCEEDED));
+        // Then
+        assertThat(underTest.get(100L, false)).isNotNull();
+        assertThat(underTest.get(101L, false)).isNull();
+        assertThat(underTest.get(131L, true)).isNotNull();
+        assertThat(underTest.get(132L, true)).isNotNull();
+        assertThat(underTest.size()).isEqualTo(32);
+        assertThat(underTest.bytes()).isEqualTo(32L * entryBytes).isLessThanOrEqualTo(maxBytes);
+    }
+
+    @Test
+    void itShouldNeverServeBytesOfAnotherPaymentWhileRecycling() throws IOException {
+        // Given
+        PaymentResponseCache.CachedPayment written = new PaymentResponseCache(objectMapper, cborObjectMapper, 1 << 20, false, stageMetrics)
+                .put(payment(100L, PaymentStatus.SUCCEEDED));
+        int entryBytes = written.getJson().length + written.getCbor().length;
+        PaymentResponseCache underTest = new PaymentResponseCache(objectMapper, cborObjectMapper, 16 * 2L * entryBytes, true, stageMetrics);
+        AtomicBoolean writing = new AtomicBoolean(true);
+        CompletableFuture<Void> writer = CompletableFuture.runAsync(() -> {
+            try {
+                for (int i = 0; i < 20_000; i++) {
+                    underTest.put(payment(100L + i % 150, PaymentStatus.SUCCEEDED));
+                }
+            } finally {
+                writing.set(false);
+            }
+        });
+        // When
+        List<PaymentResponseCache.CachedBody> bodies = new ArrayList<>();
+        while (writing.get()) {
+            for (long paymentId = 100; paymentId < 250; paymentId++) {
+                PaymentResponseCache.CachedBody body = underTest.get(paymentId, false);
+                if (body != null && bodies.size() < 10_000) {
+                    bodies.add(body);
+                }
+            }
+        }
+        writer.join();
+        // Then
+        for (PaymentResponseCache.CachedBody body : bodies) {
+            Payment payment = objectMapper.readValue(body.getBody(), Payment.class);
+            assertThat(underTest.put(payment).getETag()).isEqualTo(body.getETag());
+        }
+    }
+
+    private static Payment payment(Long paymentId, PaymentStatus status) {
+        Payment payment = new Payment(paymentId, new UUID(0, 42), new BigDecimal("100.00"), Currency.GBP, "card123xx", "Donation");
+        payment.setStatus(status);
+        return payment;
+    }
+}
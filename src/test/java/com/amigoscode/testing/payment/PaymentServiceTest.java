@@ -1,46 +1,61 @@
 package com.amigoscode.testing.payment;
 
 import com.amigoscode.testing.customer.Customer;
-import com.amigoscode.testing.customer.CustomerRepository;
+import com.amigoscode.testing.customer.CustomerIdRegistry;
+import com.amigoscode.testing.customer.CustomerJdbcRepository;
+import com.amigoscode.testing.datasource.ReplicaRouter;
+import com.amigoscode.testing.metrics.StageMetrics;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.springframework.web.server.ResponseStatusException;
 
 import java.math.BigDecimal;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.RejectedExecutionException;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.BDDMockito.given;
 import static org.mockito.BDDMockito.then;
+import static org.mockito.BDDMockito.willThrow;
 import static org.mockito.Mockito.mock;
-import static org.mockito.Mockito.never;
 
 class PaymentServiceTest {
     @Mock
-    private CustomerRepository customerRepository;
+    private CustomerJdbcRepository customerJdbcRepository;
     @Mock
-    private PaymentRepository paymentRepository;
+    private CustomerIdRegistry customerIdRegistry;
+    @Mock
+    private PaymentJdbcRepository paymentJdbcRepository;
     @Mock
     private CardPaymentCharger cardPaymentCharger;
+    @Mock
+    private PaymentProcessor paymentProcessor;
+    @Mock
+    private PaymentWriter paymentWriter;
+
+    private final StageMetrics stageMetrics = new StageMetrics();
 
     private PaymentService underTest;
 
     @BeforeEach
     void setUp() {
         MockitoAnnotations.initMocks(this);
-        underTest = new PaymentService(customerRepository, paymentRepository, cardPaymentCharger);
+        underTest = new PaymentService(customerJdbcRepository, customerIdRegistry, paymentJdbcRepository, cardPaymentCharger, paymentProcessor, paymentWriter,
+                new ReplicaRouter(false, 0, 0, stageMetrics), stageMetrics);
     }
 
     @Test
     void itShouldChargeCardSuccessfully() {
         // Given
         UUID customerId = UUID.randomUUID();
-        given(customerRepository.findById(customerId))
+        given(customerJdbcRepository.findById(customerId))
                 .willReturn(Optional.of(mock(Customer.class)));
 
         PaymentRequest paymentRequest = new PaymentRequest(
@@ -69,9 +84,9 @@ class PaymentServiceTest {
         ArgumentCaptor<Payment>
                 paymentArgumentCaptor = ArgumentCaptor.forClass(Payment.class);
 
-        then(paymentRepository)
+        then(paymentWriter)
                 .should()
-                .save(paymentArgumentCaptor.capture());
+                .write(paymentArgumentCaptor.capture());
 
         Payment paymentArgumentCaptorValue = paymentArgumentCaptor.getValue();
 
@@ -79,13 +94,26 @@ class PaymentServiceTest {
                 .isEqualToIgnoringGivenFields(paymentRequest.getPayment(), "customerId");
         assertThat(paymentArgumentCaptorValue.getCustomerId())
                 .isEqualTo(customerId);
+        assertThat(paymentArgumentCaptorValue.getStatus())
+                .isEqualTo(PaymentStatus.SUCCEEDED);
+        StageMetrics.Report report = stageMetrics.report();
+        assertThat(report.getStages())
+                .containsKeys(
+                        "payment.charge.customer-lookup",
+                        "payment.charge.currency-check",
+                        "payment.charge.gateway",
+                        "payment.charge.debit-check",
+                        "payment.charge.insert",
+                        "payment.charge.total");
+        assertThat(report.getStages().get("payment.charge.insert").getCount()).isEqualTo(1);
+        assertThat(report.getCounters()).containsEntry("gateway.succeeded", 1L);
     }
 
     @Test
     void itShouldThrowWhenCardIsNotCharged() {
         // Given
         UUID customerId = UUID.randomUUID();
-        given(customerRepository.findById(customerId))
+        given(customerJdbcRepository.findById(customerId))
                 .willReturn(Optional.of(mock(Customer.class)));
 
         PaymentRequest paymentRequest = new PaymentRequest(
@@ -112,16 +140,19 @@ class PaymentServiceTest {
         assertThatThrownBy(() -> underTest.chargeCard(customerId, paymentRequest))
                 .isInstanceOf(IllegalStateException.class);
         // Then
-        then(paymentRepository)
-                .should(never())
-                .save(any(Payment.class));
+        then(paymentWriter)
+                .shouldHaveNoInteractions();
+        StageMetrics.Report report = stageMetrics.report();
+        assertThat(report.getStages().get("payment.charge.insert").getCount()).isZero();
+        assertThat(report.getStages().get("payment.charge.total").getCount()).isEqualTo(1);
+        assertThat(report.getCounters()).containsEntry("gateway.declined", 1L);
     }
 
     @Test
     void itShouldThrowWhenCurrencyNotSupported() {
         // Given
         UUID customerId = UUID.randomUUID();
-        given(customerRepository.findById(customerId))
+        given(customerJdbcRepository.findById(customerId))
                 .willReturn(Optional.of(mock(Customer.class)));
 
         PaymentRequest paymentRequest = new PaymentRequest(
@@ -141,16 +172,15 @@ class PaymentServiceTest {
         then(cardPaymentCharger)
                 .shouldHaveNoInteractions();
 
-        then(paymentRepository)
-                .should(never())
-                .save(any(Payment.class));
+        then(paymentWriter)
+                .shouldHaveNoInteractions();
     }
 
     @Test
     void itShouldThrowWhenCustomerNotFound() {
         // Given
         UUID customerId = UUID.randomUUID();
-        given(customerRepository.findById(customerId))
+        given(customerJdbcRepository.findById(customerId))
                 .willReturn(Optional.empty());
         // When
         assertThatThrownBy(() -> underTest.chargeCard(customerId, new PaymentRequest(new Payment())))
@@ -159,15 +189,121 @@ class PaymentServiceTest {
         then(cardPaymentCharger)
                 .shouldHaveNoInteractions();
 
-        then(paymentRepository)
+        then(paymentJdbcRepository)
+                .shouldHaveNoInteractions();
+        then(paymentWriter)
                 .shouldHaveNoInteractions();
     }
-}
 
+    @Test
+    void itShouldSavePendingPaymentAndSubmitItWithoutChargingCard() {
+        // Given
+        UUID customerId = UUID.randomUUID();
+        given(customerJdbcRepository.findById(customerId))
+                .willReturn(Optional.of(mock(Customer.class)));
+
+        Payment payment = new Payment(
+                null,
+                null,
+                new BigDecimal("100.00"),
+                Currency.GBP,
+                "card123xx",
+                "Donation"
+        );
+        // When
+        Payment pendingPayment = underTest.submitPayment(customerId, new PaymentRequest(payment));
+        // Then
+        assertThat(pendingPayment.getStatus()).isEqualTo(PaymentStatus.PENDING);
+        assertThat(pendingPayment.getCustomerId()).isEqualTo(customerId);
 
+        then(paymentJdbcRepository)
+                .should()
+                .insertAll(argThat(payments -> payments.size() == 1 && payments.get(0) == payment));
 
+        then(paymentProcessor)
+                .should()
+                .submit(pendingPayment);
+        then(cardPaymentCharger)
+                .shouldHaveNoInteractions();
+    }
+
+    @Test
+    void itShouldFailPendingPaymentWhenWorkersAreSaturated() {
+        // Given
+        UUID customerId = UUID.randomUUID();
+        given(customerJdbcRepository.findById(customerId))
+                .willReturn(Optional.of(mock(Customer.class)));
 
+        Payment payment = new Payment(
+                null,
+                null,
+                new BigDecimal("100.00"),
+                Currency.GBP,
+                "card123xx",
+                "Donation"
+        );
+        willThrow(RejectedExecutionException.class)
+                .given(paymentProcessor)
+                .submit(payment);
+        // When
+        assertThatThrownBy(() -> underTest.submitPayment(customerId, new PaymentRequest(payment)))
+                .isInstanceOf(ResponseStatusException.class);
+        // Then
+        assertThat(payment.getStatus()).isEqualTo(PaymentStatus.FAILED);
+        then(paymentJdbcRepository)
+                .should()
+                .updateStatus(argThat(p -> p == payment));
+    }
 
+    @Test
+    void itShouldNotLookUpCustomerWhenRegistryKnowsIt() {
+        // Given
+        UUID customerId = UUID.randomUUID();
+        given(customerIdRegistry.contains(customerId))
+                .willReturn(true);
 
+        Payment payment = new Payment(
+                null,
+                null,
+                new BigDecimal("100.00"),
+                Currency.USD,
+                "card123xx",
+                "Donation"
+        );
+        given(cardPaymentCharger.chargeCard(any(), any(), any(), any()))
+                .willReturn(new CardPaymentCharge(true));
+        // When
+        underTest.chargeCard(customerId, new PaymentRequest(payment));
+        // Then
+        then(customerJdbcRepository)
+                .shouldHaveNoInteractions();
+        then(paymentWriter)
+                .should()
+                .write(payment);
+    }
 
+    @Test
+    void itShouldRegisterCustomerFoundInDatabase() {
+        // Given
+        UUID customerId = UUID.randomUUID();
+        given(customerJdbcRepository.findById(customerId))
+                .willReturn(Optional.of(mock(Customer.class)));
 
+        Payment payment = new Payment(
+                null,
+                null,
+                new BigDecimal("100.00"),
+                Currency.USD,
+                "card123xx",
+                "Donation"
+        );
+        given(cardPaymentCharger.chargeCard(any(), any(), any(), any()))
+                .willReturn(new CardPaymentCharge(true));
+        // When
+        underTest.chargeCard(customerId, new PaymentRequest(payment));
+        // Then
+        then(customerIdRegistry)
+                .should()
+                .register(customerId);
+    }
+}
@@ -0,0 +1,365 @@
+package com.amigoscode.testing.payment;
+
+import com.amigoscode.testing.metrics.StageMetrics;
+import com.amigoscode.testing.notification.SmsOutboxMessage;
+import com.amigoscode.testing.notification.SmsOutboxRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.transaction.support.TransactionOperations;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.then;
+import static org.mockito.BDDMockito.willAnswer;
+import static org.mockito.BDDMockito.willThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+
+class PaymentWriterTest {
+
+    @Mock
+    private PaymentJdbcRepository paymentJdbcRepository;
+    @Mock
+    private CustomerSpendRepository customerSpendRepository;
+    @Mock
+    private SmsOutboxRepository smsOutboxRepository;
+
+    private final StageMetrics stageMetrics = new StageMetrics();
+    private final ExecutorService callers = Executors.newFixedThreadPool(10);
+
+    private PaymentWriter underTest;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.initMocks(this);
+    }
+
+    @AfterEach
+    void tearDown() {
+        callers.shutdownNow();
+        if (underTest != null) {
+            underTest.shutdown();
+        }
+    }
+
+    @Test
+    void itShouldSavePaymentAndSpendWhenGroupCommitIsDisabled() {
+        // Given
+        underTest = writer(false, 0, 10);
+        Payment payment = payment();
+        willAnswer(invocation -> {
+            invocation.<List<Payment>>getArgument(0).get(0).setPaymentId(7L);
+            return null;
+        }).given(paymentJdbcRepository).insertAll(anyList());
+        // When
+        Payment written = underTest.write(payment);
+        // Then
+        assertThat(written).isSameAs(payment);
+        then(paymentJdbcRepository).should()
+                .insertAll(argThat(payments -> payments.size() == 1 && payments.get(0) == payment));
+        then(customerSpendRepository).should().add(payment);
+        ArgumentCaptor<List<SmsOutboxMessage>> messages = ArgumentCaptor.forClass(List.class);
+        then(smsOutboxRepository).should().enqueueAll(messages.capture());
+        assertThat(messages.getValue()).hasSize(1);
+        assertThat(messages.getValue().get(0).getPaymentId()).isEqualTo(7L);
+        assertThat(messages.getValue().get(0).getMessage()).isEqualTo("Payment of 100.00 GBP received, reference 7");
+        assertThat(stageMetrics.report().getCounters())
+                .containsEntry("payment.group-commit.batches", 0L);
+    }
+
+    @Test
+    void itShouldInsertABatchWithItsSpendInOneGo() {
+        // Given
+        underTest = writer(true, 200, 10);
+        List<Payment> payments = List.of(payment(), payment());
+        // When
+        underTest.writeAll(payments);
+        // Then
+        then(paymentJdbcRepository).should().insertAll(payments);
+        then(customerSpendRepository).should(times(2)).add(any(Payment.class));
+        ArgumentCaptor<List<SmsOutboxMessage>> messages = ArgumentCaptor.forClass(List.class);
+        then(smsOutboxRepository).should().enqueueAll(messages.capture());
+        assertThat(messages.getValue()).hasSize(2);
+        assertThat(stageMetrics.report().getCounters())
+                .containsEntry("payment.group-commit.batches", 0L);
+    }
+
+    @Test
+    void itShouldAddSpendWhenSettlingASucceededPayment() {
+        // Given
+        underTest = writer(false, 0, 10);
+        Payment payment = payment();
+        payment.setPaymentId(7L);
+        given(paymentJdbcRepository.updateStatus(payment)).willReturn(true);
+        // When
+        boolean settled = underTest.settle(payment);
+        // Then
+        assertThat(settled).isTrue();
+        then(paymentJdbcRepository).should().updateStatus(payment);
+        then(customerSpendRepository).should().add(payment);
+        then(smsOutboxRepository).should().enqueueAll(anyList());
+    }
+
+    @Test
+    void itShouldOnlySaveTheStatusWhenSettlingAFailedPayment() {
+        // Given
+        underTest = writer(false, 0, 10);
+        Payment payment = payment();
+        payment.setPaymentId(7L);
+        payment.setStatus(PaymentStatus.FAILED);
+        given(paymentJdbcRepository.updateStatus(payment)).willReturn(true);
+        // When
+        underTest.settle(payment);
+        // Then
+        then(paymentJdbcRepository).should().updateStatus(payment);
+        then(customerSpendRepository).shouldHaveNoInteractions();
+        then(smsOutboxRepository).shouldHaveNoInteractions();
+    }
+
+    @Test
+    void itShouldNotAddSpendForAPaymentSettledInTheMeantime() {
+        // Given
+        underTest = writer(false, 0, 10);
+        Payment payment = payment();
+        payment.setPaymentId(7L);
+        given(paymentJdbcRepository.updateStatus(payment)).willReturn(false);
+        // When
+        boolean settled = underTest.settle(payment);
+        // Then
+        assertThat(settled).isFalse();
+        then(customerSpendRepository).shouldHaveNoInteractions();
+        then(smsOutboxRepository).shouldHaveNoInteractions();
+    }
+
+    @Test
+    void itShouldWriteConcurrentPaymentsAsOneBatch() throws Exception {
+        // Given
+        underTest = writer(true, 200, 10);
+        List<List<Payment>> batches = new CopyOnWriteArrayList<>();
+        willAnswer(invocation -> batches.add(new ArrayList<>(invocation.getArgument(0))))
+                .given(paymentJdbcRepository).insertAll(anyList());
+        CountDownLatch start = new CountDownLatch(1);
+        List<CompletableFuture<Payment>> writes = new ArrayList<>();
+        // When
+        for (int i = 0; i < 10; i++) {
+            Payment payment = payment();
+            writes.add(CompletableFuture.supplyAsync(() -> {
+                awaitQuietly(start);
+                return underTest.write(payment);
+            }, callers));
+        }
+        start.countDown();
+        CompletableFuture.allOf(writes.toArray(new CompletableFuture[0])).get(5, TimeUnit.SECONDS);
+        // Then
+        assertThat(batches).hasSize(1);
+        assertThat(batches.get(0)).hasSize(10);
+        then(customerSpendRepository).should(times(10)).add(any(Payment.class));
+        then(smsOutboxRepository).should().enqueueAll(anyList());
+        assertThat(stageMetrics.report().getCounters())
+                .containsEntry("payment.group-commit.batches", 1L)
+                .containsEntry("payment.group-commit.payments", 10L);
+    }
+
+    @Test
+    void itShouldSplitBatchesAtMaxBatchSize() throws Exception {
+        // Given
+        underTest = writer(true, 200, 4);
+        List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+        willAnswer(invocation -> batchSizes.add(invocation.<List<Payment>>getArgument(0).size()))
+                .given(paymentJdbcRepository).insertAll(anyList());
+        List<CompletableFuture<Payment>> writes = new ArrayList<>();
+        // When
+        for (int i = 0; i < 10; i++) {
+            Payment payment = payment();
+            writes.add(CompletableFuture.supplyAsync(() -> underTest.write(payment), callers));
+        }
+        CompletableFuture.allOf(writes.toArray(new CompletableFuture[0])).get(5, TimeUnit.SECONDS);
+        // Then
+        assertThat(batchSizes).allSatisfy(size -> assertThat(size).isLessThanOrEqualTo(4));
+        assertThat(batchSizes.stream().mapToInt(Integer::intValue).sum()).isEqualTo(10);
+    }
+
+    @Test
+    void itShouldRetryTheRowsOfAFailedBatchOneAtATime() throws Exception {
+        // Given
+        underTest = writer(true, 200, 10);
+        Payment bad = payment();
+        bad.setDescription("bad");
+        willAnswer(invocation -> {
+            if (invocation.<List<Payment>>getArgument(0).stream().anyMatch(payment -> payment == bad)) {
+                throw new IllegalStateException("value too long");
+            }
+            return null;
+        }).given(paymentJdbcRepository).insertAll(anyList());
+        CountDownLatch start = new CountDownLatch(1);
+        List<CompletableFuture<Payment>> goodWrites = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            Payment payment = payment();
+            goodWrites.add(CompletableFuture.supplyAsync(() -> {
+                awaitQuietly(start);
+                return underTest.write(payment);
+            }, callers));
+        }
+        CompletableFuture<Payment> badWrite = CompletableFuture.supplyAsync(() -> {
+            awaitQuietly(start);
+            return underTest.write(bad);
+        }, callers);
+        // When
+        start.countDown();
+        // Then
+        CompletableFuture.allOf(goodWrites.toArray(new CompletableFuture[0])).get(5, TimeUnit.SECONDS);
+        assertThatThrownBy(() -> badWrite.get(5, TimeUnit.SECONDS))
+                .hasCauseInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("value too long");
+        then(customerSpendRepository).should(times(3)).add(any(Payment.class));
+        then(customerSpendRepository).should(never()).add(argThat(payment -> payment == bad));
+    }
+
+    @Test
+    void itShouldWriteDirectlyWhenTheQueueIsFull() throws Exception {
+        // Given
+        underTest = writer(true, 0, 10, 1, 5000);
+        CountDownLatch committing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Payment direct = payment();
+        willAnswer(invocation -> {
+            if (invocation.<List<Payment>>getArgument(0).get(0) != direct) {
+                committing.countDown();
+                release.await();
+            }
+            return null;
+        }).given(paymentJdbcRepository).insertAll(anyList());
+        CompletableFuture<Payment> first = CompletableFuture.supplyAsync(() -> underTest.write(payment()), callers);
+        assertThat(committing.await(5, TimeUnit.SECONDS)).isTrue();
+        CompletableFuture<Payment> queued = CompletableFuture.supplyAsync(() -> underTest.write(payment()), callers);
+        awaitQueued(1);
+        // When
+        Payment written = underTest.write(direct);
+        // Then
+        assertThat(written).isSameAs(direct);
+        then(customerSpendRepository).should().add(direct);
+        release.countDown();
+        CompletableFuture.allOf(first, queued).get(5, TimeUnit.SECONDS);
+        assertThat(stageMetrics.report().getCounters())
+                .containsEntry("payment.group-commit.direct-writes", 1L);
+    }
+
+    @Test
+    void itShouldWriteDirectlyWhenTheCommitterDoesNotGetToThePaymentInTime() throws Exception {
+        // Given
+        underTest = writer(true, 0, 10, 100, 300);
+        CountDownLatch committing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Payment late = payment();
+        willAnswer(invocation -> {
+            if (invocation.<List<Payment>>getArgument(0).get(0) != late) {
+                committing.countDown();
+                release.await();
+            }
+            return null;
+        }).given(paymentJdbcRepository).insertAll(anyList());
+        CompletableFuture<Payment> first = CompletableFuture.supplyAsync(() -> underTest.write(payment()), callers);
+        assertThat(committing.await(5, TimeUnit.SECONDS)).isTrue();
+        // When
+        Payment written = underTest.write(late);
+        // Then
+        assertThat(written).isSameAs(late);
+        release.countDown();
+        first.get(5, TimeUnit.SECONDS);
+        then(paymentJdbcRepository).should(timeout(1000).times(2)).insertAll(anyList());
+        // by the caller alone, the committer left it
+        then(paymentJdbcRepository).should(times(1))
+                .insertAll(argThat(payments -> payments.stream().anyMatch(payment -> payment == late)));
+    }
+
+    @Test
+    void itShouldGiveUpWhenTheCommitterTakesTooLong() {
+        // Given
+        underTest = writer(true, 0, 10, 100, 50);
+        CountDownLatch release = new CountDownLatch(1);
+        willAnswer(invocation -> {
+            // ids are allocated before the insert, as the repository does
+            List<Payment> payments = invocation.getArgument(0);
+            payments.forEach(payment -> payment.setPaymentId(42L));
+            release.await();
+            return null;
+        }).given(paymentJdbcRepository).insertAll(anyList());
+        // When
+        // Then
+        try {
+            assertThatThrownBy(() -> underTest.write(payment()))
+                    .isInstanceOf(PaymentOutcomeUnknownException.class)
+                    .hasMessageContaining("504 GATEWAY_TIMEOUT")
+                    .hasMessageContaining("payment 42 is not committed yet")
+                    .extracting("paymentId")
+                    .isEqualTo(42L);
+            then(paymentJdbcRepository).should(times(1)).insertAll(anyList());
+        } finally {
+            release.countDown();
+        }
+    }
+
+    private PaymentWriter writer(boolean groupCommit, long windowMillis, int maxBatchSize) {
+        return writer(groupCommit, windowMillis, maxBatchSize, 100, 5000);
+    }
+
+    private PaymentWriter writer(boolean groupCommit,
+                                 long windowMillis,
+                                 int maxBatchSize,
+                                 int queueCapacity,
+                                 long waitTimeoutMillis) {
+        return new PaymentWriter(
+                paymentJdbcRepository,
+                customerSpendRepository,
+                smsOutboxRepository,
+                TransactionOperations.withoutTransaction(),
+                groupCommit,
+                windowMillis,
+                maxBatchSize,
+                queueCapacity,
+                waitTimeoutMillis,
+                stageMetrics);
+    }
+
+    private static Payment payment() {
+        Payment payment = new Payment(null, UUID.randomUUID(), new BigDecimal("100.00"), Currency.GBP, "card123xx", "Donation");
+        payment.setStatus(PaymentStatus.SUCCEEDED);
+        return payment;
+    }
+
+    private void awaitQueued(int queued) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (stageMetrics.report().getGauges().get("payment.group-commit.queued") < queued) {
+            assertThat(System.nanoTime()).isLessThan(deadline);
+            Thread.sleep(1);
+        }
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
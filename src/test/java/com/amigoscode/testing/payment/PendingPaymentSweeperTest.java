@@ -0,0 +1,67 @@
+package com.amigoscode.testing.payment;
+
+import com.amigoscode.testing.metrics.StageMetrics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.then;
+import static org.mockito.Mockito.never;
+
+class PendingPaymentSweeperTest {
+
+    private static final Instant NOW = Instant.parse("2020-05-01T10:00:00Z");
+
+    @Mock
+    private PaymentJdbcRepository paymentJdbcRepository;
+
+    private final StageMetrics stageMetrics = new StageMetrics();
+
+    private PendingPaymentSweeper underTest;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.initMocks(this);
+        underTest = new PendingPaymentSweeper(
+                paymentJdbcRepository, Clock.fixed(NOW, ZoneOffset.UTC), 60_000, 600_000, 2, stageMetrics);
+    }
+
+    @Test
+    void itShouldFailPaymentsPendingForTooLongABatchAtATime() {
+        // Given
+        Instant cutoff = NOW.minusSeconds(600);
+        given(paymentJdbcRepository.selectPendingBefore(cutoff, 2))
+                .willReturn(List.of(1L, 2L))
+                .willReturn(List.of(3L));
+        given(paymentJdbcRepository.failPending(List.of(1L, 2L))).willReturn(2);
+        // settled by its background charge in the meantime
+        given(paymentJdbcRepository.failPending(List.of(3L))).willReturn(0);
+        // When
+        int failed = underTest.sweep();
+        // Then
+        assertThat(failed).isEqualTo(2);
+        assertThat(stageMetrics.report().getCounters())
+                .containsEntry("payment.pending-sweep.failed", 2L);
+    }
+
+    @Test
+    void itShouldDoNothingWhenNoPaymentIsStale() {
+        // Given
+        given(paymentJdbcRepository.selectPendingBefore(any(), anyInt())).willReturn(List.of());
+        // When
+        int failed = underTest.sweep();
+        // Then
+        assertThat(failed).isZero();
+        then(paymentJdbcRepository).should(never()).failPending(any());
+    }
+}
@@ -0,0 +1,111 @@
+package com.amigoscode.testing.payment.gateway;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class AdaptiveConcurrencyLimitTest {
+
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final AdaptiveConcurrencyLimit underTest = new AdaptiveConcurrencyLimit(4, 1, 8, 0.5, 2.0, 1000);
+
+    @Test
+    void itShouldRejectCallsOverTheLimit() {
+        // Given
+        for (int i = 0; i < 4; i++) {
+            assertThat(underTest.tryAcquire()).isTrue();
+        }
+
+        // When
+        boolean acquired = underTest.tryAcquire();
+
+        // Then
+        assertThat(acquired).isFalse();
+        assertThat(underTest.getInFlight()).isEqualTo(4);
+    }
+
+    @Test
+    void itShouldGrowWhileBusyAndFast() {
+        // Given
+        fillTo(4);
+
+        // When
+        underTest.release(FAST, false);
+
+        // Then
+        assertThat(underTest.getLimit()).isEqualTo(5);
+        assertThat(underTest.getInFlight()).isEqualTo(3);
+    }
+
+    @Test
+    void itShouldNotGrowWhenMostlyIdle() {
+        // Given
+        fillTo(1);
+
+        // When
+        underTest.release(FAST, false);
+
+        // Then
+        assertThat(underTest.getLimit()).isEqualTo(4);
+    }
+
+    @Test
+    void itShouldNotGrowPastMax() {
+        // When
+        for (int i = 0; i < 20; i++) {
+            fillTo(underTest.getLimit());
+            underTest.release(FAST, false);
+        }
+
+        // Then
+        assertThat(underTest.getLimit()).isEqualTo(8);
+    }
+
+    @Test
+    void itShouldBackOffWhenCallsFail() {
+        // Given
+        fillTo(4);
+        for (int i = 0; i < 3; i++) {
+            underTest.release(FAST, true);
+        }
+
+        // When
+        underTest.release(FAST, true);
+
+        // Then
+        assertThat(underTest.getLimit()).isEqualTo(2);
+    }
+
+    @Test
+    void itShouldBackOffWhenLatencyClimbs() {
+        // Given
+        fillTo(1);
+        underTest.release(FAST, false);
+
+        // When
+        for (int i = 0; i < 30; i++) {
+            fillTo(1);
+            underTest.release(SLOW, false);
+        }
+
+        // Then
+        assertThat(underTest.getLimit()).isLessThan(4);
+    }
+
+    @Test
+    void itShouldThrowWhenInitialLimitIsOutOfRange() {
+        assertThatThrownBy(() -> new AdaptiveConcurrencyLimit(10, 1, 8, 0.5, 2.0, 1000))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private void fillTo(int inFlight) {
+        while (underTest.getInFlight() < inFlight) {
+            assertThat(underTest.tryAcquire()).isTrue();
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.amigoscode.testing.payment.gateway;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CircuitBreakerTest {
+
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(2000);
+
+    private long now;
+    private CircuitBreaker underTest;
+
+    @BeforeEach
+    void setUp() {
+        now = 0;
+        underTest = new CircuitBreaker(10, 4, 0.5, 0.5, 1000, 5000, 2, () -> now);
+    }
+
+    @Test
+    void itShouldStayClosedBelowMinimumCalls() {
+        // Given
+        call(FAST, true);
+        call(FAST, true);
+        call(FAST, true);
+
+        // Then
+        assertThat(underTest.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+        assertThat(underTest.tryAcquirePermission()).isTrue();
+    }
+
+    @Test
+    void itShouldOpenWhenFailureRateReachesThreshold() {
+        // Given
+        call(FAST, false);
+        call(FAST, false);
+        call(FAST, true);
+
+        // When
+        call(FAST, true);
+
+        // Then
+        assertThat(underTest.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+        assertThat(underTest.tryAcquirePermission()).isFalse();
+    }
+
+    @Test
+    void itShouldOpenWhenSlowCallRateReachesThreshold() {
+        // Given
+        call(FAST, false);
+        call(FAST, false);
+        call(SLOW, false);
+
+        // When
+        call(SLOW, false);
+
+        // Then
+        assertThat(underTest.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+    }
+
+    @Test
+    void itShouldForgetOutcomesThatLeftTheWindow() {
+        // Given
+        call(FAST, true);
+        for (int i = 0; i < 9; i++) {
+            call(FAST, false);
+        }
+
+        // When
+        for (int i = 0; i < 4; i++) {
+            call(FAST, true);
+        }
+
+        // Then
+        assertThat(underTest.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    void itShouldCloseAfterSuccessfulTrialCalls() {
+        // Given
+        open();
+        now += TimeUnit.MILLISECONDS.toNanos(5000);
+
+        // When
+        assertThat(underTest.tryAcquirePermission()).isTrue();
+        assertThat(underTest.tryAcquirePermission()).isTrue();
+        assertThat(underTest.tryAcquirePermission()).isFalse();
+        underTest.onResult(FAST, false);
+        underTest.onResult(FAST, false);
+
+        // Then
+        assertThat(underTest.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    void itShouldReopenWhenATrialCallFails() {
+        // Given
+        open();
+        now += TimeUnit.MILLISECONDS.toNanos(5000);
+        underTest.tryAcquirePermission();
+
+        // When
+        underTest.onResult(FAST, true);
+
+        // Then
+        assertThat(underTest.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+        assertThat(underTest.tryAcquirePermission()).isFalse();
+    }
+
+    @Test
+    void itShouldHandBackAReleasedTrialPermission() {
+        // Given
+        open();
+        now += TimeUnit.MILLISECONDS.toNanos(5000);
+        underTest.tryAcquirePermission();
+        underTest.tryAcquirePermission();
+
+        // When
+        underTest.releasePermission();
+
+        // Then
+        assertThat(underTest.tryAcquirePermission()).isTrue();
+    }
+
+    private void open() {
+        for (int i = 0; i < 4; i++) {
+            call(FAST, true);
+        }
+        assertThat(underTest.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+    }
+
+    private void call(long durationNanos, boolean failed) {
+        assertThat(underTest.tryAcquirePermission()).isTrue();
+        underTest.onResult(durationNanos, failed);
+    }
+}
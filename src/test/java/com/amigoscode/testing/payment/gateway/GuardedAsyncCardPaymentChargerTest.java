@@ -0,0 +1,98 @@
+package com.amigoscode.testing.payment.gateway;
+
+import com.amigoscode.testing.metrics.StageMetrics;
+import com.amigoscode.testing.payment.AsyncCardPaymentCharger;
+import com.amigoscode.testing.payment.CardPaymentCharge;
+import com.amigoscode.testing.payment.Currency;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.math.BigDecimal;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.then;
+import static org.mockito.Mockito.times;
+
+class GuardedAsyncCardPaymentChargerTest {
+
+    private static final BigDecimal AMOUNT = new BigDecimal("10.00");
+
+    @Mock
+    private AsyncCardPaymentCharger gateway;
+
+    private final StageMetrics stageMetrics = new StageMetrics();
+    private CircuitBreaker circuitBreaker;
+    private AdaptiveConcurrencyLimit concurrencyLimit;
+    private GuardedAsyncCardPaymentCharger underTest;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.initMocks(this);
+        circuitBreaker = new CircuitBreaker(10, 2, 0.5, 1.0, 60_000, 60_000, 1, System::nanoTime);
+        concurrencyLimit = new AdaptiveConcurrencyLimit(1, 1, 1, 0.5, 2.0, 1000);
+        underTest = new GuardedAsyncCardPaymentCharger(gateway, circuitBreaker, concurrencyLimit, stageMetrics);
+    }
+
+    @Test
+    void itShouldHoldItsPermitUntilTheChargeAnswers() {
+        // Given
+        CompletableFuture<CardPaymentCharge> inFlight = new CompletableFuture<>();
+        given(gateway.chargeCard("card", AMOUNT, Currency.GBP, "Food")).willReturn(inFlight);
+
+        // When
+        CompletableFuture<CardPaymentCharge> charge = underTest.chargeCard("card", AMOUNT, Currency.GBP, "Food");
+
+        // Then
+        assertThat(concurrencyLimit.getInFlight()).isEqualTo(1);
+        inFlight.complete(new CardPaymentCharge(true));
+        assertThat(charge.join().isCardDebited()).isTrue();
+        assertThat(concurrencyLimit.getInFlight()).isZero();
+    }
+
+    @Test
+    void itShouldRejectWithoutCallingTheGatewayWhenAtTheLimit() {
+        // Given
+        given(gateway.chargeCard(any(), any(), any(), any())).willReturn(new CompletableFuture<>());
+        underTest.chargeCard("card", AMOUNT, Currency.GBP, "Food");
+
+        // When
+        CompletableFuture<CardPaymentCharge> rejected = underTest.chargeCard("card", AMOUNT, Currency.GBP, "Food");
+
+        // Then
+        assertThatThrownBy(rejected::join)
+                .isInstanceOf(CompletionException.class)
+                .hasCauseInstanceOf(ResponseStatusException.class)
+                .hasMessageContaining("concurrency limit");
+        then(gateway).should(times(1)).chargeCard(any(), any(), any(), any());
+        assertThat(stageMetrics.report().getCounters()).containsEntry("gateway.rejected.limit", 1L);
+    }
+
+    @Test
+    void itShouldRejectWithoutCallingTheGatewayWhenTheCircuitIsOpen() {
+        // Given
+        given(gateway.chargeCard(any(), any(), any(), any()))
+                .willReturn(CompletableFuture.failedFuture(new IllegalStateException("Cannot make Stripe charge")));
+        for (int i = 0; i < 2; i++) {
+            assertThatThrownBy(underTest.chargeCard("card", AMOUNT, Currency.GBP, "Food")::join)
+                    .hasCauseInstanceOf(IllegalStateException.class);
+        }
+
+        // When
+        CompletableFuture<CardPaymentCharge> rejected = underTest.chargeCard("card", AMOUNT, Currency.GBP, "Food");
+
+        // Then
+        assertThatThrownBy(rejected::join)
+                .hasCauseInstanceOf(ResponseStatusException.class)
+                .hasMessageContaining("circuit is open");
+        then(gateway).should(times(2)).chargeCard(any(), any(), any(), any());
+        assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+    }
+}
@@ -0,0 +1,93 @@
+package com.amigoscode.testing.payment.gateway;
+
+import com.amigoscode.testing.metrics.StageMetrics;
+import com.amigoscode.testing.payment.CardPaymentCharge;
+import com.amigoscode.testing.payment.CardPaymentCharger;
+import com.amigoscode.testing.payment.Currency;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.math.BigDecimal;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.then;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+
+class GuardedCardPaymentChargerTest {
+
+    private static final BigDecimal AMOUNT = new BigDecimal("10.00");
+
+    @Mock
+    private CardPaymentCharger gateway;
+
+    private final StageMetrics stageMetrics = new StageMetrics();
+    private CircuitBreaker circuitBreaker;
+    private AdaptiveConcurrencyLimit concurrencyLimit;
+    private GuardedCardPaymentCharger underTest;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.initMocks(this);
+        circuitBreaker = new CircuitBreaker(10, 2, 0.5, 1.0, 60_000, 60_000, 1, System::nanoTime);
+        concurrencyLimit = new AdaptiveConcurrencyLimit(1, 1, 1, 0.5, 2.0, 1000);
+        underTest = new GuardedCardPaymentCharger(gateway, circuitBreaker, concurrencyLimit, stageMetrics);
+    }
+
+    @Test
+    void itShouldChargeThroughTheGateway() {
+        // Given
+        given(gateway.chargeCard("card", AMOUNT, Currency.GBP, "Food"))
+                .willReturn(new CardPaymentCharge(true));
+
+        // When
+        CardPaymentCharge charge = underTest.chargeCard("card", AMOUNT, Currency.GBP, "Food");
+
+        // Then
+        assertThat(charge.isCardDebited()).isTrue();
+        assertThat(concurrencyLimit.getInFlight()).isZero();
+    }
+
+    @Test
+    void itShouldRejectWithoutCallingTheGatewayWhenTheCircuitIsOpen() {
+        // Given
+        given(gateway.chargeCard(any(), any(), any(), any()))
+                .willThrow(new IllegalStateException("Cannot make Stripe charge"));
+        for (int i = 0; i < 2; i++) {
+            assertThatThrownBy(() -> underTest.chargeCard("card", AMOUNT, Currency.GBP, "Food"))
+                    .isInstanceOf(IllegalStateException.class);
+        }
+
+        // When
+        // Then
+        assertThatThrownBy(() -> underTest.chargeCard("card", AMOUNT, Currency.GBP, "Food"))
+                .isInstanceOf(ResponseStatusException.class)
+                .hasMessageContaining("circuit is open");
+        then(gateway).should(times(2)).chargeCard(any(), any(), any(), any());
+        StageMetrics.Report report = stageMetrics.report();
+        assertThat(report.getCounters()).containsEntry("gateway.rejected.circuit-open", 1L);
+        assertThat(report.getGauges())
+                .containsEntry("gateway.circuit.state", (double) CircuitBreaker.State.OPEN.ordinal());
+    }
+
+    @Test
+    void itShouldRejectWithoutCallingTheGatewayWhenAtTheLimit() {
+        // Given
+        concurrencyLimit.tryAcquire();
+
+        // When
+        // Then
+        assertThatThrownBy(() -> underTest.chargeCard("card", AMOUNT, Currency.GBP, "Food"))
+                .isInstanceOf(ResponseStatusException.class)
+                .hasMessageContaining("concurrency limit");
+        then(gateway).should(never()).chargeCard(any(), any(), any(), any());
+        assertThat(stageMetrics.report().getCounters()).containsEntry("gateway.rejected.limit", 1L);
+        assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+    }
+}
@@ -0,0 +1,273 @@
+package com.amigoscode.testing.payment.gateway;
+
+import com.amigoscode.testing.metrics.StageMetrics;
+import com.amigoscode.testing.payment.CardPaymentCharge;
+import com.amigoscode.testing.payment.Currency;
+import com.amigoscode.testing.payment.IdempotentCardPaymentCharger;
+import com.amigoscode.testing.payment.TransientCardGatewayException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.stubbing.Answer;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.then;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+
+class RoutingCardPaymentChargerTest {
+
+    private static final BigDecimal AMOUNT = new BigDecimal("10.00");
+
+    @Mock
+    private IdempotentCardPaymentCharger backendA;
+    @Mock
+    private IdempotentCardPaymentCharger backendB;
+
+    private final StageMetrics stageMetrics = new StageMetrics();
+    private ExecutorService executor = Executors.newCachedThreadPool();
+    private long now;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.initMocks(this);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void itShouldRouteToTheBackendWithFewestOutstandingCharges() throws Exception {
+        // Given
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        given(backendA.chargeCard(anyString(), any(), any(), any(), any())).willAnswer(invocation -> {
+            started.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return new CardPaymentCharge(true);
+        });
+        given(backendB.chargeCard(anyString(), any(), any(), any(), any()))
+                .willReturn(new CardPaymentCharge(true));
+        RoutingCardPaymentCharger underTest = routing(List.of(backendA, backendB), new RetryBudget(0.1, 10));
+        Future<CardPaymentCharge> blocked = executor.submit(() -> charge(underTest));
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+        // When
+        CardPaymentCharge charge = charge(underTest);
+
+        // Then
+        assertThat(charge.isCardDebited()).isTrue();
+        then(backendB).should().chargeCard(anyString(), any(), any(), any(), any());
+        release.countDown();
+        assertThat(blocked.get(5, TimeUnit.SECONDS).isCardDebited()).isTrue();
+    }
+
+    @Test
+    void itShouldRetryAFailedChargeWithTheSameIdempotencyKey() {
+        // Given
+        given(backendA.chargeCard(anyString(), any(), any(), any(), any()))
+                .willThrow(new TransientCardGatewayException("Cannot make Stripe charge"))
+                .willReturn(new CardPaymentCharge(true));
+        RoutingCardPaymentCharger underTest = routing(List.of(backendA), new RetryBudget(0.1, 10));
+
+        // When
+        CardPaymentCharge charge = charge(underTest);
+
+        // Then
+        assertThat(charge.isCardDebited()).isTrue();
+        ArgumentCaptor<String> keys = ArgumentCaptor.forClass(String.class);
+        then(backendA).should(times(2)).chargeCard(keys.capture(), any(), any(), any(), any());
+        assertThat(keys.getAllValues().get(0)).isEqualTo(keys.getAllValues().get(1));
+        assertThat(stageMetrics.report().getCounters()).containsEntry("gateway.retries", 1L);
+    }
+
+    @Test
+    void itShouldNotRetryAnErrorThatIsNotTransient() {
+        // Given
+        given(backendA.chargeCard(anyString(), any(), any(), any(), any()))
+                .willThrow(new IllegalStateException("Cannot make Stripe charge"));
+        RoutingCardPaymentCharger underTest = routing(List.of(backendA), new RetryBudget(0.1, 10));
+
+        // When
+        // Then
+        assertThatThrownBy(() -> charge(underTest))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessage("Cannot make Stripe charge");
+        then(backendA).should(times(1)).chargeCard(anyString(), any(), any(), any(), any());
+        assertThat(stageMetrics.report().getCounters()).containsEntry("gateway.retries", 0L);
+    }
+
+    @Test
+    void itShouldNotRetryADeclinedCharge() {
+        // Given
+        given(backendA.chargeCard(anyString(), any(), any(), any(), any()))
+                .willReturn(new CardPaymentCharge(false));
+        RoutingCardPaymentCharger underTest = routing(List.of(backendA), new RetryBudget(0.1, 10));
+
+        // When
+        CardPaymentCharge charge = charge(underTest);
+
+        // Then
+        assertThat(charge.isCardDebited()).isFalse();
+        then(backendA).should(times(1)).chargeCard(anyString(), any(), any(), any(), any());
+    }
+
+    @Test
+    void itShouldStopRetryingWhenTheBudgetIsSpent() {
+        // Given
+        given(backendA.chargeCard(anyString(), any(), any(), any(), any()))
+                .willThrow(new TransientCardGatewayException("Cannot make Stripe charge"));
+        RoutingCardPaymentCharger underTest = routing(List.of(backendA), new RetryBudget(0, 0));
+
+        // When
+        // Then
+        assertThatThrownBy(() -> charge(underTest))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessage("Cannot make Stripe charge");
+        then(backendA).should(times(1)).chargeCard(anyString(), any(), any(), any(), any());
+        assertThat(stageMetrics.report().getCounters()).containsEntry("gateway.retry-budget-exhausted", 1L);
+    }
+
+    @Test
+    void itShouldHedgeAChargeSlowerThanRecentChargesOnAnotherBackend() {
+        // Given
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> keys = new CopyOnWriteArrayList<>();
+        List<Object> backends = new CopyOnWriteArrayList<>();
+        AtomicReference<IdempotentCardPaymentCharger> slowBackend = new AtomicReference<>();
+        Answer<CardPaymentCharge> answer = invocation -> {
+            int call = calls.incrementAndGet();
+            if (call <= 100) {
+                return new CardPaymentCharge(true, "ch_" + call);
+            }
+            keys.add(invocation.getArgument(0));
+            backends.add(invocation.getMock());
+            if (call == 101) {
+                slowBackend.set((IdempotentCardPaymentCharger) invocation.getMock());
+                release.await(5, TimeUnit.SECONDS);
+                return new CardPaymentCharge(true, "ch_slow");
+            }
+            return new CardPaymentCharge(true, "ch_hedge");
+        };
+        given(backendA.chargeCard(anyString(), any(), any(), any(), any())).willAnswer(answer);
+        given(backendB.chargeCard(anyString(), any(), any(), any(), any())).willAnswer(answer);
+        RoutingCardPaymentCharger underTest = routing(List.of(backendA, backendB), new RetryBudget(0.1, 10));
+        for (int i = 0; i < 100; i++) {
+            charge(underTest);
+        }
+        now += TimeUnit.SECONDS.toNanos(1);
+        underTest.refreshHedgeDelay();
+
+        // When
+        CardPaymentCharge charge = charge(underTest);
+        release.countDown();
+
+        // Then
+        assertThat(charge.getChargeId()).isEqualTo("ch_hedge");
+        assertThat(calls.get()).isEqualTo(102);
+        assertThat(keys).doesNotHaveDuplicates();
+        assertThat(backends).doesNotHaveDuplicates();
+        assertThat(stageMetrics.report().getCounters()).containsEntry("gateway.hedges", 1L);
+        then(slowBackend.get()).should(timeout(5_000))
+                .refund(argThat(refunded -> "ch_slow".equals(refunded.getChargeId())));
+    }
+
+    @Test
+    void itShouldNotHedgeWithASingleBackend() {
+        // Given
+        given(backendA.chargeCard(anyString(), any(), any(), any(), any())).willReturn(new CardPaymentCharge(true));
+        RoutingCardPaymentCharger underTest = routing(List.of(backendA), new RetryBudget(0.1, 10));
+        for (int i = 0; i < 100; i++) {
+            charge(underTest);
+        }
+        now += TimeUnit.SECONDS.toNanos(1);
+        underTest.refreshHedgeDelay();
+
+        // When
+        charge(underTest);
+
+        // Then
+        then(backendA).should(times(101)).chargeCard(anyString(), any(), any(), any(), any());
+        assertThat(stageMetrics.report().getCounters()).containsEntry("gateway.hedges", 0L);
+    }
+
+    @Test
+    void itShouldFailFastWhenTheQueueIsFull() throws Exception {
+        // Given
+        executor.shutdownNow();
+        executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS, new ArrayBlockingQueue<>(1));
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        given(backendA.chargeCard(anyString(), any(), any(), any(), any())).willAnswer(invocation -> {
+            started.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return new CardPaymentCharge(true);
+        });
+        RoutingCardPaymentCharger underTest = routing(List.of(backendA), new RetryBudget(0.1, 10));
+        ExecutorService callers = Executors.newFixedThreadPool(2);
+        try {
+            Future<CardPaymentCharge> running = callers.submit(() -> charge(underTest));
+            assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+            Future<CardPaymentCharge> queued = callers.submit(() -> charge(underTest));
+            while (((ThreadPoolExecutor) executor).getQueue().isEmpty()) {
+                Thread.sleep(1);
+            }
+
+            // When
+            // Then
+            assertThatThrownBy(() -> charge(underTest))
+                    .isInstanceOf(ResponseStatusException.class)
+                    .hasMessageContaining("saturated");
+            release.countDown();
+            assertThat(running.get(5, TimeUnit.SECONDS).isCardDebited()).isTrue();
+            assertThat(queued.get(5, TimeUnit.SECONDS).isCardDebited()).isTrue();
+        } finally {
+            callers.shutdownNow();
+        }
+    }
+
+    private RoutingCardPaymentCharger routing(List<IdempotentCardPaymentCharger> backends, RetryBudget retryBudget) {
+        return new RoutingCardPaymentCharger(
+                backends,
+                RoutingCardPaymentCharger.Balancer.LEAST_OUTSTANDING,
+                95,
+                1,
+                3,
+                1,
+                10,
+                retryBudget,
+                executor,
+                () -> now,
+                stageMetrics);
+    }
+
+    private static CardPaymentCharge charge(RoutingCardPaymentCharger underTest) {
+        return underTest.chargeCard("card", AMOUNT, Currency.GBP, "Food");
+    }
+}
@@ -0,0 +1,132 @@
+package com.amigoscode.testing.payment.shard;
+
+import com.amigoscode.testing.customer.Customer;
+import com.amigoscode.testing.payment.Payment;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import static com.amigoscode.testing.payment.shard.ShardedPaymentRepositoryTest.insert;
+import static com.amigoscode.testing.payment.shard.ShardedPaymentRepositoryTest.payment;
+import static com.amigoscode.testing.payment.shard.ShardedPaymentRepositoryTest.shardDataSources;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ShardRebalancerTest {
+
+    private List<DataSource> dataSources;
+    private PaymentShards shards;
+    private ShardedPaymentRepository repository;
+    private ShardRebalancer underTest;
+
+    @BeforeEach
+    void setUp() {
+        dataSources = shardDataSources(3);
+        // two shards in use and a third one added but still empty
+        shards = new PaymentShards(dataSources, 2);
+        repository = new ShardedPaymentRepository(shards, new AtomicLong()::incrementAndGet);
+        underTest = new ShardRebalancer(shards, 7);
+    }
+
+    @Test
+    void itShouldMoveOnlyTheBucketsTheNewShardNeeds() {
+        // Given
+        List<Payment> payments = insertPayments(500);
+        // When
+        ShardRebalancer.RebalanceResult result = underTest.rebalance(3);
+        // Then
+        assertThat(shards.bucketCounts()).containsExactly(342, 341, 341);
+        assertThat(result.getMovedBuckets()).isEqualTo(341);
+        assertThat(countPayments(2)).isEqualTo(result.getMovedPayments()).isPositive();
+        assertThat(countPayments(0) + countPayments(1) + countPayments(2)).isEqualTo(500);
+        for (Payment payment : payments) {
+            assertThat(repository.findById(payment.getPaymentId())).contains(payment);
+        }
+    }
+
+    @Test
+    void itShouldKeepCustomersTogetherAfterMoving() {
+        // Given
+        UUID customerId = UUID.randomUUID();
+        for (int i = 0; i < 20; i++) {
+            insert(repository, payment(customerId, "5.00"));
+        }
+        // When
+        underTest.rebalance(3);
+        // Then
+        assertThat(repository.findByCustomerId(customerId, 100)).hasSize(20);
+    }
+
+    @Test
+    void itShouldMoveCustomersWithTheirPayments() {
+        // Given
+        ShardedCustomerRepository customers = new ShardedCustomerRepository(shards);
+        List<Customer> registered = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            registered.add(new Customer(UUID.randomUUID(), "Tara", "+44700000" + (1000 + i)));
+        }
+        customers.insertAll(registered);
+        // When
+        underTest.rebalance(3);
+        // Then
+        List<UUID> ids = registered.stream().map(Customer::getId).collect(Collectors.toList());
+        assertThat(customers.findAllById(ids))
+                .usingFieldByFieldElementComparator()
+                .containsExactlyInAnyOrderElementsOf(registered);
+        assertThat(countRows(0, "customer") + countRows(1, "customer") + countRows(2, "customer")).isEqualTo(50);
+        assertThat(countRows(2, "customer")).isPositive();
+    }
+
+    @Test
+    void itShouldDrainShardsWhenShrinking() {
+        // Given
+        underTest.rebalance(3);
+        insertPayments(200);
+        // When
+        underTest.rebalance(1);
+        // Then
+        assertThat(shards.bucketCounts()).containsExactly(1024, 0, 0);
+        assertThat(countPayments(0)).isEqualTo(200);
+        assertThat(countPayments(1)).isZero();
+        assertThat(countPayments(2)).isZero();
+    }
+
+    @Test
+    void itShouldMoveNothingWhenAlreadyBalanced() {
+        // When
+        ShardRebalancer.RebalanceResult result = underTest.rebalance(2);
+        // Then
+        assertThat(result.getMovedBuckets()).isZero();
+    }
+
+    @Test
+    void itShouldRejectMoreShardsThanConfigured() {
+        // When
+        // Then
+        assertThatThrownBy(() -> underTest.rebalance(4))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private List<Payment> insertPayments(int count) {
+        List<Payment> payments = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            payments.add(insert(repository, payment(UUID.randomUUID(), "1.00")));
+        }
+        return payments;
+    }
+
+    private long countPayments(int shard) {
+        return countRows(shard, "payment");
+    }
+
+    private long countRows(int shard, String table) {
+        return new JdbcTemplate(dataSources.get(shard)).queryForObject("select count(*) from " + table, Long.class);
+    }
+}
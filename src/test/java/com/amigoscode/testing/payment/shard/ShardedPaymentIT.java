@@ -0,0 +1,80 @@
+package com.amigoscode.testing.payment.shard;
+
+import com.amigoscode.testing.customer.Customer;
+import com.amigoscode.testing.customer.RegistrationRequest;
+import com.amigoscode.testing.payment.Currency;
+import com.amigoscode.testing.payment.Payment;
+import com.amigoscode.testing.payment.PaymentRepository;
+import com.amigoscode.testing.payment.PaymentRequest;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.math.BigDecimal;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest(properties = {"payment.sharding.enabled=true", "payment.sharding.shards=2"})
+@AutoConfigureMockMvc
+class ShardedPaymentIT {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private PaymentRepository paymentRepository;
+
+    @Autowired
+    private ShardedCustomerRepository shardedCustomerRepository;
+
+    @Test
+    void itShouldChargeAndReadPaymentsOnTheCustomersShard() throws Exception {
+        // Given
+        UUID customerId = UUID.randomUUID();
+        mockMvc.perform(put("/api/v1/customer-registration")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(new RegistrationRequest(
+                                new Customer(customerId, "Tara", "+447000000002")))))
+                .andExpect(status().isOk());
+        // When
+        String charged = mockMvc.perform(post("/api/v1/payment")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(new PaymentRequest(new Payment(
+                                null, customerId, new BigDecimal("40.00"), Currency.GBP, "x0x0x0x0x0", "Food")))))
+                .andExpect(status().isOk())
+                .andReturn()
+                .getResponse()
+                .getContentAsString();
+        long paymentId = objectMapper.readValue(charged, Payment.class).getPaymentId();
+        // Then
+        assertThat(shardedCustomerRepository.findById(customerId)).isPresent();
+        assertThat(PaymentShards.bucketOfPaymentId(paymentId)).isEqualTo(PaymentShards.bucketOf(customerId));
+        assertThat(paymentRepository.findById(paymentId)).isEmpty();
+        mockMvc.perform(get("/api/v1/payment/{id}", paymentId))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.customerId").value(customerId.toString()));
+        mockMvc.perform(get("/api/v1/customer/{id}/payments", customerId))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.payments.length()").value(1))
+                .andExpect(jsonPath("$.payments[0].paymentId").value(paymentId));
+        mockMvc.perform(post("/api/v1/customer/spend/rebuild"))
+                .andExpect(status().isOk());
+        mockMvc.perform(get("/api/v1/customer/{id}/spend", customerId))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].total").value(40.0))
+                .andExpect(jsonPath("$[0].paymentCount").value(1));
+    }
+}
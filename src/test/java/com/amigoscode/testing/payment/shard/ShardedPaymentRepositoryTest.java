@@ -0,0 +1,209 @@
+package com.amigoscode.testing.payment.shard;
+
+import com.amigoscode.testing.customer.Customer;
+import com.amigoscode.testing.payment.Currency;
+import com.amigoscode.testing.payment.Payment;
+import com.amigoscode.testing.payment.PaymentStatus;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import javax.sql.DataSource;
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ShardedPaymentRepositoryTest {
+
+    private List<DataSource> dataSources;
+    private PaymentShards shards;
+    private ShardedPaymentRepository underTest;
+
+    @BeforeEach
+    void setUp() {
+        dataSources = shardDataSources(3);
+        shards = new PaymentShards(dataSources, 3);
+        underTest = new ShardedPaymentRepository(shards, new AtomicLong()::incrementAndGet);
+    }
+
+    @Test
+    void itShouldKeepAllPaymentsOfACustomerOnOneShard() {
+        // Given
+        UUID customerId = UUID.randomUUID();
+        // When
+        for (int i = 0; i < 5; i++) {
+            insert(underTest, payment(customerId, "10.00"));
+        }
+        // Then
+        int shard = shards.shardOf(PaymentShards.bucketOf(customerId));
+        for (int i = 0; i < dataSources.size(); i++) {
+            assertThat(countPayments(i)).isEqualTo(i == shard ? 5 : 0);
+        }
+        assertThat(underTest.findByCustomerId(customerId, 10)).hasSize(5);
+    }
+
+    @Test
+    void itShouldRouteLookupsByTheBucketInThePaymentId() {
+        // Given
+        UUID customerId = UUID.randomUUID();
+        Payment payment = insert(underTest, payment(customerId, "42.00"));
+        // When
+        // Then
+        assertThat(PaymentShards.bucketOfPaymentId(payment.getPaymentId()))
+                .isEqualTo(PaymentShards.bucketOf(customerId));
+        assertThat(underTest.findById(payment.getPaymentId())).contains(payment);
+        assertThat(underTest.findById(payment.getPaymentId() + PaymentShards.BUCKETS)).isEmpty();
+    }
+
+    @Test
+    void itShouldReturnCustomerPaymentsNewestFirst() {
+        // Given
+        UUID customerId = UUID.randomUUID();
+        Payment first = insert(underTest, payment(customerId, "1.00"));
+        Payment second = insert(underTest, payment(customerId, "2.00"));
+        insert(underTest, payment(UUID.randomUUID(), "3.00"));
+        // When
+        List<Payment> payments = underTest.findByCustomerId(customerId, 10);
+        // Then
+        assertThat(payments).containsExactly(second, first);
+    }
+
+    @Test
+    void itShouldSpreadCustomersOverEveryShard() {
+        // When
+        for (int i = 0; i < 300; i++) {
+            insert(underTest, payment(UUID.randomUUID(), "1.00"));
+        }
+        // Then
+        for (int i = 0; i < dataSources.size(); i++) {
+            assertThat(countPayments(i)).isBetween(50, 150);
+        }
+    }
+
+    @Test
+    void itShouldKeepCustomersOnTheShardOfTheirPayments() {
+        // Given
+        ShardedCustomerRepository customers = new ShardedCustomerRepository(shards);
+        Customer customer = new Customer(UUID.randomUUID(), "Tara", "+447000000000");
+        customers.insertAll(List.of(customer));
+        // When
+        insert(underTest, payment(customer.getId(), "10.00"));
+        // Then
+        int shard = shards.shardOf(PaymentShards.bucketOf(customer.getId()));
+        assertThat(new JdbcTemplate(dataSources.get(shard)).queryForObject("select count(*) from customer", Integer.class))
+                .isEqualTo(1);
+        assertThat(customers.findById(customer.getId())).get().isEqualToComparingFieldByField(customer);
+        assertThat(customers.findById(UUID.randomUUID())).isEmpty();
+    }
+
+    @Test
+    void itShouldDeleteAPartlyInsertedBatch() {
+        // Given
+        List<Payment> batch = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            batch.add(payment(UUID.randomUUID(), "2.00"));
+        }
+        // in the last bucket, so every other bucket is written before it fails
+        UUID lastBucketCustomerId;
+        do {
+            lastBucketCustomerId = UUID.randomUUID();
+        } while (PaymentShards.bucketOf(lastBucketCustomerId) != PaymentShards.BUCKETS - 1);
+        Payment tooLong = payment(lastBucketCustomerId, "3.00");
+        tooLong.setDescription("x".repeat(300));
+        batch.add(tooLong);
+        batch.forEach(payment -> payment.setPaymentId(underTest.nextPaymentId(payment.getCustomerId())));
+        // When
+        assertThatThrownBy(() -> underTest.insertAll(batch))
+                .isInstanceOf(DataAccessException.class);
+        // Then
+        for (int i = 0; i < dataSources.size(); i++) {
+            assertThat(countPayments(i)).isZero();
+        }
+    }
+
+    @Test
+    void itShouldKeepTheBucketMapAcrossRestarts() {
+        // Given
+        new ShardRebalancer(shards, 100).rebalance(2);
+        shards.close();
+        // When
+        PaymentShards restarted = new PaymentShards(dataSources, 3);
+        // Then
+        assertThat(restarted.bucketCounts()).containsExactly(512, 512, 0);
+    }
+
+    @Test
+    void itShouldNotLetASecondInstanceUseTheShards() {
+        // When
+        // Then
+        assertThatThrownBy(() -> new PaymentShards(dataSources, 3))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("in use by another instance");
+    }
+
+    @Test
+    void itShouldLetAnotherInstanceTakeOverAnExpiredLease() throws InterruptedException {
+        // Given
+        List<DataSource> dataSources = shardDataSources(2);
+        PaymentShards first = new PaymentShards(dataSources, 2, 200);
+        ShardedPaymentRepository firstRepository = new ShardedPaymentRepository(first, new AtomicLong()::incrementAndGet);
+        // the first instance hangs and stops renewing
+        new JdbcTemplate(dataSources.get(0)).update("update payment_shard_owner set lease_until = ?",
+                Timestamp.from(Instant.now().minusSeconds(1)));
+        // When
+        PaymentShards second = new PaymentShards(dataSources, 2, 200);
+        Thread.sleep(400);
+        // Then
+        assertThat(second.bucketCounts()).containsExactly(512, 512);
+        assertThatThrownBy(() -> firstRepository.findById(1L))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("does not hold the lease");
+        second.close();
+    }
+
+    @Test
+    void itShouldRejectMoreActiveShardsThanDataSources() {
+        // When
+        // Then
+        assertThatThrownBy(() -> new PaymentShards(shardDataSources(2), 3))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private int countPayments(int shard) {
+        return new JdbcTemplate(dataSources.get(shard)).queryForObject("select count(*) from payment", Integer.class);
+    }
+
+    static List<DataSource> shardDataSources(int count) {
+        String name = UUID.randomUUID().toString();
+        List<DataSource> dataSources = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            dataSources.add(new DriverManagerDataSource(
+                    String.format("jdbc:h2:mem:%s-%d;DB_CLOSE_DELAY=-1", name, i), "sa", ""));
+        }
+        return dataSources;
+    }
+
+    /**
+     * Inserts the payment with a new id, which is set on it.
+     */
+    static Payment insert(ShardedPaymentRepository repository, Payment payment) {
+        payment.setPaymentId(repository.nextPaymentId(payment.getCustomerId()));
+        repository.insertAll(List.of(payment));
+        return payment;
+    }
+
+    static Payment payment(UUID customerId, String amount) {
+        Payment payment = new Payment(null, customerId, new BigDecimal(amount), Currency.GBP, "card123xx", "Donation");
+        payment.setStatus(PaymentStatus.SUCCEEDED);
+        return payment;
+    }
+}
@@ -0,0 +1,177 @@
+package com.amigoscode.testing.payment.stripe;
+
+import com.amigoscode.testing.payment.CardPaymentCharge;
+import com.amigoscode.testing.payment.Currency;
+import com.amigoscode.testing.payment.TransientCardGatewayException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.stripe.exception.StripeException;
+import com.stripe.model.Charge;
+import com.stripe.net.RequestOptions;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.then;
+import static org.mockito.Mockito.mock;
+
+class AsyncStripeServiceTest {
+
+    private HttpServer server;
+    private AsyncStripeService underTest;
+
+    private final AtomicReference<String> requestBody = new AtomicReference<>();
+    private final AtomicReference<String> authorization = new AtomicReference<>();
+    private volatile int responseStatus = 200;
+    private volatile String responseBody = "{\"paid\":true}";
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/v1/charges", exchange -> {
+            requestBody.set(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+            authorization.set(exchange.getRequestHeaders().getFirst("Authorization"));
+            byte[] body = responseBody.getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(responseStatus, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+
+        underTest = new AsyncStripeService(
+                HttpClient.newHttpClient(),
+                new ObjectMapper(),
+                URI.create("http://localhost:" + server.getAddress().getPort() + "/v1/charges"),
+                Duration.ofSeconds(5),
+                account("sk_test_key"));
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    void itShouldChargeCard() {
+        // When
+        CardPaymentCharge charge = underTest
+                .chargeCard("0x0x0x", new BigDecimal("10.00"), Currency.USD, "Dukat")
+                .join();
+        // Then
+        assertThat(charge.isCardDebited()).isTrue();
+        assertThat(requestBody.get())
+                .contains("amount=1000")
+                .contains("currency=usd")
+                .contains("source=0x0x0x")
+                .contains("description=Dukat");
+        assertThat(authorization.get()).isEqualTo("Bearer sk_test_key");
+    }
+
+    @Test
+    void itShouldNotDebitWhenChargeIsNotPaid() {
+        // Given
+        responseBody = "{\"paid\":false}";
+        // When
+        CardPaymentCharge charge = underTest
+                .chargeCard("0x0x0x", new BigDecimal("10.00"), Currency.USD, "Dukat")
+                .join();
+        // Then
+        assertThat(charge.isCardDebited()).isFalse();
+    }
+
+    @Test
+    void itShouldNotDebitWhenTheCardIsDeclined() {
+        // Given
+        responseStatus = 402;
+        responseBody = "{\"error\":{\"type\":\"card_error\",\"code\":\"card_declined\",\"charge\":\"ch_2\"}}";
+        // When
+        CardPaymentCharge charge = underTest
+                .chargeCard("0x0x0x", new BigDecimal("10.00"), Currency.USD, "Dukat")
+                .join();
+        // Then
+        assertThat(charge.isCardDebited()).isFalse();
+        assertThat(charge.getChargeId()).isEqualTo("ch_2");
+    }
+
+    @Test
+    void itShouldReportServerErrorsAsTransient() {
+        // Given
+        responseStatus = 503;
+        responseBody = "{\"error\":{\"type\":\"api_error\"}}";
+        // Then
+        assertThatThrownBy(() -> underTest
+                .chargeCard("0x0x0x", new BigDecimal("10.00"), Currency.USD, "Dukat")
+                .join())
+                .isInstanceOf(CompletionException.class)
+                .hasCauseInstanceOf(TransientCardGatewayException.class);
+    }
+
+    @Test
+    void itShouldFailWhenStripeRejectsTheRequest() {
+        // Given
+        responseStatus = 400;
+        responseBody = "{\"error\":{\"type\":\"invalid_request_error\"}}";
+        // Then
+        assertThatThrownBy(() -> underTest
+                .chargeCard("0x0x0x", new BigDecimal("10.00"), Currency.USD, "Dukat")
+                .join())
+                .isInstanceOf(CompletionException.class)
+                .hasCauseExactlyInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void itShouldSendTheSameAmountAsTheSyncClient() throws StripeException {
+        // Given
+        StripeApi stripeApi = mock(StripeApi.class);
+        Charge paid = new Charge();
+        paid.setPaid(true);
+        given(stripeApi.create(anyMap(), any())).willReturn(paid);
+        StripeService stripeService = new StripeService(stripeApi, RequestOptions.builder().setApiKey("sk_test_key").build());
+        BigDecimal amount = new BigDecimal("12.34");
+        // When
+        underTest.chargeCard("0x0x0x", amount, Currency.GBP, "Dukat").join();
+        stripeService.chargeCard("0x0x0x", amount, Currency.GBP, "Dukat");
+        // Then
+        ArgumentCaptor<Map<String, Object>> params = ArgumentCaptor.forClass(Map.class);
+        then(stripeApi).should().create(params.capture(), any());
+        assertThat(requestBody.get())
+                .contains("amount=" + params.getValue().get("amount"))
+                .contains("currency=" + params.getValue().get("currency"));
+        assertThat(params.getValue().get("amount")).isEqualTo(1234L);
+    }
+
+    @Test
+    void itShouldNotStartWithoutAnApiKey() {
+        // Then
+        assertThatThrownBy(() -> new AsyncStripeService(
+                HttpClient.newHttpClient(), new ObjectMapper(), URI.create("http://localhost"), Duration.ofSeconds(5), account(null)))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("has no api-key");
+    }
+
+    private static StripeAccount account(String apiKey) {
+        StripeAccount account = new StripeAccount();
+        account.setName("default");
+        account.setApiKey(apiKey);
+        return account;
+    }
+}
@@ -0,0 +1,178 @@
+package com.amigoscode.testing.payment.stripe;
+
+import com.amigoscode.testing.payment.CardPaymentCharge;
+import com.amigoscode.testing.payment.stripe.GatewaySimulator.Latency;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class GatewaySimulatorTest {
+
+    private final Random random = new Random(42);
+
+    private GatewaySimulator underTest;
+
+    @AfterEach
+    void tearDown() {
+        if (underTest != null) {
+            underTest.shutdown();
+        }
+    }
+
+    @Test
+    void itShouldChargeSuccessfullyByDefault() {
+        // Given
+        underTest = simulator(Latency.NONE, 0, 0, 0, 0, 0);
+
+        // When
+        CardPaymentCharge charge = underTest.charge();
+
+        // Then
+        assertThat(charge.isCardDebited()).isTrue();
+        assertThat(underTest.sampleLatencyNanos()).isZero();
+    }
+
+    @Test
+    void itShouldSampleFixedLatency() {
+        // Given
+        underTest = simulator(Latency.FIXED, 25, 0, 0, 0, 0);
+
+        // When
+        long nanos = underTest.sampleLatencyNanos();
+
+        // Then
+        assertThat(nanos).isEqualTo(TimeUnit.MILLISECONDS.toNanos(25));
+    }
+
+    @Test
+    void itShouldSampleNormalLatencyAroundTheMean() {
+        // Given
+        underTest = simulator(Latency.NORMAL, 100, 10, 0, 0, 0);
+
+        // When
+        double mean = IntStream.range(0, 10_000)
+                .mapToLong(i -> underTest.sampleLatencyNanos())
+                .average()
+                .getAsDouble();
+
+        // Then
+        assertThat(mean).isBetween(99e6, 101e6);
+    }
+
+    @Test
+    void itShouldSampleParetoLatencyWithALongTail() {
+        // Given
+        underTest = simulator(Latency.PARETO, 10, 0, 0, 0, 0);
+
+        // When
+        long[] samples = IntStream.range(0, 10_000)
+                .mapToLong(i -> underTest.sampleLatencyNanos())
+                .sorted()
+                .toArray();
+
+        // Then
+        long min = TimeUnit.MILLISECONDS.toNanos(10);
+        assertThat(samples[0]).isGreaterThanOrEqualTo(min);
+        assertThat(samples[samples.length / 2]).isLessThan(2 * min);
+        assertThat(samples[samples.length - 10]).isGreaterThan(10 * min);
+    }
+
+    @Test
+    void itShouldCapLatency() {
+        // Given
+        underTest = new GatewaySimulator(Latency.PARETO, 10, 0, 0.1, 50, 0, 0, 0, () -> random);
+
+        // When
+        long max = IntStream.range(0, 1_000)
+                .mapToLong(i -> underTest.sampleLatencyNanos())
+                .max()
+                .getAsLong();
+
+        // Then
+        assertThat(max).isEqualTo(TimeUnit.MILLISECONDS.toNanos(50));
+    }
+
+    @Test
+    void itShouldDeclineAndFailAtTheConfiguredRates() {
+        // Given
+        underTest = simulator(Latency.NONE, 0, 0, 0.2, 0.1, 0);
+
+        // When
+        int declined = 0;
+        int failed = 0;
+        for (int i = 0; i < 10_000; i++) {
+            try {
+                if (!underTest.charge().isCardDebited()) {
+                    declined++;
+                }
+            } catch (IllegalStateException e) {
+                failed++;
+            }
+        }
+
+        // Then
+        assertThat(declined).isBetween(1_800, 2_200);
+        assertThat(failed).isBetween(850, 1_150);
+    }
+
+    @Test
+    void itShouldRejectChargesOverTheConcurrencyLimit() {
+        // Given
+        underTest = simulator(Latency.FIXED, 5_000, 0, 0, 0, 1);
+        CompletableFuture<CardPaymentCharge> first = underTest.chargeAsync();
+
+        // When
+        CompletableFuture<CardPaymentCharge> second = underTest.chargeAsync();
+
+        // Then
+        assertThat(first).isNotDone();
+        assertThat(underTest.inFlight()).isEqualTo(1);
+        assertThatThrownBy(second::join)
+                .isInstanceOf(CompletionException.class)
+                .hasCauseInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("concurrency limit");
+        assertThatThrownBy(() -> underTest.charge())
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("concurrency limit");
+    }
+
+    @Test
+    void itShouldCompleteAsyncChargeAfterLatency() {
+        // Given
+        underTest = simulator(Latency.FIXED, 20, 0, 0, 0, 1);
+
+        // When
+        long start = System.nanoTime();
+        CardPaymentCharge charge = underTest.chargeAsync().join();
+
+        // Then
+        assertThat(charge.isCardDebited()).isTrue();
+        assertThat(System.nanoTime() - start).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(20));
+        assertThat(underTest.inFlight()).isZero();
+    }
+
+    @Test
+    void itShouldThrowWhenRatesExceedOne() {
+        assertThatThrownBy(() -> simulator(Latency.NONE, 0, 0, 0.6, 0.5, 0))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("must be within [0, 1]");
+    }
+
+    private GatewaySimulator simulator(Latency latency,
+                                       double latencyMillis,
+                                       double stddevMillis,
+                                       double declineRate,
+                                       double errorRate,
+                                       int maxConcurrent) {
+        return new GatewaySimulator(latency, latencyMillis, stddevMillis, 1.5, 30_000,
+                declineRate, errorRate, maxConcurrent, () -> random);
+    }
+}
@@ -0,0 +1,50 @@
+package com.amigoscode.testing.payment.stripe;
+
+import com.stripe.net.RequestOptions;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class StripeConfigurationTest {
+
+    @Test
+    void itShouldGiveEveryAccountItsOwnRequestOptions() {
+        // Given
+        MockEnvironment environment = new MockEnvironment()
+                .withProperty("stripe.accounts[0].name", "eu")
+                .withProperty("stripe.accounts[0].api-key", "sk_test_eu")
+                .withProperty("stripe.accounts[1].name", "us")
+                .withProperty("stripe.accounts[1].api-key", "sk_test_us")
+                .withProperty("stripe.accounts[1].stripe-account", "acct_1")
+                .withProperty("stripe.accounts[1].read-timeout-ms", "5000");
+        // When
+        List<StripeAccount> accounts = StripeConfiguration.accounts(environment);
+        // Then
+        assertThat(accounts).extracting(StripeAccount::getName).containsExactly("eu", "us");
+        RequestOptions eu = accounts.get(0).toRequestOptions(2000, 10000);
+        RequestOptions us = accounts.get(1).toRequestOptions(2000, 10000);
+        assertThat(eu.getApiKey()).isEqualTo("sk_test_eu");
+        assertThat(eu.getReadTimeout()).isEqualTo(10000);
+        assertThat(us.getApiKey()).isEqualTo("sk_test_us");
+        assertThat(us.getStripeAccount()).isEqualTo("acct_1");
+        assertThat(us.getReadTimeout()).isEqualTo(5000);
+        assertThat(us.getConnectTimeout()).isEqualTo(2000);
+    }
+
+    @Test
+    void itShouldNotAcceptAnAccountWithoutKey() {
+        // Given
+        MockEnvironment environment = new MockEnvironment()
+                .withProperty("stripe.accounts[0].name", "eu");
+        // When
+        StripeAccount account = StripeConfiguration.accounts(environment).get(0);
+        // Then
+        assertThatThrownBy(() -> account.toRequestOptions(2000, 10000))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("[eu] has no api-key");
+    }
+}
@@ -2,6 +2,11 @@ package com.amigoscode.testing.payment.stripe;
 
 import com.amigoscode.testing.payment.CardPaymentCharge;
 import com.amigoscode.testing.payment.Currency;
+import com.amigoscode.testing.payment.TransientCardGatewayException;
+import com.stripe.exception.ApiConnectionException;
+import com.stripe.exception.ApiException;
+import com.stripe.exception.CardException;
+import com.stripe.exception.InvalidRequestException;
 import com.stripe.exception.StripeException;
 import com.stripe.model.Charge;
 import com.stripe.net.RequestOptions;
@@ -31,7 +36,7 @@ class StripeServiceTest {
     @BeforeEach
     void setUp() {
         MockitoAnnotations.initMocks(this);
-        underTest = new StripeService(stripeApi);
+        underTest = new StripeService(stripeApi, RequestOptions.builder().setApiKey("sk_test_key").build());
     }
 
     @Test
@@ -43,6 +48,7 @@ class StripeServiceTest {
         String description = "Dukat";
 
         Charge charge = new Charge();
+        charge.setId("ch_1");
         charge.setPaid(true);
         given(stripeApi.create(anyMap(), any())).willReturn(charge);
         // When
@@ -60,8 +66,8 @@ class StripeServiceTest {
         assertThat(requestMap.keySet()).hasSize(4);
 
         assertThat(requestMap.get("source")).isEqualTo(cardSource);
-        assertThat(requestMap.get("amount")).isEqualTo(amount);
-        assertThat(requestMap.get("currency")).isEqualTo(currency);
+        assertThat(requestMap.get("amount")).isEqualTo(1000L);
+        assertThat(requestMap.get("currency")).isEqualTo("usd");
         assertThat(requestMap.get("description")).isEqualTo(description);
 
         assertThat(optionsArgumentCaptor.getValue())
@@ -73,6 +79,7 @@ class StripeServiceTest {
         assertThat(paymentCharge.isCardDebited())
                 .as("The card should have debited")
                 .isTrue();
+        assertThat(paymentCharge.getChargeId()).isEqualTo("ch_1");
 
     }
 
@@ -93,16 +100,47 @@ class StripeServiceTest {
                 .isInstanceOf(IllegalStateException.class);
 
     }
-}
-
-
-
-
-
-
-
-
-
 
+    @Test
+    void itShouldNotDebitWhenTheCardIsDeclined() throws StripeException {
+        // Given
+        given(stripeApi.create(anyMap(), any()))
+                .willThrow(new CardException("Your card was declined", "req_1", "card_declined", null, "generic_decline", "ch_2", 402, null));
+        // When
+        CardPaymentCharge paymentCharge = underTest.chargeCard("0x0x0x", BigDecimal.TEN, Currency.USD, "Dukat");
+        // Then
+        assertThat(paymentCharge.isCardDebited()).isFalse();
+        assertThat(paymentCharge.getChargeId()).isEqualTo("ch_2");
+    }
 
+    @Test
+    void itShouldReportConnectionFailuresAndServerErrorsAsTransient() throws StripeException {
+        // Given
+        given(stripeApi.create(anyMap(), any()))
+                .willThrow(new ApiConnectionException("Connection reset"))
+                .willThrow(new ApiException("Internal error", "req_1", null, 500, null))
+                .willThrow(new InvalidRequestException("No such token", null, "req_2", null, 400, null));
+        // When
+        // Then
+        assertThatThrownBy(() -> underTest.chargeCard("key", "0x0x0x", BigDecimal.TEN, Currency.USD, "Dukat"))
+                .isInstanceOf(TransientCardGatewayException.class);
+        assertThatThrownBy(() -> underTest.chargeCard("key", "0x0x0x", BigDecimal.TEN, Currency.USD, "Dukat"))
+                .isInstanceOf(TransientCardGatewayException.class);
+        assertThatThrownBy(() -> underTest.chargeCard("key", "0x0x0x", BigDecimal.TEN, Currency.USD, "Dukat"))
+                .isInstanceOf(IllegalStateException.class)
+                .isNotInstanceOf(TransientCardGatewayException.class);
+    }
 
+    @Test
+    void itShouldRefundAChargeById() throws StripeException {
+        // When
+        underTest.refund(new CardPaymentCharge(true, "ch_1"));
+        // Then
+        ArgumentCaptor<Map<String, Object>> params = ArgumentCaptor.forClass(Map.class);
+        ArgumentCaptor<RequestOptions> options = ArgumentCaptor.forClass(RequestOptions.class);
+        then(stripeApi).should().refund(params.capture(), options.capture());
+        assertThat(params.getValue()).containsEntry("charge", "ch_1");
+        assertThat(options.getValue().getApiKey()).isEqualTo("sk_test_key");
+        assertThat(options.getValue().getIdempotencyKey()).isEqualTo("refund-ch_1");
+    }
+}
@@ -0,0 +1,123 @@
+package com.amigoscode.testing.utils;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class OffHeapUuidSetTest {
+
+    private OffHeapUuidSet underTest;
+
+    @BeforeEach
+    void setUp() {
+        underTest = new OffHeapUuidSet(4);
+    }
+
+    @Test
+    void itShouldContainAddedIds() {
+        // Given
+        UUID id = UUID.randomUUID();
+        // When
+        boolean added = underTest.add(id);
+        // Then
+        assertThat(added).isTrue();
+        assertThat(underTest.contains(id)).isTrue();
+        assertThat(underTest.contains(UUID.randomUUID())).isFalse();
+    }
+
+    @Test
+    void itShouldNotAddTheSameIdTwice() {
+        // Given
+        UUID id = UUID.randomUUID();
+        underTest.add(id);
+        // When
+        boolean added = underTest.add(new UUID(id.getMostSignificantBits(), id.getLeastSignificantBits()));
+        // Then
+        assertThat(added).isFalse();
+        assertThat(underTest.size()).isEqualTo(1);
+    }
+
+    @Test
+    void itShouldKeepAllIdsWhenGrowing() {
+        // Given
+        List<UUID> ids = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            ids.add(UUID.randomUUID());
+        }
+        // When
+        ids.forEach(underTest::add);
+        // Then
+        assertThat(underTest.size()).isEqualTo(ids.size());
+        assertThat(ids).allMatch(underTest::contains);
+    }
+
+    @Test
+    void itShouldAnswerLookupsWhileGrowing() {
+        // Given
+        UUID known = UUID.randomUUID();
+        underTest.add(known);
+        AtomicBoolean growing = new AtomicBoolean(true);
+        CompletableFuture<Void> reader = CompletableFuture.runAsync(() -> {
+            while (growing.get()) {
+                assertThat(underTest.contains(known)).isTrue();
+                underTest.contains(UUID.randomUUID());
+            }
+        });
+        // When
+        for (int i = 0; i < 200_000; i++) {
+            underTest.add(UUID.randomUUID());
+        }
+        growing.set(false);
+        // Then
+        reader.join();
+        assertThat(underTest.size()).isEqualTo(200_001);
+    }
+
+    @Test
+    void itShouldRefuseNewIdsOnceFullAndKeepTheOnesItHas() {
+        // Given
+        underTest = new OffHeapUuidSet(4, 16);
+        List<UUID> ids = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            ids.add(UUID.randomUUID());
+        }
+        // When
+        List<UUID> added = new ArrayList<>();
+        for (UUID id : ids) {
+            if (underTest.add(id)) {
+                added.add(id);
+            }
+        }
+        // Then
+        assertThat(underTest.isFull()).isTrue();
+        assertThat(added).hasSize(11).isEqualTo(ids.subList(0, 11));
+        assertThat(underTest.size()).isEqualTo(11);
+        assertThat(ids.subList(0, 11)).allMatch(underTest::contains);
+        assertThat(ids.subList(11, 20)).noneMatch(underTest::contains);
+        assertThat(underTest.add(ids.get(0))).isFalse();
+    }
+
+    @Test
+    void itShouldHandleTheZeroId() {
+        // Given
+        UUID zero = new UUID(0, 0);
+        assertThat(underTest.contains(zero)).isFalse();
+        // When
+        underTest.add(zero);
+        // Then
+        assertThat(underTest.contains(zero)).isTrue();
+        assertThat(underTest.size()).isEqualTo(1);
+    }
+
+    @Test
+    void itShouldNotContainNull() {
+        assertThat(underTest.contains(null)).isFalse();
+    }
+}
@@ -20,9 +20,16 @@ class PhoneNumberValidatorTest {
     @ParameterizedTest
     @CsvSource({
             "+447000000000,true,The valid phone number is failing validation",
-            "+437000000000,false,Only UK area code should be allow",
+            "+14155552671,true,North American numbers should be allowed",
+            "+4915123456789,true,German numbers should be allowed",
+            "+353861234567,true,Three digit country codes should be allowed",
+            "+44 (7000) 000-000,true,Spaces dashes and brackets should be ignored",
+            "+2807000000,false,Unassigned country codes should not be allowed",
+            "+1415555267,false,North American numbers should have 10 digits after the country code",
             "+4470,false,Phone number should have 12 digits",
-            "4470000000000,false,Phone number should include +"
+            "+4470000000000000,false,Phone number should have at most 15 digits",
+            "4470000000000,false,Phone number should include +",
+            "+44700000000a,false,Phone number should only have digits"
     })
     @DisplayName("Should allow valid phone numbers")
     void itShouldAllowValidatedPhoneNumber(String phoneNumber, String expected, String reason) {
@@ -34,4 +41,23 @@ class PhoneNumberValidatorTest {
                 .isEqualTo(Boolean.valueOf(expected));
     }
 
+    @Test
+    void itShouldNormalizeEveryWayOfWritingANumberToTheSameKey() {
+        // When
+        long key = PhoneNumberValidator.normalize("+447000000000");
+        // Then
+        assertThat(key).isEqualTo(447000000000L);
+        assertThat(PhoneNumberValidator.normalize("+44 7000 000000")).isEqualTo(key);
+        assertThat(PhoneNumberValidator.normalize("+44-7000-000-000")).isEqualTo(key);
+        assertThat(PhoneNumberValidator.format(key)).isEqualTo("+447000000000");
+    }
+
+    @Test
+    void itShouldNotNormalizeInvalidNumbers() {
+        // When
+        // Then
+        assertThat(PhoneNumberValidator.normalize(null)).isEqualTo(PhoneNumberValidator.INVALID);
+        assertThat(PhoneNumberValidator.normalize("")).isEqualTo(PhoneNumberValidator.INVALID);
+        assertThat(PhoneNumberValidator.normalize("+0447000000000")).isEqualTo(PhoneNumberValidator.INVALID);
+    }
 }
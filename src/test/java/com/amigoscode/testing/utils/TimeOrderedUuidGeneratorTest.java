@@ -0,0 +1,115 @@
+package com.amigoscode.testing.utils;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class TimeOrderedUuidGeneratorTest {
+
+    private static final long NOW = 1588327200000L;
+
+    private final AtomicLong currentMillis = new AtomicLong(NOW);
+
+    private TimeOrderedUuidGenerator underTest;
+
+    @BeforeEach
+    void setUp() {
+        underTest = new TimeOrderedUuidGenerator(currentMillis::get);
+    }
+
+    @Test
+    void itShouldMakeVersion7IdsThatStartWithTheTime() {
+        // When
+        UUID id = underTest.get();
+        // Then
+        assertThat(id.version()).isEqualTo(7);
+        assertThat(id.variant()).isEqualTo(2);
+        assertThat(TimeOrderedUuidGenerator.timestampMillis(id)).isEqualTo(NOW);
+    }
+
+    @Test
+    void itShouldKeepIncreasingWithinAMillisecond() {
+        // When
+        List<UUID> ids = generate(1000);
+        // Then
+        assertStrictlyIncreasing(ids);
+        assertThat(TimeOrderedUuidGenerator.timestampMillis(ids.get(999))).isEqualTo(NOW);
+    }
+
+    @Test
+    void itShouldCarryIntoTheTimeWhenTheCounterRunsOut() {
+        // When
+        List<UUID> ids = generate(5000);
+        // Then
+        assertStrictlyIncreasing(ids);
+        assertThat(TimeOrderedUuidGenerator.timestampMillis(ids.get(4999))).isEqualTo(NOW + 1);
+    }
+
+    @Test
+    void itShouldKeepIncreasingWhenTheClockGoesBack() {
+        // Given
+        UUID before = underTest.get();
+        currentMillis.set(NOW - 1000);
+        // When
+        UUID after = underTest.get();
+        // Then
+        assertThat(after.getMostSignificantBits()).isGreaterThan(before.getMostSignificantBits());
+    }
+
+    @Test
+    void itShouldHandOutDistinctIncreasingIdsAcrossThreads() throws Exception {
+        // Given
+        underTest = new TimeOrderedUuidGenerator();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        // When
+        List<Future<List<UUID>>> futures = new ArrayList<>();
+        for (int thread = 0; thread < 4; thread++) {
+            futures.add(executor.submit(() -> generate(10000)));
+        }
+        Set<UUID> all = new HashSet<>();
+        for (Future<List<UUID>> future : futures) {
+            List<UUID> ids = future.get();
+            // Then
+            assertStrictlyIncreasing(ids);
+            all.addAll(ids);
+        }
+        executor.shutdown();
+        assertThat(all).hasSize(40000);
+    }
+
+    @Test
+    void itShouldNotReadTheTimeOfARandomId() {
+        // When
+        // Then
+        assertThatThrownBy(() -> TimeOrderedUuidGenerator.timestampMillis(UUID.randomUUID()))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private List<UUID> generate(int count) {
+        List<UUID> ids = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ids.add(underTest.get());
+        }
+        return ids;
+    }
+
+    private static void assertStrictlyIncreasing(List<UUID> ids) {
+        for (int i = 1; i < ids.size(); i++) {
+            // until the year 6429 the top bit is 0, so signed and unsigned order agree
+            assertThat(ids.get(i).getMostSignificantBits())
+                    .isGreaterThan(ids.get(i - 1).getMostSignificantBits());
+        }
+    }
+}